@@ -0,0 +1,17 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark;
+
+import com.google.inject.Binder;
+import com.google.inject.Module;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class BenchmarkModule implements Module {
+    @Override
+    public void configure(Binder binder) {
+        // No IoC binding.
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark;
+
+import org.nocturne.benchmark.pages.BlogEntryPage;
+import org.nocturne.benchmark.pages.ContestPage;
+import org.nocturne.benchmark.pages.ContestsPage;
+import org.nocturne.benchmark.pages.FieldsPage;
+import org.nocturne.benchmark.pages.IndexPage;
+import org.nocturne.benchmark.pages.ProblemPage;
+import org.nocturne.benchmark.pages.ProblemsetPage;
+import org.nocturne.benchmark.pages.ProfilePage;
+import org.nocturne.benchmark.pages.SettingsPage;
+import org.nocturne.benchmark.pages.StandingsPage;
+import org.nocturne.benchmark.pages.SubmissionPage;
+import org.nocturne.link.Links;
+import org.nocturne.main.LinkedRequestRouter;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class BenchmarkRequestRouter extends LinkedRequestRouter {
+    static {
+        Links.add(IndexPage.class);
+        Links.add(ProfilePage.class);
+        Links.add(FieldsPage.class);
+        Links.add(ContestsPage.class);
+        Links.add(ContestPage.class);
+        Links.add(ProblemsetPage.class);
+        Links.add(ProblemPage.class);
+        Links.add(StandingsPage.class);
+        Links.add(SubmissionPage.class);
+        Links.add(BlogEntryPage.class);
+        Links.add(SettingsPage.class);
+    }
+}
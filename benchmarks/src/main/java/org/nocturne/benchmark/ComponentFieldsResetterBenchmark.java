@@ -0,0 +1,56 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark;
+
+import org.nocturne.benchmark.pages.FieldsPage;
+import org.nocturne.main.BenchmarkApplication;
+import org.nocturne.reset.ComponentFieldsResetter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reset of the fields of {@link FieldsPage} with RESET strategy (see nocturne.properties).
+ *
+ * @author Mike Mirzayanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.lang=ALL-UNNAMED")
+public class ComponentFieldsResetterBenchmark {
+    private FieldsPage page;
+    private ComponentFieldsResetter resetter;
+
+    @Setup
+    public void setup() {
+        BenchmarkApplication.getRequestDispatcher();
+
+        page = new FieldsPage();
+        resetter = new ComponentFieldsResetter(page);
+    }
+
+    @Benchmark
+    public FieldsPage resetFields() {
+        resetter.resetFields();
+        return page;
+    }
+
+    @Benchmark
+    public FieldsPage newResetterAndResetFields() {
+        new ComponentFieldsResetter(page).resetFields();
+        return page;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark;
+
+import org.nocturne.benchmark.pages.ProblemPage;
+import org.nocturne.benchmark.pages.ProfilePage;
+import org.nocturne.benchmark.pages.StandingsPage;
+import org.nocturne.link.LinkMatchResult;
+import org.nocturne.link.Links;
+import org.nocturne.main.BenchmarkApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Link matching and building against the route table of {@link BenchmarkRequestRouter}.
+ * Links are built inside the request like it happens in the application.
+ *
+ * @author Mike Mirzayanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.lang=ALL-UNNAMED")
+public class LinksBenchmark {
+    private static final String[] MATCHING_PATHS = {
+            "/",
+            "/profile/tourist",
+            "/contests/page/3",
+            "/contest/1234",
+            "/gym/100500",
+            "/problemset/problem/1234/D",
+            "/contest/1234/problem/A?locale=ru",
+            "/contest/1234/standings/page/2",
+            "/contest/1234/submission/98765432",
+            "/blog/entry/12345",
+            "/settings/social"
+    };
+
+    private static final String[] NOT_MATCHING_PATHS = {
+            "/favicon.ico",
+            "/css/style.css",
+            "/contest/abc",
+            "/contest/1234/unknown",
+            "/settings/unknown"
+    };
+
+    private int matchingIndex;
+    private int notMatchingIndex;
+
+    private Map<String, Object> problemParams;
+    private Map<String, Object> standingsParams;
+    private Map<String, Object> profileParams;
+
+    @Setup
+    public void setup() {
+        BenchmarkApplication.setRequestAndResponse(
+                BenchmarkApplication.newRequest("/"), BenchmarkApplication.newResponse());
+
+        for (String path : MATCHING_PATHS) {
+            if (Links.match(path) == null) {
+                throw new IllegalStateException("Expected matching path " + path + '.');
+            }
+        }
+        for (String path : NOT_MATCHING_PATHS) {
+            if (Links.match(path) != null) {
+                throw new IllegalStateException("Expected not matching path " + path + '.');
+            }
+        }
+
+        problemParams = new HashMap<>();
+        problemParams.put("contestId", 1234);
+        problemParams.put("index", "D");
+
+        standingsParams = new HashMap<>();
+        standingsParams.put("contestId", 1234);
+        standingsParams.put("page", 2);
+        standingsParams.put("showUnofficial", true);
+
+        profileParams = new HashMap<>();
+        profileParams.put("handle", "tourist");
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkApplication.unsetRequestAndResponse();
+    }
+
+    @Benchmark
+    public LinkMatchResult match() {
+        String path = MATCHING_PATHS[matchingIndex];
+        matchingIndex = matchingIndex + 1 == MATCHING_PATHS.length ? 0 : matchingIndex + 1;
+        return Links.match(path);
+    }
+
+    @Benchmark
+    public LinkMatchResult matchMiss() {
+        String path = NOT_MATCHING_PATHS[notMatchingIndex];
+        notMatchingIndex = notMatchingIndex + 1 == NOT_MATCHING_PATHS.length ? 0 : notMatchingIndex + 1;
+        return Links.match(path);
+    }
+
+    @Benchmark
+    public String getLinkByMap() {
+        return Links.getLinkByMap(ProblemPage.class, null, problemParams);
+    }
+
+    @Benchmark
+    public String getLinkByMapWithQueryString() {
+        return Links.getLinkByMap(StandingsPage.class, null, standingsParams);
+    }
+
+    @Benchmark
+    public String getLinkByName() {
+        return Links.getLinkByMap("ProfilePage", null, profileParams);
+    }
+
+    @Benchmark
+    public String getLink() {
+        return Links.getLink(ProfilePage.class, "handle", "tourist");
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark;
+
+import org.nocturne.benchmark.pages.FieldsPage;
+import org.nocturne.main.BenchmarkApplication;
+import org.nocturne.main.ParametersInjector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Injection of request parameters into the fields of {@link FieldsPage}.
+ *
+ * @author Mike Mirzayanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.lang=ALL-UNNAMED")
+public class ParametersInjectorBenchmark {
+    private FieldsPage page;
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setup() {
+        page = new FieldsPage();
+        request = BenchmarkApplication.newRequest("/fields?handle=tourist&title=Codeforces%20Round&text=%3Cb%3Etext%3C%2Fb%3E"
+                + "&contestId=1234&submissionId=98765432&page=3&blogEntryId=12345&participant=true&unofficial=false"
+                + "&rating=3500.5&score=99.75&tag=dp&tag=greedy&tag=graphs&action=view&order=BY_RATING_DESC");
+        BenchmarkApplication.setRequestAndResponse(request, BenchmarkApplication.newResponse());
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkApplication.unsetRequestAndResponse();
+    }
+
+    @Benchmark
+    public FieldsPage inject() {
+        new ParametersInjector(page).inject(request);
+        return page;
+    }
+}
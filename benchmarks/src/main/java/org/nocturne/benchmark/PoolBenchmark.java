@@ -0,0 +1,81 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark;
+
+import org.nocturne.pool.LockFreePool;
+import org.nocturne.pool.Pool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pair of getInstance() and release() calls on the shared pool: by a single thread
+ * and by many threads at the same time. Parameter {@code implementation} selects
+ * {@link LockFreePool} or the baseline synchronized {@link Pool}.
+ *
+ * @author Mike Mirzayanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoolBenchmark {
+    @Param({"lock-free", "synchronized"})
+    private String implementation;
+
+    private Pool<StringBuilder> pool;
+
+    @Setup
+    public void setup() {
+        if ("lock-free".equals(implementation)) {
+            pool = new LockFreePool<StringBuilder>() {
+                @Override
+                protected StringBuilder newInstance() {
+                    return new StringBuilder(1024);
+                }
+            };
+        } else if ("synchronized".equals(implementation)) {
+            pool = new Pool<StringBuilder>() {
+                @Override
+                protected StringBuilder newInstance() {
+                    return new StringBuilder(1024);
+                }
+            };
+        } else {
+            throw new IllegalArgumentException("Unexpected pool implementation " + implementation + '.');
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public StringBuilder getInstanceAndRelease() {
+        return getAndRelease();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public StringBuilder getInstanceAndReleaseContended() {
+        return getAndRelease();
+    }
+
+    private StringBuilder getAndRelease() {
+        StringBuilder instance = pool.getInstance();
+        instance.setLength(0);
+        pool.release(instance);
+        return instance;
+    }
+}
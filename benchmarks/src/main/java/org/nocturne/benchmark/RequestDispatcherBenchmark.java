@@ -0,0 +1,76 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark;
+
+import org.nocturne.main.BenchmarkApplication;
+import org.nocturne.main.RequestDispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole request processing by {@link RequestDispatcher#doFilter} against in-memory servlet stubs:
+ * routing, page loading, parameters injection, action, template rendering and fields reset.
+ *
+ * @author Mike Mirzayanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.lang=ALL-UNNAMED")
+public class RequestDispatcherBenchmark {
+    private RequestDispatcher requestDispatcher;
+
+    @Setup
+    public void setup() throws IOException, ServletException {
+        requestDispatcher = BenchmarkApplication.getRequestDispatcher();
+
+        MockHttpServletResponse response = doFilter("/profile/tourist?page=2&comment=Hello");
+        if (response.getStatus() != 200 || !response.getContentAsString().contains("tourist #41")) {
+            throw new IllegalStateException("Unexpected response [status=" + response.getStatus()
+                    + ", content=" + response.getContentAsString() + "].");
+        }
+    }
+
+    @Benchmark
+    public MockHttpServletResponse index() throws IOException, ServletException {
+        return doFilter("/");
+    }
+
+    @Benchmark
+    public MockHttpServletResponse profile() throws IOException, ServletException {
+        return doFilter("/profile/tourist?page=2&comment=Hello");
+    }
+
+    @Benchmark
+    public MockHttpServletResponse withoutTemplate() throws IOException, ServletException {
+        return doFilter("/contest/1234/problem/A");
+    }
+
+    @Benchmark
+    public MockHttpServletResponse notFound() throws IOException, ServletException {
+        return doFilter("/css/style.css");
+    }
+
+    private MockHttpServletResponse doFilter(String uri) throws IOException, ServletException {
+        MockHttpServletResponse response = BenchmarkApplication.newResponse();
+        requestDispatcher.doFilter(BenchmarkApplication.newRequest(uri), response, new MockFilterChain());
+        return response;
+    }
+}
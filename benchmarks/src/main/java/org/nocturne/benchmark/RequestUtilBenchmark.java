@@ -0,0 +1,67 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark;
+
+import org.nocturne.main.BenchmarkApplication;
+import org.nocturne.util.RequestUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of request parameters. Parsed parameters are cached in the request attributes,
+ * so attributes are cleared before each call.
+ *
+ * @author Mike Mirzayanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.lang=ALL-UNNAMED")
+public class RequestUtilBenchmark {
+    private MockHttpServletRequest smallRequest;
+    private MockHttpServletRequest largeRequest;
+
+    @Setup
+    public void setup() {
+        smallRequest = BenchmarkApplication.newRequest("/contest/1234/problem/A?locale=ru");
+
+        StringBuilder uri = new StringBuilder("/problemset?order=BY_SOLVED_DESC&locale=en");
+        for (int i = 0; i < 20; ++i) {
+            uri.append("&tag=tag").append(i).append("&p").append(i).append('=').append(i * 31);
+        }
+        largeRequest = BenchmarkApplication.newRequest(uri.toString());
+    }
+
+    @Benchmark
+    public Map<String, List<String>> getRequestParams() {
+        smallRequest.clearAttributes();
+        return RequestUtil.getRequestParams(smallRequest);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> getRequestParamsLarge() {
+        largeRequest.clearAttributes();
+        return RequestUtil.getRequestParams(largeRequest);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> getCachedRequestParams() {
+        return RequestUtil.getRequestParams(smallRequest);
+    }
+}
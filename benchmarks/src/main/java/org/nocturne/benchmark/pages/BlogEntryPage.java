@@ -0,0 +1,18 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark.pages;
+
+import org.nocturne.link.Link;
+import org.nocturne.main.Page;
+
+/**
+ * @author Mike Mirzayanov
+ */
+@Link("blog/entry/{blogEntryId(long,positive)}")
+public class BlogEntryPage extends Page {
+    @Override
+    public void action() {
+        skipTemplate();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark.pages;
+
+import org.nocturne.annotation.Parameter;
+import org.nocturne.link.Link;
+import org.nocturne.main.Page;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Page with many fields of different types to measure parameters injection and fields reset.
+ *
+ * @author Mike Mirzayanov
+ */
+@SuppressWarnings("unused")
+@Link("fields")
+public class FieldsPage extends Page {
+    @Parameter
+    private String handle;
+
+    @Parameter(stripMode = Parameter.StripMode.SAFE)
+    private String title;
+
+    @Parameter(stripMode = Parameter.StripMode.NONE)
+    private String text;
+
+    @Parameter
+    private int contestId;
+
+    @Parameter
+    private long submissionId;
+
+    @Parameter
+    private Integer page;
+
+    @Parameter
+    private Long blogEntryId;
+
+    @Parameter
+    private boolean participant;
+
+    @Parameter
+    private Boolean unofficial;
+
+    @Parameter
+    private double rating;
+
+    @Parameter
+    private Double score;
+
+    @Parameter(name = "tag")
+    private String[] tags;
+
+    @Parameter
+    private String action;
+
+    @Parameter
+    private String order;
+
+    @Parameter
+    private String locale;
+
+    private String field1;
+    private String field2;
+    private String field3;
+    private String field4;
+    private String field5;
+    private int field6;
+    private int field7;
+    private int field8;
+    private long field9;
+    private long field10;
+    private boolean field11;
+    private boolean field12;
+    private double field13;
+    private double field14;
+    private char field15;
+    private byte field16;
+    private short field17;
+    private float field18;
+    private Integer field19;
+    private Long field20;
+    private List<String> field21;
+    private List<Long> field22;
+    private Map<String, String> field23;
+    private Map<Long, List<String>> field24;
+    private Object field25;
+    private Object field26;
+    private Object field27;
+    private Object field28;
+    private Object field29;
+    private Object field30;
+
+    @Override
+    public void action() {
+        skipTemplate();
+    }
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark.pages;
+
+import org.nocturne.link.Link;
+import org.nocturne.main.Page;
+
+/**
+ * @author Mike Mirzayanov
+ */
+@Link("")
+public class IndexPage extends Page {
+    @Override
+    public void action() {
+        put("message", "Hello, world");
+    }
+}
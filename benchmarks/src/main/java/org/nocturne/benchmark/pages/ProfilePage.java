@@ -0,0 +1,40 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark.pages;
+
+import org.nocturne.annotation.Parameter;
+import org.nocturne.link.Link;
+import org.nocturne.main.Page;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Mike Mirzayanov
+ */
+@Link("profile/{handle(!blank)}")
+public class ProfilePage extends Page {
+    private static final int ROW_COUNT = 20;
+
+    @Parameter
+    private String handle;
+
+    @Parameter
+    private int page;
+
+    @Parameter(stripMode = Parameter.StripMode.SAFE)
+    private String comment;
+
+    @Override
+    public void action() {
+        List<String> rows = new ArrayList<>(ROW_COUNT);
+        for (int i = 1; i <= ROW_COUNT; ++i) {
+            rows.add(handle + " #" + (page * ROW_COUNT + i));
+        }
+
+        put("handle", handle);
+        put("comment", comment);
+        put("rows", rows);
+    }
+}
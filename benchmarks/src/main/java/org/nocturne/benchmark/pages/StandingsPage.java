@@ -0,0 +1,18 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.benchmark.pages;
+
+import org.nocturne.link.Link;
+import org.nocturne.main.Page;
+
+/**
+ * @author Mike Mirzayanov
+ */
+@Link("contest/{contestId(int,positive)}/standings;contest/{contestId(int,positive)}/standings/page/{page(int,positive)}")
+public class StandingsPage extends Page {
+    @Override
+    public void action() {
+        skipTemplate();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.main;
+
+import org.apache.log4j.Logger;
+import org.nocturne.exception.NocturneException;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Nocturne application of the benchmarks: it is initialized once per JVM
+ * against in-memory servlet stubs, templates are copied into a temporary directory
+ * which plays the role of the web application root.
+ *
+ * @author Mike Mirzayanov
+ */
+public final class BenchmarkApplication {
+    private static final Logger logger = Logger.getLogger(BenchmarkApplication.class);
+
+    private static final String[] TEMPLATES = {"IndexPage.ftl", "ProfilePage.ftl"};
+
+    private static RequestDispatcher requestDispatcher;
+
+    private BenchmarkApplication() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return Initialized request dispatcher of the application.
+     */
+    public static synchronized RequestDispatcher getRequestDispatcher() {
+        if (requestDispatcher == null) {
+            File webRoot = newWebRoot();
+            MockServletContext servletContext = new MockServletContext(
+                    webRoot.toURI().toString(), new DefaultResourceLoader());
+
+            RequestDispatcher dispatcher = new RequestDispatcher();
+            try {
+                dispatcher.init(new MockFilterConfig(servletContext));
+            } catch (ServletException e) {
+                throw new NocturneException("Can't initialize benchmark application.", e);
+            }
+
+            // Request router registers links in the static initializer, but it is loaded by the first request.
+            try {
+                Class.forName(ApplicationContext.getInstance().getRequestRouter());
+            } catch (ClassNotFoundException e) {
+                throw new NocturneException("Can't load request router.", e);
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                dispatcher.destroy();
+                deleteRecursively(webRoot.toPath());
+            }));
+            requestDispatcher = dispatcher;
+        }
+
+        return requestDispatcher;
+    }
+
+    /**
+     * @param uri Request URI, can contain query string.
+     * @return New GET request to the application.
+     */
+    public static MockHttpServletRequest newRequest(String uri) {
+        getRequestDispatcher();
+
+        MockHttpServletRequest request = new MockHttpServletRequest(
+                (MockServletContext) ApplicationContext.getInstance().getServletContext(), "GET", uri);
+
+        int questionIndex = uri.indexOf('?');
+        String path = questionIndex >= 0 ? uri.substring(0, questionIndex) : uri;
+        request.setRequestURI(path);
+        request.setServletPath(path);
+
+        if (questionIndex >= 0) {
+            String queryString = uri.substring(questionIndex + 1);
+            request.setQueryString(queryString);
+            for (String item : queryString.split("&")) {
+                int equalsIndex = item.indexOf('=');
+                if (equalsIndex >= 0) {
+                    request.addParameter(item.substring(0, equalsIndex), item.substring(equalsIndex + 1));
+                } else {
+                    request.addParameter(item, "");
+                }
+            }
+        }
+
+        return request;
+    }
+
+    /**
+     * Binds request and response to the current thread like {@link RequestDispatcher} does.
+     *
+     * @param request  Request.
+     * @param response Response.
+     */
+    public static void setRequestAndResponse(HttpServletRequest request, HttpServletResponse response) {
+        getRequestDispatcher();
+        ApplicationContext.getInstance().setRequestAndResponse(request, response);
+    }
+
+    public static void unsetRequestAndResponse() {
+        ApplicationContext.getInstance().unsetRequestAndResponse();
+    }
+
+    public static MockHttpServletResponse newResponse() {
+        return new MockHttpServletResponse();
+    }
+
+    private static void deleteRecursively(Path path) {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            logger.warn("Can't delete " + path + '.', e);
+        }
+    }
+
+    private static File newWebRoot() {
+        try {
+            Path webRoot = Files.createTempDirectory("nocturne-benchmarks");
+            Path templatesDir = Files.createDirectory(webRoot.resolve("templates"));
+
+            for (String template : TEMPLATES) {
+                try (InputStream inputStream = BenchmarkApplication.class.getResourceAsStream("/templates/" + template)) {
+                    if (inputStream == null) {
+                        throw new NocturneException("Can't find template " + template + '.');
+                    }
+                    Files.copy(inputStream, templatesDir.resolve(template), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+
+            return webRoot.toFile();
+        } catch (IOException e) {
+            throw new NocturneException("Can't create web root for benchmark application.", e);
+        }
+    }
+}
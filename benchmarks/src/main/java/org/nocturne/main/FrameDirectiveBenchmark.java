@@ -0,0 +1,77 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.main;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_CLOSE_PREFIX;
+import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_OPEN_PREFIX;
+
+/**
+ * Removal of unique blocks from the page html: each frame contains unique blocks
+ * with its styles and scripts, only the first of them survives.
+ *
+ * @author Mike Mirzayanov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDirectiveBenchmark {
+    private static final int FRAME_COUNT = 30;
+    private static final int FRAME_KIND_COUNT = 5;
+
+    private String html;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html>\n<body>\n");
+
+        for (int i = 0; i < FRAME_COUNT; ++i) {
+            String key = "frame" + i % FRAME_KIND_COUNT;
+            sb.append(UNIQUE_MAGIC_OPEN_PREFIX).append(key).append(">\n");
+            sb.append("<style>.").append(key).append(" { margin: 0; padding: 1em; }</style>\n");
+            sb.append(UNIQUE_MAGIC_CLOSE_PREFIX).append(key).append(">\n");
+
+            sb.append("<div class=\"").append(key).append("\">\n");
+            for (int j = 0; j < 10; ++j) {
+                sb.append("    <p><a href=\"/profile/user").append(j).append("\">user").append(j)
+                        .append("</a> &lt; ").append(i * j).append("</p>\n");
+            }
+            sb.append("</div>\n");
+        }
+
+        html = sb.append("</body>\n</html>\n").toString();
+    }
+
+    @Benchmark
+    public String processComponentUniques() {
+        return new FrameDirective().processComponentUniques(new StringBuilder(html));
+    }
+
+    @Benchmark
+    public String uniqueBlocksFilterWriter() throws IOException {
+        StringWriter result = new StringWriter(html.length());
+        try (Writer writer = new FrameDirective().newUniqueBlocksFilterWriter(result)) {
+            writer.write(html);
+        }
+        return result.toString();
+    }
+}
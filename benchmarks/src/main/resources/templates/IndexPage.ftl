@@ -0,0 +1,11 @@
+<#-- @ftlvariable name="message" type="java.lang.String" -->
+<!DOCTYPE html>
+<html>
+<head>
+    <meta http-equiv="Content-Type" content="text/html;charset=utf-8">
+    <title>Nocturne benchmark</title>
+</head>
+<body>
+    ${message}
+</body>
+</html>
@@ -0,0 +1,19 @@
+<#-- @ftlvariable name="handle" type="java.lang.String" -->
+<#-- @ftlvariable name="comment" type="java.lang.String" -->
+<#-- @ftlvariable name="rows" type="java.util.List<java.lang.String>" -->
+<!DOCTYPE html>
+<html>
+<head>
+    <meta http-equiv="Content-Type" content="text/html;charset=utf-8">
+    <title>${handle}</title>
+</head>
+<body>
+    <h1>${handle}</h1>
+    <#if comment??><p>${comment}</p></#if>
+    <table>
+        <#list rows as row>
+        <tr><td>${row_index + 1}</td><td>${row}</td></tr>
+        </#list>
+    </table>
+</body>
+</html>
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>
+ * Set it before page or frame class to allow
+ * {@link org.nocturne.cache.ComponentCacheHandler} to cache its rendered html.
+ * Components without the annotation are never cached by it.
+ * </p>
+ * <p>
+ * Cache key consists of the component class, action, values of the listed
+ * parameters and (optionally) current locale. So list all the parameters
+ * which affect the rendered html.
+ * </p>
+ *
+ * @author Mike Mirzayanov
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cacheable {
+    /**
+     * @return Time to live of the cached html in seconds.
+     */
+    long timeToLiveSeconds() default 60;
+
+    /**
+     * @return Names of the request parameters which are part of the cache key.
+     */
+    String[] parameters() default {};
+
+    /**
+     * @return Is current locale part of the cache key.
+     */
+    boolean localeDependent() default true;
+}
@@ -60,13 +60,27 @@ public @interface Parameter {
          * Leave only safe chars: strip slashes, quotes, angle brackets, ampersand and low-code chars. Also makes trim().
          */
         SAFE {
+            private boolean isValidChar(char c) {
+                return c != '/' && c != '&' && c != '<' && c != '>' && c != '\\' && c != '\"' && c != '\'' && c >= ' ';
+            }
+
             @Override
             public String strip(String value) {
                 if (value != null) {
-                    char[] chars = value.toCharArray();
-                    StringBuilder sb = new StringBuilder(chars.length);
-                    for (char c : chars) {
-                        if (c != '/' && c != '&' && c != '<' && c != '>' && c != '\\' && c != '\"' && c != '\'' && c >= ' ') {
+                    int length = value.length();
+                    int firstInvalid = 0;
+                    while (firstInvalid < length && isValidChar(value.charAt(firstInvalid))) {
+                        ++firstInvalid;
+                    }
+                    if (firstInvalid == length) {
+                        return value.trim();
+                    }
+
+                    StringBuilder sb = new StringBuilder(length);
+                    sb.append(value, 0, firstInvalid);
+                    for (int i = firstInvalid + 1; i < length; ++i) {
+                        char c = value.charAt(i);
+                        if (isValidChar(c)) {
                             sb.append(c);
                         }
                     }
@@ -91,9 +105,19 @@ public @interface Parameter {
             @Override
             public String strip(String value) {
                 if (value != null) {
-                    char[] chars = value.toCharArray();
-                    StringBuilder sb = new StringBuilder(chars.length);
-                    for (char c : chars) {
+                    int length = value.length();
+                    int firstInvalid = 0;
+                    while (firstInvalid < length && isValidChar(value.charAt(firstInvalid))) {
+                        ++firstInvalid;
+                    }
+                    if (firstInvalid == length) {
+                        return value;
+                    }
+
+                    StringBuilder sb = new StringBuilder(length);
+                    sb.append(value, 0, firstInvalid);
+                    for (int i = firstInvalid + 1; i < length; ++i) {
+                        char c = value.charAt(i);
                         if (isValidChar(c)) {
                             sb.append(c);
                         }
@@ -17,6 +17,10 @@ import org.nocturne.main.Component;
  * But if it returns null, the typical life-cycle will be used and parsed component
  * will be passed as a result to #postprocess().
  * </p>
+ * <p>
+ * Method #release will be called at the end of the component processing in any case
+ * (even if the template has been skipped or processing has failed).
+ * </p>
  *
  * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
  */
@@ -24,4 +28,8 @@ public interface CacheHandler {
     String intercept(Component component);
 
     void postprocess(Component component, String result);
+
+    default void release(Component component) {
+        // No operations.
+    }
 }
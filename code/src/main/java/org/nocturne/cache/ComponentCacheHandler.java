@@ -0,0 +1,266 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.cache;
+
+import io.prometheus.client.Counter;
+import org.apache.log4j.Logger;
+import org.nocturne.annotation.Cacheable;
+import org.nocturne.main.ApplicationContext;
+import org.nocturne.main.Component;
+import org.nocturne.prometheus.Prometheus;
+import org.nocturne.util.ReflectionUtil;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>
+ * In-memory cache handler for pages and frames annotated with {@link Cacheable}.
+ * Rendered html is stored in {@link SegmentedLruCache} bounded by total length of the stored html.
+ * </p>
+ * <p>
+ * If several requests miss the same key at the same time, only one of them renders the component,
+ * others wait for its result (but not longer than the single-flight timeout, after that they render
+ * the component themselves).
+ * </p>
+ * <p>
+ * Usually a single instance is shared by all the components, set it via
+ * {@link Component#setCacheHandler(CacheHandler)} in the component constructor or in init().
+ * </p>
+ *
+ * @author Mike Mirzayanov
+ */
+public class ComponentCacheHandler implements CacheHandler {
+    private static final Logger logger = Logger.getLogger(ComponentCacheHandler.class);
+
+    private static final long DEFAULT_SINGLE_FLIGHT_TIMEOUT_MILLIS = 5000;
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private static final ConcurrentMap<Class<?>, CacheableClass> cacheableClasses = new ConcurrentHashMap<>();
+
+    private final SegmentedLruCache<String, String> cache;
+    private final long singleFlightTimeoutMillis;
+
+    /**
+     * Keys which are being rendered right now.
+     */
+    private final ConcurrentMap<String, CompletableFuture<String>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Components which are being rendered by the current thread after the cache miss.
+     */
+    private final ThreadLocal<Map<Component, Miss>> misses = ThreadLocal.withInitial(IdentityHashMap::new);
+
+    /**
+     * @param maximumWeight Maximal total length of the cached html (in chars).
+     */
+    public ComponentCacheHandler(long maximumWeight) {
+        this(maximumWeight, DEFAULT_SINGLE_FLIGHT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maximumWeight             Maximal total length of the cached html (in chars).
+     * @param singleFlightTimeoutMillis How long to wait for the concurrent rendering of the same key.
+     */
+    public ComponentCacheHandler(long maximumWeight, long singleFlightTimeoutMillis) {
+        this.cache = new SegmentedLruCache<>(maximumWeight, String::length,
+                (key, expired) -> Prometheus.getCacheEvictionsCounter().labels(expired ? "expired" : "size").inc());
+        this.singleFlightTimeoutMillis = singleFlightTimeoutMillis;
+    }
+
+    @Override
+    public String intercept(Component component) {
+        CacheableClass cacheableClass = getCacheableClass(component.getClass());
+        if (cacheableClass == null) {
+            return null;
+        }
+
+        String key = getKey(component, cacheableClass);
+        String result = cache.get(key);
+        if (result != null) {
+            cacheableClass.hits.inc();
+            return result;
+        }
+
+        CompletableFuture<String> flight = new CompletableFuture<>();
+        CompletableFuture<String> existingFlight = flights.putIfAbsent(key, flight);
+
+        if (existingFlight == null) {
+            // The previous flight could have completed right after the cache miss.
+            result = cache.get(key);
+            if (result != null) {
+                flights.remove(key, flight);
+                flight.complete(result);
+            }
+        } else {
+            result = await(existingFlight, key);
+            flight = null;
+        }
+
+        if (result != null) {
+            cacheableClass.hits.inc();
+            return result;
+        }
+
+        cacheableClass.misses.inc();
+        misses.get().put(component, new Miss(key, cacheableClass.timeToLiveSeconds, flight));
+        return null;
+    }
+
+    @Override
+    public void postprocess(Component component, String result) {
+        Miss miss = misses.get().remove(component);
+        if (miss == null) {
+            return;
+        }
+
+        if (result != null) {
+            cache.put(miss.key, result, miss.timeToLiveSeconds, TimeUnit.SECONDS);
+        }
+        completeFlight(miss, result);
+    }
+
+    @Override
+    public void release(Component component) {
+        Miss miss = misses.get().remove(component);
+        if (miss != null) {
+            completeFlight(miss, null);
+        }
+    }
+
+    /**
+     * Removes all the cached html.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return Total length of the cached html.
+     */
+    public long getWeight() {
+        return cache.getWeight();
+    }
+
+    private void completeFlight(Miss miss, @Nullable String result) {
+        if (miss.flight != null) {
+            flights.remove(miss.key, miss.flight);
+            miss.flight.complete(result);
+        }
+    }
+
+    @Nullable
+    private String await(CompletableFuture<String> flight, String key) {
+        try {
+            return flight.get(singleFlightTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } catch (TimeoutException e) {
+            logger.warn("Timeout while waiting for concurrent rendering [key="
+                    + key.replace(KEY_SEPARATOR, ' ') + "].");
+            return null;
+        }
+    }
+
+    @Nonnull
+    private static String getKey(Component component, CacheableClass cacheableClass) {
+        StringBuilder key = new StringBuilder(cacheableClass.className);
+
+        String action = ApplicationContext.getInstance().getRequestAction();
+        key.append(KEY_SEPARATOR).append(action == null ? "" : action);
+
+        if (cacheableClass.localeDependent) {
+            Locale locale = ApplicationContext.getInstance().getLocale();
+            key.append(KEY_SEPARATOR).append(locale == null ? "" : locale.toString());
+        }
+
+        for (String parameter : cacheableClass.parameters) {
+            key.append(KEY_SEPARATOR).append(parameter);
+            String[] values = component.getStrings(parameter);
+            for (String value : values) {
+                if (value == null) {
+                    key.append(KEY_SEPARATOR).append('-');
+                } else {
+                    key.append(KEY_SEPARATOR).append(value.length()).append(':').append(value);
+                }
+            }
+        }
+
+        return key.toString();
+    }
+
+    @Nullable
+    private static CacheableClass getCacheableClass(Class<?> clazz) {
+        CacheableClass cacheableClass = cacheableClasses.get(clazz);
+
+        if (cacheableClass == null) {
+            Class<?> originalClass = ReflectionUtil.getOriginalClass(clazz);
+            Cacheable cacheable = originalClass.getAnnotation(Cacheable.class);
+            cacheableClasses.putIfAbsent(clazz, cacheable == null
+                    ? CacheableClass.NOT_CACHEABLE : new CacheableClass(originalClass, cacheable));
+            cacheableClass = cacheableClasses.get(clazz);
+        }
+
+        return cacheableClass == CacheableClass.NOT_CACHEABLE ? null : cacheableClass;
+    }
+
+    private static final class CacheableClass {
+        private static final CacheableClass NOT_CACHEABLE = new CacheableClass();
+
+        private final String className;
+        private final Counter.Child hits;
+        private final Counter.Child misses;
+        private final long timeToLiveSeconds;
+        private final String[] parameters;
+        private final boolean localeDependent;
+
+        private CacheableClass() {
+            className = null;
+            hits = null;
+            misses = null;
+            timeToLiveSeconds = 0;
+            parameters = null;
+            localeDependent = false;
+        }
+
+        private CacheableClass(Class<?> originalClass, Cacheable cacheable) {
+            className = originalClass.getName();
+            String simpleClassName = originalClass.getSimpleName();
+            hits = Prometheus.getCacheRequestsCounter().labels(simpleClassName, "hit");
+            misses = Prometheus.getCacheRequestsCounter().labels(simpleClassName, "miss");
+            timeToLiveSeconds = cacheable.timeToLiveSeconds();
+            parameters = cacheable.parameters().clone();
+            localeDependent = cacheable.localeDependent();
+        }
+    }
+
+    private static final class Miss {
+        private final String key;
+        private final long timeToLiveSeconds;
+
+        /**
+         * Not null if the current thread renders the key for the concurrent requests.
+         */
+        @Nullable
+        private final CompletableFuture<String> flight;
+
+        private Miss(String key, long timeToLiveSeconds, @Nullable CompletableFuture<String> flight) {
+            this.key = key;
+            this.timeToLiveSeconds = timeToLiveSeconds;
+            this.flight = flight;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.cache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Bounded cache with segmented LRU eviction policy. New entries come into the probation
+ * segment, entries which were read at least once more are moved into the protected segment.
+ * So a stream of one-time keys can't wash out frequently used entries.
+ * </p>
+ * <p>
+ * The cache is bounded by total weight of the values, each entry has its own time to live.
+ * It is split into independently locked shards by key hash.
+ * </p>
+ *
+ * @author Mike Mirzayanov
+ */
+public class SegmentedLruCache<K, V> {
+    private static final int SHARD_COUNT = 16;
+
+    /**
+     * Protected segment can take this part of the shard maximal weight.
+     */
+    private static final double PROTECTED_PART = 0.8;
+
+    private final Weigher<V> weigher;
+    private final EvictionListener<K> evictionListener;
+    private final List<Shard> shards;
+
+    /**
+     * @param maximumWeight    Maximal total weight of the values.
+     * @param weigher          Computes weight of a value.
+     * @param evictionListener Is notified when an entry is evicted or expired, can be {@code null}.
+     */
+    public SegmentedLruCache(long maximumWeight, @Nonnull Weigher<V> weigher,
+                             @Nullable EvictionListener<K> evictionListener) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximal weight should be positive.");
+        }
+
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+
+        shards = new ArrayList<>(SHARD_COUNT);
+        for (int i = 0; i < SHARD_COUNT; ++i) {
+            shards.add(new Shard(Math.max(1L, maximumWeight / SHARD_COUNT)));
+        }
+    }
+
+    private Shard getShard(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return shards.get(hash & (SHARD_COUNT - 1));
+    }
+
+    /**
+     * @param key Key.
+     * @return Value or {@code null} if there is no such entry or it has expired.
+     */
+    @Nullable
+    public V get(@Nonnull K key) {
+        return getShard(key).get(key, System.nanoTime());
+    }
+
+    /**
+     * Puts the entry into the cache. Values heavier than shard capacity are not stored.
+     *
+     * @param key        Key.
+     * @param value      Value.
+     * @param timeToLive Time to live of the entry.
+     * @param unit       Time unit of {@code timeToLive}.
+     */
+    public void put(@Nonnull K key, @Nonnull V value, long timeToLive, @Nonnull TimeUnit unit) {
+        getShard(key).put(key, value, System.nanoTime() + unit.toNanos(timeToLive));
+    }
+
+    /**
+     * @param key Key to remove.
+     */
+    public void invalidate(@Nonnull K key) {
+        getShard(key).invalidate(key);
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void invalidateAll() {
+        for (Shard shard : shards) {
+            shard.invalidateAll();
+        }
+    }
+
+    /**
+     * @return Total weight of the stored values.
+     */
+    public long getWeight() {
+        long result = 0;
+        for (Shard shard : shards) {
+            result += shard.getWeight();
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of the stored entries (including expired but not removed yet).
+     */
+    public int size() {
+        int result = 0;
+        for (Shard shard : shards) {
+            result += shard.size();
+        }
+        return result;
+    }
+
+    private void notifyEviction(K key, boolean expired) {
+        if (evictionListener != null) {
+            evictionListener.onEviction(key, expired);
+        }
+    }
+
+    private final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long maximumWeight;
+        private final long maximumProtectedWeight;
+
+        /**
+         * Both maps are in access order: the first entry is the least recently used.
+         */
+        private final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<>(16, 0.75F, true);
+        private final LinkedHashMap<K, Entry<V>> protectedEntries = new LinkedHashMap<>(16, 0.75F, true);
+
+        private long probationWeight;
+        private long protectedWeight;
+
+        private Shard(long maximumWeight) {
+            this.maximumWeight = maximumWeight;
+            this.maximumProtectedWeight = (long) (maximumWeight * PROTECTED_PART);
+        }
+
+        private V get(K key, long now) {
+            lock.lock();
+            try {
+                Entry<V> entry = protectedEntries.get(key);
+                if (entry != null) {
+                    if (entry.isExpired(now)) {
+                        protectedEntries.remove(key);
+                        protectedWeight -= entry.weight;
+                        notifyEviction(key, true);
+                        return null;
+                    }
+                    return entry.value;
+                }
+
+                entry = probation.remove(key);
+                if (entry == null) {
+                    return null;
+                }
+                probationWeight -= entry.weight;
+
+                if (entry.isExpired(now)) {
+                    notifyEviction(key, true);
+                    return null;
+                }
+
+                // The second access: promote to the protected segment.
+                protectedEntries.put(key, entry);
+                protectedWeight += entry.weight;
+                demoteProtectedIfNeeded();
+
+                return entry.value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void put(K key, V value, long expirationTime) {
+            int weight = weigher.weigh(value);
+            if (weight > maximumWeight) {
+                invalidate(key);
+                return;
+            }
+
+            lock.lock();
+            try {
+                Entry<V> entry = new Entry<>(value, weight, expirationTime);
+
+                Entry<V> previous = protectedEntries.get(key);
+                if (previous != null) {
+                    protectedEntries.put(key, entry);
+                    protectedWeight += weight - previous.weight;
+                    demoteProtectedIfNeeded();
+                } else {
+                    previous = probation.put(key, entry);
+                    probationWeight += weight - (previous == null ? 0 : previous.weight);
+                }
+
+                evictIfNeeded(System.nanoTime());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void invalidate(K key) {
+            lock.lock();
+            try {
+                Entry<V> entry = probation.remove(key);
+                if (entry != null) {
+                    probationWeight -= entry.weight;
+                }
+
+                entry = protectedEntries.remove(key);
+                if (entry != null) {
+                    protectedWeight -= entry.weight;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void invalidateAll() {
+            lock.lock();
+            try {
+                probation.clear();
+                protectedEntries.clear();
+                probationWeight = 0;
+                protectedWeight = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long getWeight() {
+            lock.lock();
+            try {
+                return probationWeight + protectedWeight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int size() {
+            lock.lock();
+            try {
+                return probation.size() + protectedEntries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Moves the least recently used protected entries to the probation segment.
+         */
+        private void demoteProtectedIfNeeded() {
+            Iterator<Map.Entry<K, Entry<V>>> iterator = protectedEntries.entrySet().iterator();
+            while (protectedWeight > maximumProtectedWeight && iterator.hasNext()) {
+                Map.Entry<K, Entry<V>> eldest = iterator.next();
+                iterator.remove();
+                protectedWeight -= eldest.getValue().weight;
+
+                probation.put(eldest.getKey(), eldest.getValue());
+                probationWeight += eldest.getValue().weight;
+            }
+        }
+
+        /**
+         * Evicts the least recently used probation entries first, then the protected ones.
+         */
+        private void evictIfNeeded(long now) {
+            evictIfNeeded(probation, now, true);
+            evictIfNeeded(protectedEntries, now, false);
+        }
+
+        private void evictIfNeeded(LinkedHashMap<K, Entry<V>> segment, long now, boolean probationSegment) {
+            Iterator<Map.Entry<K, Entry<V>>> iterator = segment.entrySet().iterator();
+            while (probationWeight + protectedWeight > maximumWeight && iterator.hasNext()) {
+                Map.Entry<K, Entry<V>> eldest = iterator.next();
+                iterator.remove();
+
+                if (probationSegment) {
+                    probationWeight -= eldest.getValue().weight;
+                } else {
+                    protectedWeight -= eldest.getValue().weight;
+                }
+
+                notifyEviction(eldest.getKey(), eldest.getValue().isExpired(now));
+            }
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final int weight;
+        private final long expirationTime;
+
+        private Entry(V value, int weight, long expirationTime) {
+            this.value = value;
+            this.weight = weight;
+            this.expirationTime = expirationTime;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expirationTime >= 0;
+        }
+    }
+
+    /**
+     * Computes weight of the value.
+     */
+    public interface Weigher<V> {
+        int weigh(V value);
+    }
+
+    /**
+     * Is notified about evicted entries.
+     */
+    public interface EvictionListener<K> {
+        /**
+         * @param key     Key of the evicted entry.
+         * @param expired {@code true} iff the entry was removed because of its time to live.
+         */
+        void onEviction(K key, boolean expired);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.caption;
+
+import java.text.DecimalFormatSymbols;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Caption value parsed once to be formatted many times. Formats the same way as
+ * {@link MessageFormat#format(String, Object...)}, but handles the usual subset
+ * ({@code {0}} with string arguments and {@code {0,number,#}} with integer arguments)
+ * without parsing the pattern and creating the formatter on each call.
+ * Other patterns and arguments are formatted by a copy of the parsed {@link MessageFormat}.
+ * <p>
+ * Instances are immutable and thread-safe.
+ *
+ * @author Mike Mirzayanov
+ */
+final class CaptionFormat {
+    private static final int PLAIN_ARGUMENT = 0;
+    private static final int INTEGER_ARGUMENT = 1;
+
+    private final String pattern;
+
+    /**
+     * Literal parts of the pattern, {@code literals.length == argumentIndices.length + 1}.
+     * Is {@code null} if the pattern is not in the supported subset.
+     */
+    private final String[] literals;
+    private final int[] argumentIndices;
+    private final int[] argumentTypes;
+
+    /**
+     * Lazily parsed message format for the patterns and arguments out of the subset, never used directly
+     * because MessageFormat is not thread-safe.
+     */
+    private volatile MessageFormat messageFormat;
+
+    CaptionFormat(String pattern) {
+        this.pattern = pattern;
+
+        List<String> literalList = new ArrayList<>();
+        List<Integer> indexList = new ArrayList<>();
+        List<Integer> typeList = new ArrayList<>();
+
+        boolean supported = pattern.indexOf('\'') < 0 && (!hasNonAsciiDigits() || pattern.indexOf(',') < 0);
+        int position = 0;
+
+        while (supported) {
+            int open = pattern.indexOf('{', position);
+            if (open < 0) {
+                literalList.add(pattern.substring(position));
+                break;
+            }
+
+            int close = pattern.indexOf('}', open);
+            if (close < 0) {
+                supported = false;
+                break;
+            }
+
+            String argument = pattern.substring(open + 1, close);
+            int type = PLAIN_ARGUMENT;
+            if (argument.endsWith(",number,#")) {
+                argument = argument.substring(0, argument.length() - ",number,#".length());
+                type = INTEGER_ARGUMENT;
+            }
+
+            int index = parseIndex(argument);
+            if (index < 0) {
+                supported = false;
+                break;
+            }
+
+            literalList.add(pattern.substring(position, open));
+            indexList.add(index);
+            typeList.add(type);
+            position = close + 1;
+        }
+
+        if (supported) {
+            literals = literalList.toArray(new String[0]);
+            argumentIndices = new int[indexList.size()];
+            argumentTypes = new int[typeList.size()];
+            for (int i = 0; i < argumentIndices.length; ++i) {
+                argumentIndices[i] = indexList.get(i);
+                argumentTypes[i] = typeList.get(i);
+            }
+        } else {
+            literals = null;
+            argumentIndices = null;
+            argumentTypes = null;
+        }
+    }
+
+    /**
+     * @return Pattern as it is.
+     */
+    String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @param args Arguments.
+     * @return The same as {@code MessageFormat.format(pattern, args)}.
+     */
+    String format(Object... args) {
+        if (literals == null) {
+            return formatByMessageFormat(args);
+        }
+
+        StringBuilder result = new StringBuilder(pattern.length() + 16 * argumentIndices.length);
+        result.append(literals[0]);
+
+        for (int i = 0; i < argumentIndices.length; ++i) {
+            int index = argumentIndices[i];
+
+            if (index >= args.length) {
+                if (argumentTypes[i] != PLAIN_ARGUMENT) {
+                    return formatByMessageFormat(args);
+                }
+                result.append('{').append(index).append('}');
+            } else {
+                Object arg = args[index];
+                if (argumentTypes[i] == PLAIN_ARGUMENT && (arg == null || arg instanceof String)) {
+                    result.append((String) arg);
+                } else if (argumentTypes[i] == INTEGER_ARGUMENT && (arg instanceof Integer || arg instanceof Long
+                        || arg instanceof Short || arg instanceof Byte)) {
+                    result.append(((Number) arg).longValue());
+                } else {
+                    return formatByMessageFormat(args);
+                }
+            }
+
+            result.append(literals[i + 1]);
+        }
+
+        return result.toString();
+    }
+
+    private String formatByMessageFormat(Object... args) {
+        MessageFormat format = messageFormat;
+        if (format == null) {
+            messageFormat = format = new MessageFormat(pattern);
+        }
+        return ((MessageFormat) format.clone()).format(args, new StringBuffer(), null).toString();
+    }
+
+    /**
+     * @param s Argument index as a string.
+     * @return Parsed index or {@code -1} if it is not a simple non-negative integer.
+     */
+    private static int parseIndex(String s) {
+        if (s.isEmpty() || s.length() > 4) {
+            return -1;
+        }
+
+        int result = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+
+        return result;
+    }
+
+    /**
+     * @return {@code true} iff numbers are formatted with non-ASCII digits or minus sign in the default locale.
+     */
+    private static boolean hasNonAsciiDigits() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        return symbols.getZeroDigit() != '0' || symbols.getMinusSign() != '-';
+    }
+}
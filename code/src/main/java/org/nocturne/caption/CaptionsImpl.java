@@ -8,8 +8,9 @@ import org.nocturne.exception.ConfigurationException;
 import org.nocturne.main.ApplicationContext;
 
 import java.io.*;
-import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -26,6 +27,11 @@ import java.util.regex.Pattern;
  * <p>
  * In the production mode it just read them exactly once (on startup) and doesn't save them.
  * </p>
+ * <p>
+ * Loaded values are stored in the immutable table of parsed formats, which is replaced as a whole
+ * on {@link #reload()}, so {@link #find(Locale, String, Object...)} doesn't lock or change anything.
+ * Shortcuts without values are recorded apart from the table, see {@link #getMissingShortcuts(String)}.
+ * </p>
  *
  * @author Mike Mirzayanov
  */
@@ -36,7 +42,12 @@ public class CaptionsImpl implements Captions {
     /**
      * Stores properties per language.
      */
-    private final Map<String, Properties> propertiesMap = new Hashtable<>();
+    private volatile CaptionTable captionTable = CaptionTable.EMPTY;
+
+    /**
+     * Shortcuts not found in the table per language.
+     */
+    private final ConcurrentMap<String, Set<String>> missingShortcutsByLanguage = new ConcurrentHashMap<>();
 
     /**
      * Magic value to store empty value.
@@ -58,50 +69,87 @@ public class CaptionsImpl implements Captions {
 
     @Override
     public String find(Locale locale, String shortcut, Object... args) {
-        // Default locale. It is possible equals with current "locale".
-        Locale defaultLocale = ApplicationContext.getInstance().getDefaultLocale();
+        CaptionTable table = captionTable;
 
         // Current language.
         String language = locale.getLanguage();
-
-        // If doesn't contain locale properties?
-        if (!propertiesMap.containsKey(language)) {
-            // Add empty properties.
-            propertiesMap.put(language, new Properties());
-        }
-
-        // It exists anyway.
-        Properties properties = propertiesMap.get(language);
-
-        // It can be absent.
-        String value = properties.getProperty(shortcut);
+        CaptionFormat format = table.get(language, shortcut);
 
         // No such value?
-        if (value == null || value.equals(NULL)) {
-            // Is it NOT default locale?
-            if (defaultLocale == locale) {
-                // Set default.
-                properties.setProperty(shortcut, shortcut);
-            }
+        if (format == null) {
+            onMissingShortcut(language, shortcut);
+
             // Use default locale to find value.
-            value = find(defaultLocale, shortcut, args);
-            // Save all properties.
-            if (ApplicationContext.getInstance().isDebug()) {
-                saveProperties();
+            String defaultLanguage = ApplicationContext.getInstance().getDefaultLocale().getLanguage();
+            if (!defaultLanguage.equals(language)) {
+                format = table.get(defaultLanguage, shortcut);
+                if (format == null) {
+                    onMissingShortcut(defaultLanguage, shortcut);
+                }
             }
         }
 
-        if (args.length > 0) {
-            return MessageFormat.format(value, args);
+        if (format == null) {
+            // Shortcut is the value for the default language.
+            return args.length > 0 ? new CaptionFormat(shortcut).format(args) : shortcut;
         } else {
-            return value;
+            return args.length > 0 ? format.format(args) : format.getPattern();
+        }
+    }
+
+    /**
+     * @param language Language.
+     * @return Shortcuts which have been requested for the language, but have no values.
+     */
+    public Set<String> getMissingShortcuts(String language) {
+        Set<String> missingShortcuts = missingShortcutsByLanguage.get(language);
+        return missingShortcuts == null
+                ? Collections.<String>emptySet() : Collections.unmodifiableSet(missingShortcuts);
+    }
+
+    /**
+     * Reads caption files again and replaces all the values at once.
+     */
+    public void reload() {
+        synchronized (this) {
+            loadProperties();
+            missingShortcutsByLanguage.clear();
+        }
+    }
+
+    private void onMissingShortcut(String language, String shortcut) {
+        Set<String> missingShortcuts = missingShortcutsByLanguage.get(language);
+        if (missingShortcuts == null) {
+            missingShortcutsByLanguage.putIfAbsent(language, ConcurrentHashMap.<String>newKeySet());
+            missingShortcuts = missingShortcutsByLanguage.get(language);
+        }
+
+        // Save all properties.
+        if (missingShortcuts.add(shortcut) && ApplicationContext.getInstance().isDebug()) {
+            saveProperties(shortcut);
         }
     }
 
     /**
-     * Synchronizes all the properties and saves them.
+     * Adds new shortcut, synchronizes all the properties and saves them.
+     *
+     * @param shortcut New shortcut, it will have value equals to shortcut in the default language.
      */
-    private void saveProperties() {
+    private synchronized void saveProperties(String shortcut) {
+        Map<String, Properties> propertiesMap = captionTable.copyProperties();
+
+        // Set default.
+        String defaultLanguage = ApplicationContext.getInstance().getDefaultLocale().getLanguage();
+        Properties defaultProperties = propertiesMap.get(defaultLanguage);
+        if (defaultProperties == null) {
+            defaultProperties = new Properties();
+            propertiesMap.put(defaultLanguage, defaultProperties);
+        }
+        String defaultValue = defaultProperties.getProperty(shortcut);
+        if (defaultValue == null || defaultValue.equals(NULL)) {
+            defaultProperties.setProperty(shortcut, shortcut);
+        }
+
         // Find all possible keys.
         Set<String> keys = new TreeSet<>();
         for (Map.Entry<String, Properties> entry : propertiesMap.entrySet()) {
@@ -122,6 +170,8 @@ public class CaptionsImpl implements Captions {
             // And save properties.
             save(properties, entry.getKey());
         }
+
+        captionTable = new CaptionTable(propertiesMap);
     }
 
     /**
@@ -154,23 +204,25 @@ public class CaptionsImpl implements Captions {
      * Method loadPropertiesForProduction ...
      */
     private void loadPropertiesForProduction() {
-        if (propertiesMap.isEmpty()) {
-            List<String> languages = ApplicationContext.getInstance().getAllowedLanguages();
-            for (String language : languages) {
-                InputStream inputStream = getClass().getResourceAsStream(getCaptionsFileName(language));
-                if (inputStream != null) {
-                    try {
-                        Reader reader = new InputStreamReader(inputStream, ApplicationContext.getInstance().getCaptionFilesEncoding());
-                        Properties properties = new Properties();
-                        properties.load(reader);
-                        reader.close();
-                        propertiesMap.put(language, properties);
-                    } catch (IOException e) {
-                        throw new ConfigurationException("Can't load caption properties for language " + language + '.', e);
-                    }
+        Map<String, Properties> propertiesMap = new HashMap<>();
+
+        List<String> languages = ApplicationContext.getInstance().getAllowedLanguages();
+        for (String language : languages) {
+            InputStream inputStream = getClass().getResourceAsStream(getCaptionsFileName(language));
+            if (inputStream != null) {
+                try {
+                    Reader reader = new InputStreamReader(inputStream, ApplicationContext.getInstance().getCaptionFilesEncoding());
+                    Properties properties = new Properties();
+                    properties.load(reader);
+                    reader.close();
+                    propertiesMap.put(language, properties);
+                } catch (IOException e) {
+                    throw new ConfigurationException("Can't load caption properties for language " + language + '.', e);
                 }
             }
         }
+
+        captionTable = new CaptionTable(propertiesMap);
     }
 
     /**
@@ -186,7 +238,7 @@ public class CaptionsImpl implements Captions {
             }
         });
 
-        propertiesMap.clear();
+        Map<String, Properties> propertiesMap = new HashMap<>();
 
         for (File captionFile : captionFiles) {
             if (captionFile.isFile()) {
@@ -207,6 +259,8 @@ public class CaptionsImpl implements Captions {
                 }
             }
         }
+
+        captionTable = new CaptionTable(propertiesMap);
     }
 
     /**
@@ -218,4 +272,54 @@ public class CaptionsImpl implements Captions {
     private static String getCaptionsFileName(String language) {
         return "/captions_" + language + ".properties";
     }
+
+    /**
+     * Immutable parsed values per language.
+     */
+    private static final class CaptionTable {
+        private static final CaptionTable EMPTY = new CaptionTable(Collections.<String, Properties>emptyMap());
+
+        private final Map<String, Map<String, CaptionFormat>> formatsByLanguage;
+        private final Map<String, Properties> propertiesByLanguage;
+
+        private CaptionTable(Map<String, Properties> propertiesMap) {
+            formatsByLanguage = new HashMap<>();
+            propertiesByLanguage = new HashMap<>();
+
+            for (Map.Entry<String, Properties> entry : propertiesMap.entrySet()) {
+                Properties properties = entry.getValue();
+                Map<String, CaptionFormat> formats = new HashMap<>();
+
+                for (String name : properties.stringPropertyNames()) {
+                    String value = properties.getProperty(name);
+                    if (!NULL.equals(value)) {
+                        formats.put(name, new CaptionFormat(value));
+                    }
+                }
+
+                Properties copy = new Properties();
+                copy.putAll(properties);
+                formatsByLanguage.put(entry.getKey(), formats);
+                propertiesByLanguage.put(entry.getKey(), copy);
+            }
+        }
+
+        private CaptionFormat get(String language, String shortcut) {
+            Map<String, CaptionFormat> formats = formatsByLanguage.get(language);
+            return formats == null ? null : formats.get(shortcut);
+        }
+
+        /**
+         * @return Copy of the loaded properties (including nocturne.null values) to be changed and saved.
+         */
+        private Map<String, Properties> copyProperties() {
+            Map<String, Properties> result = new HashMap<>();
+            for (Map.Entry<String, Properties> entry : propertiesByLanguage.entrySet()) {
+                Properties copy = new Properties();
+                copy.putAll(entry.getValue());
+                result.put(entry.getKey(), copy);
+            }
+            return result;
+        }
+    }
 }
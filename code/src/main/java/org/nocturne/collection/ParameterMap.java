@@ -0,0 +1,342 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.collection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.*;
+
+/**
+ * Immutable map of request parameters: name to the list of values. All the values are stored in
+ * the single flat array, names are found in the open addressing table by precomputed hashes.
+ * It is built once per request and shared by the page and its frames, value lists are read-only views.
+ *
+ * @author Mike Mirzayanov
+ */
+@Immutable
+public final class ParameterMap extends AbstractMap<String, List<String>> {
+    private static final ParameterMap EMPTY = new Builder().build();
+
+    private final String[] names;
+    private final int[] hashes;
+
+    /**
+     * Values of the i-th name are {@code values[valueOffsets[i]..valueOffsets[i + 1])}.
+     */
+    private final int[] valueOffsets;
+    private final String[] values;
+
+    /**
+     * Open addressing table, contains name index plus one or zero for empty slots.
+     */
+    private final int[] table;
+
+    /**
+     * Lazily created value lists, they are immutable so the race is benign.
+     */
+    private final List<?>[] valueLists;
+
+    private Set<Entry<String, List<String>>> entrySet;
+
+    private ParameterMap(String[] names, int[] hashes, int[] valueOffsets, String[] values) {
+        this.names = names;
+        this.hashes = hashes;
+        this.valueOffsets = valueOffsets;
+        this.values = values;
+        this.valueLists = new List<?>[names.length];
+
+        table = new int[getTableSize(names.length)];
+        int mask = table.length - 1;
+        for (int i = 0; i < names.length; ++i) {
+            int slot = hashes[i] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @return Empty map.
+     */
+    public static ParameterMap empty() {
+        return EMPTY;
+    }
+
+    private static int getTableSize(int size) {
+        int tableSize = 2;
+        while (tableSize < 2 * size) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    private static int hash(String name) {
+        int hash = name.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+
+        String name = (String) key;
+        int hash = hash(name);
+        int mask = table.length - 1;
+
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = table[slot] - 1;
+            if (hashes[index] == hash && names[index].equals(name)) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> getValueList(int index) {
+        List<String> list = (List<String>) valueLists[index];
+        if (list == null) {
+            list = new ValueList(values, valueOffsets[index], valueOffsets[index + 1]);
+            valueLists[index] = list;
+        }
+        return list;
+    }
+
+    /**
+     * @param name Parameter name.
+     * @return The first value of the parameter or {@code null}, doesn't create the list view.
+     */
+    @Nullable
+    public String getFirst(String name) {
+        int index = indexOf(name);
+        return index < 0 || valueOffsets[index] == valueOffsets[index + 1] ? null : values[valueOffsets[index]];
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : getValueList(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    @Nonnull
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, List<String>>>() {
+                @Override
+                public Iterator<Entry<String, List<String>>> iterator() {
+                    return new Iterator<Entry<String, List<String>>>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < names.length;
+                        }
+
+                        @Override
+                        public Entry<String, List<String>> next() {
+                            if (index >= names.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, List<String>> entry
+                                    = new SimpleImmutableEntry<>(names[index], getValueList(index));
+                            ++index;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return names.length;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Read-only view of the values range.
+     */
+    private static final class ValueList extends AbstractList<String> implements RandomAccess {
+        private final String[] values;
+        private final int from;
+        private final int to;
+
+        private ValueList(String[] values, int from, int to) {
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (to - from) + '.');
+            }
+            return values[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    /**
+     * Collects parameters, the later {@link #put(String, Collection)} of the same name replaces the values.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+        private String[] names = new String[16];
+        private int[] hashes = new int[16];
+        private int[] valueFroms = new int[16];
+        private int[] valueTos = new int[16];
+        private int size;
+
+        private String[] values = new String[16];
+        private int valueCount;
+
+        /**
+         * Entry index plus one or zero for empty slots, the same as in the map.
+         */
+        private int[] table = new int[32];
+
+        /**
+         * Number of replaced entries (they are left in the arrays and skipped on build).
+         */
+        private int replacedCount;
+
+        /**
+         * @param name   Parameter name.
+         * @param values Parameter values.
+         * @return The builder itself.
+         */
+        public Builder put(@Nonnull String name, @Nonnull Collection<String> values) {
+            int hash = hash(name);
+            int mask = table.length - 1;
+
+            int slot = hash & mask;
+            while (table[slot] != 0) {
+                int index = table[slot] - 1;
+                if (hashes[index] == hash && names[index].equals(name)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (table[slot] != 0) {
+                ++replacedCount;
+                names[table[slot] - 1] = null;
+            }
+
+            if (size == names.length) {
+                int capacity = size * 2;
+                names = Arrays.copyOf(names, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+                valueFroms = Arrays.copyOf(valueFroms, capacity);
+                valueTos = Arrays.copyOf(valueTos, capacity);
+            }
+
+            names[size] = name;
+            hashes[size] = hash;
+            valueFroms[size] = valueCount;
+            for (String value : values) {
+                if (valueCount == this.values.length) {
+                    this.values = Arrays.copyOf(this.values, valueCount * 2);
+                }
+                this.values[valueCount++] = value;
+            }
+            valueTos[size] = valueCount;
+
+            table[slot] = ++size;
+            if (2 * size > table.length) {
+                rehash();
+            }
+
+            return this;
+        }
+
+        /**
+         * @param name  Parameter name.
+         * @param value The only value of the parameter.
+         * @return The builder itself.
+         */
+        public Builder put(@Nonnull String name, @Nullable String value) {
+            return put(name, Collections.singletonList(value));
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int i = 0; i < size; ++i) {
+                if (names[i] != null) {
+                    int slot = hashes[i] & mask;
+                    while (table[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table[slot] = i + 1;
+                }
+            }
+        }
+
+        /**
+         * @return Immutable map with the collected parameters, the builder can't be used after it.
+         */
+        public ParameterMap build() {
+            int resultSize = size - replacedCount;
+            String[] resultNames = new String[resultSize];
+            int[] resultHashes = new int[resultSize];
+            int[] resultValueOffsets = new int[resultSize + 1];
+
+            int resultValueCount = 0;
+            for (int i = 0; i < size; ++i) {
+                if (names[i] != null) {
+                    resultValueCount += valueTos[i] - valueFroms[i];
+                }
+            }
+            String[] resultValues = resultValueCount == valueCount
+                    ? Arrays.copyOf(values, valueCount) : new String[resultValueCount];
+
+            int index = 0;
+            int offset = 0;
+            for (int i = 0; i < size; ++i) {
+                if (names[i] != null) {
+                    resultNames[index] = names[i];
+                    resultHashes[index] = hashes[i];
+                    resultValueOffsets[index] = offset;
+                    int count = valueTos[i] - valueFroms[i];
+                    if (resultValueCount != valueCount) {
+                        System.arraycopy(values, valueFroms[i], resultValues, offset, count);
+                    }
+                    offset += count;
+                    ++index;
+                }
+            }
+            resultValueOffsets[resultSize] = offset;
+
+            return new ParameterMap(resultNames, resultHashes, resultValueOffsets, resultValues);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.ddos;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Estimates request rate per client (IP) in the sliding window for {@link PowFilter}. Memory doesn't depend
+ * on the number of clients: counters are stored in count-min sketches (one per time window), so the estimation
+ * can be larger than the real number of requests of the client when the sketch is overloaded, but never less.
+ * <p>
+ * The sliding window count is the count of the current window plus the part of the previous window count
+ * proportional to the part of the previous window within the sliding window. Counters are updated with CAS,
+ * the sketch of the new window is cleared once by the first thread, concurrent increments may be lost at the moment.
+ *
+ * @author Mike Mirzayanov
+ */
+final class ClientRateLimiter {
+    private static final int DEPTH = 4;
+
+    private final long windowMillis;
+
+    /**
+     * Sketches by the parity of the window index: the current one and the previous one.
+     */
+    private final Sketch[] sketches;
+
+    /**
+     * @param windowMillis Window length.
+     * @param width        Number of counters in the sketch row, rounded up to a power of two.
+     *                     The limiter takes {@code 32 * width} bytes.
+     */
+    ClientRateLimiter(long windowMillis, int width) {
+        this.windowMillis = windowMillis;
+        int powerOfTwoWidth = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.sketches = new Sketch[]{new Sketch(powerOfTwoWidth), new Sketch(powerOfTwoWidth)};
+    }
+
+    /**
+     * Counts the request of the client.
+     *
+     * @param client     Client IP.
+     * @param timeMillis Current time.
+     * @return Estimated number of requests of the client in the last window length, including this one.
+     */
+    int increment(String client, long timeMillis) {
+        long key = hash(client);
+        long windowIndex = timeMillis / windowMillis;
+
+        int count = getSketch(windowIndex).increment(key);
+
+        Sketch previous = sketches[(int) ((windowIndex - 1) & 1)];
+        if (previous.windowIndex == windowIndex - 1) {
+            long previousPartMillis = windowMillis - timeMillis % windowMillis;
+            count += (int) (previous.estimate(key) * previousPartMillis / windowMillis);
+        }
+
+        return count;
+    }
+
+    private Sketch getSketch(long windowIndex) {
+        Sketch sketch = sketches[(int) (windowIndex & 1)];
+        if (sketch.windowIndex < windowIndex) {
+            synchronized (sketch) {
+                if (sketch.windowIndex < windowIndex) {
+                    sketch.clear();
+                    sketch.windowIndex = windowIndex;
+                }
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars, no need to parse IPv4 or IPv6.
+     */
+    private static long hash(String client) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < client.length(); ++i) {
+            hash ^= client.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * SplitMix64 finalizer, gives independent column for each row.
+     */
+    private static long mix(long key, int row) {
+        long z = key + (row + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final class Sketch {
+        private final int mask;
+
+        /**
+         * Rows one after another.
+         */
+        private final AtomicIntegerArray counters;
+
+        private volatile long windowIndex = Long.MIN_VALUE;
+
+        private Sketch(int width) {
+            mask = width - 1;
+            counters = new AtomicIntegerArray(DEPTH * width);
+        }
+
+        /**
+         * Conservative update: raises only the counters less than the new estimation,
+         * it reduces the overestimation for the clients sharing counters with heavy hitters.
+         *
+         * @return Estimated count after the increment.
+         */
+        private int increment(long key) {
+            int count = estimate(key) + 1;
+            for (int row = 0; row < DEPTH; ++row) {
+                int index = getIndex(key, row);
+                int value;
+                while ((value = counters.get(index)) < count && !counters.compareAndSet(index, value, count)) {
+                    // No operations.
+                }
+            }
+            return count;
+        }
+
+        private int estimate(long key) {
+            int result = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; ++row) {
+                result = Math.min(result, counters.get(getIndex(key, row)));
+            }
+            return result;
+        }
+
+        private int getIndex(long key, int row) {
+            return row * (mask + 1) + ((int) mix(key, row) & mask);
+        }
+
+        private void clear() {
+            for (int i = 0; i < counters.length(); ++i) {
+                counters.set(i, 0);
+            }
+        }
+    }
+}
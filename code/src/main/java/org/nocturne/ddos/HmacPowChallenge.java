@@ -0,0 +1,244 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.ddos;
+
+import org.nocturne.exception.NocturneException;
+
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Stateless proof-of-work challenge for {@link PowFilter}. The token is HMAC-SHA256 over the client IP,
+ * User-Agent and the time bucket, signed with the key of the bucket. Bucket keys are derived from
+ * the server key, so they rotate every bucket and all the nodes with the same server key agree on them.
+ * Tokens of the current and the previous buckets are accepted.
+ * <p>
+ * Verification uses thread-local {@link Mac} and {@link MessageDigest} instances and buffers:
+ * no session, no locks and no allocations.
+ *
+ * @author Mike Mirzayanov
+ */
+final class HmacPowChallenge {
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /**
+     * Number of hex digits in the token (the same as in SHA-1 hex of the session mode).
+     */
+    static final int TOKEN_LENGTH = 40;
+
+    /**
+     * Number of hex digits in the challenge (the token prefix) sent to the client.
+     */
+    static final int CHALLENGE_LENGTH = 20;
+
+    /**
+     * Solutions are {@code <nonce>_<challenge>}, longer cookies are rejected without hashing.
+     */
+    private static final int MAX_SOLUTION_LENGTH = 64;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] serverKey;
+    private final long bucketMillis;
+    private final ThreadLocal<State> states;
+
+    /**
+     * @param serverKey    Key to derive bucket keys from.
+     * @param bucketMillis Length of the time bucket.
+     */
+    HmacPowChallenge(byte[] serverKey, long bucketMillis) {
+        this.serverKey = serverKey.clone();
+        this.bucketMillis = bucketMillis;
+        this.states = ThreadLocal.withInitial(() -> new State(this.serverKey));
+    }
+
+    /**
+     * @param timeMillis Time.
+     * @return Bucket of the time.
+     */
+    long getBucket(long timeMillis) {
+        return timeMillis / bucketMillis;
+    }
+
+    /**
+     * @return Token (hex) of the client in the bucket, the first {@link #CHALLENGE_LENGTH} digits are the challenge.
+     */
+    String getToken(String ip, @Nullable String userAgent, long bucket) {
+        byte[] hash = states.get().sign(ip, userAgent, bucket);
+        char[] token = new char[TOKEN_LENGTH];
+        for (int i = 0; i < TOKEN_LENGTH; ++i) {
+            token[i] = getHexDigit(hash, i);
+        }
+        return new String(token);
+    }
+
+    /**
+     * @return {@code true} iff the cookie is the token of the client in the bucket or in the previous one.
+     */
+    boolean isToken(@Nullable String cookie, String ip, @Nullable String userAgent, long bucket) {
+        if (cookie == null || cookie.length() != TOKEN_LENGTH) {
+            return false;
+        }
+
+        State state = states.get();
+        return matches(cookie, 0, TOKEN_LENGTH, state.sign(ip, userAgent, bucket))
+                || matches(cookie, 0, TOKEN_LENGTH, state.sign(ip, userAgent, bucket - 1));
+    }
+
+    /**
+     * @param difficulty Required number of leading zero hex digits in SHA-1 of the solution.
+     * @return {@code true} iff the cookie is {@code <nonce>_<challenge>} for the challenge of the client
+     * in the bucket or in the previous one and its SHA-1 hex starts with {@code difficulty} zeros.
+     */
+    boolean isSolution(@Nullable String cookie, String ip, @Nullable String userAgent, long bucket, int difficulty) {
+        if (cookie == null || cookie.length() <= CHALLENGE_LENGTH + 1 || cookie.length() > MAX_SOLUTION_LENGTH) {
+            return false;
+        }
+
+        int challengeOffset = cookie.length() - CHALLENGE_LENGTH;
+        if (cookie.charAt(challengeOffset - 1) != '_') {
+            return false;
+        }
+
+        State state = states.get();
+        if (!matches(cookie, challengeOffset, CHALLENGE_LENGTH, state.sign(ip, userAgent, bucket))
+                && !matches(cookie, challengeOffset, CHALLENGE_LENGTH, state.sign(ip, userAgent, bucket - 1))) {
+            return false;
+        }
+
+        byte[] sha1 = state.sha1(cookie);
+        if (sha1 == null) {
+            return false;
+        }
+
+        for (int i = 0; i < difficulty; ++i) {
+            if (getHexDigit(sha1, i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares all the digits regardless of the first mismatch, so the time doesn't depend on the signature.
+     */
+    private static boolean matches(String cookie, int offset, int length, byte[] hash) {
+        int diff = 0;
+        for (int i = 0; i < length; ++i) {
+            diff |= cookie.charAt(offset + i) ^ getHexDigit(hash, i);
+        }
+        return diff == 0;
+    }
+
+    private static char getHexDigit(byte[] bytes, int index) {
+        int b = bytes[index >> 1];
+        return HEX_DIGITS[(index & 1) == 0 ? (b >> 4) & 15 : b & 15];
+    }
+
+    private static void update(Mac mac, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mac.update((byte) (value >>> shift));
+        }
+    }
+
+    /**
+     * Strings are hashed as the length followed by two bytes of each char to avoid encoding,
+     * so different strings (and different pairs of strings) never give the same input.
+     */
+    private static void update(Mac mac, @Nullable String s) {
+        if (s == null) {
+            update(mac, -1L);
+        } else {
+            update(mac, s.length());
+            for (int i = 0; i < s.length(); ++i) {
+                char c = s.charAt(i);
+                mac.update((byte) (c >> 8));
+                mac.update((byte) c);
+            }
+        }
+    }
+
+    /**
+     * Per-thread instances. Macs of two buckets are kept (by the bucket parity): the current one and the previous one.
+     */
+    private static final class State {
+        private final Mac serverMac;
+        private final Mac[] bucketMacs = new Mac[2];
+        private final long[] macBuckets = {Long.MIN_VALUE, Long.MIN_VALUE};
+        private final byte[] hash;
+
+        private final MessageDigest sha1;
+        private final byte[] sha1Hash;
+
+        private State(byte[] serverKey) {
+            try {
+                serverMac = Mac.getInstance(ALGORITHM);
+                serverMac.init(new SecretKeySpec(serverKey, ALGORITHM));
+                bucketMacs[0] = Mac.getInstance(ALGORITHM);
+                bucketMacs[1] = Mac.getInstance(ALGORITHM);
+                sha1 = MessageDigest.getInstance("SHA-1");
+            } catch (GeneralSecurityException e) {
+                throw new NocturneException("Can't initialize " + ALGORITHM + " or SHA-1.", e);
+            }
+
+            hash = new byte[serverMac.getMacLength()];
+            sha1Hash = new byte[sha1.getDigestLength()];
+        }
+
+        /**
+         * @return Thread-local buffer with the token hash, valid until the next call.
+         */
+        private byte[] sign(String ip, @Nullable String userAgent, long bucket) {
+            Mac mac = getBucketMac(bucket);
+            update(mac, ip);
+            update(mac, userAgent);
+            update(mac, bucket);
+            try {
+                mac.doFinal(hash, 0);
+            } catch (GeneralSecurityException e) {
+                throw new NocturneException("Can't compute " + ALGORITHM + '.', e);
+            }
+            return hash;
+        }
+
+        private Mac getBucketMac(long bucket) {
+            int slot = (int) (bucket & 1);
+            Mac mac = bucketMacs[slot];
+            if (macBuckets[slot] != bucket) {
+                update(serverMac, bucket);
+                try {
+                    mac.init(new SecretKeySpec(serverMac.doFinal(), ALGORITHM));
+                } catch (GeneralSecurityException e) {
+                    throw new NocturneException("Can't initialize " + ALGORITHM + " with bucket key.", e);
+                }
+                macBuckets[slot] = bucket;
+            }
+            return mac;
+        }
+
+        /**
+         * @return Thread-local buffer with SHA-1 of the ASCII string or {@code null} if it has other chars.
+         */
+        @Nullable
+        private byte[] sha1(String s) {
+            sha1.reset();
+            for (int i = 0; i < s.length(); ++i) {
+                char c = s.charAt(i);
+                if (c >= 128) {
+                    return null;
+                }
+                sha1.update((byte) c);
+            }
+            try {
+                sha1.digest(sha1Hash, 0, sha1Hash.length);
+            } catch (GeneralSecurityException e) {
+                throw new NocturneException("Can't compute SHA-1.", e);
+            }
+            return sha1Hash;
+        }
+    }
+}
@@ -3,8 +3,11 @@ package org.nocturne.ddos;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.log4j.Logger;
+import org.nocturne.exception.ConfigurationException;
+import org.nocturne.exception.NocturneException;
 import org.nocturne.util.StringUtil;
 
+import javax.annotation.Nullable;
 import javax.servlet.*;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
@@ -16,8 +19,33 @@ import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Asks browsers to solve proof-of-work challenge (find SHA-1 with leading zeros) before passing
+ * their requests. The solved challenge is remembered in the cookie {@code pow}.
+ * <p>
+ * Optional init parameters:
+ * <ul>
+ * <li>{@code stateless} - {@code true} to sign challenges with HMAC over IP, User-Agent and time bucket
+ * instead of storing them in the session (default: {@code false}), see {@link HmacPowChallenge},</li>
+ * <li>{@code secret} - server key for the stateless mode, set the same value on all the nodes
+ * (default: random key per instance, tokens don't survive restarts),</li>
+ * <li>{@code tokenLifetime} - lifetime of the cookie and the time bucket length of the stateless mode
+ * in seconds, the stateless tokens are valid for one or two lifetimes (default: 86400),</li>
+ * <li>{@code difficulty} - number of leading zero hex digits in SHA-1 of the solution, 1..8 (default: 4),</li>
+ * <li>{@code rateWindow} - length of the sliding window in seconds to count requests per IP (default: 60),</li>
+ * <li>{@code rateLimit} - maximal number of requests per IP in the window, other requests get
+ * 429 Too Many Requests (default: 0, no limit),</li>
+ * <li>{@code difficultyRate} - number of requests per IP in the window to add one to the difficulty
+ * for the IP, one more is added for each doubling of the rate (default: 0, the difficulty is fixed),</li>
+ * <li>{@code rateLimiterWidth} - number of counters in the row of the count-min sketch, the limiter takes
+ * {@code 32 * rateLimiterWidth} bytes regardless of the number of IPs (default: 65536),
+ * see {@link ClientRateLimiter}.</li>
+ * </ul>
+ * Requests passed by the request filters (see {@link #addRequestFilter(RequestFilter)}) are not counted.
+ */
 @SuppressWarnings("unused")
 public class PowFilter implements Filter {
     private static final Logger logger = Logger.getLogger(PowFilter.class);
@@ -30,13 +58,144 @@ public class PowFilter implements Filter {
             ^ System.currentTimeMillis()
             ^ Runtime.getRuntime().freeMemory()).getBytes(StandardCharsets.UTF_8));
 
-    private static final List<RequestFilter> REQUEST_FILTERS = new ArrayList<>();
+    private static final List<RequestFilter> REQUEST_FILTERS = new CopyOnWriteArrayList<>();
 
     private static final ThreadLocal<String> rayIdLocal = new ThreadLocal<>();
 
+    private static final int DEFAULT_DIFFICULTY = 4;
+    private static final int MAX_DIFFICULTY = 8;
+    private static final int DEFAULT_TOKEN_LIFETIME_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+    private static final int DEFAULT_RATE_WINDOW_SECONDS = 60;
+    private static final int DEFAULT_RATE_LIMITER_WIDTH = 1 << 16;
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Difficulty check in {@link #getObfuscatedJsCode()}: four leading chars should be "0000".
+     */
+    private static final String OBFUSCATED_DIFFICULTY_CHECK = "(0x0,0x4);if(_0x2a4818===_cs[0x10]+_cs[0x4])";
+
+    /**
+     * Challenge js code by difficulty.
+     */
+    private static final String[] JS_CODES = new String[MAX_DIFFICULTY + 1];
+
+    private int difficulty = DEFAULT_DIFFICULTY;
+    private int tokenLifetimeSeconds = DEFAULT_TOKEN_LIFETIME_SECONDS;
+    private int rateLimit;
+    private int difficultyRate;
+
+    /**
+     * Not {@code null} if rateLimit or difficultyRate is set.
+     */
+    private ClientRateLimiter rateLimiter;
+
+    /**
+     * Not {@code null} in the stateless mode.
+     */
+    private HmacPowChallenge hmacChallenge;
+
     @Override
     public void init(FilterConfig filterConfig) {
-        // No operations.
+        String difficultyParameter = filterConfig.getInitParameter("difficulty");
+        if (difficultyParameter != null) {
+            difficulty = parseInt("difficulty", difficultyParameter);
+            if (difficulty < 1 || difficulty > MAX_DIFFICULTY) {
+                throw new ConfigurationException("PowFilter parameter difficulty should be in 1.." + MAX_DIFFICULTY + '.');
+            }
+        }
+
+        String lifetime = filterConfig.getInitParameter("tokenLifetime");
+        if (lifetime != null) {
+            tokenLifetimeSeconds = parseInt("tokenLifetime", lifetime);
+            if (tokenLifetimeSeconds <= 0) {
+                throw new ConfigurationException("PowFilter parameter tokenLifetime should be positive.");
+            }
+        }
+
+        String stateless = filterConfig.getInitParameter("stateless");
+        if (stateless != null && !"false".equals(stateless) && !"true".equals(stateless)) {
+            throw new ConfigurationException("PowFilter parameter stateless expected to be 'false' or 'true'.");
+        }
+
+        if ("true".equals(stateless)) {
+            byte[] serverKey;
+            String secret = filterConfig.getInitParameter("secret");
+            if (StringUtil.isEmpty(secret)) {
+                serverKey = new byte[32];
+                RANDOM.nextBytes(serverKey);
+                logger.info("PowFilter parameter secret is not set, tokens are valid only for this instance.");
+            } else {
+                serverKey = secret.getBytes(StandardCharsets.UTF_8);
+            }
+            hmacChallenge = new HmacPowChallenge(serverKey, TimeUnit.SECONDS.toMillis(tokenLifetimeSeconds));
+        }
+
+        setupRateLimiter(filterConfig);
+    }
+
+    private void setupRateLimiter(FilterConfig filterConfig) {
+        String limit = filterConfig.getInitParameter("rateLimit");
+        if (limit != null) {
+            rateLimit = parseInt("rateLimit", limit);
+            if (rateLimit < 0) {
+                throw new ConfigurationException("PowFilter parameter rateLimit should be non-negative.");
+            }
+        }
+
+        String rate = filterConfig.getInitParameter("difficultyRate");
+        if (rate != null) {
+            difficultyRate = parseInt("difficultyRate", rate);
+            if (difficultyRate < 0) {
+                throw new ConfigurationException("PowFilter parameter difficultyRate should be non-negative.");
+            }
+        }
+
+        int windowSeconds = DEFAULT_RATE_WINDOW_SECONDS;
+        String window = filterConfig.getInitParameter("rateWindow");
+        if (window != null) {
+            windowSeconds = parseInt("rateWindow", window);
+            if (windowSeconds <= 0) {
+                throw new ConfigurationException("PowFilter parameter rateWindow should be positive.");
+            }
+        }
+
+        int width = DEFAULT_RATE_LIMITER_WIDTH;
+        String widthParameter = filterConfig.getInitParameter("rateLimiterWidth");
+        if (widthParameter != null) {
+            width = parseInt("rateLimiterWidth", widthParameter);
+            if (width <= 0 || width > 1 << 24) {
+                throw new ConfigurationException("PowFilter parameter rateLimiterWidth should be in 1.." + (1 << 24) + '.');
+            }
+        }
+
+        if (rateLimit > 0 || difficultyRate > 0) {
+            rateLimiter = new ClientRateLimiter(TimeUnit.SECONDS.toMillis(windowSeconds), width);
+        }
+    }
+
+    /**
+     * @param rate Requests of the client in the window.
+     * @return Difficulty for the client.
+     */
+    private int getDifficulty(int rate) {
+        if (difficultyRate <= 0 || rate < difficultyRate) {
+            return difficulty;
+        }
+
+        int result = difficulty + 1;
+        for (long threshold = 2L * difficultyRate; threshold <= rate && result < MAX_DIFFICULTY; threshold *= 2) {
+            ++result;
+        }
+        return Math.min(result, MAX_DIFFICULTY);
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("PowFilter parameter " + name + " should be integer.", e);
+        }
     }
 
     @Override
@@ -62,15 +221,15 @@ public class PowFilter implements Filter {
             HttpServletRequest httpServletRequest = (HttpServletRequest) request;
             HttpServletResponse httpServletResponse = (HttpServletResponse) response;
 
-            String rayId = RandomStringUtils.randomAlphanumeric(8);
-            rayIdLocal.set(rayId);
+            if (logging) {
+                String rayId = RandomStringUtils.randomAlphanumeric(8);
+                rayIdLocal.set(rayId);
 
-            info("Starting processing request [uri=" + httpServletRequest.getRequestURI()
-                    + ", url=" + httpServletRequest.getRequestURL()
-                    + ", query=" + httpServletRequest.getQueryString()
-                    + ", ip=" + getIp(httpServletRequest) + "].");
+                info("Starting processing request [uri=" + httpServletRequest.getRequestURI()
+                        + ", url=" + httpServletRequest.getRequestURL()
+                        + ", query=" + httpServletRequest.getQueryString()
+                        + ", ip=" + getIp(httpServletRequest) + "].");
 
-            if (logging) {
                 info("Headers:");
                 Enumeration<String> headerNames = httpServletRequest.getHeaderNames();
                 while (headerNames.hasMoreElements()) {
@@ -78,7 +237,7 @@ public class PowFilter implements Filter {
                     info("    " + headerName + ": " + httpServletRequest.getHeader(headerName));
                 }
 
-                HttpSession session = httpServletRequest.getSession(true);
+                HttpSession session = hmacChallenge == null ? httpServletRequest.getSession(true) : null;
                 if (session != null) {
                     info("Session attributes:");
                     Enumeration<String> attributeNames = session.getAttributeNames();
@@ -99,21 +258,42 @@ public class PowFilter implements Filter {
 
             for (RequestFilter requestFilter : REQUEST_FILTERS) {
                 Integer verdict = requestFilter.filter(httpServletRequest);
-                info("Request filter " + requestFilter.getClass().getSimpleName() + " returned " + verdict + ".");
+                if (logging) {
+                    info("Request filter " + requestFilter.getClass().getSimpleName() + " returned " + verdict + ".");
+                }
 
                 if (verdict != null) {
                     if (verdict == 0) {
                         info("Do 'chain.doFilter(request, response);' and return.");
                         chain.doFilter(request, response);
                     } else {
-                        info("Send error " + verdict + " and return.");
+                        if (logging) {
+                            info("Send error " + verdict + " and return.");
+                        }
                         httpServletResponse.sendError(verdict);
                     }
                     return;
                 }
             }
 
-            doInternalFilter(httpServletRequest, httpServletResponse, chain);
+            int clientDifficulty = difficulty;
+            if (rateLimiter != null) {
+                int rate = rateLimiter.increment(getIp(httpServletRequest), System.currentTimeMillis());
+                if (rateLimit > 0 && rate > rateLimit) {
+                    if (logging) {
+                        info("Rate " + rate + " exceeds limit " + rateLimit + ", send error " + SC_TOO_MANY_REQUESTS + ".");
+                    }
+                    httpServletResponse.sendError(SC_TOO_MANY_REQUESTS);
+                    return;
+                }
+                clientDifficulty = getDifficulty(rate);
+            }
+
+            if (hmacChallenge == null) {
+                doInternalFilter(httpServletRequest, httpServletResponse, chain, clientDifficulty);
+            } else {
+                doStatelessFilter(httpServletRequest, httpServletResponse, chain, clientDifficulty);
+            }
         } else {
             chain.doFilter(request, response);
         }
@@ -136,18 +316,68 @@ public class PowFilter implements Filter {
         return "#" + getIp(request) + "!" + getUserAgent(request);
     }
 
-    private void doInternalFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
-            throws IOException, ServletException {
+    @Nullable
+    private static String getPowCookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie c : cookies) {
+                if (c.getName().equals("pow")) {
+                    return c.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void addPowCookie(HttpServletResponse response, String value) {
+        Cookie powCookie = new Cookie("pow", value);
+        powCookie.setPath("/");
+        powCookie.setMaxAge(tokenLifetimeSeconds);
+        response.addCookie(powCookie);
+    }
+
+    private void doStatelessFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain,
+                                   int difficulty) throws IOException, ServletException {
+        String ip = getIp(request);
+        String userAgent = getUserAgent(request);
+        long bucket = hmacChallenge.getBucket(System.currentTimeMillis());
+        String cookie = getPowCookie(request);
+
+        if (hmacChallenge.isToken(cookie, ip, userAgent, bucket)) {
+            chain.doFilter(request, response);
+        } else if (hmacChallenge.isSolution(cookie, ip, userAgent, bucket, difficulty)) {
+            String token = hmacChallenge.getToken(ip, userAgent, bucket);
+            if (logging) {
+                info("Solved: cookie=" + cookie + ", Set-Cookie: pow=" + token + ".");
+            }
+            addPowCookie(response, token);
+            chain.doFilter(request, response);
+        } else {
+            String challenge = hmacChallenge.getToken(ip, userAgent, bucket)
+                    .substring(0, HmacPowChallenge.CHALLENGE_LENGTH);
+            if (logging) {
+                info("Challenge: cookie=" + cookie + ", Set-Cookie: pow=" + challenge + ".");
+            }
+            addPowCookie(response, challenge);
+            response.setContentType("text/html");
+            printResponse(response, difficulty);
+        }
+    }
+
+    private void doInternalFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain,
+                                  int difficulty) throws IOException, ServletException {
         HttpSession session = request.getSession();
 
         String secret = (String) session.getAttribute("secret");
         String sha = (String) session.getAttribute("sha");
         String requestFingerprint = getRequestFingerprint(request);
 
-        info("sessionId= " + session.getId()
-                + ", secret=" + secret
-                + ", sha=" + sha
-                + ", requestFingerprint=" + requestFingerprint + ".");
+        if (logging) {
+            info("sessionId= " + session.getId()
+                    + ", secret=" + secret
+                    + ", sha=" + sha
+                    + ", requestFingerprint=" + requestFingerprint + ".");
+        }
 
         if (StringUtil.isEmpty(secret)
                 || StringUtil.isEmpty(sha)
@@ -156,46 +386,44 @@ public class PowFilter implements Filter {
             session.setAttribute("secret", secret);
             sha = DigestUtils.sha1Hex(secret + requestFingerprint);
             session.setAttribute("sha", sha);
-            info("If empty case: secret=" + secret + ", sha=" + sha + ".");
+            if (logging) {
+                info("If empty case: secret=" + secret + ", sha=" + sha + ".");
+            }
         }
 
         String half = sha.substring(0, 20);
-        String cookie = null;
-        if (request.getCookies() != null) {
-            for (Cookie c : request.getCookies()) {
-                if (c.getName().equals("pow")) {
-                    cookie = c.getValue();
-                    break;
-                }
-            }
-        }
+        String cookie = getPowCookie(request);
 
-        info("half=" + half + ", cookie=" + cookie + ".");
+        if (logging) {
+            info("half=" + half + ", cookie=" + cookie + ".");
+        }
 
         if (cookie != null && cookie.equals(sha)) {
             info("cookie != null && cookie.equals(sha).");
             chain.doFilter(request, response);
-        } else if (cookie != null && isResult(cookie, half)) {
-            info("cookie != null && isResult(cookie, half): cookie=" + cookie + ", half=" + half + ".");
-            Cookie powCookie = new Cookie("pow", sha);
-            powCookie.setPath("/");
-            powCookie.setMaxAge((int) TimeUnit.DAYS.toSeconds(1));
-            response.addCookie(powCookie);
-            info("Set-Cookie: pow=" + sha + ".");
+        } else if (cookie != null && isResult(cookie, half, difficulty)) {
+            if (logging) {
+                info("cookie != null && isResult(cookie, half): cookie=" + cookie + ", half=" + half + ".");
+            }
+            addPowCookie(response, sha);
+            if (logging) {
+                info("Set-Cookie: pow=" + sha + ".");
+            }
             chain.doFilter(request, response);
         } else {
-            info("else case: cookie=" + cookie + ", half=" + half + ".");
-            Cookie powCookie = new Cookie("pow", half);
-            powCookie.setPath("/");
-            powCookie.setMaxAge((int) TimeUnit.DAYS.toSeconds(1));
-            response.addCookie(powCookie);
+            if (logging) {
+                info("else case: cookie=" + cookie + ", half=" + half + ".");
+            }
+            addPowCookie(response, half);
             response.setContentType("text/html");
-            printResponse(response);
-            info("writer.flush(), Set-Cookie: pow=" + half + ".");
+            printResponse(response, difficulty);
+            if (logging) {
+                info("writer.flush(), Set-Cookie: pow=" + half + ".");
+            }
         }
     }
 
-    private static void printResponse(HttpServletResponse response) throws IOException {
+    private static void printResponse(HttpServletResponse response, int difficulty) throws IOException {
         PrintWriter writer = response.getWriter();
         writer.println("<style>\n" +
                 "p {\n" +
@@ -206,22 +434,27 @@ public class PowFilter implements Filter {
                 "}\n" +
                 "</style>\n<p>Please wait. Your browser is being checked. It may take a few seconds...</p>");
         writer.println("<script>");
-        writer.println(getObfuscatedJsCode());
-//        writer.println(getJsCode());
+        writer.println(JS_CODES[difficulty]);
+//        writer.println(getJsCode(difficulty));
         writer.println("</script>");
         writer.flush();
     }
 
-    private boolean isResult(String cookie, String halfSecret) {
+    private static boolean isResult(String cookie, String halfSecret, int difficulty) {
         if (StringUtil.isNotEmpty(cookie) && cookie.endsWith("_" + halfSecret)) {
             String hash = DigestUtils.sha1Hex(cookie);
-            return hash.startsWith("0000");
+            for (int i = 0; i < difficulty; ++i) {
+                if (hash.charAt(i) != '0') {
+                    return false;
+                }
+            }
+            return true;
         } else {
             return false;
         }
     }
 
-    private synchronized static String nextSecret() {
+    private static String nextSecret() {
         StringBuilder result = new StringBuilder();
         for (int i = 0; i < 4; i++) {
             result.append(RANDOM.nextInt());
@@ -229,13 +462,37 @@ public class PowFilter implements Filter {
         return DigestUtils.sha1Hex(result.toString());
     }
 
+    static String getObfuscatedJsCode(int difficulty) {
+        String jsCode = getObfuscatedJsCode();
+        if (difficulty == DEFAULT_DIFFICULTY) {
+            return jsCode;
+        }
+
+        int index = jsCode.indexOf(OBFUSCATED_DIFFICULTY_CHECK);
+        if (index < 0) {
+            throw new NocturneException("Can't find difficulty check in PowFilter js code.");
+        }
+
+        return jsCode.substring(0, index)
+                + "(0x0," + difficulty + ");if(_0x2a4818==='" + getZeros(difficulty) + "')"
+                + jsCode.substring(index + OBFUSCATED_DIFFICULTY_CHECK.length());
+    }
+
+    private static String getZeros(int count) {
+        StringBuilder zeros = new StringBuilder(count);
+        for (int i = 0; i < count; ++i) {
+            zeros.append('0');
+        }
+        return zeros.toString();
+    }
+
     private static String getObfuscatedJsCode() {
         return "var _0x3e09e3=_0x4bf8;(function(_0x42d959,_0x647252){var _0x25aba4=_0x4bf8,_0x437db0=_0x42d959();while(!![]){try{var _0x8e1627=-parseInt(_0x25aba4(0xa7))/0x1*(-parseInt(_0x25aba4(0x74))/0x2)+-parseInt(_0x25aba4(0xac))/0x3*(-parseInt(_0x25aba4(0x80))/0x4)+parseInt(_0x25aba4(0x98))/0x5*(parseInt(_0x25aba4(0xaa))/0x6)+parseInt(_0x25aba4(0x9d))/0x7+-parseInt(_0x25aba4(0x8a))/0x8*(-parseInt(_0x25aba4(0xab))/0x9)+parseInt(_0x25aba4(0x91))/0xa*(-parseInt(_0x25aba4(0x89))/0xb)+parseInt(_0x25aba4(0x72))/0xc*(-parseInt(_0x25aba4(0x7a))/0xd);if(_0x8e1627===_0x647252)break;else _0x437db0['push'](_0x437db0['shift']());}catch(_0x5d7d1d){_0x437db0['push'](_0x437db0['shift']());}}}(_0x2d66,0x4a27d));var _cs=['s=',_0x3e09e3(0xb6),_0x3e09e3(0x9a),'1024','0',_0x3e09e3(0xad),_0x3e09e3(0x94),';',_0x3e09e3(0x97),'=',_0x3e09e3(0x70),'\\x20','_',_0x3e09e3(0xae),'\\x0a',';p','000','=/','By',';','+','e','rCa','nav',_0x3e09e3(0xb5),'lo','bx','bst','bs','St',_0x3e09e3(0x9b),'it','arC','6c','th','ch',_0x3e09e3(0xa9),'mC','uk',_0x3e09e3(0xa6),'-',_0x3e09e3(0xb2),_0x3e09e3(0x96),'eAt','o7r','lz','omC','su','tr','c9','ri','eA','vi',_0x3e09e3(0x71),_0x3e09e3(0xb0),'h',_0x3e09e3(0x9c),'n6','gth','xl','jp','t','b64',_0x3e09e3(0x73),'b8y','ym','0','st','Of','hu','v4','co','gt',_0x3e09e3(0x8c),'4v','Ti','30','2n',_0x3e09e3(0x78),'pu','s9',_0x3e09e3(0x6f),'By','mCh','st','ki','zone','&','spl',_0x3e09e3(0x95),_0x3e09e3(0x76),'xnf','f7v','gbs','set',_0x3e09e3(0xa5),_0x3e09e3(0x7d),'re','h3q','zx','ad',_0x3e09e3(0x8d),'uhd',_0x3e09e3(0x86),'gt','ng',_0x3e09e3(0xb3),_0x3e09e3(0x81),_0x3e09e3(0x7b),'efm','ye','Ch',_0x3e09e3(0xa3),_0x3e09e3(0x9f),'hf','for','1wy',_0x3e09e3(0x88),'ow',_0x3e09e3(0xad),'Lo','to',_0x3e09e3(0xb1),'le','5r',_0x3e09e3(0xaf),'wph','get','7f','y3','Co',_0x3e09e3(0xa1),'sd','ce',_0x3e09e3(0xa4),_0x3e09e3(0x99),'fr','h7','t2','7y','dex','7c',_0x3e09e3(0x92),_0x3e09e3(0x83),'rC',_0x3e09e3(0xb6),_0x3e09e3(0xb4),'dow','od',_0x3e09e3(0x84),_0x3e09e3(0x7f),_0x3e09e3(0x79),'math','de',_0x3e09e3(0xa8),_0x3e09e3(0x8f),'At',_0x3e09e3(0x77),_0x3e09e3(0x7c),'in',_0x3e09e3(0x75),_0x3e09e3(0x82),_0x3e09e3(0x85),'har','fz',_0x3e09e3(0xa0),'Id','pa','9h','we','sh','me','se','m9','om','toU',_0x3e09e3(0x93),'rCo','g','w2',_0x3e09e3(0x7e),_0x3e09e3(0x8b),'hm','+','9v','0s',_0x3e09e3(0x9e),'h4',_0x3e09e3(0x8e),_0x3e09e3(0xa2),'%','t3z','5dk','bn',_0x3e09e3(0x99),'len',_0x3e09e3(0x87),'ar','ji',_0x3e09e3(0x90)];function _0x2d66(){var _0x9a6442=['nfl','n9s','pla','83v','fro','cha','60hKQkDX','abs','loc','ath','get','1024','ire','342455dubHwB','time','pow','mkk','nea','11382oqgMyh','Cha','7ox','qny','TCS','lau','win','geo','func','gs8','16181BJNMSb','Cod','sls','48axsGzc','95094eEcjTt','3CeVykH','Ele','exp','801','8jn','p66','tion','oki','sgg','0fi','pop','smp','nav','68m','60zvMLPs','rin','42qVGOUy','djt','ment','pus','ode','while','2725346qegrXi','sub','9ig','16u','tri','Str','392408ydMhjj','8a5','5i0','toS','pc2','nci','coo','l5u','irs','125972wOBRSc','328tXaqCx'];_0x2d66=function(){return _0x9a6442;};return _0x2d66();}function _f6(_0x2a5a76){function _0x2c4077(_0x4cb62a,_0x58288a){return _0x4cb62a<<_0x58288a|_0x4cb62a>>>0x20-_0x58288a;}function _0x22e96f(_0x1a925f){var _0x6b87c1='',_0x3b5310,_0x6446c7,_0x3a0707;for(_0x3b5310=0x0;_0x3b5310<=0x6;_0x3b5310+=0x2){_0x6446c7=_0x1a925f>>>_0x3b5310*0x4+0x4&0xf,_0x3a0707=_0x1a925f>>>_0x3b5310*0x4&0xf,_0x6b87c1+=_0x6446c7[_cs[0x8f]+_cs[0xb4]+_cs[0x69]](0x10)+_0x3a0707[_cs[0x79]+_cs[0x1d]+_cs[0x3f]+_cs[0xb2]](0x10);}return _0x6b87c1;}function _0x21b5bb(_0x5336ac){var _0x27054a='',_0x23d630,_0xc498df;for(_0x23d630=0x7;_0x23d630>=0x0;_0x23d630--){_0xc498df=_0x5336ac>>>_0x23d630*0x4&0xf,_0x27054a+=_0xc498df[_cs[0x8f]+_cs[0x30]+_cs[0x9f]+_cs[0xb2]](0x10);}return _0x27054a;}function _0x1d3ea3(_0x29925b){_0x29925b=_0x29925b[_cs[0x61]+_cs[0x65]+_cs[0x85]](/\\r\\_vs/g,_cs[0xe]);var _0x429bd5='';for(var _0x2911f=0x0;_0x2911f<_0x29925b[_cs[0x7b]+_cs[0x69]+_cs[0x22]];_0x2911f++){var _0x25f897=_0x29925b[_cs[0x23]+_cs[0x20]+_cs[0x4e]+_cs[0x9c]](_0x2911f);if(_0x25f897<0x80)_0x429bd5+=String[_cs[0x88]+_cs[0x2e]+_cs[0xa3]+_cs[0x9a]+_cs[0x15]](_0x25f897);else _0x25f897>0x7f&&_0x25f897<0x800?(_0x429bd5+=String[_cs[0x9b]+_cs[0x25]+_cs[0xa3]+_cs[0x9a]+_cs[0x15]](_0x25f897>>0x6|0xc0),_0x429bd5+=String[_cs[0x88]+_cs[0xae]+_cs[0xba]+_cs[0x90]+_cs[0x4e]](_0x25f897&0x3f|0x80)):(_0x429bd5+=String[_cs[0x9b]+_cs[0x53]+_cs[0xc5]+_cs[0x9a]+_cs[0x15]](_0x25f897>>0xc|0xe0),_0x429bd5+=String[_cs[0x88]+_cs[0xae]+_cs[0xba]+_cs[0x90]+_cs[0x4e]](_0x25f897>>0x6&0x3f|0x80),_0x429bd5+=String[_cs[0x88]+_cs[0xae]+_cs[0x6f]+_cs[0xc5]+_cs[0x82]+_cs[0x99]](_0x25f897&0x3f|0x80));}return _0x429bd5;}var _0x12612f,_0x12ad81,_0x1fd6c0,_0x1236c6=new Array(0x50),_0x199b1a=0x67452301,_0x475b8a=0xefcdab89,_0x45b004=0x98badcfe,_0x52f4a0=0x10325476,_0x871e14=0xc3d2e1f0,_0x183503,_0x76a6cd,_0x3e39cc,_0x19c81d,_0x50622b,_0x365471;_0x2a5a76=_0x1d3ea3(_0x2a5a76);var _0x46ffd3=_0x2a5a76[_cs[0x7b]+_cs[0x69]+_cs[0x22]],_0x13016d=new Array();for(_0x12ad81=0x0;_0x12ad81<_0x46ffd3-0x3;_0x12ad81+=0x4){_0x1fd6c0=_0x2a5a76[_cs[0x23]+_cs[0xc5]+_cs[0x9a]+_cs[0x33]+_cs[0x3d]](_0x12ad81)<<0x18|_0x2a5a76[_cs[0xc7]+_cs[0x90]+_cs[0x94]+_cs[0x2b]](_0x12ad81+0x1)<<0x10|_0x2a5a76[_cs[0xc7]+_cs[0xb1]+_cs[0x99]+_cs[0x9c]](_0x12ad81+0x2)<<0x8|_0x2a5a76[_cs[0xc7]+_cs[0x90]+_cs[0x4e]+_cs[0x9c]](_0x12ad81+0x3),_0x13016d[_cs[0x4f]+_cs[0xaa]](_0x1fd6c0);}switch(_0x46ffd3%0x4){case 0x0:_0x12ad81=0x80000000;break;case 0x1:_0x12ad81=_0x2a5a76[_cs[0x23]+_cs[0xc5]+_cs[0x9a]+_cs[0x2b]](_0x46ffd3-0x1)<<0x18|0x800000;break;case 0x2:_0x12ad81=_0x2a5a76[_cs[0x23]+_cs[0xc5]+_cs[0x82]+_cs[0x99]+_cs[0x9c]](_0x46ffd3-0x2)<<0x18|_0x2a5a76[_cs[0xc7]+_cs[0x90]+_cs[0x4e]+_cs[0x9c]](_0x46ffd3-0x1)<<0x10|0x8000;break;case 0x3:_0x12ad81=_0x2a5a76[_cs[0x23]+_cs[0xc5]+_cs[0x82]+_cs[0x99]+_cs[0x9c]](_0x46ffd3-0x3)<<0x18|_0x2a5a76[_cs[0x23]+_cs[0xc5]+_cs[0x9a]+_cs[0x2b]](_0x46ffd3-0x2)<<0x10|_0x2a5a76[_cs[0x23]+_cs[0xc5]+_cs[0x9a]+_cs[0x2b]](_0x46ffd3-0x1)<<0x8|0x80;break;}_0x13016d[_cs[0x4f]+_cs[0xaa]](_0x12ad81);while(_0x13016d[_cs[0x7b]+_cs[0x69]+_cs[0x22]]%0x10!=0xe)_0x13016d[_cs[0x9d]+_cs[0x37]](0x0);_0x13016d[_cs[0x9d]+_cs[0x37]](_0x46ffd3>>>0x1d),_0x13016d[_cs[0x4f]+_cs[0xaa]](_0x46ffd3<<0x3&0xffffffff);for(_0x12612f=0x0;_0x12612f<_0x13016d[_cs[0xc3]+_cs[0x48]+_cs[0x37]];_0x12612f+=0x10){for(_0x12ad81=0x0;_0x12ad81<0x10;_0x12ad81++)_0x1236c6[_0x12ad81]=_0x13016d[_0x12612f+_0x12ad81];for(_0x12ad81=0x10;_0x12ad81<=0x4f;_0x12ad81++)_0x1236c6[_0x12ad81]=_0x2c4077(_0x1236c6[_0x12ad81-0x3]^_0x1236c6[_0x12ad81-0x8]^_0x1236c6[_0x12ad81-0xe]^_0x1236c6[_0x12ad81-0x10],0x1);_0x183503=_0x199b1a,_0x76a6cd=_0x475b8a,_0x3e39cc=_0x45b004,_0x19c81d=_0x52f4a0,_0x50622b=_0x871e14;for(_0x12ad81=0x0;_0x12ad81<=0x13;_0x12ad81++){_0x365471=_0x2c4077(_0x183503,0x5)+(_0x76a6cd&_0x3e39cc|~_0x76a6cd&_0x19c81d)+_0x50622b+_0x1236c6[_0x12ad81]+0x5a827999&0xffffffff,_0x50622b=_0x19c81d,_0x19c81d=_0x3e39cc,_0x3e39cc=_0x2c4077(_0x76a6cd,0x1e),_0x76a6cd=_0x183503,_0x183503=_0x365471;}for(_0x12ad81=0x14;_0x12ad81<=0x27;_0x12ad81++){_0x365471=_0x2c4077(_0x183503,0x5)+(_0x76a6cd^_0x3e39cc^_0x19c81d)+_0x50622b+_0x1236c6[_0x12ad81]+0x6ed9eba1&0xffffffff,_0x50622b=_0x19c81d,_0x19c81d=_0x3e39cc,_0x3e39cc=_0x2c4077(_0x76a6cd,0x1e),_0x76a6cd=_0x183503,_0x183503=_0x365471;}for(_0x12ad81=0x28;_0x12ad81<=0x3b;_0x12ad81++){_0x365471=_0x2c4077(_0x183503,0x5)+(_0x76a6cd&_0x3e39cc|_0x76a6cd&_0x19c81d|_0x3e39cc&_0x19c81d)+_0x50622b+_0x1236c6[_0x12ad81]+0x8f1bbcdc&0xffffffff,_0x50622b=_0x19c81d,_0x19c81d=_0x3e39cc,_0x3e39cc=_0x2c4077(_0x76a6cd,0x1e),_0x76a6cd=_0x183503,_0x183503=_0x365471;}for(_0x12ad81=0x3c;_0x12ad81<=0x4f;_0x12ad81++){_0x365471=_0x2c4077(_0x183503,0x5)+(_0x76a6cd^_0x3e39cc^_0x19c81d)+_0x50622b+_0x1236c6[_0x12ad81]+0xca62c1d6&0xffffffff,_0x50622b=_0x19c81d,_0x19c81d=_0x3e39cc,_0x3e39cc=_0x2c4077(_0x76a6cd,0x1e),_0x76a6cd=_0x183503,_0x183503=_0x365471;}_0x199b1a=_0x199b1a+_0x183503&0xffffffff,_0x475b8a=_0x475b8a+_0x76a6cd&0xffffffff,_0x45b004=_0x45b004+_0x3e39cc&0xffffffff,_0x52f4a0=_0x52f4a0+_0x19c81d&0xffffffff,_0x871e14=_0x871e14+_0x50622b&0xffffffff;}var _0x365471=_0x21b5bb(_0x199b1a)+_0x21b5bb(_0x475b8a)+_0x21b5bb(_0x45b004)+_0x21b5bb(_0x52f4a0)+_0x21b5bb(_0x871e14);return _0x365471[_cs[0x79]+_cs[0x78]+_cs[0xa9]+_cs[0x16]+_cs[0xac]]();}function _f1(_0x115978){let _0x4b525c=_0x115978+_cs[0x9],_0x31b88d=decodeURIComponent(document[_cs[0x67]+_cs[0x55]+_cs[0x15]]),_0xcde38c=_0x31b88d[_cs[0x58]+_cs[0x1f]](_cs[0x13]);for(let _0x39e78f=0x0;_0x39e78f<_0xcde38c[_cs[0x7b]+_cs[0x69]+_cs[0x22]];_0x39e78f++){let _0xde7646=_0xcde38c[_0x39e78f];while(_0xde7646[_cs[0x23]+_cs[0xc5]+_cs[0x9c]](0x0)==_cs[0xb]){_0xde7646=_0xde7646[_cs[0x2f]+_cs[0x1c]+_cs[0x30]+_cs[0x9f]+_cs[0xb2]](0x1);}if(_0xde7646[_cs[0x9f]+_cs[0x8c]+_cs[0x44]](_0x4b525c)==0x0)return _0xde7646[_cs[0x2f]+_cs[0x1b]+_cs[0x32]+_cs[0x69]](_0x4b525c[_cs[0xc3]+_cs[0x3a]],_0xde7646[_cs[0xc3]+_cs[0x48]+_cs[0x37]]);}return'';}function _f0(_0x50f2e7,_0x4ba3c7,_0x12bed1){const _0x27a246=new Date();_0x27a246[_cs[0x5e]+_cs[0x4b]+_cs[0xab]](_0x27a246[_cs[0x59]+_cs[0x4b]+_cs[0xab]]()+_0x12bed1*0x18*0x3c*0x3c*0x3e8);let _0x30919e=_cs[0xd]+_cs[0x8]+_cs[0x0]+_0x27a246[_cs[0xaf]+_cs[0x83]+_cs[0xb4]+_cs[0x69]]();document[_cs[0x47]+_cs[0x6a]+_cs[0x15]]=_0x50f2e7+_cs[0x9]+_0x4ba3c7+_cs[0x7]+_0x30919e+_cs[0xf]+_cs[0x6]+_cs[0x11];}function _0x4bf8(_0x146005,_0x391096){var _0x2d6660=_0x2d66();return _0x4bf8=function(_0x4bf803,_0x159e44){_0x4bf803=_0x4bf803-0x6f;var _0x3d171d=_0x2d6660[_0x4bf803];return _0x3d171d;},_0x4bf8(_0x146005,_0x391096);}setTimeout(function(){var _0x2de4ef=_f1(_cs[0x2])[_cs[0x6c]+_cs[0x43]+_cs[0x3f]+_cs[0xb2]](0x0,0x14),_0x1758c1=0x0;for(_0x1758c1=0x0;;_0x1758c1++){var _0x1bbbb5=_0x1758c1[_cs[0x79]+_cs[0x96]+_cs[0x9f]+_cs[0xb2]]()+_cs[0xc]+_0x2de4ef,_0x2f8ab6=_f6(_0x1bbbb5),_0x2a4818=_0x2f8ab6[_cs[0x6c]+_cs[0x43]+_cs[0x32]+_cs[0x69]](0x0,0x4);if(_0x2a4818===_cs[0x10]+_cs[0x4]){_f0(_cs[0x2],_0x1bbbb5,0x1),location[_cs[0x61]+_cs[0x19]+_cs[0x64]]();break;}}},0x64);";
     }
 
     @SuppressWarnings("unused")
-    private static String getJsCode() {
-        return getSha1Code() + getAndSetCookieCode() + getPowCode();
+    private static String getJsCode(int difficulty) {
+        return getSha1Code() + getAndSetCookieCode() + getPowCode(difficulty);
     }
 
     private static String getSha1Code() {
@@ -398,15 +655,15 @@ public class PowFilter implements Filter {
                 "}\n\n";
     }
 
-    private static String getPowCode() {
+    private static String getPowCode(int difficulty) {
         return "setTimeout(function() {\n" +
                 "    var c = getCookie('pow').substring(0, 20);\n" +
                 "    var i = 0;\n" +
                 "    for (i = 0;; i++) {\n" +
                 "        var s = i.toString() + '_' + c;\n" +
                 "        var hash = sha1(s);\n" +
-                "        var prefix = hash.substring(0, 4);\n" +
-                "        if (prefix === \"0000\") {\n" +
+                "        var prefix = hash.substring(0, " + difficulty + ");\n" +
+                "        if (prefix === \"" + getZeros(difficulty) + "\") {\n" +
                 "            setCookie('pow', s, 1);\n" +
                 "            location.reload();\n" +
                 "            break;\n" +
@@ -415,6 +672,12 @@ public class PowFilter implements Filter {
                 "}, 100);\n\n";
     }
 
+    static {
+        for (int difficulty = 1; difficulty <= MAX_DIFFICULTY; ++difficulty) {
+            JS_CODES[difficulty] = getObfuscatedJsCode(difficulty);
+        }
+    }
+
     public static void addRequestFilter(RequestFilter filter) {
         REQUEST_FILTERS.add(filter);
     }
@@ -1,12 +1,14 @@
 package org.nocturne.geoip;
 
-import com.maxmind.db.CHMCache;
+import com.google.common.net.InetAddresses;
 import com.maxmind.db.Reader;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CityResponse;
+import com.maxmind.geoip2.model.CountryResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import org.nocturne.main.ApplicationContext;
 import org.nocturne.util.StringUtil;
 
 import javax.annotation.Nonnull;
@@ -16,18 +18,49 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.UnknownHostException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
+ * Country and city lookups by IP. The databases are memory-mapped (off-heap) on the first lookup,
+ * their paths are nocturne.geoip.country-database and nocturne.geoip.city-database. IP literals are
+ * parsed without DNS resolution, invalid ones are not looked up. Results are cached by address
+ * (nocturne.geoip.cache-size addresses per database).
+ *
  * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
  */
 @SuppressWarnings("WeakerAccess")
 public final class GeoIpUtil {
     private static final Logger logger = Logger.getLogger(GeoIpUtil.class);
 
-    private static final DatabaseReader COUNTRY_DETECTION_SERVICE;
-    private static final DatabaseReader CITY_DETECTION_SERVICE;
+    private static final String UNKNOWN_COUNTRY_CODE = "--";
+
+    /**
+     * Cached value for the addresses without city.
+     */
+    private static final String NO_CITY = "";
+
+    private static final String COUNTRY_RESOURCE_PATH = "/org/nocturne/geoip2/GeoLite2-Country.mmdb";
+    private static final List<String> DEFAULT_CITY_PATHS
+            = Arrays.asList("/srv/app/GeoLite2-City.mmdb", "C:/Temp/GeoLite2-City.mmdb");
+
+    private static final int DEFAULT_CACHE_SIZE = 65536;
+
+    /**
+     * Batches of this size or larger are looked up in parallel.
+     */
+    private static final int PARALLEL_BATCH_SIZE = 64;
+
+    /**
+     * High part of IPv4-mapped IPv6 address is zero, low part is 0x0000ffff_xxxxxxxx.
+     */
+    private static final long IPV4_MAPPED_PREFIX = 0xffffL << 32;
 
     private GeoIpUtil() {
         throw new UnsupportedOperationException();
@@ -39,34 +72,93 @@ public final class GeoIpUtil {
      */
     @Nonnull
     public static String getCountryCodeByIp(@Nonnull String ip) {
-        try {
-            return COUNTRY_DETECTION_SERVICE.country(InetAddress.getByName(ip)).getCountry().getIsoCode();
-        } catch (IOException | GeoIp2Exception | RuntimeException ignored) {
-            return "--";
+        DatabaseReader reader = CountryDatabase.READER;
+        if (reader == null) {
+            return UNKNOWN_COUNTRY_CODE;
         }
+
+        Address address = Address.parse(ip);
+        if (address == null) {
+            return UNKNOWN_COUNTRY_CODE;
+        }
+
+        String countryCode = CountryDatabase.CACHE.get(address.high, address.low);
+        if (countryCode == null) {
+            countryCode = UNKNOWN_COUNTRY_CODE;
+            try {
+                Optional<CountryResponse> response = reader.tryCountry(address.toInetAddress());
+                if (response.isPresent() && response.get().getCountry().getIsoCode() != null) {
+                    countryCode = response.get().getCountry().getIsoCode();
+                }
+            } catch (IOException | GeoIp2Exception e) {
+                logger.warn("Can't find country of " + ip + '.', e);
+            }
+            CountryDatabase.CACHE.put(address.high, address.low, countryCode);
+        }
+
+        return countryCode;
     }
 
+    /**
+     * @param ip IPv4 or IPv6 ip-address.
+     * @return Country name and city name (if known) separated with comma, {@code null} if the city
+     * database is not found or the address is unknown. Example: Russia, Saratov.
+     */
     @Nullable
     public static String getCityByIp(@Nonnull String ip) {
-        try {
-            CityResponse cityResponse = CITY_DETECTION_SERVICE.city(InetAddress.getByName(ip));
-            if (cityResponse.getCity().getName() == null) {
-                return cityResponse.getCountry().getName();
-            } else {
-                return cityResponse.getCountry().getName() + ", " + cityResponse.getCity().getName();
-            }
-        } catch (IOException | GeoIp2Exception | RuntimeException ignored) {
+        DatabaseReader reader = CityDatabase.READER;
+        if (reader == null) {
             return null;
         }
+
+        Address address = Address.parse(ip);
+        if (address == null) {
+            return null;
+        }
+
+        String city = CityDatabase.CACHE.get(address.high, address.low);
+        if (city == null) {
+            city = NO_CITY;
+            try {
+                Optional<CityResponse> response = reader.tryCity(address.toInetAddress());
+                if (response.isPresent()) {
+                    CityResponse cityResponse = response.get();
+                    if (cityResponse.getCity().getName() == null) {
+                        city = StringUtils.defaultString(cityResponse.getCountry().getName());
+                    } else {
+                        city = cityResponse.getCountry().getName() + ", " + cityResponse.getCity().getName();
+                    }
+                }
+            } catch (IOException | GeoIp2Exception e) {
+                logger.warn("Can't find city of " + ip + '.', e);
+            }
+            CityDatabase.CACHE.put(address.high, address.low, city);
+        }
+
+        return city.isEmpty() ? null : city;
     }
 
+    /**
+     * Looks up the addresses in parallel if there are many of them.
+     *
+     * @param ips IPv4 or IPv6 ip-addresses.
+     * @return Map from ip-address to its city (see {@link #getCityByIp(String)}), unknown addresses are skipped.
+     */
     @Nonnull
     public static Map<String, String> getCityByIp(@Nonnull Collection<String> ips) {
+        List<String> distinctIps = new ArrayList<>(new LinkedHashSet<>(ips));
+        String[] cities = new String[distinctIps.size()];
+
+        IntStream indices = IntStream.range(0, distinctIps.size());
+        if (distinctIps.size() >= PARALLEL_BATCH_SIZE) {
+            indices = indices.parallel();
+        }
+        indices.forEach(i -> cities[i] = getCityByIp(distinctIps.get(i)));
+
         Map<String, String> result = new HashMap<>();
-        for (String ip : ips) {
-            String city = getCityByIp(ip);
-            if (city != null) {
-                result.put(ip, city);
+        for (int i = 0; i < cities.length; ++i) {
+            if (cities[i] != null) {
+                result.put(distinctIps.get(i), cities[i]);
             }
         }
         return result;
@@ -88,37 +180,206 @@ public final class GeoIpUtil {
             return getCountryCodeByIp(ip);
         }
 
-        return "--";
+        return UNKNOWN_COUNTRY_CODE;
+    }
+
+    /**
+     * IP address as two longs, IPv4 addresses are mapped to IPv6.
+     */
+    static final class Address {
+        final long high;
+        final long low;
+
+        private Address(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        /**
+         * @return Parsed IP literal or {@code null} if it is not valid IPv4 or IPv6 address.
+         */
+        @Nullable
+        static Address parse(String ip) {
+            long ipv4 = parseIpv4(ip);
+            if (ipv4 >= 0) {
+                return new Address(0, IPV4_MAPPED_PREFIX | ipv4);
+            }
+
+            if (ip.indexOf(':') < 0) {
+                return null;
+            }
+
+            byte[] bytes;
+            try {
+                // Doesn't resolve host names, unlike InetAddress.getByName().
+                bytes = InetAddresses.forString(ip).getAddress();
+            } catch (IllegalArgumentException ignored) {
+                return null;
+            }
+
+            if (bytes.length == 4) {
+                return new Address(0, IPV4_MAPPED_PREFIX | toLong(bytes, 0, 4));
+            }
+            return new Address(toLong(bytes, 0, 8), toLong(bytes, 8, 8));
+        }
+
+        /**
+         * @return Address as unsigned int or -1 if it is not dotted decimal IPv4 address.
+         */
+        static long parseIpv4(String ip) {
+            int length = ip.length();
+            if (length < 7 || length > 15) {
+                return -1;
+            }
+
+            long result = 0;
+            int octet = 0;
+            int digits = 0;
+            int dots = 0;
+
+            for (int i = 0; i < length; ++i) {
+                char c = ip.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    if (digits > 0 && octet == 0) {
+                        // Leading zeros are ambiguous (octal in some parsers).
+                        return -1;
+                    }
+                    octet = octet * 10 + (c - '0');
+                    if (++digits > 3 || octet > 255) {
+                        return -1;
+                    }
+                } else if (c == '.') {
+                    if (digits == 0 || ++dots > 3) {
+                        return -1;
+                    }
+                    result = (result << 8) | octet;
+                    octet = 0;
+                    digits = 0;
+                } else {
+                    return -1;
+                }
+            }
+
+            if (digits == 0 || dots != 3) {
+                return -1;
+            }
+            return (result << 8) | octet;
+        }
+
+        private static long toLong(byte[] bytes, int offset, int length) {
+            long result = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                result = (result << 8) | (bytes[i] & 0xff);
+            }
+            return result;
+        }
+
+        private InetAddress toInetAddress() throws UnknownHostException {
+            byte[] bytes;
+            if (high == 0 && (low & 0xffffffff00000000L) == IPV4_MAPPED_PREFIX) {
+                bytes = new byte[4];
+                for (int i = 0; i < 4; ++i) {
+                    bytes[i] = (byte) (low >>> (24 - 8 * i));
+                }
+            } else {
+                bytes = new byte[16];
+                for (int i = 0; i < 8; ++i) {
+                    bytes[i] = (byte) (high >>> (56 - 8 * i));
+                    bytes[i + 8] = (byte) (low >>> (56 - 8 * i));
+                }
+            }
+            return InetAddress.getByAddress(bytes);
+        }
     }
 
-    static {
-        String countryResourcePath = "/org/nocturne/geoip2/GeoLite2-Country.mmdb";
+    private static int getCacheSize() {
+        int cacheSize = ApplicationContext.getInstance().getGeoIpCacheSize();
+        return cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE;
+    }
 
+    @Nullable
+    private static DatabaseReader open(File file) {
         try {
-            COUNTRY_DETECTION_SERVICE = new DatabaseReader.Builder(GeoIpUtil.class.getResourceAsStream(
-                    countryResourcePath)).withCache(new CHMCache()).fileMode(Reader.FileMode.MEMORY).build();
+            DatabaseReader reader = new DatabaseReader.Builder(file).fileMode(Reader.FileMode.MEMORY_MAPPED).build();
+            logger.info("GeoIP database " + reader.getMetadata().getDatabaseType() + " mapped from '" + file + "'.");
+            return reader;
         } catch (IOException e) {
-            throw new RuntimeException("Can't read resource '" + countryResourcePath + "'.", e);
-        }
-
-        DatabaseReader cityDatabaseReader = null;
-        List<String> citiesPaths = Arrays.asList("/srv/app/GeoLite2-City.mmdb", "C:/Temp/GeoLite2-City.mmdb");
-        for (String citiesPath : citiesPaths) {
-            if (cityDatabaseReader == null) {
-                try (InputStream cityInputStream = Files.newInputStream(new File(citiesPath).toPath())) {
-                    cityDatabaseReader = new DatabaseReader.Builder(cityInputStream)
-                            .withCache(new CHMCache()).fileMode(Reader.FileMode.MEMORY).build();
-                    logger.info("GeoLite2-City loaded from '" + citiesPath + "'.");
-                } catch (Exception e) {
-                    logger.info("Can't find \"" + citiesPath + "\".");
+            logger.error("Can't open GeoIP database '" + file + "'.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Holder of the country database, it is opened on the first country lookup (after the application
+     * context has been initialized).
+     */
+    private static final class CountryDatabase {
+        @Nullable
+        private static final DatabaseReader READER = openReader();
+
+        private static final IpAddressCache<String> CACHE = new IpAddressCache<>(getCacheSize());
+
+        @Nullable
+        private static DatabaseReader openReader() {
+            String path = ApplicationContext.getInstance().getGeoIpCountryDatabase();
+            if (path != null) {
+                return open(new File(path));
+            }
+
+            URL url = GeoIpUtil.class.getResource(COUNTRY_RESOURCE_PATH);
+            if (url == null) {
+                logger.warn("Can't find resource '" + COUNTRY_RESOURCE_PATH
+                        + "', set nocturne.geoip.country-database to detect countries.");
+                return null;
+            }
+
+            try {
+                if ("file".equals(url.getProtocol())) {
+                    return open(new File(url.toURI()));
                 }
+
+                // Resource in jar can't be mapped, so it is copied once.
+                Path copy = Files.createTempFile("nocturne-geoip-", ".mmdb");
+                copy.toFile().deleteOnExit();
+                try (InputStream inputStream = url.openStream()) {
+                    Files.copy(inputStream, copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return open(copy.toFile());
+            } catch (IOException | URISyntaxException e) {
+                logger.error("Can't read resource '" + COUNTRY_RESOURCE_PATH + "'.", e);
+                return null;
             }
         }
 
-        if (cityDatabaseReader == null) {
-            logger.warn("Can't find GeoLite2-City.mmdb in paths: " + StringUtils.join(citiesPaths, ", ") + ".");
-        }
+    }
+
+    /**
+     * Holder of the city database, it is opened on the first city lookup, so country-only applications
+     * don't map it.
+     */
+    private static final class CityDatabase {
+        @Nullable
+        private static final DatabaseReader READER = openReader();
+
+        private static final IpAddressCache<String> CACHE = new IpAddressCache<>(getCacheSize());
+
+        @Nullable
+        private static DatabaseReader openReader() {
+            String path = ApplicationContext.getInstance().getGeoIpCityDatabase();
+            if (path != null) {
+                return open(new File(path));
+            }
+
+            for (String cityPath : DEFAULT_CITY_PATHS) {
+                File file = new File(cityPath);
+                if (file.isFile()) {
+                    return open(file);
+                }
+            }
 
-        CITY_DETECTION_SERVICE = cityDatabaseReader;
+            logger.warn("Can't find GeoLite2-City.mmdb in paths: " + StringUtils.join(DEFAULT_CITY_PATHS, ", ")
+                    + ", set nocturne.geoip.city-database to detect cities.");
+            return null;
+        }
     }
 }
@@ -0,0 +1,54 @@
+package org.nocturne.geoip;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free cache of lookup results by IP address. The address is the key of two longs
+ * (IPv4 addresses are stored as IPv4-mapped IPv6 ones), so lookups don't box or allocate.
+ * The table is direct-mapped: a new entry replaces the one in its slot.
+ *
+ * @author Mike Mirzayanov (mirzayanovmr@gmail.com)
+ */
+final class IpAddressCache<V> {
+    private final int mask;
+    private final AtomicReferenceArray<Entry<V>> entries;
+
+    /**
+     * @param capacity Maximal number of entries, rounded up to a power of two.
+     */
+    IpAddressCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mask = size - 1;
+        entries = new AtomicReferenceArray<>(size);
+    }
+
+    @Nullable
+    V get(long high, long low) {
+        Entry<V> entry = entries.get(getIndex(high, low));
+        return entry != null && entry.high == high && entry.low == low ? entry.value : null;
+    }
+
+    void put(long high, long low, V value) {
+        entries.set(getIndex(high, low), new Entry<>(high, low, value));
+    }
+
+    private int getIndex(long high, long low) {
+        long z = high * 0x9e3779b97f4a7c15L ^ low;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return (int) (z ^ (z >>> 31)) & mask;
+    }
+
+    private static final class Entry<V> {
+        private final long high;
+        private final long low;
+        private final V value;
+
+        private Entry(long high, long low, V value) {
+            this.high = high;
+            this.low = low;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.gzip;
+
+import org.nocturne.pool.LockFreePool;
+
+import java.util.zip.Deflater;
+
+/**
+ * Pool of raw (without zlib header) deflaters with the fixed compression level.
+ * Each deflater holds native memory, so they are created one by one and ended on eviction.
+ *
+ * @author Mike Mirzayanov
+ */
+class DeflaterPool extends LockFreePool<Deflater> {
+    private final int level;
+
+    DeflaterPool(int level) {
+        this.level = level;
+    }
+
+    @Override
+    protected Deflater newInstance() {
+        return new Deflater(level, true);
+    }
+
+    @Override
+    protected int getAcquireIncrement() {
+        return 1;
+    }
+
+    @Override
+    protected void finalizeInstance(Deflater deflater) {
+        deflater.end();
+    }
+
+    @Override
+    public void release(Deflater deflater) {
+        deflater.reset();
+        super.release(deflater);
+    }
+}
@@ -8,37 +8,241 @@
  */
 package org.nocturne.gzip;
 
+import org.nocturne.exception.ConfigurationException;
+
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.PrintWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
 
+/**
+ * Compresses responses on the fly if the client accepts gzip. Compressed data is written
+ * to the client as soon as the deflater produces it (no Content-Length, chunked transfer).
+ * <p>
+ * Optional init parameters:
+ * <ul>
+ * <li>{@code compressionLevel} - deflate level 0..9 or -1 for the default one (default: 6),</li>
+ * <li>{@code minSize} - responses shorter than this number of bytes are sent uncompressed (default: 1024),</li>
+ * <li>{@code excludedContentTypes} - comma separated content types (or prefixes like {@code video/*})
+ * which are never compressed, replaces the default list of already compressed types,</li>
+ * <li>{@code flushPolicy} - {@code SYNC} (default) or {@code NONE}, see {@link FlushPolicy}.</li>
+ * </ul>
+ */
 public class GzipFilter implements Filter {
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    private static final int DEFAULT_MIN_SIZE = 1024;
+
+    private static final String[] DEFAULT_EXCLUDED_CONTENT_TYPES = {
+            "image/png", "image/jpeg", "image/gif", "image/webp", "image/avif",
+            "video/*", "audio/*", "font/woff", "font/woff2",
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/pdf",
+            "application/octet-stream"
+    };
+
+    private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+    private int minSize = DEFAULT_MIN_SIZE;
+    private String[] excludedContentTypes = DEFAULT_EXCLUDED_CONTENT_TYPES;
+    private FlushPolicy flushPolicy = FlushPolicy.SYNC;
+    private DeflaterPool deflaterPool = new DeflaterPool(DEFAULT_COMPRESSION_LEVEL);
+
     @Override
     public void doFilter(ServletRequest req, ServletResponse res,
                          FilterChain chain) throws IOException, ServletException {
-        if (req instanceof HttpServletRequest) {
+        if (req instanceof HttpServletRequest && res instanceof HttpServletResponse) {
             HttpServletRequest request = (HttpServletRequest) req;
             HttpServletResponse response = (HttpServletResponse) res;
             String ae = request.getHeader("accept-encoding");
-            if (ae != null && ae.indexOf("gzip") != -1) {
+            if (ae != null && ae.contains("gzip")) {
                 GzipResponseWrapper wrappedResponse =
-                        new GzipResponseWrapper(response);
-                chain.doFilter(req, wrappedResponse);
-                wrappedResponse.finishResponse();
+                        new GzipResponseWrapper(response, this);
+                try {
+                    chain.doFilter(req, wrappedResponse);
+                    wrappedResponse.finishResponse();
+                } finally {
+                    wrappedResponse.releaseResources();
+                }
                 return;
             }
+        }
+
+        if (res instanceof HttpServletResponse) {
+            chain.doFilter(req, new VaryResponseWrapper((HttpServletResponse) res, this));
+        } else {
             chain.doFilter(req, res);
         }
     }
 
     @Override
     public void init(FilterConfig filterConfig) {
-        // noop
+        String level = filterConfig.getInitParameter("compressionLevel");
+        if (level != null) {
+            compressionLevel = parseInt("compressionLevel", level);
+            if (compressionLevel != Deflater.DEFAULT_COMPRESSION
+                    && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)) {
+                throw new ConfigurationException("GzipFilter parameter compressionLevel should be in -1..9.");
+            }
+            deflaterPool = new DeflaterPool(compressionLevel);
+        }
+
+        String size = filterConfig.getInitParameter("minSize");
+        if (size != null) {
+            minSize = parseInt("minSize", size);
+            if (minSize < 0) {
+                throw new ConfigurationException("GzipFilter parameter minSize should be non-negative.");
+            }
+        }
+
+        String contentTypes = filterConfig.getInitParameter("excludedContentTypes");
+        if (contentTypes != null) {
+            List<String> types = new ArrayList<>();
+            for (String type : contentTypes.split(",")) {
+                type = type.trim().toLowerCase(Locale.ENGLISH);
+                if (!type.isEmpty()) {
+                    types.add(type);
+                }
+            }
+            excludedContentTypes = types.toArray(new String[0]);
+        }
+
+        String policy = filterConfig.getInitParameter("flushPolicy");
+        if (policy != null) {
+            try {
+                flushPolicy = FlushPolicy.valueOf(policy.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException("GzipFilter parameter flushPolicy should be one of "
+                        + Arrays.toString(FlushPolicy.values()) + '.', e);
+            }
+        }
     }
 
     @Override
     public void destroy() {
-        // noop
+        deflaterPool.close();
+    }
+
+    private static int parseInt(String name, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("GzipFilter parameter " + name + " should be integer.", e);
+        }
+    }
+
+    int getMinSize() {
+        return minSize;
+    }
+
+    FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    DeflaterPool getDeflaterPool() {
+        return deflaterPool;
+    }
+
+    /**
+     * @param contentType Content type of the response, may contain parameters like charset.
+     * @return {@code false} iff the content type is excluded from compression.
+     */
+    boolean isCompressibleContentType(String contentType) {
+        if (contentType == null) {
+            return true;
+        }
+
+        int semicolon = contentType.indexOf(';');
+        String type = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType)
+                .trim().toLowerCase(Locale.ENGLISH);
+
+        for (String excludedContentType : excludedContentTypes) {
+            if (excludedContentType.endsWith("/*")) {
+                if (type.startsWith(excludedContentType.substring(0, excludedContentType.length() - 1))) {
+                    return false;
+                }
+            } else if (type.equals(excludedContentType)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds {@code Vary: Accept-Encoding} if the content type of the response can be compressed, so caches
+     * keep compressed and identity responses apart. Should be called before the response is committed.
+     *
+     * @param response Response.
+     */
+    void addVaryHeader(HttpServletResponse response) {
+        if (!isCompressibleContentType(response.getContentType())) {
+            return;
+        }
+
+        for (String vary : response.getHeaders("Vary")) {
+            if (vary.toLowerCase(Locale.ENGLISH).contains("accept-encoding")) {
+                return;
+            }
+        }
+
+        response.addHeader("Vary", "Accept-Encoding");
+    }
+
+    /**
+     * Response to the client which doesn't accept gzip: it is not compressed but
+     * gets the same Vary header as the compressed one.
+     */
+    private static final class VaryResponseWrapper extends HttpServletResponseWrapper {
+        private final GzipFilter filter;
+        private boolean varyAdded;
+
+        private VaryResponseWrapper(HttpServletResponse response, GzipFilter filter) {
+            super(response);
+            this.filter = filter;
+        }
+
+        private void addVaryHeader() {
+            if (!varyAdded) {
+                varyAdded = true;
+                HttpServletResponse response = (HttpServletResponse) getResponse();
+                if (!response.isCommitted()) {
+                    filter.addVaryHeader(response);
+                }
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addVaryHeader();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addVaryHeader();
+            return super.getWriter();
+        }
+    }
+
+    /**
+     * What to do on explicit flush of the compressed response.
+     */
+    public enum FlushPolicy {
+        /**
+         * Sync flush of the deflater: everything written so far reaches the client
+         * (slightly worse compression ratio if the response is flushed often).
+         */
+        SYNC,
+
+        /**
+         * Explicit flushes are ignored, data is sent when deflater produces it and on close.
+         */
+        NONE
     }
 }
@@ -1,64 +1,158 @@
 package org.nocturne.gzip;
 
+import io.prometheus.client.Counter;
+import org.nocturne.prometheus.Prometheus;
+
 import javax.annotation.Nonnull;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
+/**
+ * Streaming gzip output: the first {@code minSize} bytes are buffered to decide if the response
+ * should be compressed at all, after that the data is deflated (or passed through) straight
+ * into the servlet output stream.
+ */
 public class GzipResponseStream extends ServletOutputStream {
-    private final ByteArrayOutputStream baos;
-    private final GZIPOutputStream gzipStream;
-    private boolean closed;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] GZIP_HEADER = {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final Counter.Child SMALL_RESPONSES = Prometheus.getGzipResponsesCounter().labels("small");
+    private static final Counter.Child COMPRESSED_RESPONSES = Prometheus.getGzipResponsesCounter().labels("compressed");
+    private static final Counter.Child EXCLUDED_RESPONSES = Prometheus.getGzipResponsesCounter().labels("excluded");
+
     private final HttpServletResponse response;
     private final ServletOutputStream output;
+    private final GzipFilter filter;
+
+    private State state = State.BUFFERING;
+
+    /**
+     * Head of the response, written before the decision to compress it.
+     */
+    private byte[] head;
+    private int headLength;
+
+    /**
+     * Content length set by the application, used only if the response is not compressed.
+     */
+    private long contentLength = -1;
 
-    public GzipResponseStream(HttpServletResponse response) throws IOException {
+    /**
+     * Set before closing, so flushes from the closing writer don't sync flush the deflater right before finishing.
+     */
+    private boolean closing;
+
+    private final byte[] singleByte = new byte[1];
+
+    private Deflater deflater;
+    private byte[] buffer;
+    private final CRC32 crc = new CRC32();
+    private long bytesIn;
+    private long bytesOut;
+
+    public GzipResponseStream(HttpServletResponse response, GzipFilter filter) throws IOException {
         super();
-        closed = false;
         this.response = response;
         this.output = response.getOutputStream();
-        baos = new ByteArrayOutputStream();
-        gzipStream = new GZIPOutputStream(baos);
+        this.filter = filter;
+        head = new byte[filter.getMinSize()];
+    }
+
+    void setContentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    void setClosing() {
+        closing = true;
     }
 
     @Override
     public void close() throws IOException {
-        if (closed) {
+        if (state == State.CLOSED) {
             throw new IOException("This output stream has already been closed");
         }
 
-        gzipStream.finish();
-        byte[] bytes = baos.toByteArray();
+        try {
+            if (state == State.BUFFERING) {
+                if (!response.isCommitted()) {
+                    if (!response.containsHeader("Content-Encoding")) {
+                        filter.addVaryHeader(response);
+                    }
+                    response.setContentLength(headLength);
+                }
+                output.write(head, 0, headLength);
+                SMALL_RESPONSES.inc();
+            } else if (state == State.COMPRESSING) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate(Deflater.NO_FLUSH);
+                }
+                writeTrailer();
 
-        response.addHeader("Content-Length", Integer.toString(bytes.length));
-        response.addHeader("Content-Encoding", "gzip");
+                Prometheus.getGzipBytesInCounter().inc(bytesIn);
+                Prometheus.getGzipBytesOutCounter().inc(bytesOut);
+                COMPRESSED_RESPONSES.inc();
+                if (bytesIn > 0) {
+                    Prometheus.getGzipRatio().observe(bytesOut / (double) bytesIn);
+                }
+            }
 
-        output.write(bytes);
-        output.flush();
-        output.close();
+            output.flush();
+            output.close();
+        } finally {
+            state = State.CLOSED;
+            head = null;
+            releaseDeflater();
+        }
+    }
 
-        closed = true;
+    /**
+     * Returns deflater to the pool, if the stream hasn't been closed normally.
+     */
+    void releaseDeflater() {
+        if (deflater != null) {
+            filter.getDeflaterPool().release(deflater);
+            deflater = null;
+        }
     }
 
     @Override
     public void flush() throws IOException {
-        if (closed) {
+        if (state == State.CLOSED) {
             throw new IOException("Cannot flush a closed output stream");
         }
 
-        gzipStream.flush();
+        // The head is kept until minSize bytes are written, so flushes don't make small responses compressed.
+        if (state == State.BUFFERING || closing || filter.getFlushPolicy() == GzipFilter.FlushPolicy.NONE) {
+            return;
+        }
+
+        if (state == State.COMPRESSING) {
+            int length;
+            do {
+                length = deflate(Deflater.SYNC_FLUSH);
+            } while (length == buffer.length);
+        }
+
+        output.flush();
     }
 
     @Override
     public void write(int b) throws IOException {
-        if (closed) {
-            throw new IOException("Cannot write to a closed output stream");
+        if (state == State.BUFFERING && headLength < head.length) {
+            head[headLength++] = (byte) b;
+            return;
         }
 
-        gzipStream.write(b);
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
     }
 
     @Override
@@ -68,11 +162,90 @@ public class GzipResponseStream extends ServletOutputStream {
 
     @Override
     public void write(@Nonnull byte[] b, int off, int len) throws IOException {
-        if (closed) {
+        if (state == State.CLOSED) {
             throw new IOException("Cannot write to a closed output stream");
         }
 
-        gzipStream.write(b, off, len);
+        if (len == 0) {
+            return;
+        }
+
+        if (state == State.BUFFERING) {
+            if (headLength + len <= head.length) {
+                System.arraycopy(b, off, head, headLength, len);
+                headLength += len;
+                return;
+            }
+            startBody();
+        }
+
+        if (state == State.COMPRESSING) {
+            compress(b, off, len);
+        } else {
+            output.write(b, off, len);
+        }
+    }
+
+    /**
+     * Decides whether to compress the response and writes the buffered head.
+     */
+    private void startBody() throws IOException {
+        if (!response.containsHeader("Content-Encoding")
+                && filter.isCompressibleContentType(response.getContentType())) {
+            response.addHeader("Content-Encoding", "gzip");
+            filter.addVaryHeader(response);
+
+            deflater = filter.getDeflaterPool().getInstance();
+            buffer = new byte[BUFFER_SIZE];
+            state = State.COMPRESSING;
+
+            output.write(GZIP_HEADER);
+            bytesOut += GZIP_HEADER.length;
+            compress(head, 0, headLength);
+        } else {
+            if (contentLength >= 0 && !response.isCommitted()) {
+                response.setContentLengthLong(contentLength);
+            }
+            state = State.PASS_THROUGH;
+
+            output.write(head, 0, headLength);
+            EXCLUDED_RESPONSES.inc();
+        }
+
+        head = null;
+    }
+
+    private void compress(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+
+        crc.update(b, off, len);
+        bytesIn += len;
+
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+    private int deflate(int flush) throws IOException {
+        int length = deflater.deflate(buffer, 0, buffer.length, flush);
+        if (length > 0) {
+            output.write(buffer, 0, length);
+            bytesOut += length;
+        }
+        return length;
+    }
+
+    private void writeTrailer() throws IOException {
+        long crcValue = crc.getValue();
+        byte[] trailer = {
+                (byte) crcValue, (byte) (crcValue >> 8), (byte) (crcValue >> 16), (byte) (crcValue >> 24),
+                (byte) bytesIn, (byte) (bytesIn >> 8), (byte) (bytesIn >> 16), (byte) (bytesIn >> 24)
+        };
+        output.write(trailer);
+        bytesOut += trailer.length;
     }
 
     @Override
@@ -84,4 +257,11 @@ public class GzipResponseStream extends ServletOutputStream {
     public void setWriteListener(WriteListener writeListener) {
         output.setWriteListener(writeListener);
     }
+
+    private enum State {
+        BUFFERING,
+        COMPRESSING,
+        PASS_THROUGH,
+        CLOSED
+    }
 }
@@ -10,15 +10,23 @@ import java.nio.charset.StandardCharsets;
 
 public class GzipResponseWrapper extends HttpServletResponseWrapper {
     protected HttpServletResponse response;
-    protected ServletOutputStream stream;
+    protected GzipResponseStream stream;
     protected PrintWriter writer;
 
-    public GzipResponseWrapper(HttpServletResponse response) {
+    private final GzipFilter filter;
+    private long contentLength = -1;
+
+    public GzipResponseWrapper(HttpServletResponse response, GzipFilter filter) {
         super(response);
         this.response = response;
+        this.filter = filter;
     }
 
     public void finishResponse() throws IOException {
+        if (stream != null) {
+            stream.setClosing();
+        }
+
         if (writer != null) {
             writer.close();
         } else {
@@ -28,13 +36,28 @@ public class GzipResponseWrapper extends HttpServletResponseWrapper {
         }
     }
 
-    private ServletOutputStream createOutputStream() throws IOException {
-        return new GzipResponseStream(response);
+    /**
+     * Returns pooled resources if the response hasn't been finished (say, on exception).
+     */
+    void releaseResources() {
+        if (stream != null) {
+            stream.releaseDeflater();
+        }
+    }
+
+    private GzipResponseStream createOutputStream() throws IOException {
+        GzipResponseStream result = new GzipResponseStream(response, filter);
+        result.setContentLength(contentLength);
+        return result;
     }
 
     @Override
     public void flushBuffer() throws IOException {
-        stream.flush();
+        if (writer != null) {
+            writer.flush();
+        } else if (stream != null) {
+            stream.flush();
+        }
     }
 
     @Override
@@ -67,6 +90,15 @@ public class GzipResponseWrapper extends HttpServletResponseWrapper {
 
     @Override
     public void setContentLength(int length) {
-        // No operations.
+        setContentLengthLong(length);
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+        // The length is known only for uncompressed responses, the stream sets it if needed.
+        contentLength = length;
+        if (stream != null) {
+            stream.setContentLength(length);
+        }
     }
 }
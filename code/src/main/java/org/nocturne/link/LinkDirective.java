@@ -7,6 +7,7 @@ import freemarker.core.Environment;
 import freemarker.template.*;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 
 /**
@@ -39,13 +40,17 @@ public class LinkDirective implements TemplateDirectiveModel {
         String linkName = linkNameValue == null ? null : linkNameValue.toString();
 
         if (body == null) {
+            Writer out = env.getOut();
             if (params.containsKey("value")) {
                 String value = params.get("value").toString();
                 params.remove("value");
-                String a = String.format("<a href=\"%s\">%s</a>", getLink(params, name, linkName), value);
-                env.getOut().write(a);
+                out.write("<a href=\"");
+                writeLink(out, params, name, linkName);
+                out.write("\">");
+                out.write(value);
+                out.write("</a>");
             } else {
-                env.getOut().write(getLink(params, name, linkName));
+                writeLink(out, params, name, linkName);
             }
         } else {
             throw new TemplateModelException("Body is not expected for LinkDirective directive.");
@@ -53,8 +58,8 @@ public class LinkDirective implements TemplateDirectiveModel {
     }
 
     @SuppressWarnings("unchecked")
-    private static String getLink(Map params, String name, String linkName) {
-        return linkName == null ? Links.getLinkByMap(name, params) : Links.getLinkByMap(name, linkName, params);
+    private static void writeLink(Writer out, Map params, String name, String linkName) throws IOException {
+        Links.writeLinkByMap(out, name, linkName, params);
     }
 
     /**
@@ -7,7 +7,6 @@ import freemarker.template.TemplateModel;
 import freemarker.template.TemplateModelException;
 import freemarker.template.TemplateSequenceModel;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.mutable.MutableBoolean;
 import org.nocturne.annotation.Name;
 import org.nocturne.collection.SingleEntryList;
 import org.nocturne.exception.ConfigurationException;
@@ -18,14 +17,15 @@ import org.nocturne.util.StringUtil;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -39,16 +39,27 @@ import java.util.concurrent.locks.ReentrantLock;
  * If you want to redirect to SomePage, use abortWithRedirect(Links.getLink(SomePage.class)) or
  * abortWithRedirect(SomePage.class).
  * </p>
+ * <p>
+ * Requested links are matched section by section (see {@link #match(String)}), so the most specific
+ * link wins regardless of the order of registration: a literal section is preferred to a parameter,
+ * a parameter with allowed values (like "{handle:Mike,Max}") is preferred to a parameter with
+ * restrictions (like "{id(long,positive)}"), which is preferred to a plain parameter. Only equally
+ * specific links are tried in order of registration. For example, "/user/new" matches "user/new"
+ * even if "user/{id}" was added before it (earlier versions took the first registered link).
+ * </p>
  *
  * @author Mike Mirzayanov
  */
 public class Links {
     private static final Lock addLinkLock = new ReentrantLock();
 
-    private static final int INTERCEPTOR_MAX_PERMIT_COUNT = 8 * Runtime.getRuntime().availableProcessors();
-    private static final Semaphore interceptorSemaphore = new Semaphore(INTERCEPTOR_MAX_PERMIT_COUNT);
-    private static final Map<String, Interceptor> interceptorByNameMap = new LinkedHashMap<>();
+    private static final Object interceptorsLock = new Object();
 
+    /**
+     * Immutable chain of interceptors in order of addition. Replaced (copy-on-write) under
+     * {@code interceptorsLock} on each change, links are generated without any locking.
+     */
+    private static volatile InterceptorChain interceptorChain = InterceptorChain.EMPTY;
 
     /**
      * Stores maps for each page class. Each map contains single patterns as keys
@@ -66,6 +77,24 @@ public class Links {
      */
     private static final ConcurrentMap<String, List<LinkSection>> sectionsByLinkText = new ConcurrentHashMap<>();
 
+    /**
+     * All registered routes in order of registration. Guarded by {@code addLinkLock}.
+     */
+    private static final List<Route> routes = new ArrayList<>();
+
+    /**
+     * Root of immutable segment trie used by {@link #match(String)}.
+     * Rebuilt (copy-on-write) on each {@link #add(Class, List)}.
+     */
+    private static volatile RouteNode routeIndex = new RouteNode(null).freeze();
+
+    /**
+     * Compiled reverse routers by page class and link name (empty string stands for any name).
+     * Replaced by a new empty map on each {@link #add(Class, List)}.
+     */
+    private static volatile ConcurrentMap<Class<? extends Page>, ConcurrentMap<String, ReverseRouter>>
+            reverseRoutersByPage = new ConcurrentHashMap<>();
+
     private static List<Link> getLinksViaReflection(Class<? extends Page> clazz) {
         List<Link> result = new ArrayList<>();
         Link link = clazz.getAnnotation(Link.class);
@@ -138,10 +167,12 @@ public class Links {
 
             Map<String, Link> links = getLinksByPageClass(clazz);
             if (links == null) {
-                // It is important that used synchronizedMap, because of "synchronized(links) {..}" later in code.
+                // It is important that used synchronizedMap, because links are read concurrently with add().
                 links = Collections.synchronizedMap(new LinkedHashMap<String, Link>());
             }
 
+            List<Route> addedRoutes = new ArrayList<>();
+
             for (Link link : linkSet) {
                 String[] pageLinks = StringUtil.Patterns.SEMICOLON_PATTERN.split(link.value());
                 for (String pageLink : pageLinks) {
@@ -159,10 +190,15 @@ public class Links {
                     }
 
                     links.put(pageLink, link);
+                    addedRoutes.add(new Route(clazz, pageLink, link, sectionsByLinkText.get(pageLink)));
                 }
             }
 
             linksByPage.put(clazz, links);
+
+            routes.addAll(addedRoutes);
+            routeIndex = buildRouteIndex(routes);
+            reverseRoutersByPage = new ConcurrentHashMap<>();
         } finally {
             addLinkLock.unlock();
         }
@@ -190,142 +226,134 @@ public class Links {
      * @return link for page. If there many links for page, returns one of them, which matches better
      * @throws NoSuchLinkException if no such link exists
      */
-    @SuppressWarnings({"OverlyComplexMethod", "OverlyLongMethod"})
     public static String getLinkByMap(Class<? extends Page> clazz, @Nullable String linkName, Map<String, ?> params) {
-        MutableBoolean multiValueParams = new MutableBoolean();
-        Map<String, List<String>> nonEmptyParams = getNonEmptyParams(params, multiValueParams);
+        ReverseRouter router = getReverseRouter(clazz, linkName);
+        String[] values = new String[router.parameterNames.length];
+        ReverseRoute route = router.match(params, values);
 
-        int bestMatchedCount = -1;
-        List<LinkSection> bestMatchedLinkSections = null;
-        Link bestMatchedLink = null;
+        StringBuilder result = new StringBuilder(64);
+        try {
+            route.append(result, ApplicationContext.getInstance().getContextPath(), values, params);
+        } catch (IOException e) {
+            throw new NocturneException("Unexpected IOException while appending to StringBuilder.", e);
+        }
 
-        for (Map.Entry<String, Link> entry : getLinksByPageClass(clazz).entrySet()) {
-            if (linkName != null && !linkName.isEmpty() && !linkName.equals(entry.getValue().name())) {
-                continue;
-            }
+        return applyInterceptors(result.toString(), route, clazz, linkName, params);
+    }
 
-            List<LinkSection> sections = sectionsByLinkText.get(entry.getKey());
-            boolean matched = true;
-            int matchedCount = 0;
-            for (LinkSection section : sections) {
-                if (section.isParameter()) {
-                    ++matchedCount;
-                    List<String> values = nonEmptyParams.get(section.getParameterName());
-                    String value = values == null ? null : values.get(0);
-                    if (value == null || !section.isSuitable(value)) {
-                        matched = false;
-                        break;
-                    }
-                }
-            }
-            if (matched && matchedCount > bestMatchedCount) {
-                bestMatchedCount = matchedCount;
-                bestMatchedLinkSections = sections;
-                bestMatchedLink = entry.getValue();
-            }
+    /**
+     * Writes link for page directly into the writer, the same link as {@link #getLinkByMap(String, String, Map)}
+     * returns. If there are interceptors to apply, the link is built as a string first.
+     *
+     * @param writer   Writer to write link to, usually the output of a template.
+     * @param name     Page name.
+     * @param linkName desired {@link Link#name() name} of the link
+     * @param params   parameters for substitution (for example link "profile/{handle}"
+     *                 may use "handle" key in the map.
+     * @throws IOException         if the writer fails
+     * @throws NoSuchLinkException if no such link exists
+     */
+    public static void writeLinkByMap(Writer writer, String name, @Nullable String linkName, Map<String, ?> params)
+            throws IOException {
+        Class<? extends Page> clazz = classesByName.get(name);
+        if (clazz == null) {
+            throw new NoSuchLinkException("Can't find link for page " + name + '.');
         }
 
-        if (bestMatchedLinkSections == null) {
-            if (linkName == null || linkName.isEmpty()) {
-                throw new NoSuchLinkException("Can't find link for page " + clazz.getName() + '.');
-            } else {
-                throw new NoSuchLinkException(
-                        "Can't find link with name \'" + linkName + "\' for page " + clazz.getName() + '.'
-                );
-            }
-        }
+        ReverseRouter router = getReverseRouter(clazz, linkName);
+        String[] values = new String[router.parameterNames.length];
+        ReverseRoute route = router.match(params, values);
+        String contextPath = ApplicationContext.getInstance().getContextPath();
 
-        StringBuilder result = new StringBuilder(ApplicationContext.getInstance().getContextPath());
-        Set<String> usedKeys = new HashSet<>();
+        if (route.getInterceptors(interceptorChain).length == 0) {
+            route.append(writer, contextPath, values, params);
+        } else {
+            StringBuilder result = new StringBuilder(64);
+            route.append(result, contextPath, values, params);
+            writer.write(applyInterceptors(result.toString(), route, clazz, linkName, params));
+        }
+    }
 
-        for (LinkSection section : bestMatchedLinkSections) {
-            String item;
+    private static String applyInterceptors(String linkResult, ReverseRoute route, Class<? extends Page> clazz,
+                                            @Nullable String linkName, Map<String, ?> params) {
+        for (Interceptor interceptor : route.getInterceptors(interceptorChain)) {
+            linkResult = interceptor.postprocess(linkResult, clazz, linkName, params);
+        }
+        return linkResult;
+    }
 
-            if (section.isParameter()) {
-                usedKeys.add(section.getParameterName());
-                item = nonEmptyParams.get(section.getParameterName()).get(0);
-            } else {
-                item = section.getValue();
-            }
+    private static ReverseRouter getReverseRouter(Class<? extends Page> clazz, @Nullable String linkName) {
+        String key = linkName == null ? "" : linkName;
+        ConcurrentMap<Class<? extends Page>, ConcurrentMap<String, ReverseRouter>> localReverseRoutersByPage
+                = reverseRoutersByPage;
 
-            result.append('/').append(item);
+        ConcurrentMap<String, ReverseRouter> reverseRouters = localReverseRoutersByPage.get(clazz);
+        if (reverseRouters == null) {
+            localReverseRoutersByPage.putIfAbsent(clazz, new ConcurrentHashMap<>());
+            reverseRouters = localReverseRoutersByPage.get(clazz);
         }
 
-        if (nonEmptyParams.size() > usedKeys.size() || multiValueParams.isTrue()) {
-            boolean first = true;
-            for (Map.Entry<String, List<String>> entry : nonEmptyParams.entrySet()) {
-                List<String> values = entry.getValue();
-                int valueCount = values.size();
-                int startIndex = valueCount;
-
-                if (usedKeys.contains(entry.getKey())) {
-                    if (valueCount > 1) {
-                        startIndex = 1;
-                    }
-                } else {
-                    startIndex = 0;
-                }
+        ReverseRouter router = reverseRouters.get(key);
+        if (router == null) {
+            reverseRouters.putIfAbsent(key, new ReverseRouter(clazz, key));
+            router = reverseRouters.get(key);
+        }
 
-                for (int i = startIndex; i < valueCount; ++i) {
-                    if (first) {
-                        result.append('?');
-                        first = false;
-                    } else {
-                        result.append('&');
-                    }
+        return router;
+    }
 
-                    try {
-                        result.append(entry.getKey()).append('=').append(URLEncoder.encode(values.get(i), StandardCharsets.UTF_8.name()));
-                    } catch (UnsupportedEncodingException e) {
-                        // No operations.
-                    }
-                }
-            }
+    /**
+     * @param value Parameter value: scalar, array, collection or Freemarker sequence.
+     * @return The first value as it will be used in a link or {@code null} if the value is missing.
+     */
+    @Nullable
+    private static String getFirstValue(@Nullable Object value) {
+        if (value == null) {
+            return null;
         }
 
-        String linkResult = result.toString();
-
-        interceptorSemaphore.acquireUninterruptibly();
-        try {
-            for (Map.Entry<String, Interceptor> e : interceptorByNameMap.entrySet()) {
-                boolean skip = false;
-                for (String skipInterceptor : bestMatchedLink.skipInterceptors()) {
-                    if (skipInterceptor.equals(e.getKey())) {
-                        skip = true;
-                    }
-                }
-                if (!skip) {
-                    linkResult = e.getValue().postprocess(linkResult, clazz, linkName, params);
-                }
+        if (isMultiValue(value)) {
+            if (isMissingValue(value)) {
+                return null;
             }
-        } finally {
-            interceptorSemaphore.release();
+            List<String> list = toStringList(value);
+            return list.isEmpty() ? null : list.get(0);
+        } else {
+            String result = value.toString();
+            return result.isEmpty() ? null : result;
         }
-
-        return linkResult;
     }
 
-    private static Map<String, List<String>> getNonEmptyParams(Map<String, ?> params, MutableBoolean multiValueParams) {
-        multiValueParams.setValue(false);
-        Map<String, List<String>> nonEmptyParams = new LinkedHashMap<>();
-
-        for (Map.Entry<String, ?> entry : params.entrySet()) {
-            Object value = entry.getValue();
-            if (!isMissingValue(value)) {
-                List<String> list = toStringList(value);
-                int count = list.size();
-
-                if (count > 0) {
-                    nonEmptyParams.put(entry.getKey(), list);
+    /**
+     * @return {@code true} iff the value is a Freemarker sequence, collection or array.
+     */
+    private static boolean isMultiValue(@Nonnull Object value) {
+        // Usual values are checked first: failed instanceof checks against interfaces are not free.
+        if (value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return false;
+        }
+        return value instanceof TemplateSequenceModel || value instanceof Collection || value.getClass().isArray();
+    }
 
-                    if (count > 1) {
-                        multiValueParams.setValue(true);
-                    }
+    /**
+     * Appends the value like {@code URLEncoder.encode(value, "UTF-8")} does, but without
+     * any allocations if the value contains only chars which are not changed by encoding.
+     */
+    private static void appendEncoded(Appendable out, String value) throws IOException {
+        for (int i = 0, length = value.length(); i < length; ++i) {
+            char c = value.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == '.' || c == '-' || c == '*' || c == '_')) {
+                try {
+                    out.append(URLEncoder.encode(value, StandardCharsets.UTF_8.name()));
+                } catch (UnsupportedEncodingException e) {
+                    // No operations.
                 }
+                return;
             }
         }
 
-        return nonEmptyParams;
+        out.append(value);
     }
 
     @Nonnull
@@ -508,6 +536,8 @@ public class Links {
     }
 
     /**
+     * Finds the most specific link (see the precedence in the class description).
+     *
      * @param link Relative link to the page started from "/".
      *             For example, "/profile/MikeMirzayanov".
      * @return Result instance or {@code null} if not found.
@@ -529,63 +559,72 @@ public class Links {
 
         String[] linkTokens = StringUtil.Patterns.SLASH_PATTERN.split(link.substring(1));
 
-        for (Map.Entry<Class<? extends Page>, Map<String, Link>> listEntry : linksByPage.entrySet()) {
-            Map<String, Link> patterns = listEntry.getValue();
-            if (patterns == null) {
-                continue;
-            }
-
-            //noinspection SynchronizationOnLocalVariableOrMethodParameter
-            synchronized (patterns) {
-                for (Map.Entry<String, Link> patternEntry : patterns.entrySet()) {
-                    String linkText = patternEntry.getKey();
-                    Map<String, String> attrs = match(linkTokens, linkText);
+        Route route = match(routeIndex, linkTokens, 0);
+        if (route == null) {
+            return null;
+        }
 
-                    if (attrs != null) {
-                        return new LinkMatchResult(listEntry.getKey(), linkText, attrs, patternEntry.getValue());
-                    }
-                }
-            }
+        String[] parameterNames = route.parameterNames;
+        int[] parameterIndices = route.parameterIndices;
+        Map<String, String> attrs = new HashMap<>(parameterNames.length * 2);
+        for (int i = 0; i < parameterNames.length; ++i) {
+            attrs.put(parameterNames[i], linkTokens[parameterIndices[i]]);
         }
 
-        return null;
+        return new LinkMatchResult(route.pageClass, route.linkText, attrs, route.link);
     }
 
     /**
+     * Walks the route trie. Literal children are tried first, then parameter children
+     * in order of specificity. Backtracks if the chosen branch doesn't lead to a route.
+     *
+     * @param node       Current trie node.
      * @param linkTokens For example, ["profile", "MikeMirzayanov"] for requested link "/profile/MikeMirzayanov".
-     * @param linkText   Link pattern, like "profile/{handle}".
-     * @return Correspondent params map or {@code null} if not matched.
+     * @param tokenIndex Index of the token to match against children of {@code node}.
+     * @return Matched route or {@code null} if not matched.
      */
-    private static Map<String, String> match(String[] linkTokens, String linkText) {
-        List<LinkSection> sections = sectionsByLinkText.get(linkText);
-        if (sections == null) {
-            throw new NocturneException("Can't find sections for linkText=\"" + linkText + "\".");
+    @Nullable
+    private static Route match(RouteNode node, String[] linkTokens, int tokenIndex) {
+        if (tokenIndex == linkTokens.length) {
+            return node.route;
         }
 
-        int linkTokenCount = linkTokens.length;
-
-        if (linkTokenCount == sections.size()) {
-            Map<String, String> attrs = new HashMap<>();
+        String token = linkTokens[tokenIndex];
 
-            for (int linkTokenIndex = 0; linkTokenIndex < linkTokenCount; ++linkTokenIndex) {
-                LinkSection section = sections.get(linkTokenIndex);
+        RouteNode literalChild = node.literalChildren.get(token);
+        if (literalChild != null) {
+            Route route = match(literalChild, linkTokens, tokenIndex + 1);
+            if (route != null) {
+                return route;
+            }
+        }
 
-                if (section.isParameter()) {
-                    if (!section.isSuitable(linkTokens[linkTokenIndex])) {
-                        return null;
-                    }
-                    attrs.put(section.getParameterName(), linkTokens[linkTokenIndex]);
-                } else {
-                    if (!section.getValue().equals(linkTokens[linkTokenIndex])) {
-                        return null;
-                    }
+        for (RouteNode parameterChild : node.parameterChildren) {
+            if (parameterChild.section.isSuitable(token)) {
+                Route route = match(parameterChild, linkTokens, tokenIndex + 1);
+                if (route != null) {
+                    return route;
                 }
             }
+        }
 
-            return attrs;
-        } else {
-            return null;
+        return null;
+    }
+
+    private static RouteNode buildRouteIndex(List<Route> routes) {
+        RouteNode root = new RouteNode(null);
+
+        for (Route route : routes) {
+            RouteNode node = root;
+            for (LinkSection section : route.sections) {
+                node = node.getOrCreateChild(section);
+            }
+            if (node.route == null) {
+                node.route = route;
+            }
         }
+
+        return root.freeze();
     }
 
     /**
@@ -617,6 +656,389 @@ public class Links {
         return linkSections;
     }
 
+    /**
+     * Single registered link pattern with precomputed positions of its parameters.
+     */
+    private static final class Route {
+        private final Class<? extends Page> pageClass;
+        private final String linkText;
+        private final Link link;
+        private final List<LinkSection> sections;
+        private final String[] parameterNames;
+        private final int[] parameterIndices;
+
+        private Route(Class<? extends Page> pageClass, String linkText, Link link, List<LinkSection> sections) {
+            this.pageClass = pageClass;
+            this.linkText = linkText;
+            this.link = link;
+            this.sections = sections;
+
+            int parameterCount = 0;
+            for (LinkSection section : sections) {
+                if (section.isParameter()) {
+                    ++parameterCount;
+                }
+            }
+
+            parameterNames = new String[parameterCount];
+            parameterIndices = new int[parameterCount];
+
+            for (int sectionIndex = 0, parameterIndex = 0; sectionIndex < sections.size(); ++sectionIndex) {
+                LinkSection section = sections.get(sectionIndex);
+                if (section.isParameter()) {
+                    parameterNames[parameterIndex] = section.getParameterName();
+                    parameterIndices[parameterIndex] = sectionIndex;
+                    ++parameterIndex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiled reverse routing table of a page class and link name. Candidate links are ordered
+     * by the number of parameters (descending, stable), so the first suitable candidate is
+     * the best one. Each candidate has a bit mask of required parameters, which are checked
+     * against the mask of the supplied parameters before looking at the values.
+     */
+    private static final class ReverseRouter {
+        private static final int MAX_MASK_PARAMETER_COUNT = 64;
+        private static final ReverseRoute[] EMPTY_ROUTES = new ReverseRoute[0];
+
+        private final Class<? extends Page> pageClass;
+        private final String linkName;
+
+        /**
+         * All the parameter names of the candidates, the first 64 of them have bits in masks.
+         */
+        private final String[] parameterNames;
+        private final ReverseRoute[] routes;
+
+        private ReverseRouter(Class<? extends Page> pageClass, String linkName) {
+            this.pageClass = pageClass;
+            this.linkName = linkName;
+
+            Map<String, Link> links = getLinksByPageClass(pageClass);
+            if (links == null) {
+                throw new NoSuchLinkException("Can't find link for page " + pageClass.getName() + '.');
+            }
+
+            List<Map.Entry<String, Link>> entries;
+            synchronized (links) {
+                entries = new ArrayList<>(links.entrySet());
+            }
+
+            Map<String, Integer> parameterIndexByName = new LinkedHashMap<>();
+            List<ReverseRoute> routeList = new ArrayList<>(entries.size());
+
+            for (Map.Entry<String, Link> entry : entries) {
+                if (!linkName.isEmpty() && !linkName.equals(entry.getValue().name())) {
+                    continue;
+                }
+
+                List<LinkSection> sections = sectionsByLinkText.get(entry.getKey());
+                for (LinkSection section : sections) {
+                    if (section.isParameter() && !parameterIndexByName.containsKey(section.getParameterName())) {
+                        parameterIndexByName.put(section.getParameterName(), parameterIndexByName.size());
+                    }
+                }
+
+                routeList.add(new ReverseRoute(entry.getValue(), sections, parameterIndexByName));
+            }
+
+            // Stable sort: links with the same number of parameters keep order of registration.
+            routeList.sort((a, b) -> Integer.compare(b.sections.length, a.sections.length));
+
+            parameterNames = parameterIndexByName.keySet().toArray(new String[0]);
+            routes = routeList.toArray(EMPTY_ROUTES);
+        }
+
+        /**
+         * @param params Link parameters.
+         * @param values Array to store the first values of the parameters (by index in parameterNames).
+         * @return The best suitable route.
+         * @throws NoSuchLinkException if no route is suitable
+         */
+        private ReverseRoute match(Map<String, ?> params, String[] values) {
+            long suppliedMask = 0;
+            if (!params.isEmpty()) {
+                for (int i = 0; i < parameterNames.length; ++i) {
+                    String value = getFirstValue(params.get(parameterNames[i]));
+                    values[i] = value;
+                    if (value != null && i < MAX_MASK_PARAMETER_COUNT) {
+                        suppliedMask |= 1L << i;
+                    }
+                }
+            }
+
+            for (ReverseRoute route : routes) {
+                if ((route.requiredMask & ~suppliedMask) == 0 && route.isSuitable(values)) {
+                    return route;
+                }
+            }
+
+            if (linkName.isEmpty()) {
+                throw new NoSuchLinkException("Can't find link for page " + pageClass.getName() + '.');
+            } else {
+                throw new NoSuchLinkException(
+                        "Can't find link with name \'" + linkName + "\' for page " + pageClass.getName() + '.'
+                );
+            }
+        }
+    }
+
+    /**
+     * Single link pattern prepared for link generation: the link is
+     * literals[0] + value[0] + literals[1] + ... + value[n - 1] + literals[n].
+     */
+    private static final class ReverseRoute {
+        private final Link link;
+        private final Set<String> skipInterceptors;
+
+        /**
+         * Interceptors of the chain which are not skipped by the link, recomputed if the chain changes.
+         */
+        private volatile RouteInterceptors routeInterceptors;
+
+        /**
+         * Parameter sections of the link.
+         */
+        private final LinkSection[] sections;
+        private final String[] literals;
+        private final int[] parameterIndices;
+        private final long requiredMask;
+
+        private ReverseRoute(Link link, List<LinkSection> linkSections, Map<String, Integer> parameterIndexByName) {
+            this.link = link;
+            this.skipInterceptors = new HashSet<>(Arrays.asList(link.skipInterceptors()));
+            this.routeInterceptors = new RouteInterceptors(InterceptorChain.EMPTY, skipInterceptors);
+
+            List<LinkSection> parameterSections = new ArrayList<>();
+            List<String> literalList = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+
+            for (LinkSection section : linkSections) {
+                literal.append('/');
+                if (section.isParameter()) {
+                    literalList.add(literal.toString());
+                    literal.setLength(0);
+                    parameterSections.add(section);
+                } else {
+                    literal.append(section.getValue());
+                }
+            }
+            literalList.add(literal.toString());
+
+            sections = parameterSections.toArray(new LinkSection[0]);
+            literals = literalList.toArray(new String[0]);
+            parameterIndices = new int[sections.length];
+
+            long mask = 0;
+            for (int i = 0; i < sections.length; ++i) {
+                int parameterIndex = parameterIndexByName.get(sections[i].getParameterName());
+                parameterIndices[i] = parameterIndex;
+                if (parameterIndex < ReverseRouter.MAX_MASK_PARAMETER_COUNT) {
+                    mask |= 1L << parameterIndex;
+                }
+            }
+            requiredMask = mask;
+        }
+
+        private boolean isSuitable(String[] values) {
+            for (int i = 0; i < sections.length; ++i) {
+                String value = values[parameterIndices[i]];
+                if (value == null || !sections[i].isSuitable(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Interceptor[] getInterceptors(InterceptorChain chain) {
+            RouteInterceptors result = routeInterceptors;
+            if (result.chain != chain) {
+                routeInterceptors = result = new RouteInterceptors(chain, skipInterceptors);
+            }
+            return result.interceptors;
+        }
+
+        private boolean isUsedParameter(String name) {
+            for (LinkSection section : sections) {
+                if (section.getParameterName().equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Appends the link: path with parameter values and the query string with the other parameters.
+         */
+        private void append(Appendable out, String contextPath, String[] values, Map<String, ?> params)
+                throws IOException {
+            out.append(contextPath);
+            for (int i = 0; i < sections.length; ++i) {
+                out.append(literals[i]).append(values[parameterIndices[i]]);
+            }
+            out.append(literals[sections.length]);
+
+            if (params.isEmpty()) {
+                return;
+            }
+
+            boolean first = true;
+            for (Map.Entry<String, ?> entry : params.entrySet()) {
+                Object value = entry.getValue();
+                if (value == null) {
+                    continue;
+                }
+
+                boolean used = isUsedParameter(entry.getKey());
+
+                if (!isMultiValue(value)) {
+                    String item = value.toString();
+                    if (!used && !item.isEmpty()) {
+                        out.append(first ? '?' : '&').append(entry.getKey()).append('=');
+                        appendEncoded(out, item);
+                        first = false;
+                    }
+                    continue;
+                }
+
+                if (isMissingValue(value)) {
+                    continue;
+                }
+
+                List<String> list = toStringList(value);
+                for (int i = used ? 1 : 0, count = list.size(); i < count; ++i) {
+                    out.append(first ? '?' : '&').append(entry.getKey()).append('=');
+                    appendEncoded(out, list.get(i));
+                    first = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Immutable list of interceptors with their names.
+     */
+    private static final class InterceptorChain {
+        private static final InterceptorChain EMPTY = new InterceptorChain(new String[0], new Interceptor[0]);
+
+        private final String[] names;
+        private final Interceptor[] interceptors;
+
+        private InterceptorChain(String[] names, Interceptor[] interceptors) {
+            this.names = names;
+            this.interceptors = interceptors;
+        }
+
+        private int indexOf(String name) {
+            for (int i = 0; i < names.length; ++i) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private InterceptorChain add(String name, Interceptor interceptor) {
+            String[] newNames = Arrays.copyOf(names, names.length + 1);
+            Interceptor[] newInterceptors = Arrays.copyOf(interceptors, interceptors.length + 1);
+            newNames[names.length] = name;
+            newInterceptors[interceptors.length] = interceptor;
+            return new InterceptorChain(newNames, newInterceptors);
+        }
+
+        private InterceptorChain remove(int index) {
+            String[] newNames = new String[names.length - 1];
+            Interceptor[] newInterceptors = new Interceptor[interceptors.length - 1];
+            for (int i = 0, j = 0; i < names.length; ++i) {
+                if (i != index) {
+                    newNames[j] = names[i];
+                    newInterceptors[j] = interceptors[i];
+                    ++j;
+                }
+            }
+            return new InterceptorChain(newNames, newInterceptors);
+        }
+    }
+
+    /**
+     * Interceptors of the chain which should be applied to the links of a route.
+     */
+    private static final class RouteInterceptors {
+        private static final Interceptor[] EMPTY_INTERCEPTORS = new Interceptor[0];
+
+        private final InterceptorChain chain;
+        private final Interceptor[] interceptors;
+
+        private RouteInterceptors(InterceptorChain chain, Set<String> skipInterceptors) {
+            this.chain = chain;
+
+            List<Interceptor> list = new ArrayList<>(chain.interceptors.length);
+            for (int i = 0; i < chain.names.length; ++i) {
+                if (!skipInterceptors.contains(chain.names[i])) {
+                    list.add(chain.interceptors[i]);
+                }
+            }
+            this.interceptors = list.toArray(EMPTY_INTERCEPTORS);
+        }
+    }
+
+    /**
+     * Node of the route trie. Mutable only while building, the published trie is never modified.
+     */
+    private static final class RouteNode {
+        private static final RouteNode[] EMPTY_ARRAY = new RouteNode[0];
+
+        /**
+         * Parameter section of this node or {@code null} for root and literal nodes.
+         */
+        @Nullable
+        private final LinkSection section;
+
+        private Map<String, RouteNode> literalChildren = new HashMap<>();
+        private Map<String, RouteNode> parameterChildrenBySection = new LinkedHashMap<>();
+        private RouteNode[] parameterChildren = EMPTY_ARRAY;
+
+        @Nullable
+        private Route route;
+
+        private RouteNode(@Nullable LinkSection section) {
+            this.section = section;
+        }
+
+        private RouteNode getOrCreateChild(LinkSection childSection) {
+            if (childSection.isParameter()) {
+                return parameterChildrenBySection.computeIfAbsent(childSection.section, key -> new RouteNode(childSection));
+            } else {
+                return literalChildren.computeIfAbsent(childSection.getValue(), key -> new RouteNode(null));
+            }
+        }
+
+        private RouteNode freeze() {
+            for (RouteNode child : literalChildren.values()) {
+                child.freeze();
+            }
+
+            List<RouteNode> parameterNodes = new ArrayList<>(parameterChildrenBySection.values());
+            for (RouteNode child : parameterNodes) {
+                child.freeze();
+            }
+
+            // Stable sort: equally specific sections keep order of registration.
+            parameterNodes.sort((a, b) -> Integer.compare(b.section.getSpecificity(), a.section.getSpecificity()));
+
+            if (literalChildren.isEmpty()) {
+                literalChildren = Collections.emptyMap();
+            }
+            parameterChildren = parameterNodes.toArray(EMPTY_ARRAY);
+            parameterChildrenBySection = null;
+
+            return this;
+        }
+    }
+
     private static final class LinkSection {
         private final String section;
         private final boolean parameter;
@@ -744,8 +1166,10 @@ public class Links {
         }
 
         public boolean isSuitable(String value) {
-            for (ParameterRestriction parameterRestriction : getParameterRestrictions()) {
-                if (!parameterRestriction.isSuitable(value)) {
+            ensureParameterSection("parameterRestrictions");
+
+            for (int i = 0, count = parameterRestrictions.size(); i < count; ++i) {
+                if (!parameterRestrictions.get(i).isSuitable(value)) {
                     return false;
                 }
             }
@@ -753,6 +1177,20 @@ public class Links {
             return true;
         }
 
+        /**
+         * @return Comparable weight of the parameter section: sections with explicit allowed values
+         * are the most specific, then sections with more restrictions.
+         */
+        private int getSpecificity() {
+            ensureParameterSection("specificity");
+
+            int specificity = parameterRestrictions.size();
+            if (allowedParameterValues != null && !allowedParameterValues.isEmpty()) {
+                specificity += 1000;
+            }
+            return specificity;
+        }
+
         private void ensureValueSection(String fieldName) {
             if (parameter) {
                 throw new IllegalStateException(String.format(
@@ -1009,14 +1447,11 @@ public class Links {
             throw new IllegalArgumentException("Argument \'interceptor\' is \'null\'.");
         }
 
-        interceptorSemaphore.acquireUninterruptibly(INTERCEPTOR_MAX_PERMIT_COUNT);
-        try {
-            if (interceptorByNameMap.containsKey(name)) {
+        synchronized (interceptorsLock) {
+            if (interceptorChain.indexOf(name) >= 0) {
                 throw new IllegalStateException("Interceptor with name \'" + name + "\' already added.");
             }
-            interceptorByNameMap.put(name, interceptor);
-        } finally {
-            interceptorSemaphore.release(INTERCEPTOR_MAX_PERMIT_COUNT);
+            interceptorChain = interceptorChain.add(name, interceptor);
         }
     }
 
@@ -1028,11 +1463,11 @@ public class Links {
     public static void removeInterceptor(String name) {
         ensureInterceptorName(name);
 
-        interceptorSemaphore.acquireUninterruptibly(INTERCEPTOR_MAX_PERMIT_COUNT);
-        try {
-            interceptorByNameMap.remove(name);
-        } finally {
-            interceptorSemaphore.release(INTERCEPTOR_MAX_PERMIT_COUNT);
+        synchronized (interceptorsLock) {
+            int index = interceptorChain.indexOf(name);
+            if (index >= 0) {
+                interceptorChain = interceptorChain.remove(index);
+            }
         }
     }
 
@@ -1044,13 +1479,7 @@ public class Links {
      */
     public static boolean hasInterceptor(String name) {
         ensureInterceptorName(name);
-
-        interceptorSemaphore.acquireUninterruptibly(INTERCEPTOR_MAX_PERMIT_COUNT);
-        try {
-            return interceptorByNameMap.containsKey(name);
-        } finally {
-            interceptorSemaphore.release(INTERCEPTOR_MAX_PERMIT_COUNT);
-        }
+        return interceptorChain.indexOf(name) >= 0;
     }
 
     private static void ensureInterceptorName(String name) {
@@ -11,6 +11,9 @@ import org.nocturne.annotation.Parameter;
 import org.nocturne.annotation.Validate;
 import org.nocturne.exception.ConfigurationException;
 import org.nocturne.exception.NocturneException;
+import org.nocturne.prometheus.ComponentMetrics;
+import org.nocturne.prometheus.Prometheus;
+import org.nocturne.util.ReflectionUtil;
 import org.nocturne.util.StringUtil;
 
 import java.lang.annotation.Annotation;
@@ -33,9 +36,17 @@ class ActionMap {
     /* Default invalid method has empty key "". */
     private final Map<String, FastMethod> invalids = new ConcurrentHashMap<>();
 
+    /* Counter and latencies of the component class with resolved labels. */
+    private final ComponentMetrics metrics;
+
     ActionMap(Class<? extends Component> pageClass) {
         FastClass clazz = FastClass.create(pageClass);
 
+        String simpleClassName = ReflectionUtil.getOriginalClass(pageClass).getSimpleName();
+        metrics = Page.class.isAssignableFrom(pageClass)
+                ? Prometheus.newPageMetrics(simpleClassName)
+                : Prometheus.newFrameMetrics(simpleClassName);
+
         List<Method> methods = new ArrayList<>();
         Class<?> auxClass = pageClass;
         while (auxClass != null) {
@@ -160,6 +171,10 @@ class ActionMap {
         }
     }
 
+    ComponentMetrics getMetrics() {
+        return metrics;
+    }
+
     ActionMethod getActionMethod(String action) {
         if (actions.containsKey(action)) {
             return actions.get(action);
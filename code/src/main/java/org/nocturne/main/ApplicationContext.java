@@ -129,6 +129,69 @@ public class ApplicationContext {
      */
     private boolean useComponentTemplates;
 
+    /**
+     * Write rendered page templates directly to the response instead of buffering them.
+     * Default value is {@code false}.
+     */
+    private boolean streamingTemplates;
+
+    /**
+     * Use single thread-safe freemarker configuration (and template cache) for all the requests
+     * instead of the pool of configurations. Default value is {@code false}.
+     */
+    private boolean sharedTemplateEngineConfiguration;
+
+    /**
+     * Number of threads to render frames parsed by {@link Component#parseAsync(String, Frame)}.
+     * Default value is {@code 0}, which means that such frames are rendered synchronously.
+     */
+    private int frameRenderingThreadCount;
+
+    /**
+     * Maximal number of idle instances stored by each pool (of pages, template configurations and so on),
+     * it should be not less than the number of the request processing threads. Default value is {@code 256}.
+     */
+    private int poolCapacity = 256;
+
+    /**
+     * Add Server-Timing header with the breakdown of the request processing. Default value is {@code false}.
+     */
+    private boolean serverTiming;
+
+    /**
+     * Requests slower than the threshold (in milliseconds) are logged with the breakdown of the processing.
+     * Default value is {@code 0}, which means that slow requests are not logged.
+     */
+    private long slowRequestThreshold;
+
+    /**
+     * {@code true} iff serverTiming or slowRequestThreshold is set, so requests are timed.
+     */
+    private boolean requestTiming;
+
+    /**
+     * Preprocess and parse all the templates on startup (production mode only).
+     * Default value is {@code false}.
+     */
+    private boolean templateWarmUp;
+
+    /**
+     * Don't finish the initialization until the templates are warmed up. Default value is {@code false},
+     * which means that the warm-up runs in background and the application serves requests meanwhile.
+     */
+    private boolean templateWarmUpBlocking;
+
+    /**
+     * Number of threads to warm up the templates.
+     * Default value is {@code 0}, which means the number of available processors.
+     */
+    private int templateWarmUpThreadCount;
+
+    /**
+     * Template warm-up has been completed (successfully or not).
+     */
+    private volatile boolean templatesWarmedUp;
+
     /**
      * Autoimported file for all component LESS styles.
      */
@@ -173,7 +236,7 @@ public class ApplicationContext {
     /**
      * Captions implementation instance.
      */
-    private Captions captions;
+    private volatile Captions captions;
 
     /**
      * Encoding for caption property files, used in case of CaptionsImpl used.
@@ -191,6 +254,27 @@ public class ApplicationContext {
      */
     private Map<String, String> countryToLanguage = new HashMap<>();
 
+    /**
+     * Should the language be detected by the country of the client (see {@link #countryToLanguage}).
+     * Disabled by default, because it costs a GeoIP lookup for each request without language.
+     */
+    private boolean geoIpLanguageDetection;
+
+    /**
+     * Path to GeoIP2 country database (mmdb), by default the bundled GeoLite2-Country is used.
+     */
+    private String geoIpCountryDatabase;
+
+    /**
+     * Path to GeoIP2 city database (mmdb).
+     */
+    private String geoIpCityDatabase;
+
+    /**
+     * Number of IP addresses to cache GeoIP lookups for, 0 means default.
+     */
+    private int geoIpCacheSize;
+
     /**
      * Default reset strategy for fields of Components: should they be reset after request processing.
      */
@@ -262,13 +346,69 @@ public class ApplicationContext {
     }
 
     void setRequestAndResponse(HttpServletRequest request, HttpServletResponse response) {
-        requestsPerThread.set(new RequestContext(request, response));
+        RequestContext requestContext = new RequestContext(request, response);
+        if (requestTiming) {
+            requestContext.timing = new RequestTiming();
+        }
+        requestsPerThread.set(requestContext);
+    }
+
+    /**
+     * @return Timing of the current request or {@code null} if it is disabled.
+     */
+    @Nullable
+    RequestTiming getRequestTiming() {
+        if (!requestTiming) {
+            return null;
+        }
+
+        RequestContext requestContext = requestsPerThread.get();
+        return requestContext == null ? null : requestContext.timing;
     }
 
     public void unsetRequestAndResponse() {
         requestsPerThread.set(new RequestContext(null, null));
     }
 
+    /**
+     * Sets request context without request for the current thread, used to load templates
+     * (and substitute captions) in the given locale out of requests.
+     *
+     * @param locale Locale.
+     */
+    void setLocaleWithoutRequest(Locale locale) {
+        RequestContext requestContext = new RequestContext(null, null);
+        requestContext.locale = locale;
+        requestsPerThread.set(requestContext);
+    }
+
+    /**
+     * @return Snapshot of the thread-local state of the current thread: request context,
+     * current page and component, class loaders.
+     */
+    ThreadContext getThreadContext() {
+        return new ThreadContext(requestsPerThread.get(), currentPage.get(), currentComponent.get(),
+                reloadingClassLoaderPerThread.get(), Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Makes the thread-local state of the current thread the same as in the snapshot.
+     *
+     * @param threadContext Snapshot (possibly, of another thread).
+     * @return Snapshot of the previous state, use it to restore the state.
+     */
+    ThreadContext setThreadContext(ThreadContext threadContext) {
+        ThreadContext previous = getThreadContext();
+
+        requestsPerThread.set(threadContext.requestContext);
+        currentPage.set(threadContext.page);
+        currentComponent.set(threadContext.component);
+        reloadingClassLoaderPerThread.set(threadContext.reloadingClassLoader);
+        Thread.currentThread().setContextClassLoader(threadContext.contextClassLoader);
+
+        return previous;
+    }
+
     /**
      * In debug mode it will return reloading class loader, and it
      * will return typical web-application class loader in production mode.
@@ -338,6 +478,37 @@ public class ApplicationContext {
         return Collections.unmodifiableMap(countryToLanguage);
     }
 
+    /**
+     * @return Should the language be detected by the country of the client
+     * (nocturne.geoip.language-detection, {@code false} by default).
+     */
+    public boolean isGeoIpLanguageDetection() {
+        return geoIpLanguageDetection;
+    }
+
+    /**
+     * @return Path to GeoIP2 country database (mmdb) or {@code null} to use the bundled one.
+     */
+    @Nullable
+    public String getGeoIpCountryDatabase() {
+        return geoIpCountryDatabase;
+    }
+
+    /**
+     * @return Path to GeoIP2 city database (mmdb) or {@code null} to look for it in the default places.
+     */
+    @Nullable
+    public String getGeoIpCityDatabase() {
+        return geoIpCityDatabase;
+    }
+
+    /**
+     * @return Number of IP addresses to cache GeoIP lookups for, 0 means default.
+     */
+    public int getGeoIpCacheSize() {
+        return geoIpCacheSize;
+    }
+
     /**
      * @return Default reset strategy for fields of Components: should they be reset after request processing.
      */
@@ -378,6 +549,121 @@ public class ApplicationContext {
         return useComponentTemplates;
     }
 
+    void setStreamingTemplates(boolean streamingTemplates) {
+        this.streamingTemplates = streamingTemplates;
+    }
+
+    /**
+     * @return {@code true} iff pages write rendered templates directly to the response
+     *         (see {@link Page#isStreamingTemplate()}).
+     */
+    public boolean isStreamingTemplates() {
+        return streamingTemplates;
+    }
+
+    void setSharedTemplateEngineConfiguration(boolean sharedTemplateEngineConfiguration) {
+        this.sharedTemplateEngineConfiguration = sharedTemplateEngineConfiguration;
+    }
+
+    /**
+     * @return {@code true} iff all the requests use the same freemarker configuration
+     *         (see {@link org.nocturne.pool.TemplateEngineConfigurationPool}).
+     */
+    public boolean isSharedTemplateEngineConfiguration() {
+        return sharedTemplateEngineConfiguration;
+    }
+
+    void setFrameRenderingThreadCount(int frameRenderingThreadCount) {
+        this.frameRenderingThreadCount = frameRenderingThreadCount;
+    }
+
+    /**
+     * @return Number of threads to render frames parsed by {@link Component#parseAsync(String, Frame)}.
+     */
+    public int getFrameRenderingThreadCount() {
+        return frameRenderingThreadCount;
+    }
+
+    void setPoolCapacity(int poolCapacity) {
+        this.poolCapacity = poolCapacity;
+    }
+
+    /**
+     * @return Maximal number of idle instances stored by each pool (see {@link org.nocturne.pool.LockFreePool}).
+     */
+    public int getPoolCapacity() {
+        return poolCapacity;
+    }
+
+    void setServerTiming(boolean serverTiming) {
+        this.serverTiming = serverTiming;
+        requestTiming = serverTiming || slowRequestThreshold > 0;
+    }
+
+    /**
+     * @return {@code true} iff Server-Timing header is added to the page responses.
+     */
+    public boolean isServerTiming() {
+        return serverTiming;
+    }
+
+    void setSlowRequestThreshold(long slowRequestThreshold) {
+        this.slowRequestThreshold = slowRequestThreshold;
+        requestTiming = serverTiming || slowRequestThreshold > 0;
+    }
+
+    /**
+     * @return Requests slower than the threshold (in milliseconds) are logged, {@code 0} if disabled.
+     */
+    public long getSlowRequestThreshold() {
+        return slowRequestThreshold;
+    }
+
+    void setTemplateWarmUp(boolean templateWarmUp) {
+        this.templateWarmUp = templateWarmUp;
+    }
+
+    /**
+     * @return {@code true} iff all the templates are preprocessed and parsed on startup.
+     */
+    public boolean isTemplateWarmUp() {
+        return templateWarmUp;
+    }
+
+    void setTemplateWarmUpBlocking(boolean templateWarmUpBlocking) {
+        this.templateWarmUpBlocking = templateWarmUpBlocking;
+    }
+
+    /**
+     * @return {@code true} iff the initialization waits for the template warm-up.
+     */
+    public boolean isTemplateWarmUpBlocking() {
+        return templateWarmUpBlocking;
+    }
+
+    void setTemplateWarmUpThreadCount(int templateWarmUpThreadCount) {
+        this.templateWarmUpThreadCount = templateWarmUpThreadCount;
+    }
+
+    /**
+     * @return Number of threads to warm up the templates, {@code 0} means the number of available processors.
+     */
+    public int getTemplateWarmUpThreadCount() {
+        return templateWarmUpThreadCount;
+    }
+
+    void setTemplatesWarmedUp() {
+        templatesWarmedUp = true;
+    }
+
+    /**
+     * @return {@code true} iff the template warm-up has been completed or it is not needed.
+     *         Use it in readiness checks if the warm-up is not blocking.
+     */
+    public boolean isTemplatesWarmedUp() {
+        return templatesWarmedUp || !templateWarmUp || debug;
+    }
+
     public File getComponentTemplatesLessCommonsFile() {
         return componentTemplatesLessCommonsFile;
     }
@@ -626,6 +912,22 @@ public class ApplicationContext {
         this.countryToLanguage = new HashMap<>(countryToLanguage);
     }
 
+    void setGeoIpLanguageDetection(boolean geoIpLanguageDetection) {
+        this.geoIpLanguageDetection = geoIpLanguageDetection;
+    }
+
+    void setGeoIpCountryDatabase(String geoIpCountryDatabase) {
+        this.geoIpCountryDatabase = geoIpCountryDatabase;
+    }
+
+    void setGeoIpCityDatabase(String geoIpCityDatabase) {
+        this.geoIpCityDatabase = geoIpCityDatabase;
+    }
+
+    void setGeoIpCacheSize(int geoIpCacheSize) {
+        this.geoIpCacheSize = geoIpCacheSize;
+    }
+
     void setServletContext(ServletContext servletContext) {
         this.servletContext = servletContext;
     }
@@ -778,6 +1080,9 @@ public class ApplicationContext {
 
         lock.lock();
         try {
+            if (captions != null) {
+                return;
+            }
             Class<? extends Captions> clazz = (Class<? extends Captions>) getClass().getClassLoader().loadClass(captionsImplClass);
             captions = injector.getInstance(clazz);
         } catch (ClassNotFoundException e) {
@@ -877,6 +1182,26 @@ public class ApplicationContext {
         }).start();
     }
 
+    /**
+     * Thread-local state which should be passed to other threads processing the same request.
+     */
+    static final class ThreadContext {
+        private final RequestContext requestContext;
+        private final Page page;
+        private final Component component;
+        private final ClassLoader reloadingClassLoader;
+        private final ClassLoader contextClassLoader;
+
+        private ThreadContext(RequestContext requestContext, Page page, Component component,
+                              ClassLoader reloadingClassLoader, ClassLoader contextClassLoader) {
+            this.requestContext = requestContext;
+            this.page = page;
+            this.component = component;
+            this.reloadingClassLoader = reloadingClassLoader;
+            this.contextClassLoader = contextClassLoader;
+        }
+    }
+
     /**
      * Stores current request context: request, response and locale.
      */
@@ -903,6 +1228,11 @@ public class ApplicationContext {
          */
         private Map<String, List<String>> overrideParameters;
 
+        /**
+         * Timing of the request processing, {@code null} if disabled.
+         */
+        private RequestTiming timing;
+
         private RequestContext(@Nullable HttpServletRequest request, @Nullable HttpServletResponse response) {
             if ((request == null) ^ (response == null)) {
                 throw new IllegalArgumentException("It is not possible case '(request == null) ^ (response == null)'.");
@@ -1043,7 +1373,11 @@ public class ApplicationContext {
 
         @Nullable
         private String getLanguageByGeoIp() {
-            String countryCode = null; // GeoIpUtil.getCountryCode(request);
+            if (!getInstance().isGeoIpLanguageDetection() || getInstance().getCountryToLanguage().isEmpty()) {
+                return null;
+            }
+
+            String countryCode = GeoIpUtil.getCountryCode(request);
             String lang = getInstance().getCountryToLanguage().get(countryCode);
             String[] languages = getAcceptLanguages();
 
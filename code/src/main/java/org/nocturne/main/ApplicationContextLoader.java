@@ -6,18 +6,23 @@ package org.nocturne.main;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.nocturne.exception.ConfigurationException;
 import org.nocturne.exception.ModuleInitializationException;
 import org.nocturne.exception.NocturneException;
+import org.nocturne.geoip.GeoIpUtil;
 import org.nocturne.module.Configuration;
 import org.nocturne.module.Module;
+import org.nocturne.pool.TemplateEngineConfigurationPool;
 import org.nocturne.prometheus.Prometheus;
 import org.nocturne.reset.ResetStrategy;
 import org.nocturne.reset.annotation.Persist;
 import org.nocturne.reset.annotation.Reset;
+import org.nocturne.util.RequestUtil;
 import org.nocturne.util.StringUtil;
+import org.nocturne.util.UploadedFile;
 
 import java.io.File;
 import java.io.IOException;
@@ -25,6 +30,7 @@ import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
@@ -41,6 +47,7 @@ class ApplicationContextLoader {
     private static final Properties properties = new Properties();
     private static final Pattern ITEMS_SPLIT_PATTERN = Pattern.compile("\\s*;\\s*");
     private static final Pattern LANGUAGES_SPLIT_PATTERN = Pattern.compile("[,;\\s]+");
+    private static final Pattern BUCKETS_SPLIT_PATTERN = Pattern.compile("[,;\\s]+");
     private static final Pattern COUNTRIES_TO_LANGUAGE_PATTERN = Pattern.compile("([A-Z]{2},)*[A-Z]{2}:[a-z]{2}");
 
     private static void run() {
@@ -64,9 +71,15 @@ class ApplicationContextLoader {
         setupCaptionFilesEncoding();
         setupAllowedLanguages();
         setupCountryToLanguage();
+        setupGeoIp();
+        setupPrometheus();
         setupDefaultPageClassName();
         setupContextPath();
         setupResetProperties();
+        setupFrameRenderingThreadCount();
+        setupPoolCapacity();
+        setupRequestTiming();
+        setupUploads();
     }
 
     private static void setupResetProperties() {
@@ -159,6 +172,66 @@ class ApplicationContextLoader {
         }
     }
 
+    private static void setupGeoIp() {
+        if (properties.containsKey("nocturne.geoip.language-detection")) {
+            String languageDetection = StringUtils.trimToEmpty(properties.getProperty("nocturne.geoip.language-detection"));
+            if (!"false".equals(languageDetection) && !"true".equals(languageDetection)) {
+                throw new ConfigurationException("Parameter nocturne.geoip.language-detection expected to be 'false' or 'true'.");
+            }
+            ApplicationContext.getInstance().setGeoIpLanguageDetection("true".equals(languageDetection));
+        }
+
+        String countryDatabase = StringUtils.trimToNull(properties.getProperty("nocturne.geoip.country-database"));
+        if (countryDatabase != null) {
+            if (!new File(countryDatabase).isFile()) {
+                throw new ConfigurationException("Parameter nocturne.geoip.country-database should be a file.");
+            }
+            ApplicationContext.getInstance().setGeoIpCountryDatabase(countryDatabase);
+        }
+
+        String cityDatabase = StringUtils.trimToNull(properties.getProperty("nocturne.geoip.city-database"));
+        if (cityDatabase != null) {
+            if (!new File(cityDatabase).isFile()) {
+                throw new ConfigurationException("Parameter nocturne.geoip.city-database should be a file.");
+            }
+            ApplicationContext.getInstance().setGeoIpCityDatabase(cityDatabase);
+        }
+
+        if (properties.containsKey("nocturne.geoip.cache-size")) {
+            try {
+                int cacheSize = Integer.parseInt(
+                        StringUtils.trimToEmpty(properties.getProperty("nocturne.geoip.cache-size")));
+                if (cacheSize < 0 || cacheSize > 1 << 24) {
+                    throw new ConfigurationException("Parameter nocturne.geoip.cache-size should be non-negative integer not greater than " + (1 << 24) + '.');
+                }
+                ApplicationContext.getInstance().setGeoIpCacheSize(cacheSize);
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Parameter nocturne.geoip.cache-size should be integer.", e);
+            }
+        }
+    }
+
+    private static void setupPrometheus() {
+        String bucketsAsString = StringUtils.trimToNull(properties.getProperty("nocturne.prometheus.latency-buckets"));
+        if (bucketsAsString != null) {
+            String[] tokens = BUCKETS_SPLIT_PATTERN.split(bucketsAsString);
+            double[] buckets = new double[tokens.length];
+            for (int i = 0; i < tokens.length; ++i) {
+                try {
+                    buckets[i] = Double.parseDouble(tokens[i]);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException("Parameter nocturne.prometheus.latency-buckets should contain " +
+                            "the list of numbers separated with comma.", e);
+                }
+                if (!(buckets[i] > 0.0) || (i > 0 && buckets[i] <= buckets[i - 1])) {
+                    throw new ConfigurationException("Parameter nocturne.prometheus.latency-buckets should contain " +
+                            "positive increasing latencies in seconds.");
+                }
+            }
+            Prometheus.setLatencyBuckets(buckets);
+        }
+    }
+
     private static void setupCaptionFilesEncoding() {
         if (properties.containsKey("nocturne.caption-files-encoding")) {
             String encoding = properties.getProperty("nocturne.caption-files-encoding");
@@ -225,7 +298,13 @@ class ApplicationContextLoader {
     private static void setupClassReloadingExceptions() {
         List<String> exceptions = new ArrayList<>();
         exceptions.add(ApplicationContext.class.getName());
-        exceptions.add(Prometheus.class.getName());
+        // Metrics are registered once, so the whole package is shared.
+        exceptions.add(Prometheus.class.getPackage().getName());
+        // Uploads are parsed once per request and configured on startup, so these classes are shared.
+        exceptions.add(RequestUtil.class.getName());
+        exceptions.add(UploadedFile.class.getName());
+        // GeoIP databases are mapped once.
+        exceptions.add(GeoIpUtil.class.getName());
         if (properties.containsKey("nocturne.class-reloading-exceptions")) {
             String exceptionsAsString = properties.getProperty("nocturne.class-reloading-exceptions");
             if (exceptionsAsString != null) {
@@ -345,6 +424,51 @@ class ApplicationContextLoader {
             }
         }
 
+        if (properties.containsKey("nocturne.streaming-templates")) {
+            String streamingTemplates = properties.getProperty("nocturne.streaming-templates");
+            if (!"false".equals(streamingTemplates) && !"true".equals(streamingTemplates)) {
+                throw new ConfigurationException("Parameter nocturne.streaming-templates expected to be 'false' or 'true'.");
+            }
+            ApplicationContext.getInstance().setStreamingTemplates("true".equals(streamingTemplates));
+        }
+
+        if (properties.containsKey("nocturne.shared-template-engine-configuration")) {
+            String sharedConfiguration = properties.getProperty("nocturne.shared-template-engine-configuration");
+            if (!"false".equals(sharedConfiguration) && !"true".equals(sharedConfiguration)) {
+                throw new ConfigurationException("Parameter nocturne.shared-template-engine-configuration expected to be 'false' or 'true'.");
+            }
+            ApplicationContext.getInstance().setSharedTemplateEngineConfiguration("true".equals(sharedConfiguration));
+        }
+
+        if (properties.containsKey("nocturne.template-warm-up")) {
+            String templateWarmUp = properties.getProperty("nocturne.template-warm-up");
+            if (!"false".equals(templateWarmUp) && !"true".equals(templateWarmUp)) {
+                throw new ConfigurationException("Parameter nocturne.template-warm-up expected to be 'false' or 'true'.");
+            }
+            ApplicationContext.getInstance().setTemplateWarmUp("true".equals(templateWarmUp));
+        }
+
+        if (properties.containsKey("nocturne.template-warm-up-blocking")) {
+            String templateWarmUpBlocking = properties.getProperty("nocturne.template-warm-up-blocking");
+            if (!"false".equals(templateWarmUpBlocking) && !"true".equals(templateWarmUpBlocking)) {
+                throw new ConfigurationException("Parameter nocturne.template-warm-up-blocking expected to be 'false' or 'true'.");
+            }
+            ApplicationContext.getInstance().setTemplateWarmUpBlocking("true".equals(templateWarmUpBlocking));
+        }
+
+        if (properties.containsKey("nocturne.template-warm-up-threads")) {
+            try {
+                int templateWarmUpThreadCount = Integer.parseInt(
+                        StringUtils.trimToEmpty(properties.getProperty("nocturne.template-warm-up-threads")));
+                if (templateWarmUpThreadCount < 0 || templateWarmUpThreadCount > 1024) {
+                    throw new ConfigurationException("Parameter nocturne.template-warm-up-threads should be non-negative integer not greater than 1024.");
+                }
+                ApplicationContext.getInstance().setTemplateWarmUpThreadCount(templateWarmUpThreadCount);
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Parameter nocturne.template-warm-up-threads should be integer.", e);
+            }
+        }
+
         if (properties.containsKey("nocturne.use-component-templates")) {
             String useComponentTemplates = properties.getProperty("nocturne.use-component-templates");
             if (!"false".equals(useComponentTemplates) && !"true".equals(useComponentTemplates)) {
@@ -367,6 +491,98 @@ class ApplicationContextLoader {
         }
     }
 
+    private static void setupFrameRenderingThreadCount() {
+        if (properties.containsKey("nocturne.frame-rendering-threads")) {
+            try {
+                int frameRenderingThreadCount = Integer.parseInt(
+                        StringUtils.trimToEmpty(properties.getProperty("nocturne.frame-rendering-threads")));
+                if (frameRenderingThreadCount < 0 || frameRenderingThreadCount > 1024) {
+                    throw new ConfigurationException("Parameter nocturne.frame-rendering-threads should be non-negative integer not greater than 1024.");
+                }
+                ApplicationContext.getInstance().setFrameRenderingThreadCount(frameRenderingThreadCount);
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Parameter nocturne.frame-rendering-threads should be integer.", e);
+            }
+        }
+    }
+
+    private static void setupPoolCapacity() {
+        if (properties.containsKey("nocturne.pool-capacity")) {
+            try {
+                int poolCapacity = Integer.parseInt(
+                        StringUtils.trimToEmpty(properties.getProperty("nocturne.pool-capacity")));
+                if (poolCapacity <= 0 || poolCapacity > 65536) {
+                    throw new ConfigurationException("Parameter nocturne.pool-capacity should be positive integer not greater than 65536.");
+                }
+                ApplicationContext.getInstance().setPoolCapacity(poolCapacity);
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Parameter nocturne.pool-capacity should be integer.", e);
+            }
+        }
+    }
+
+    private static void setupRequestTiming() {
+        if (properties.containsKey("nocturne.server-timing")) {
+            String serverTiming = properties.getProperty("nocturne.server-timing");
+            if (!"false".equals(serverTiming) && !"true".equals(serverTiming)) {
+                throw new ConfigurationException("Parameter nocturne.server-timing expected to be 'false' or 'true'.");
+            }
+            ApplicationContext.getInstance().setServerTiming("true".equals(serverTiming));
+        }
+
+        if (properties.containsKey("nocturne.slow-request-threshold")) {
+            try {
+                long slowRequestThreshold = Long.parseLong(
+                        StringUtils.trimToEmpty(properties.getProperty("nocturne.slow-request-threshold")));
+                if (slowRequestThreshold < 0) {
+                    throw new ConfigurationException("Parameter nocturne.slow-request-threshold should be non-negative integer (milliseconds).");
+                }
+                ApplicationContext.getInstance().setSlowRequestThreshold(slowRequestThreshold);
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Parameter nocturne.slow-request-threshold should be integer.", e);
+            }
+        }
+    }
+
+    private static void setupUploads() {
+        int sizeThreshold = (int) getSizeProperty("nocturne.upload.size-threshold",
+                DiskFileItemFactory.DEFAULT_SIZE_THRESHOLD, Integer.MAX_VALUE);
+        long maxFileSize = getSizeProperty("nocturne.upload.max-file-size", -1, Long.MAX_VALUE);
+        long maxRequestSize = getSizeProperty("nocturne.upload.max-request-size", -1, Long.MAX_VALUE);
+
+        boolean storeFilesInAttributes = false;
+        if (properties.containsKey("nocturne.upload.store-files-in-attributes")) {
+            String value = properties.getProperty("nocturne.upload.store-files-in-attributes");
+            if (!"false".equals(value) && !"true".equals(value)) {
+                throw new ConfigurationException("Parameter nocturne.upload.store-files-in-attributes expected to be 'false' or 'true'.");
+            }
+            storeFilesInAttributes = "true".equals(value);
+        }
+
+        RequestUtil.setupUploads(sizeThreshold, maxFileSize, maxRequestSize, storeFilesInAttributes);
+    }
+
+    /**
+     * @return Value of the property in bytes, {@code -1} means no limit.
+     */
+    private static long getSizeProperty(String name, long defaultValue, long maxValue) {
+        String value = StringUtils.trimToEmpty(properties.getProperty(name));
+        if (value.isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            long size = Long.parseLong(value);
+            if (size < -1 || size > maxValue) {
+                throw new ConfigurationException("Parameter " + name + " should be non-negative integer not greater than "
+                        + maxValue + " or -1.");
+            }
+            return size;
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Parameter " + name + " should be integer.", e);
+        }
+    }
+
     private static void setupDebug() {
         ApplicationContext.getInstance().setDebug(Boolean.parseBoolean(properties.getProperty("nocturne.debug")));
     }
@@ -388,9 +604,7 @@ class ApplicationContextLoader {
      */
     private static List<Module> getModulesFromClasspath() {
         List<Module> modules = new ArrayList<>();
-        URLClassLoader loader = (URLClassLoader) ApplicationContext.class.getClassLoader();
-        URL[] classPath = loader.getURLs();
-        for (URL url : classPath) {
+        for (URL url : getClassPathUrls()) {
             if (Module.isModuleUrl(url)) {
                 modules.add(new Module(url));
             }
@@ -398,6 +612,27 @@ class ApplicationContextLoader {
         return modules;
     }
 
+    /**
+     * @return URLs of the class loader which loaded nocturne. The system class loader is not
+     * URLClassLoader since Java 9, so the class path is taken from java.class.path in this case.
+     */
+    private static List<URL> getClassPathUrls() {
+        ClassLoader loader = ApplicationContext.class.getClassLoader();
+        if (loader instanceof URLClassLoader) {
+            return Arrays.asList(((URLClassLoader) loader).getURLs());
+        }
+
+        List<URL> urls = new ArrayList<>();
+        for (String item : StringUtils.split(System.getProperty("java.class.path", ""), File.pathSeparatorChar)) {
+            try {
+                urls.add(new File(item).toURI().toURL());
+            } catch (MalformedURLException e) {
+                logger.warn("Can't convert class path item '" + item + "' to URL.", e);
+            }
+        }
+        return urls;
+    }
+
     /**
      * Runs init() method for all modules.
      * Each module should be initialized on the application startup.
@@ -522,12 +757,44 @@ class ApplicationContextLoader {
         }
     }
 
-    static void initialize() {
+    /**
+     * Loads all the templates into the template cache (see {@link TemplateWarmUp}) if nocturne.template-warm-up
+     * is enabled. Waits for it if nocturne.template-warm-up-blocking is enabled, otherwise runs it in background.
+     */
+    private static void warmUpTemplates(TemplateEngineConfigurationPool templateEngineConfigurationPool) {
+        ApplicationContext applicationContext = ApplicationContext.getInstance();
+        if (!applicationContext.isTemplateWarmUp() || applicationContext.isDebug()) {
+            return;
+        }
+
+        Runnable warmUp = () -> {
+            freemarker.template.Configuration templateEngineConfiguration = templateEngineConfigurationPool.getInstance();
+            try {
+                new TemplateWarmUp(templateEngineConfiguration, applicationContext.getTemplateWarmUpThreadCount()).run();
+            } catch (RuntimeException e) {
+                logger.error("Can't warm up templates.", e);
+            } finally {
+                templateEngineConfigurationPool.release(templateEngineConfiguration);
+                applicationContext.setTemplatesWarmedUp();
+            }
+        };
+
+        if (applicationContext.isTemplateWarmUpBlocking()) {
+            warmUp.run();
+        } else {
+            Thread thread = new Thread(warmUp, "TemplateWarmUp");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    static void initialize(TemplateEngineConfigurationPool templateEngineConfigurationPool) {
         synchronized (ApplicationContextLoader.class) {
             run();
             initializeModules();
             setupInjector();
             runModuleStartups();
+            warmUpTemplates(templateEngineConfigurationPool);
             ApplicationContext.getInstance().setInitialized();
         }
     }
@@ -13,6 +13,7 @@ import org.nocturne.util.FileUtil;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
@@ -39,9 +40,10 @@ public class ApplicationTemplateLoader implements TemplateLoader {
     private final ApplicationContext applicationContext = ApplicationContext.getInstance();
 
     /**
-     * For debug mode stores loader by loaded object.
+     * For debug mode stores loader by loaded object. Synchronized because the loader
+     * can be used by a configuration shared between requests.
      */
-    private final Map<Object, TemplateLoader> loadersByTemplate = new WeakHashMap<>();
+    private final Map<Object, TemplateLoader> loadersByTemplate = Collections.synchronizedMap(new WeakHashMap<>());
 
     /**
      * Usual file template loader, uses nocturne.templates-path.
@@ -54,7 +56,18 @@ public class ApplicationTemplateLoader implements TemplateLoader {
     public ApplicationTemplateLoader() {
         modules = applicationContext.getModules();
 
-        String[] templatePaths = applicationContext.getTemplatePaths();
+        try {
+            templateLoader = new PreprocessFreemarkerFileTemplateLoader(getTemplateDirs());
+        } catch (IOException e) {
+            throw new NocturneException("Can't create FileTemplateLoader for delegation.", e);
+        }
+    }
+
+    /**
+     * @return Directories nocturne.template-paths resolved as absolute or servlet context paths.
+     */
+    static File[] getTemplateDirs() {
+        String[] templatePaths = ApplicationContext.getInstance().getTemplatePaths();
         int templateDirCount = templatePaths.length;
         File[] templateDirs = new File[templateDirCount];
 
@@ -63,7 +76,7 @@ public class ApplicationTemplateLoader implements TemplateLoader {
             File templatePathFile = new File(templatePath);
 
             if (!templatePathFile.isAbsolute() || !templatePathFile.exists()) {
-                String realTemplatePath = FileUtil.getRealPath(applicationContext.getServletContext(), templatePath);
+                String realTemplatePath = FileUtil.getRealPath(ApplicationContext.getInstance().getServletContext(), templatePath);
                 if (realTemplatePath == null) {
                     throw new NocturneException("Can't find '" + templatePath + "' in servletContext.");
                 } else {
@@ -79,11 +92,7 @@ public class ApplicationTemplateLoader implements TemplateLoader {
             templateDirs[dirIndex] = templatePathFile;
         }
 
-        try {
-            templateLoader = new PreprocessFreemarkerFileTemplateLoader(templateDirs);
-        } catch (IOException e) {
-            throw new NocturneException("Can't create FileTemplateLoader for delegation.", e);
-        }
+        return templateDirs;
     }
 
     @Override
@@ -102,16 +111,18 @@ public class ApplicationTemplateLoader implements TemplateLoader {
 
     @Override
     public long getLastModified(Object o) {
-        if (applicationContext.isDebug() && loadersByTemplate.containsKey(o)) {
-            return loadersByTemplate.get(o).getLastModified(o);
+        TemplateLoader loader = applicationContext.isDebug() ? loadersByTemplate.get(o) : null;
+        if (loader != null) {
+            return loader.getLastModified(o);
         }
         return templateLoader.getLastModified(o);
     }
 
     @Override
     public Reader getReader(Object o, String s) throws IOException {
-        if (applicationContext.isDebug() && loadersByTemplate.containsKey(o)) {
-            return loadersByTemplate.get(o).getReader(o, s);
+        TemplateLoader loader = applicationContext.isDebug() ? loadersByTemplate.get(o) : null;
+        if (loader != null) {
+            return loader.getReader(o, s);
         }
 
         return templateLoader.getReader(o, s);
@@ -119,11 +130,10 @@ public class ApplicationTemplateLoader implements TemplateLoader {
 
     @Override
     public void closeTemplateSource(Object o) throws IOException {
-        if (applicationContext.isDebug() && loadersByTemplate.containsKey(o)) {
-            TemplateLoader loader = loadersByTemplate.get(o);
+        if (applicationContext.isDebug()) {
+            TemplateLoader loader = loadersByTemplate.remove(o);
             if (loader != null) {
                 loader.closeTemplateSource(o);
-                loadersByTemplate.remove(o);
             }
         }
 
@@ -17,13 +17,16 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.nocturne.cache.CacheHandler;
 import org.nocturne.caption.CaptionDirective;
+import org.nocturne.collection.ParameterMap;
 import org.nocturne.collection.SingleEntryList;
 import org.nocturne.exception.*;
 import org.nocturne.link.LinkDirective;
 import org.nocturne.link.Links;
+import org.nocturne.prometheus.ComponentMetrics;
 import org.nocturne.reset.ComponentFieldsResetter;
 import org.nocturne.util.ReflectionUtil;
 import org.nocturne.util.RequestUtil;
+import org.nocturne.util.UploadedFile;
 import org.nocturne.validation.ValidationException;
 import org.nocturne.validation.Validator;
 
@@ -40,6 +43,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -96,6 +101,11 @@ public abstract class Component {
      */
     private Map<String, String> frameMap = new HashMap<>(0);
 
+    /**
+     * Frames which are being rendered after parseAsync().
+     */
+    private Map<String, Future<String>> asyncFrameMap = new HashMap<>(0);
+
     /**
      * Should workflow skip template processing?
      */
@@ -171,7 +181,7 @@ public abstract class Component {
     /**
      * Stores params from request.
      */
-    private Map<String, List<String>> requestParams = new HashMap<>();
+    private Map<String, List<String>> requestParams = ParameterMap.empty();
 
     /**
      * Object to clean fields between requests.
@@ -211,6 +221,13 @@ public abstract class Component {
         throw new InterruptException("Interrupted [componentClass=" + getClass().getName() + "].");
     }
 
+    /**
+     * @return Counter and latencies of the component class.
+     */
+    ComponentMetrics getMetrics() {
+        return actionMaps.get(getClass()).getMetrics();
+    }
+
     /**
      * This is internal nocturne method. Do not call it.
      *
@@ -325,7 +342,10 @@ public abstract class Component {
      *            }
      */
     public void addCss(String css) {
-        getCurrentPage().getCssSet().add(css);
+        Set<String> cssSet = getCurrentPage().getCssSet();
+        synchronized (cssSet) {
+            cssSet.add(css);
+        }
     }
 
     /**
@@ -338,7 +358,10 @@ public abstract class Component {
      *           }
      */
     public void addJs(String js) {
-        getCurrentPage().getJsSet().add(js);
+        Set<String> jsSet = getCurrentPage().getJsSet();
+        synchronized (jsSet) {
+            jsSet.add(js);
+        }
     }
 
     /**
@@ -849,6 +872,23 @@ public abstract class Component {
         return (byte[]) ParametersInjector.getArrayAssignValue(null, params.get(key), byte[].class);
     }
 
+    /**
+     * @param key Field name.
+     * @return The first file uploaded with the field or {@code null}, the file content is not read.
+     */
+    public UploadedFile getUploadedFile(String key) {
+        return RequestUtil.getUploadedFile(getRequest(), key);
+    }
+
+    /**
+     * @param key Field name.
+     * @return Files uploaded with the field (empty list if none), the file contents are not read.
+     */
+    public List<UploadedFile> getUploadedFiles(String key) {
+        List<UploadedFile> files = RequestUtil.getUploadedFiles(getRequest()).get(key);
+        return files == null ? Collections.emptyList() : files;
+    }
+
     /**
      * @param key Parameter name.
      * @return Returns parameter as short integer array.
@@ -903,8 +943,11 @@ public abstract class Component {
         return getString(key) != null;
     }
 
+    /**
+     * @return Immutable request parameters, the same instance for the page and its frames.
+     */
     Map<String, List<String>> getRequestParams() {
-        return new HashMap<>(requestParams);
+        return requestParams;
     }
 
     void setRequest(HttpServletRequest request) {
@@ -978,6 +1021,9 @@ public abstract class Component {
     }
 
     String getFrameHtml(String key) {
+        if (!frameMap.containsKey(key) && asyncFrameMap.containsKey(key)) {
+            frameMap.put(key, awaitAsyncFrame(asyncFrameMap.remove(key)));
+        }
         return frameMap.get(key);
     }
 
@@ -992,9 +1038,71 @@ public abstract class Component {
      */
     public void parse(String key, Frame frame) {
         setup(frame);
+        asyncFrameMap.remove(key);
         frameMap.put(key, frame.parseTemplate());
     }
 
+    /**
+     * The same as {@link #parse(String, Frame)}, but the frame is rendered in parallel
+     * (if nocturne.frame-rendering-threads is positive, otherwise it is rendered immediately).
+     * Use it for independent frames, which do slow operations (like database queries).
+     * The frame sees the same request, current page and parent component as in {@link #parse(String, Frame)}.
+     * <p>
+     * All such frames are completed before the template of this component is processed.
+     *
+     * @param key   Parsed frame name, refer to it via name attribute for
+     *              directive @frame.
+     * @param frame Frame instance, it should not be used by this component until rendered.
+     */
+    public void parseAsync(String key, Frame frame) {
+        if (!FrameRenderingExecutor.isAvailable()) {
+            parse(key, frame);
+            return;
+        }
+
+        setup(frame);
+        frameMap.remove(key);
+        asyncFrameMap.put(key, FrameRenderingExecutor.submit(frame::parseTemplate));
+    }
+
+    /**
+     * Waits for all the frames parsed by {@link #parseAsync(String, Frame)}.
+     */
+    void awaitAsyncFrames() {
+        if (!asyncFrameMap.isEmpty()) {
+            for (Map.Entry<String, Future<String>> entry : asyncFrameMap.entrySet()) {
+                frameMap.put(entry.getKey(), awaitAsyncFrame(entry.getValue()));
+            }
+            asyncFrameMap.clear();
+        }
+    }
+
+    private static String awaitAsyncFrame(Future<String> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException ignored) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new NocturneException("Can't parse frame.", cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
      * Sets frame body without #parse().
      *
@@ -1031,9 +1139,15 @@ public abstract class Component {
         writer = null;
         validators = new LinkedHashMap<>();
         frameMap = new HashMap<>();
+        asyncFrameMap = new HashMap<>();
         overrideParameters = Collections.synchronizedMap(new HashMap<>());
 
+        RequestTiming timing = RequestTiming.current();
+        long injectStartNanos = System.nanoTime();
         parametersInjector.inject(request);
+        if (timing != null) {
+            timing.add(RequestTiming.Stage.INJECT, System.nanoTime() - injectStartNanos);
+        }
 
         internalGetTemplateMap().put("link", LinkDirective.getInstance());
         internalGetTemplateMap().put("caption", CaptionDirective.getInstance());
@@ -1042,6 +1156,16 @@ public abstract class Component {
     }
 
     void finalizeAfterAction() {
+        // Frames can't outlive the parent component.
+        for (Future<String> future : asyncFrameMap.values()) {
+            try {
+                awaitAsyncFrame(future);
+            } catch (RuntimeException ignored) {
+                // No operations.
+            }
+        }
+        asyncFrameMap.clear();
+
         if (ApplicationContext.getInstance().isDebug()) {
             try {
                 ReflectionUtil.invoke(ApplicationContext.getInstance(), "setCurrentComponent", parentComponent);
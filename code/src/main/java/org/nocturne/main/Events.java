@@ -3,19 +3,28 @@
  */
 package org.nocturne.main;
 
+import org.apache.log4j.Logger;
 import org.nocturne.exception.IncorrectLogicException;
 
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>
  * Use it to listen events and fire them. Any object can be event. Listeners
  * are subscribed to class. When executed {@code fire(event)} all listeners for class
  * event.getClass() will be notified. Also all listeners
- * for event.getClass().getSuperclass() (and so on) will be notified.
+ * for event.getClass().getSuperclass() (and so on) and for the interfaces
+ * of these classes will be notified.
+ * </p>
+ * <p>
+ * Listeners of the event class are flattened into the ordered array on the first fire
+ * and cached until the next listen(). Listening and firing are thread-safe.
  * </p>
  * <p>
  * Use pair of methods beforeAction() and afterAction() to listen components.
@@ -32,6 +41,8 @@ import java.util.Set;
  */
 @SuppressWarnings("unused")
 public class Events {
+    private static final Logger logger = Logger.getLogger(Events.class);
+
     /**
      * Each class has no more than MAX_LISTENER_COUNT listeners.
      * If you are trying to add more, an exception will be thrown.
@@ -40,26 +51,48 @@ public class Events {
      */
     private static final int MAX_LISTENER_COUNT = 20;
 
+    /**
+     * Events for asynchronous listeners are queued, if the queue is full
+     * the listener is notified by the firing thread.
+     */
+    private static final int ASYNC_QUEUE_SIZE_PER_THREAD = 256;
+
     private static final Scope COMMON_SCOPE = new Scope();
     private static final Scope BEFORE_ACTION_SCOPE = new Scope();
     private static final Scope AFTER_ACTION_SCOPE = new Scope();
 
+    private static volatile ExecutorService asyncExecutor;
+
     /**
      * Add listener to events of class "eventClass".
      *
      * @param <T>        Event class.
      * @param eventClass Class to be listened. If event has "eventClass" as its
-     *                   superclass listeners will be notified too.
+     *                   superclass or interface listeners will be notified too.
      * @param listener   Listener instance.
      */
     public static <T> void listen(Class<T> eventClass, Listener<T> listener) {
         COMMON_SCOPE.listen(eventClass, listener);
     }
 
+    /**
+     * Add listener to events of class "eventClass", the listener is notified in the background thread
+     * (or in the firing thread if too many events are waiting). Exceptions of the listener are logged.
+     * The event should be safe to use after fire() returns.
+     *
+     * @param <T>        Event class.
+     * @param eventClass Class to be listened. If event has "eventClass" as its
+     *                   superclass or interface listeners will be notified too.
+     * @param listener   Listener instance.
+     */
+    public static <T> void listenAsync(Class<T> eventClass, Listener<T> listener) {
+        COMMON_SCOPE.listen(eventClass, new AsyncListener<>(listener));
+    }
+
     /**
      * @param <T>   Event class.
-     * @param event Throwing event. All listeners registered for class event.getClass()
-     *              or its superclass will be notified.
+     * @param event Throwing event. All listeners registered for class event.getClass(),
+     *              its superclasses or interfaces will be notified.
      * @return Fired event.
      */
     public static <T> T fire(T event) {
@@ -94,46 +127,157 @@ public class Events {
         AFTER_ACTION_SCOPE.fire(component);
     }
 
-    @SuppressWarnings("WeakerAccess")
-    private static class Scope {
+    private static ExecutorService getAsyncExecutor() {
+        ExecutorService result = asyncExecutor;
+
+        if (result == null) {
+            synchronized (Events.class) {
+                result = asyncExecutor;
+                if (result == null) {
+                    int threadCount = Runtime.getRuntime().availableProcessors();
+                    AtomicInteger threadIndex = new AtomicInteger();
+
+                    asyncExecutor = result = new ThreadPoolExecutor(threadCount, threadCount, 1L, TimeUnit.MINUTES,
+                            new ArrayBlockingQueue<>(threadCount * ASYNC_QUEUE_SIZE_PER_THREAD),
+                            runnable -> {
+                                Thread thread = new Thread(runnable, "nocturne-events-" + threadIndex.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            },
+                            new ThreadPoolExecutor.CallerRunsPolicy());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static final class AsyncListener<T> implements Listener<T> {
+        private final Listener<T> listener;
+
+        private AsyncListener(Listener<T> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onEvent(T event) {
+            getAsyncExecutor().execute(() -> {
+                try {
+                    listener.onEvent(event);
+                } catch (RuntimeException e) {
+                    logger.error("Asynchronous listener " + listener.getClass().getName()
+                            + " failed on event " + event.getClass().getName() + '.', e);
+                }
+            });
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof AsyncListener && listener.equals(((AsyncListener<?>) o).listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return listener.hashCode();
+        }
+    }
+
+    private static final class Scope {
+        private static final Listener<?>[] EMPTY_LISTENERS = new Listener<?>[0];
+
         /**
-         * Stores listeners for each .
+         * Stores listeners for each event class, guarded by this.
          */
-        private final Map<Class<?>, Set<Listener<?>>> listenersByEvent = new LinkedHashMap<>();
+        private final Map<Class<?>, Set<Listener<?>>> listenersByEvent = new HashMap<>();
 
-        public <T> void listen(Class<T> eventClass, Listener<T> listener) {
-            if (!listenersByEvent.containsKey(eventClass)) {
-                listenersByEvent.put(eventClass, new LinkedHashSet<>());
+        /**
+         * Incremented on each listen(), dispatch tables of the previous versions are rebuilt on fire.
+         */
+        private volatile int version;
+
+        /**
+         * Dispatch table for each fired event class.
+         */
+        private final ClassValue<AtomicReference<DispatchTable>> dispatchTables
+                = new ClassValue<AtomicReference<DispatchTable>>() {
+            @Override
+            protected AtomicReference<DispatchTable> computeValue(Class<?> eventClass) {
+                return new AtomicReference<>();
             }
+        };
 
-            listenersByEvent.get(eventClass).add(listener);
+        private synchronized <T> void listen(Class<T> eventClass, Listener<? super T> listener) {
+            Set<Listener<?>> listeners = listenersByEvent.computeIfAbsent(eventClass, key -> new LinkedHashSet<>());
+            listeners.add(listener);
 
-            if (listenersByEvent.get(eventClass).size() > MAX_LISTENER_COUNT) {
+            if (listeners.size() > MAX_LISTENER_COUNT) {
                 throw new IncorrectLogicException(String.format(
                         "Too many listeners for %s event type. Are you sure your code is correct?", eventClass.getName()
                 ));
             }
+
+            ++version;
         }
 
         @SuppressWarnings({"unchecked"})
-        public <T> T fire(T event) {
-            Class<? super T> clazz = (Class<? super T>) event.getClass();
-            while (clazz != null) {
-                fireExactMatchedListeners(event, clazz);
-                clazz = clazz.getSuperclass();
+        private <T> T fire(T event) {
+            if (version != 0) {
+                for (Listener<?> listener : getListeners(event.getClass())) {
+                    ((Listener<? super T>) listener).onEvent(event);
+                }
             }
             return event;
         }
 
-        @SuppressWarnings({"unchecked"})
-        private <T> void fireExactMatchedListeners(T event, Class<? super T> clazz) {
-            if (listenersByEvent.containsKey(clazz)) {
-                Set<Listener<?>> listeners = listenersByEvent.get(clazz);
-                for (Listener<?> listener : listeners) {
-                    Listener<? super T> t = (Listener<? super T>) listener;
-                    t.onEvent(event);
+        private Listener<?>[] getListeners(Class<?> eventClass) {
+            AtomicReference<DispatchTable> dispatchTableReference = dispatchTables.get(eventClass);
+            DispatchTable dispatchTable = dispatchTableReference.get();
+
+            if (dispatchTable == null || dispatchTable.version != version) {
+                dispatchTable = newDispatchTable(eventClass);
+                dispatchTableReference.set(dispatchTable);
+            }
+
+            return dispatchTable.listeners;
+        }
+
+        /**
+         * Listeners of the class go first, then listeners of its interfaces, then of the superclass and so on.
+         * Each type is visited once.
+         */
+        private synchronized DispatchTable newDispatchTable(Class<?> eventClass) {
+            List<Listener<?>> listeners = new ArrayList<>();
+            Set<Class<?>> visited = new HashSet<>();
+
+            for (Class<?> clazz = eventClass; clazz != null; clazz = clazz.getSuperclass()) {
+                addListeners(clazz, visited, listeners);
+            }
+
+            return new DispatchTable(version,
+                    listeners.isEmpty() ? EMPTY_LISTENERS : listeners.toArray(EMPTY_LISTENERS));
+        }
+
+        private void addListeners(Class<?> clazz, Set<Class<?>> visited, List<Listener<?>> listeners) {
+            if (visited.add(clazz)) {
+                Set<Listener<?>> classListeners = listenersByEvent.get(clazz);
+                if (classListeners != null) {
+                    listeners.addAll(classListeners);
+                }
+
+                for (Class<?> interfaceClass : clazz.getInterfaces()) {
+                    addListeners(interfaceClass, visited, listeners);
                 }
             }
         }
     }
+
+    private static final class DispatchTable {
+        private final int version;
+        private final Listener<?>[] listeners;
+
+        private DispatchTable(int version, Listener<?>[] listeners) {
+            this.version = version;
+            this.listeners = listeners;
+        }
+    }
 }
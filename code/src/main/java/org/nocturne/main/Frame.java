@@ -4,13 +4,12 @@
 package org.nocturne.main;
 
 import freemarker.template.TemplateException;
-import io.prometheus.client.Summary;
 import org.jetbrains.annotations.Nullable;
 import org.nocturne.cache.CacheHandler;
 import org.nocturne.exception.FreemarkerException;
 import org.nocturne.exception.InterruptException;
-import org.nocturne.prometheus.Prometheus;
-import org.nocturne.util.ReflectionUtil;
+import org.nocturne.prometheus.ComponentMetrics;
+import org.nocturne.prometheus.ComponentMetrics.Phase;
 
 import java.io.IOException;
 import java.io.StringWriter;
@@ -36,21 +35,24 @@ public abstract class Frame extends Component {
     }
 
     public String parseTemplate() {
-        String simpleClassName = ReflectionUtil.getOriginalClass(getClass()).getSimpleName();
+        ComponentMetrics metrics = getMetrics();
 
-        Prometheus.getFramesCounter().labels(simpleClassName).inc();
-        Summary.Timer overallTimer = Prometheus.getFramesLatencySeconds()
-                .labels(simpleClassName, "overall").startTimer();
+        metrics.inc();
+        long overallStartNanos = System.nanoTime();
 
         try {
-            return internalParseTemplate(simpleClassName);
+            return internalParseTemplate(metrics);
         } finally {
-            overallTimer.observeDuration();
+            long overallNanos = metrics.observe(Phase.OVERALL, overallStartNanos);
+            RequestTiming timing = RequestTiming.current();
+            if (timing != null) {
+                timing.addFrame(metrics.getSimpleClassName(), overallNanos);
+            }
         }
     }
 
     @Nullable
-    private String internalParseTemplate(String simpleClassName) {
+    private String internalParseTemplate(ComponentMetrics metrics) {
         prepareForAction();
 
         CacheHandler cacheHandler = getCacheHandler();
@@ -63,63 +65,60 @@ public abstract class Frame extends Component {
             if (result == null) {
                 boolean interrupted = false;
 
-                Summary.Timer initializeActionTimer = Prometheus.getFramesLatencySeconds()
-                        .labels(simpleClassName, "initializeAction").startTimer();
+                long initializeActionStartNanos = System.nanoTime();
                 try {
                     initializeAction();
                 } catch (InterruptException ignored) {
                     interrupted = true;
                 } finally {
-                    initializeActionTimer.observeDuration();
+                    metrics.observe(Phase.INITIALIZE_ACTION, initializeActionStartNanos);
                 }
 
                 if (!interrupted) {
                     // Before action.
                     {
-                        Summary.Timer beforeActionTimer = Prometheus.getFramesLatencySeconds()
-                                .labels(simpleClassName, "beforeAction").startTimer();
+                        long beforeActionStartNanos = System.nanoTime();
                         try {
                             Events.fireBeforeAction(this);
                         } finally {
-                            beforeActionTimer.observeDuration();
+                            metrics.observe(Phase.BEFORE_ACTION, beforeActionStartNanos);
                         }
                     }
 
                     // Action.
                     {
-                        Summary.Timer actionTimer = Prometheus.getFramesLatencySeconds()
-                                .labels(simpleClassName, "action").startTimer();
+                        long actionStartNanos = System.nanoTime();
                         try {
                             internalRunAction(getActionName());
                         } catch (InterruptException ignored) {
                             // No operations.
                         } finally {
-                            actionTimer.observeDuration();
+                            metrics.observe(Phase.ACTION, actionStartNanos);
                         }
                     }
 
                     // After action.
                     {
-                        Summary.Timer afterActionTimer = Prometheus.getFramesLatencySeconds()
-                                .labels(simpleClassName, "afterAction").startTimer();
+                        long afterActionStartNanos = System.nanoTime();
                         try {
                             Events.fireAfterAction(this);
                         } finally {
-                            afterActionTimer.observeDuration();
+                            metrics.observe(Phase.AFTER_ACTION, afterActionStartNanos);
                         }
                     }
                 }
 
-                Summary.Timer finalizeActionTimer = Prometheus.getFramesLatencySeconds()
-                        .labels(simpleClassName, "finalizeAction").startTimer();
+                long finalizeActionStartNanos = System.nanoTime();
                 try {
                     finalizeAction();
                 } catch (InterruptException ignored) {
                     // No operations.
                 } finally {
-                    finalizeActionTimer.observeDuration();
+                    metrics.observe(Phase.FINALIZE_ACTION, finalizeActionStartNanos);
                 }
 
+                awaitAsyncFrames();
+
                 if (isSkipTemplate()) {
                     return null;
                 } else {
@@ -127,8 +126,7 @@ public abstract class Frame extends Component {
                     Map<String, Object> params = new HashMap<>(internalGetTemplateMap());
                     params.putAll(ApplicationContext.getInstance().getCurrentPage().internalGetGlobalTemplateMap());
 
-                    Summary.Timer templateTimer = Prometheus.getFramesLatencySeconds()
-                            .labels(simpleClassName, "template").startTimer();
+                    long templateStartNanos = System.nanoTime();
                     try {
                         getTemplate().process(params, writer);
                         writer.close();
@@ -139,7 +137,7 @@ public abstract class Frame extends Component {
                         }
                         return result;
                     } finally {
-                        templateTimer.observeDuration();
+                        metrics.observe(Phase.TEMPLATE, templateStartNanos);
                     }
                 }
             } else {
@@ -148,6 +146,9 @@ public abstract class Frame extends Component {
         } catch (TemplateException | IOException e) {
             throw new FreemarkerException("Can't parse frame " + getClass().getSimpleName() + '.', e);
         } finally {
+            if (cacheHandler != null) {
+                cacheHandler.release(this);
+            }
             finalizeAfterAction();
         }
     }
@@ -8,9 +8,10 @@ import freemarker.template.*;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
-import java.util.HashSet;
+import java.io.Writer;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_OPEN_PREFIX;
 import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_CLOSE_PREFIX;
@@ -23,7 +24,11 @@ import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MA
  * @author Mike Mirzayanov
  */
 public class FrameDirective implements TemplateDirectiveModel {
-    private final Set<String> UNIQUE_RENDER_KEYS = new HashSet<>();
+    /**
+     * Frames parsed by {@link Component#parseAsync(String, Frame)} render their nested frames concurrently,
+     * so the set is concurrent and a block is kept by the frame which has added its key first.
+     */
+    private final Set<String> UNIQUE_RENDER_KEYS = ConcurrentHashMap.newKeySet();
 
     FrameDirective() {
         // No operations.
@@ -61,6 +66,15 @@ public class FrameDirective implements TemplateDirectiveModel {
         }
     }
 
+    /**
+     * @param writer Writer to wrap.
+     * @return Writer which does the same as {@link #processComponentUniques(StringBuilder)} on the fly.
+     */
+    @Nonnull
+    Writer newUniqueBlocksFilterWriter(@Nonnull Writer writer) {
+        return new UniqueBlocksFilterWriter(writer, UNIQUE_RENDER_KEYS);
+    }
+
     @Nonnull
     String processComponentUniques(@Nonnull StringBuilder sb) {
         int open;
@@ -80,10 +94,9 @@ public class FrameDirective implements TemplateDirectiveModel {
                     String openKey = sb.substring(open + UNIQUE_MAGIC_OPEN_PREFIX.length(), i);
                     String closeKey = sb.substring(close + UNIQUE_MAGIC_CLOSE_PREFIX.length(), j);
                     if (openKey.equals(closeKey) && !openKey.isEmpty()) {
-                        if (UNIQUE_RENDER_KEYS.contains(openKey)) {
+                        if (!UNIQUE_RENDER_KEYS.add(openKey)) {
                             sb.delete(open, j + 2);
                         } else {
-                            UNIQUE_RENDER_KEYS.add(openKey);
                             sb.delete(close, j + 2);
                             sb.delete(open, i + 2);
                         }
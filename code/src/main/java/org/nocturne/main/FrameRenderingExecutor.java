@@ -0,0 +1,98 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.main;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor to render frames parsed by {@link Component#parseAsync(String, Frame)}.
+ * If the queue is full, frame is rendered by the calling thread. Frames parsed from
+ * the worker threads are rendered synchronously to avoid waiting for the own queue.
+ *
+ * @author Mike Mirzayanov
+ */
+final class FrameRenderingExecutor {
+    private static final int QUEUE_SIZE_PER_THREAD = 16;
+
+    private static volatile ExecutorService executor;
+
+    private FrameRenderingExecutor() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return {@code true} iff frames can be rendered asynchronously from the current thread.
+     */
+    static boolean isAvailable() {
+        return ApplicationContext.getInstance().getFrameRenderingThreadCount() > 0
+                && !(Thread.currentThread() instanceof WorkerThread);
+    }
+
+    /**
+     * Runs the task in the worker thread, the thread-local state of the current
+     * thread (request, current page and component) is passed to the worker.
+     *
+     * @param task Task to run.
+     * @return Future of the task result.
+     */
+    static <T> Future<T> submit(Callable<T> task) {
+        ApplicationContext.ThreadContext threadContext = ApplicationContext.getInstance().getThreadContext();
+
+        return getExecutor().submit(() -> {
+            ApplicationContext.ThreadContext previousThreadContext
+                    = ApplicationContext.getInstance().setThreadContext(threadContext);
+            try {
+                return task.call();
+            } finally {
+                ApplicationContext.getInstance().setThreadContext(previousThreadContext);
+            }
+        });
+    }
+
+    /**
+     * Stops the worker threads, frames parsed after it start new ones.
+     */
+    static void shutdown() {
+        synchronized (FrameRenderingExecutor.class) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    private static ExecutorService getExecutor() {
+        ExecutorService result = executor;
+
+        if (result == null) {
+            synchronized (FrameRenderingExecutor.class) {
+                result = executor;
+                if (result == null) {
+                    int threadCount = ApplicationContext.getInstance().getFrameRenderingThreadCount();
+                    AtomicInteger threadIndex = new AtomicInteger();
+
+                    executor = result = new ThreadPoolExecutor(threadCount, threadCount, 1L, TimeUnit.MINUTES,
+                            new ArrayBlockingQueue<>(threadCount * QUEUE_SIZE_PER_THREAD),
+                            runnable -> new WorkerThread(runnable, "nocturne-frame-rendering-" + threadIndex.incrementAndGet()),
+                            new ThreadPoolExecutor.CallerRunsPolicy());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static final class WorkerThread extends Thread {
+        private WorkerThread(Runnable target, String name) {
+            super(target, name);
+            setDaemon(true);
+        }
+    }
+}
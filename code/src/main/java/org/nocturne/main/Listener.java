@@ -12,7 +12,7 @@ public interface Listener<T> {
     /**
      * This method will be invoked in case of invocation
      * Events.fire(event) and if the listener was
-     * subscribed to event.getClass() or its superclass.
+     * subscribed to event.getClass(), its superclass or interface.
      *
      * @param event Event instance.
      */
@@ -4,15 +4,19 @@
 package org.nocturne.main;
 
 import freemarker.template.TemplateException;
-import io.prometheus.client.Summary;
 import org.nocturne.cache.CacheHandler;
 import org.nocturne.exception.*;
 import org.nocturne.postprocess.ResponsePostprocessor;
-import org.nocturne.prometheus.Prometheus;
+import org.nocturne.postprocess.StreamingResponsePostprocessor;
+import org.nocturne.prometheus.ComponentMetrics;
+import org.nocturne.prometheus.ComponentMetrics.Phase;
 import org.nocturne.util.ReflectionUtil;
+import org.nocturne.util.Utf8OutputStreamWriter;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
@@ -45,6 +49,11 @@ public abstract class Page extends Component {
      */
     private ResponsePostprocessor responsePostprocessor;
 
+    /**
+     * Default is null, which means to use {@link ApplicationContext#isStreamingTemplates()}.
+     */
+    private Boolean streamingTemplate;
+
     /**
      * Request-scoped cache. For internal usage.
      */
@@ -85,6 +94,27 @@ public abstract class Page extends Component {
         this.responsePostprocessor = responsePostprocessor;
     }
 
+    /**
+     * Streaming rendering writes the template directly to the response without
+     * buffering the whole page in memory. It is used only if the page has no cache handler
+     * and its response postprocessor (if any) is {@link StreamingResponsePostprocessor}.
+     * Note that the response can be committed before the template is completely rendered.
+     *
+     * @return {@code true} iff the page template should be rendered in streaming mode.
+     */
+    public boolean isStreamingTemplate() {
+        return streamingTemplate == null
+                ? ApplicationContext.getInstance().isStreamingTemplates()
+                : streamingTemplate;
+    }
+
+    /**
+     * @param streamingTemplate {@code true} to render the page template in streaming mode.
+     */
+    protected void setStreamingTemplate(boolean streamingTemplate) {
+        this.streamingTemplate = streamingTemplate;
+    }
+
     /**
      * @param processChain {@code true} if you want to use filterChain after
      *                     page usage.
@@ -129,16 +159,17 @@ public abstract class Page extends Component {
      * Handles main part of page workflow and parses template (writes it to response) if needed.
      */
     public void parseTemplate() {
-        String simpleClassName = ReflectionUtil.getOriginalClass(getClass()).getSimpleName();
+        ComponentMetrics metrics = getMetrics();
+        RequestTiming timing = RequestTiming.current();
 
-        Prometheus.getPagesCounter().labels(simpleClassName).inc();
-        Summary.Timer overallTimer = Prometheus.getPagesLatencySeconds()
-                .labels(simpleClassName, "overall").startTimer();
+        metrics.inc();
+        long overallStartNanos = System.nanoTime();
 
+        CacheHandler cacheHandler = null;
         try {
             prepareForAction();
 
-            CacheHandler cacheHandler = getCacheHandler();
+            cacheHandler = getCacheHandler();
             String result = null;
             if (cacheHandler != null && !isSkipTemplate()) {
                 result = cacheHandler.intercept(this);
@@ -148,84 +179,88 @@ public abstract class Page extends Component {
             if (result == null) {
                 boolean interrupted = false;
 
-                Summary.Timer initializeActionTimer = Prometheus.getPagesLatencySeconds()
-                        .labels(simpleClassName, "initializeAction").startTimer();
+                long initializeActionStartNanos = System.nanoTime();
                 try {
                     initializeAction();
                 } catch (InterruptException e) {
                     interrupted = true;
                 } finally {
-                    initializeActionTimer.observeDuration();
+                    observe(metrics, timing, Phase.INITIALIZE_ACTION, initializeActionStartNanos);
                 }
 
                 if (!interrupted) {
                     // Before action.
                     {
-                        Summary.Timer beforeActionTimer = Prometheus.getPagesLatencySeconds()
-                                .labels(simpleClassName, "beforeAction").startTimer();
+                        long beforeActionStartNanos = System.nanoTime();
                         try {
                             Events.fireBeforeAction(this);
                         } finally {
-                            beforeActionTimer.observeDuration();
+                            observe(metrics, timing, Phase.BEFORE_ACTION, beforeActionStartNanos);
                         }
                     }
 
                     // Action.
                     {
-                        Summary.Timer actionTimer = Prometheus.getPagesLatencySeconds()
-                                .labels(simpleClassName, "action").startTimer();
+                        long actionStartNanos = System.nanoTime();
                         try {
                             internalRunAction(getActionName());
                         } catch (InterruptException ignored) {
                             // No operations.
                         } finally {
-                            actionTimer.observeDuration();
+                            observe(metrics, timing, Phase.ACTION, actionStartNanos);
                         }
                     }
 
                     // After action.
                     {
-                        Summary.Timer afterActionTimer = Prometheus.getPagesLatencySeconds()
-                                .labels(simpleClassName, "afterAction").startTimer();
+                        long afterActionStartNanos = System.nanoTime();
                         try {
                             Events.fireAfterAction(this);
                         } finally {
-                            afterActionTimer.observeDuration();
+                            observe(metrics, timing, Phase.AFTER_ACTION, afterActionStartNanos);
                         }
                     }
                 }
 
-                Summary.Timer finalizeActionTimer = Prometheus.getPagesLatencySeconds()
-                        .labels(simpleClassName, "finalizeAction").startTimer();
+                long finalizeActionStartNanos = System.nanoTime();
                 try {
                     finalizeAction();
                 } catch (InterruptException ignored) {
                     // No operations.
                 } finally {
-                    finalizeActionTimer.observeDuration();
+                    observe(metrics, timing, Phase.FINALIZE_ACTION, finalizeActionStartNanos);
                 }
 
+                awaitAsyncFrames();
+
                 if (!isSkipTemplate()) {
                     Map<String, Object> params = new HashMap<>(internalGetTemplateMap());
                     params.putAll(internalGetGlobalTemplateMap());
 
-                    Summary.Timer templateTimer = Prometheus.getPagesLatencySeconds()
-                            .labels(simpleClassName, "template").startTimer();
+                    long templateStartNanos = System.nanoTime();
                     try {
                         getTemplate().setOutputEncoding(StandardCharsets.UTF_8.name());
 
-                        StringWriter stringWriter = new StringWriter(65536);
-                        getTemplate().process(params, stringWriter);
-                        stringWriter.close();
-
-                        result = ((FrameDirective) getGlobalTemplateMap().get("frame")).processComponentUniques(
-                                new StringBuilder(stringWriter.getBuffer()));
-
-                        if (cacheHandler != null) {
-                            cacheHandler.postprocess(this, result);
+                        if (cacheHandler == null && isStreamingTemplate() && (responsePostprocessor == null
+                                || responsePostprocessor instanceof StreamingResponsePostprocessor)) {
+                            if (timing != null) {
+                                timing.addServerTimingHeader(getResponse());
+                            }
+                            processTemplateStreaming(params);
+                        } else {
+                            StringWriter stringWriter = new StringWriter(65536);
+                            getTemplate().process(params, stringWriter);
+                            stringWriter.close();
+
+                            result = ((FrameDirective) getGlobalTemplateMap().get("frame")).processComponentUniques(
+                                    new StringBuilder(stringWriter.getBuffer()));
+
+                            if (cacheHandler != null) {
+                                cacheHandler.postprocess(this, result);
+                            }
+
+                            result = handleRequestPostprocessor(result);
                         }
-
-                        result = handleRequestPostprocessor(result);
                     } catch (TemplateException e) {
                         throw new FreemarkerException("Can't parse template for page " + getClass().getName() + '.', e);
                     } catch (IOException e) {
@@ -233,21 +268,40 @@ public abstract class Page extends Component {
                             throw new FreemarkerException("Can't parse template for page " + getClass().getName() + '.', e);
                         }
                     } finally {
-                        templateTimer.observeDuration();
+                        observe(metrics, timing, Phase.TEMPLATE, templateStartNanos);
                     }
                 }
             }
 
             if (result != null) {
+                if (timing != null) {
+                    timing.addServerTimingHeader(getResponse());
+                }
+
+                long writeStartNanos = System.nanoTime();
                 getOutputStream().write(result.getBytes(StandardCharsets.UTF_8));
+                if (timing != null) {
+                    timing.add(RequestTiming.Stage.WRITE, System.nanoTime() - writeStartNanos);
+                }
             }
         } catch (AbortException ignored) {
             // No operations.
         } catch (IOException e) {
             throw new FreemarkerException("Can't write page " + getClass().getName() + '.', e);
         } finally {
+            if (cacheHandler != null) {
+                cacheHandler.release(this);
+            }
             finalizeAfterAction();
-            overallTimer.observeDuration();
+            observe(metrics, timing, Phase.OVERALL, overallStartNanos);
+        }
+    }
+
+    private static void observe(ComponentMetrics metrics, @Nullable RequestTiming timing,
+                                Phase phase, long startNanos) {
+        long nanos = metrics.observe(phase, startNanos);
+        if (timing != null) {
+            timing.add(phase, nanos);
         }
     }
 
@@ -257,6 +311,31 @@ public abstract class Page extends Component {
         super.finalizeAfterAction();
     }
 
+    /**
+     * Renders the template directly to the response: template output goes through unique blocks filter,
+     * streaming response postprocessor (if any) and UTF-8 encoder. Each of the writers is closed
+     * but the response output stream is not.
+     */
+    private void processTemplateStreaming(Map<String, Object> params) throws IOException, TemplateException {
+        Writer responseWriter = new Utf8OutputStreamWriter(getOutputStream());
+        try {
+            Writer postprocessorWriter = responsePostprocessor == null ? responseWriter
+                    : ((StreamingResponsePostprocessor) responsePostprocessor).postprocess(this, responseWriter);
+            try {
+                Writer writer = ((FrameDirective) internalGetGlobalTemplateMap().get("frame"))
+                        .newUniqueBlocksFilterWriter(postprocessorWriter);
+                getTemplate().process(params, writer);
+                writer.close();
+            } finally {
+                if (postprocessorWriter != responseWriter) {
+                    postprocessorWriter.close();
+                }
+            }
+        } finally {
+            responseWriter.close();
+        }
+    }
+
     private String handleRequestPostprocessor(String result) {
         ResponsePostprocessor postprocessor = responsePostprocessor;
         if (postprocessor != null) {
@@ -6,6 +6,7 @@ package org.nocturne.main;
 import org.apache.log4j.Logger;
 import org.nocturne.exception.ConfigurationException;
 import org.nocturne.pool.PagePool;
+import org.nocturne.prometheus.Prometheus;
 
 import java.util.Collection;
 import java.util.List;
@@ -23,6 +24,7 @@ import java.util.concurrent.locks.ReentrantLock;
 @SuppressWarnings("WeakerAccess")
 public class PageLoader {
     private static final Logger logger = Logger.getLogger(PageLoader.class);
+    private static final double NANOSECONDS_PER_SECOND = 1E9;
 
     private RequestRouter requestRouter;
     private final ConcurrentMap<String, PagePool> pagePoolMap = new ConcurrentHashMap<>();
@@ -59,7 +61,16 @@ public class PageLoader {
     public Page loadPage(String path, Map<String, List<String>> parameterMap) {
         initialize();
 
+        RequestTiming timing = RequestTiming.current();
+
+        long routeStartNanos = System.nanoTime();
         RequestRouter.Resolution resolution = requestRouter.route(path, parameterMap);
+        long routeNanos = System.nanoTime() - routeStartNanos;
+        Prometheus.getRouteMatchSeconds().observe(routeNanos / NANOSECONDS_PER_SECOND);
+        if (timing != null) {
+            timing.add(RequestTiming.Stage.ROUTE, routeNanos);
+        }
+
         if (resolution == null && ApplicationContext.getInstance().getDefaultPageClassName() != null) {
             resolution = new RequestRouter.Resolution(ApplicationContext.getInstance().getDefaultPageClassName(), "");
         }
@@ -77,8 +88,13 @@ public class PageLoader {
                 }
             }
 
+            long poolStartNanos = System.nanoTime();
             PagePool pool = getPoolByClassName(resolution.getPageClassName());
-            return pool.getInstance();
+            Page page = pool.getInstance();
+            if (timing != null) {
+                timing.add(RequestTiming.Stage.POOL, System.nanoTime() - poolStartNanos);
+            }
+            return page;
         }
     }
 
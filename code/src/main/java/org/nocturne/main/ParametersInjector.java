@@ -16,10 +16,15 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p>
@@ -30,14 +35,15 @@ import java.util.regex.Pattern;
  * Also this class can be used if you want to
  * inject parameters into some object.
  * </p>
+ * <p>
+ * Injection plans (fields with their setters and parameter names) are built once
+ * per class and per action method and shared by all the instances.
+ * </p>
  *
  * @author Mike Mirzayanov
  */
 @SuppressWarnings("WeakerAccess")
 public class ParametersInjector {
-    private static final Pattern INTEGRAL_VALUE_PATTERN = Pattern.compile("0|(-?[1-9][0-9]*)");
-    private static final Pattern REAL_VALUE_PATTERN = Pattern.compile("(0|(-?[1-9][0-9]*))((\\.[0-9]+)?)");
-
     private static final Character NULL_ASSIGN_CHAR = 0;
     private static final Byte NULL_ASSIGN_BYTE = 0;
     private static final Short NULL_ASSIGN_SHORT = 0;
@@ -46,15 +52,27 @@ public class ParametersInjector {
     private static final Float NULL_ASSIGN_FLOAT = 0.0F;
     private static final Double NULL_ASSIGN_DOUBLE = 0.0D;
 
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * Fields with @Parameter annotation by class.
+     */
+    private static final ConcurrentMap<Class<?>, InjectField[]> injectFieldsByClass = new ConcurrentHashMap<>();
+
+    /**
+     * Method parameters by method.
+     */
+    private static final ConcurrentMap<Method, InjectField[]> injectFieldsByMethod = new ConcurrentHashMap<>();
+
     /**
      * Injection target object.
      */
     private final Object component;
 
     /**
-     * Stores information about
+     * Fields of the component with @Parameter annotation.
      */
-    private Set<InjectField> fields;
+    private InjectField[] fields;
 
     /**
      * @param component Object which has fields with @Parameter annotation.
@@ -69,10 +87,10 @@ public class ParametersInjector {
      */
     public void inject(HttpServletRequest request) {
         if (fields == null) {
-            scanFields();
+            fields = getInjectFields(component.getClass());
         }
 
-        setupFields(request, fields);
+        setupFields(request, fields, null);
     }
 
     /**
@@ -83,6 +101,25 @@ public class ParametersInjector {
      * @return Object[] containing values for method parameters from the http request.
      */
     Object[] setupParameters(HttpServletRequest request, FastMethod method) {
+        InjectField[] injectFields = getInjectFields(method);
+        Object[] result = new Object[injectFields.length];
+        setupFields(request, injectFields, result);
+        return result;
+    }
+
+    private static InjectField[] getInjectFields(FastMethod method) {
+        Method javaMethod = method.getJavaMethod();
+        InjectField[] injectFields = injectFieldsByMethod.get(javaMethod);
+
+        if (injectFields == null) {
+            injectFieldsByMethod.putIfAbsent(javaMethod, scanParameters(method));
+            injectFields = injectFieldsByMethod.get(javaMethod);
+        }
+
+        return injectFields;
+    }
+
+    private static InjectField[] scanParameters(FastMethod method) {
         Class<?>[] parameterTypes = method.getParameterTypes();
         Annotation[][] parameterAnnotations = method.getJavaMethod().getParameterAnnotations();
 
@@ -90,7 +127,7 @@ public class ParametersInjector {
             throw new NocturneException("Expected the same number of parameters and annotations.");
         }
 
-        List<InjectField> injectFields = new ArrayList<>(parameterTypes.length);
+        InjectField[] injectFields = new InjectField[parameterTypes.length];
 
         for (int i = 0; i < parameterTypes.length; ++i) {
             Class<?> parameterType = parameterTypes[i];
@@ -108,38 +145,36 @@ public class ParametersInjector {
                 throw new ConfigurationException("Each @Parameter in the method " + method.getDeclaringClass().getName()
                         + '#' + method.getName() + " should have name.");
             }
-            InjectField injectField = new InjectField(null, parameter);
-            injectField.nonFieldType = parameterType;
-            injectFields.add(injectField);
-        }
-
-        setupFields(request, injectFields);
-
-        Object[] result = new Object[injectFields.size()];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = injectFields.get(i).nonFieldValue;
+            injectFields[i] = new InjectField(null, parameter, parameter.name(), parameterType);
         }
 
-        return result;
+        return injectFields;
     }
 
-    private void setupFields(HttpServletRequest request, Collection<InjectField> fields) {
+    /**
+     * @param values Parameter values are stored here if not null, otherwise values are assigned to the fields.
+     */
+    private void setupFields(HttpServletRequest request, InjectField[] fields, @Nullable Object[] values) {
         Map<String, List<String>> overrideParameters =
                 ApplicationContext.getInstance().getRequestOverrideParameters();
         Map<String, List<String>> requestParameters = RequestUtil.getRequestParams(request);
 
-        for (InjectField field : fields) {
-            String key = field.parameter.name().isEmpty()
-                    ? Preconditions.checkNotNull(field.field).getName() : field.parameter.name();
+        for (int i = 0; i < fields.length; ++i) {
+            InjectField field = fields[i];
+            String key = field.name;
 
-            List<String> values;
+            List<String> parameterValues;
             if (overrideParameters != null && overrideParameters.containsKey(key)) {
-                values = overrideParameters.get(key);
+                parameterValues = overrideParameters.get(key);
             } else {
-                values = requestParameters.get(key);
+                parameterValues = requestParameters.get(key);
             }
 
-            setupField(field, values);
+            if (values == null) {
+                setupField(field, parameterValues);
+            } else {
+                values[i] = getValue(field, parameterValues);
+            }
         }
 
         if (component instanceof Component) {
@@ -152,20 +187,61 @@ public class ParametersInjector {
         }
     }
 
-    private void setupField(InjectField field, @Nullable List<String> values) {
-        Class<?> fieldType = getFieldType(field);
+    @Nullable
+    private static Object getValue(InjectField field, @Nullable List<String> values) {
+        if (field.type.isArray()) {
+            return getArrayAssignValue(field, values, field.type);
+        }
 
-        if (fieldType.isArray()) {
-            setFieldValue(field, getArrayAssignValue(field, values, fieldType));
+        String value = RequestUtil.getFirst(values);
+        if (value == null) {
+            return getNullAssignValue(field.type);
         } else {
-            String value = RequestUtil.getFirst(values);
+            return getAssignValue(field, field.stripMode.strip(value), field.type);
+        }
+    }
 
-            if (value == null) {
-                setFieldValue(field, getNullAssignValue(fieldType));
+    /**
+     * Primitive fields are assigned without boxing, others via {@link #getValue(InjectField, List)}.
+     */
+    @SuppressWarnings({"OverlyComplexMethod", "OverlyLongMethod"})
+    private void setupField(InjectField field, @Nullable List<String> values) {
+        MethodHandle setter = Preconditions.checkNotNull(field.setter);
+
+        String value = null;
+        if (field.type.isPrimitive()) {
+            value = RequestUtil.getFirst(values);
+            if (value != null) {
+                value = field.stripMode.strip(value);
+            }
+        }
+
+        try {
+            if (field.type == boolean.class) {
+                setter.invokeExact(component, value != null && parseBoolean(value));
+            } else if (field.type == char.class) {
+                setter.invokeExact(component, value == null || value.isEmpty() ? (char) 0 : value.charAt(0));
+            } else if (field.type == byte.class) {
+                setter.invokeExact(component, (byte) parseIntegral(value, Byte.MIN_VALUE, Byte.MAX_VALUE));
+            } else if (field.type == short.class) {
+                setter.invokeExact(component, (short) parseIntegral(value, Short.MIN_VALUE, Short.MAX_VALUE));
+            } else if (field.type == int.class) {
+                setter.invokeExact(component, (int) parseIntegral(value, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            } else if (field.type == long.class) {
+                setter.invokeExact(component, parseIntegral(value, Long.MIN_VALUE, Long.MAX_VALUE));
+            } else if (field.type == float.class) {
+                setter.invokeExact(component, isRealValue(value) ? Float.parseFloat(value) : 0.0F);
+            } else if (field.type == double.class) {
+                setter.invokeExact(component, isRealValue(value) ? Double.parseDouble(value) : 0.0D);
             } else {
-                value = field.parameter.stripMode().strip(value);
-                setFieldValue(field, getAssignValue(field, value, fieldType));
+                setter.invokeExact(component, getValue(field, values));
             }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new NocturneException(String.format(
+                    "Can't set field %s of %s.", field.name, component.getClass().getName()
+            ), e);
         }
     }
 
@@ -187,7 +263,7 @@ public class ParametersInjector {
                 Array.set(fieldValue, valueIndex, getNullAssignValue(componentType));
             } else {
                 if (field != null) {
-                    value = field.parameter.stripMode().strip(value);
+                    value = field.stripMode.strip(value);
                 }
                 Array.set(fieldValue, valueIndex, getAssignValue(field, value, componentType));
             }
@@ -242,101 +318,35 @@ public class ParametersInjector {
         }
 
         if (targetType.equals(Boolean.class) || targetType.equals(boolean.class)) {
-            if ("true".equalsIgnoreCase(value) || "on".equalsIgnoreCase(value)
-                    || "yes".equalsIgnoreCase(value) || "1".equalsIgnoreCase(value)
-                    || "y".equalsIgnoreCase(value) || "checked".equalsIgnoreCase(value)) {
-                return Boolean.TRUE;
-            } else {
-                try {
-                    return Boolean.valueOf(value);
-                } catch (RuntimeException ignored) {
-                    return Boolean.FALSE;
-                }
-            }
+            return parseBoolean(value);
         }
 
         if (targetType.equals(Character.class) || targetType.equals(char.class)) {
-            try {
-                if (value.isEmpty()) {
-                    return NULL_ASSIGN_CHAR;
-                } else {
-                    return value.charAt(0);
-                }
-            } catch (RuntimeException ignored) {
-                return NULL_ASSIGN_CHAR;
-            }
+            return value.isEmpty() ? NULL_ASSIGN_CHAR : value.charAt(0);
         }
 
         if (targetType.equals(Byte.class) || targetType.equals(byte.class)) {
-            try {
-                if (INTEGRAL_VALUE_PATTERN.matcher(value).matches()) {
-                    return Byte.valueOf(value);
-                } else {
-                    return NULL_ASSIGN_BYTE;
-                }
-            } catch (RuntimeException ignored) {
-                return NULL_ASSIGN_BYTE;
-            }
+            return (byte) parseIntegral(value, Byte.MIN_VALUE, Byte.MAX_VALUE);
         }
 
         if (targetType.equals(Short.class) || targetType.equals(short.class)) {
-            try {
-                if (INTEGRAL_VALUE_PATTERN.matcher(value).matches()) {
-                    return Short.valueOf(value);
-                } else {
-                    return NULL_ASSIGN_SHORT;
-                }
-            } catch (RuntimeException ignored) {
-                return NULL_ASSIGN_SHORT;
-            }
+            return (short) parseIntegral(value, Short.MIN_VALUE, Short.MAX_VALUE);
         }
 
         if (targetType.equals(Integer.class) || targetType.equals(int.class)) {
-            try {
-                if (INTEGRAL_VALUE_PATTERN.matcher(value).matches()) {
-                    return Integer.valueOf(value);
-                } else {
-                    return NULL_ASSIGN_INT;
-                }
-            } catch (RuntimeException ignored) {
-                return NULL_ASSIGN_INT;
-            }
+            return (int) parseIntegral(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
         }
 
         if (targetType.equals(Long.class) || targetType.equals(long.class)) {
-            try {
-                if (INTEGRAL_VALUE_PATTERN.matcher(value).matches()) {
-                    return Long.valueOf(value);
-                } else {
-                    return NULL_ASSIGN_LONG;
-                }
-            } catch (RuntimeException ignored) {
-                return NULL_ASSIGN_LONG;
-            }
+            return parseIntegral(value, Long.MIN_VALUE, Long.MAX_VALUE);
         }
 
         if (targetType.equals(Float.class) || targetType.equals(float.class)) {
-            try {
-                if (REAL_VALUE_PATTERN.matcher(value).matches()) {
-                    return Float.valueOf(value);
-                } else {
-                    return NULL_ASSIGN_FLOAT;
-                }
-            } catch (RuntimeException ignored) {
-                return NULL_ASSIGN_FLOAT;
-            }
+            return isRealValue(value) ? Float.valueOf(value) : NULL_ASSIGN_FLOAT;
         }
 
         if (targetType.equals(Double.class) || targetType.equals(double.class)) {
-            try {
-                if (REAL_VALUE_PATTERN.matcher(value).matches()) {
-                    return Double.valueOf(value);
-                } else {
-                    return NULL_ASSIGN_DOUBLE;
-                }
-            } catch (RuntimeException ignored) {
-                return NULL_ASSIGN_DOUBLE;
-            }
+            return isRealValue(value) ? Double.valueOf(value) : NULL_ASSIGN_DOUBLE;
         }
 
         if (targetType.isEnum()) {
@@ -352,29 +362,124 @@ public class ParametersInjector {
     }
 
     @Contract(pure = true)
-    private static Class<?> getFieldType(InjectField field) {
-        return field.field == null ? field.nonFieldType : field.field.getType();
+    private static boolean parseBoolean(String value) {
+        return "true".equalsIgnoreCase(value) || "on".equalsIgnoreCase(value)
+                || "yes".equalsIgnoreCase(value) || "1".equals(value)
+                || "y".equalsIgnoreCase(value) || "checked".equalsIgnoreCase(value);
     }
 
-    private void setFieldValue(InjectField field, @Nullable Object assign) {
-        if (field.field == null) {
-            field.nonFieldValue = assign;
+    /**
+     * Accepts the same values as the regular expression {@code 0|(-?[1-9][0-9]*)}.
+     *
+     * @param value Value to parse, can be {@code null}.
+     * @param min   Minimal allowed value.
+     * @param max   Maximal allowed value.
+     * @return Parsed value or {@code 0} if the value is not a valid integral value in the range.
+     */
+    @Contract(pure = true)
+    static long parseIntegral(@Nullable String value, long min, long max) {
+        if (value == null) {
+            return 0L;
+        }
+
+        int length = value.length();
+        boolean negative = length > 0 && value.charAt(0) == '-';
+        int start = negative ? 1 : 0;
+
+        if (start == length || value.charAt(start) < '0' || value.charAt(start) > '9'
+                || (value.charAt(start) == '0' && (negative || length > 1))) {
+            return 0L;
+        }
+
+        // Accumulates negative value to process Long.MIN_VALUE.
+        long limit = negative ? min : -max;
+        long multiplicationLimit = limit / 10;
+        long result = 0L;
+        for (int i = start; i < length; ++i) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0L;
+            }
+
+            int digit = c - '0';
+            if (result < multiplicationLimit) {
+                return 0L;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return 0L;
+            }
+            result -= digit;
+        }
+
+        return negative ? result : -result;
+    }
+
+    /**
+     * @return {@code true} iff the value matches the regular expression {@code (0|(-?[1-9][0-9]*))((\\.[0-9]+)?)}.
+     */
+    @Contract(value = "null -> false", pure = true)
+    static boolean isRealValue(@Nullable String value) {
+        if (value == null) {
+            return false;
+        }
+
+        int length = value.length();
+        int i = 0;
+
+        if (i < length && value.charAt(i) == '-') {
+            ++i;
+            if (i == length || value.charAt(i) < '1' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+
+        if (i == length) {
+            return false;
+        }
+
+        if (value.charAt(i) == '0') {
+            ++i;
         } else {
-            field.field.setAccessible(true);
-            try {
-                field.field.set(component, assign);
-            } catch (IllegalAccessException e) {
-                throw new IllegalArgumentException(String.format(
-                        "Don't have access to set field %s of %s.",
-                        field.field.getName(), field.field.getDeclaringClass().getName()
-                ), e);
+            int start = i;
+            while (i < length && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+                ++i;
             }
+            if (i == start) {
+                return false;
+            }
+        }
+
+        if (i == length) {
+            return true;
+        }
+
+        if (value.charAt(i) != '.' || i + 1 == length) {
+            return false;
+        }
+
+        for (++i; i < length; ++i) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static InjectField[] getInjectFields(Class<?> clazz) {
+        InjectField[] injectFields = injectFieldsByClass.get(clazz);
+
+        if (injectFields == null) {
+            injectFieldsByClass.putIfAbsent(clazz, scanFields(clazz));
+            injectFields = injectFieldsByClass.get(clazz);
         }
+
+        return injectFields;
     }
 
-    private void scanFields() {
-        fields = new HashSet<>();
-        Class<?> clazz = component.getClass();
+    private static InjectField[] scanFields(Class<?> clazz) {
+        List<InjectField> fields = new ArrayList<>();
 
         while (clazz != null) {
             Field[] clazzFields = clazz.getDeclaredFields();
@@ -382,12 +487,32 @@ public class ParametersInjector {
             for (Field clazzField : clazzFields) {
                 Parameter parameter = clazzField.getAnnotation(Parameter.class);
                 if (parameter != null) {
-                    fields.add(new InjectField(clazzField, parameter));
+                    String name = parameter.name().isEmpty() ? clazzField.getName() : parameter.name();
+                    fields.add(new InjectField(clazzField, parameter, name, clazzField.getType()));
                 }
             }
 
             clazz = clazz.getSuperclass();
         }
+
+        return fields.toArray(new InjectField[0]);
+    }
+
+    /**
+     * @return Setter of type (Object, fieldType)void for primitive fields or (Object, Object)void for others.
+     */
+    private static MethodHandle getSetter(Field field) {
+        field.setAccessible(true);
+
+        try {
+            Class<?> valueType = field.getType().isPrimitive() ? field.getType() : Object.class;
+            return LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, valueType));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Don't have access to set field %s of %s.",
+                    field.getName(), field.getDeclaringClass().getName()
+            ), e);
+        }
     }
 
     @Nonnull
@@ -404,17 +529,31 @@ public class ParametersInjector {
     }
 
     @SuppressWarnings("PackageVisibleField")
-    private static class InjectField {
+    private static final class InjectField {
         @Nullable
         final Field field;
         final Parameter parameter;
 
-        Object nonFieldValue;
-        Class<?> nonFieldType;
+        /**
+         * Request parameter name.
+         */
+        final String name;
+        final Parameter.StripMode stripMode;
+        final Class<?> type;
+
+        /**
+         * Setter for the field or {@code null} for method parameters.
+         */
+        @Nullable
+        final MethodHandle setter;
 
-        private InjectField(@Nullable Field field, Parameter parameter) {
+        private InjectField(@Nullable Field field, Parameter parameter, String name, Class<?> type) {
             this.field = field;
             this.parameter = parameter;
+            this.name = name;
+            this.stripMode = parameter.stripMode();
+            this.type = type;
+            this.setter = field == null ? null : getSetter(field);
         }
     }
 }
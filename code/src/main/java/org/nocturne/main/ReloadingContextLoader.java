@@ -50,7 +50,7 @@ class ReloadingContextLoader {
     private static void setupClassReloadingExceptions() {
         List<String> exceptions = new ArrayList<>();
         exceptions.add(ReloadingContext.class.getName());
-        exceptions.add(Prometheus.class.getName());
+        exceptions.add(Prometheus.class.getPackage().getName());
         if (properties.containsKey("nocturne.class-reloading-exceptions")) {
             String exceptionsAsString = properties.getProperty("nocturne.class-reloading-exceptions");
             if (exceptionsAsString != null) {
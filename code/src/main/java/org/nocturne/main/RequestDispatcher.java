@@ -105,8 +105,7 @@ public class RequestDispatcher {
             page.parseTemplate();
             processChain = page.isProcessChain();
 
-            page.getOutputStream().flush();
-            page.getWriter().flush();
+            flush(page.getOutputStream(), page.getWriter(), response);
         } catch (Exception e) {
             pageThrowable = e;
             if (!isClientAbortException(e)) {
@@ -126,6 +125,24 @@ public class RequestDispatcher {
         return result;
     }
 
+    /**
+     * Flushes page output, adds Server-Timing header before it if the page hasn't added it.
+     */
+    private void flush(Flushable outputStream, Flushable writer, HttpServletResponse response) throws IOException {
+        RequestTiming timing = applicationContext.getRequestTiming();
+        if (timing == null) {
+            outputStream.flush();
+            writer.flush();
+        } else {
+            timing.addServerTimingHeader(response);
+
+            long writeStartNanos = System.nanoTime();
+            outputStream.flush();
+            writer.flush();
+            timing.add(RequestTiming.Stage.WRITE, System.nanoTime() - writeStartNanos);
+        }
+    }
+
     private void setupPageRequestListener(Object page) throws ClassNotFoundException {
         if (pageRequestListeners == null || applicationContext.isDebug()) {
             pageRequestListeners = new CopyOnWriteArrayList<>();
@@ -238,8 +255,8 @@ public class RequestDispatcher {
             ReflectionUtil.invoke(page, "parseTemplate");
             runResult.setProcessChain((Boolean) ReflectionUtil.invoke(page, "isProcessChain"));
 
-            ((Flushable) ReflectionUtil.invoke(page, "getOutputStream")).flush();
-            ((Flushable) ReflectionUtil.invoke(page, "getWriter")).flush();
+            flush((Flushable) ReflectionUtil.invoke(page, "getOutputStream"),
+                    (Flushable) ReflectionUtil.invoke(page, "getWriter"), response);
         } catch (ReflectionException e) {
             throw new NocturneException("Can't run method via reflection.", e);
         } finally {
@@ -264,7 +281,7 @@ public class RequestDispatcher {
             // Pass application context to servlet
             config.getServletContext().setAttribute("applicationContext", applicationContext);
 
-            ApplicationContextLoader.initialize();
+            ApplicationContextLoader.initialize(templateEngineConfigurationPool);
 
             // Log.
             if (!applicationContext.isDebug()) {
@@ -307,6 +324,12 @@ public class RequestDispatcher {
             logger.error("Exception while processing request.", e);
             throw new ServletException(e);
         } finally {
+            RequestTiming timing = applicationContext.getRequestTiming();
+            if (timing != null) {
+                timing.finish(request);
+            }
+
+            RequestUtil.deleteUploadedFiles(request);
             applicationContext.unsetRequestAndResponse();
         }
     }
@@ -325,6 +348,7 @@ public class RequestDispatcher {
     public void destroy() {
         templateEngineConfigurationPool.close();
         pageLoader.close();
+        FrameRenderingExecutor.shutdown();
 
         ApplicationContextLoader.shutdown();
     }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.main;
+
+import org.apache.log4j.Logger;
+import org.nocturne.prometheus.ComponentMetrics;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Timing breakdown of the current request, exists only if nocturne.server-timing or
+ * nocturne.slow-request-threshold is set. Durations are accumulated by stage into the array
+ * allocated once per request, frames are listed separately (first {@link #MAX_FRAME_COUNT} of them).
+ * Asynchronously rendered frames record into the same instance, so all the updates are atomic:
+ * a frame which is still running when the breakdown is written is just missing in it.
+ *
+ * @author Mike Mirzayanov
+ */
+final class RequestTiming {
+    private static final Logger logger = Logger.getLogger(RequestTiming.class);
+
+    private static final int MAX_FRAME_COUNT = 32;
+    private static final Stage[] STAGES = Stage.values();
+    private static final Stage[] STAGES_BY_PHASE = {
+            Stage.PAGE, Stage.INITIALIZE_ACTION, Stage.BEFORE_ACTION, Stage.ACTION,
+            Stage.AFTER_ACTION, Stage.FINALIZE_ACTION, Stage.TEMPLATE
+    };
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray stageNanos = new AtomicLongArray(STAGES.length);
+    private final AtomicReferenceArray<String> frameNames = new AtomicReferenceArray<>(MAX_FRAME_COUNT);
+    private final AtomicLongArray frameNanos = new AtomicLongArray(MAX_FRAME_COUNT);
+    private final AtomicInteger frameCount = new AtomicInteger();
+    private boolean headerAdded;
+
+    /**
+     * @return Timing of the current request or {@code null} if it is disabled
+     * (checked by a flag before looking up the request context).
+     */
+    @Nullable
+    static RequestTiming current() {
+        return ApplicationContext.getInstance().getRequestTiming();
+    }
+
+    void add(Stage stage, long nanos) {
+        stageNanos.addAndGet(stage.ordinal(), nanos);
+    }
+
+    /**
+     * @param phase Phase of the page.
+     * @param nanos Duration of the phase.
+     */
+    void add(ComponentMetrics.Phase phase, long nanos) {
+        add(STAGES_BY_PHASE[phase.ordinal()], nanos);
+    }
+
+    /**
+     * @param simpleClassName Frame class name.
+     * @param nanos           Overall duration of the frame.
+     */
+    void addFrame(String simpleClassName, long nanos) {
+        add(Stage.FRAMES, nanos);
+
+        int index = frameCount.getAndIncrement();
+        if (index < MAX_FRAME_COUNT) {
+            frameNanos.set(index, nanos);
+            frameNames.set(index, simpleClassName);
+        }
+    }
+
+    /**
+     * Adds Server-Timing header (once) if it is enabled and the response is not committed.
+     * Stages which are not finished yet (like writing the response) are not included.
+     *
+     * @param response Response.
+     */
+    void addServerTimingHeader(HttpServletResponse response) {
+        if (!headerAdded && ApplicationContext.getInstance().isServerTiming() && !response.isCommitted()) {
+            response.setHeader("Server-Timing", toString());
+            headerAdded = true;
+        }
+    }
+
+    /**
+     * Writes the breakdown to the log if the request is slower than nocturne.slow-request-threshold.
+     *
+     * @param request Request.
+     */
+    void finish(HttpServletRequest request) {
+        long thresholdMillis = ApplicationContext.getInstance().getSlowRequestThreshold();
+        if (thresholdMillis > 0 && System.nanoTime() - startNanos >= thresholdMillis * 1000000L) {
+            logger.warn("Slow request " + request.getMethod() + ' ' + request.getRequestURI() + ": " + this + '.');
+        }
+    }
+
+    /**
+     * @return Breakdown in the Server-Timing format, durations are in milliseconds.
+     */
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(256);
+
+        for (Stage stage : STAGES) {
+            long nanos = stageNanos.get(stage.ordinal());
+            if (nanos > 0) {
+                appendEntry(result, stage.getName(), null, nanos);
+            }
+        }
+
+        int count = Math.min(frameCount.get(), MAX_FRAME_COUNT);
+        for (int i = 0; i < count; ++i) {
+            String frameName = frameNames.get(i);
+            if (frameName != null) {
+                appendEntry(result, "frame", frameName, frameNanos.get(i));
+            }
+        }
+
+        appendEntry(result, "total", null, System.nanoTime() - startNanos);
+        return result.toString();
+    }
+
+    private static void appendEntry(StringBuilder result, String name, @Nullable String description, long nanos) {
+        if (result.length() > 0) {
+            result.append(", ");
+        }
+
+        result.append(name);
+        if (description != null) {
+            result.append(";desc=\"").append(description).append('"');
+        }
+        result.append(";dur=").append(nanos / 1000 / 1000.0);
+    }
+
+    enum Stage {
+        ROUTE("route"),
+        POOL("pool"),
+        INJECT("inject"),
+        INITIALIZE_ACTION("initializeAction"),
+        BEFORE_ACTION("beforeAction"),
+        ACTION("action"),
+        AFTER_ACTION("afterAction"),
+        FINALIZE_ACTION("finalizeAction"),
+        TEMPLATE("template"),
+        FRAMES("frames"),
+        PAGE("page"),
+        WRITE("write");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.main;
+
+import freemarker.template.Configuration;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads all the templates from nocturne.template-paths into the template cache of the configuration
+ * before the first requests: finds the sources, preprocesses them (components, LESS, captions)
+ * and parses them. Each template is loaded once per allowed language (and the default one), because
+ * the captions are substituted on loading.
+ * <p>
+ * Module templates are copied into the last template directory on the module initialization,
+ * so they are warmed up too.
+ *
+ * @author Mike Mirzayanov
+ */
+final class TemplateWarmUp {
+    private static final Logger logger = Logger.getLogger(TemplateWarmUp.class);
+
+    private static final int SLOWEST_TEMPLATES_TO_LOG = 10;
+
+    private final Configuration templateEngineConfiguration;
+    private final int threadCount;
+
+    /**
+     * @param templateEngineConfiguration Configuration to put templates in its cache.
+     * @param threadCount                 Number of threads, {@code 0} means the number of available processors.
+     */
+    TemplateWarmUp(Configuration templateEngineConfiguration, int threadCount) {
+        this.templateEngineConfiguration = templateEngineConfiguration;
+        this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Warms up all the templates in parallel and logs the timings. Failed templates are logged
+     * and skipped, they will fail again on the first request.
+     *
+     * @return Number of failed templates.
+     */
+    int run() {
+        long startTimeMillis = System.currentTimeMillis();
+
+        List<String> templateNames = findTemplateNames();
+        List<Locale> locales = getLocales();
+
+        List<Callable<Result>> tasks = new ArrayList<>(templateNames.size() * locales.size());
+        for (String templateName : templateNames) {
+            for (Locale locale : locales) {
+                tasks.add(() -> warmUp(templateName, locale));
+            }
+        }
+
+        List<Future<Result>> futures;
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try {
+            futures = pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Result> results = new ArrayList<>(futures.size());
+        int failedCount = 0;
+        for (Future<Result> future : futures) {
+            Result result;
+            try {
+                result = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Template warm-up has been interrupted.", e);
+                return tasks.size() - results.size();
+            } catch (ExecutionException e) {
+                logger.warn("Can't warm up template.", e.getCause());
+                ++failedCount;
+                continue;
+            }
+
+            if (result.exception != null) {
+                ++failedCount;
+            }
+            results.add(result);
+        }
+
+        results.sort((resultA, resultB) -> Long.compare(resultB.timeNanos, resultA.timeNanos));
+        StringBuilder slowest = new StringBuilder();
+        for (int i = 0; i < Math.min(SLOWEST_TEMPLATES_TO_LOG, results.size()); ++i) {
+            Result result = results.get(i);
+            slowest.append(i == 0 ? "" : ", ").append(result.templateName).append(" [").append(result.locale)
+                    .append("]: ").append(TimeUnit.NANOSECONDS.toMillis(result.timeNanos)).append(" ms");
+        }
+
+        logger.info(String.format("Warmed up %d templates in %d locales in %d ms using %d threads, %d failed. Slowest: %s.",
+                templateNames.size(), locales.size(), System.currentTimeMillis() - startTimeMillis,
+                threadCount, failedCount, slowest));
+
+        return failedCount;
+    }
+
+    private Result warmUp(String templateName, Locale locale) {
+        ApplicationContext.getInstance().setLocaleWithoutRequest(locale);
+        long startTimeNanos = System.nanoTime();
+
+        Exception exception = null;
+        try {
+            templateEngineConfiguration.getTemplate(templateName, locale);
+        } catch (Exception e) {
+            exception = e;
+        } finally {
+            ApplicationContext.getInstance().unsetRequestAndResponse();
+        }
+
+        Result result = new Result(templateName, locale, System.nanoTime() - startTimeNanos, exception);
+        if (exception == null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Warmed up template " + templateName + " [locale=" + locale + "] in "
+                        + TimeUnit.NANOSECONDS.toMillis(result.timeNanos) + " ms.");
+            }
+        } else {
+            logger.warn("Can't warm up template " + templateName + " [locale=" + locale + "].", exception);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return Names (relative paths) of *.ftl and *.ftlh files in the template directories.
+     */
+    private static List<String> findTemplateNames() {
+        Set<String> templateNames = new TreeSet<>();
+        for (File templateDir : ApplicationTemplateLoader.getTemplateDirs()) {
+            addTemplateNames(templateDir, "", templateNames);
+        }
+        return new ArrayList<>(templateNames);
+    }
+
+    private static void addTemplateNames(File dir, String prefix, Set<String> templateNames) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            logger.warn("Can't list files in the template directory " + dir + '.');
+            return;
+        }
+
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                addTemplateNames(file, name + '/', templateNames);
+            } else if (name.endsWith(".ftl") || name.endsWith(".ftlh")) {
+                templateNames.add(name);
+            }
+        }
+    }
+
+    /**
+     * @return The default locale and the locales of the allowed languages.
+     */
+    private static List<Locale> getLocales() {
+        Set<Locale> locales = new LinkedHashSet<>();
+        locales.add(ApplicationContext.getInstance().getDefaultLocale());
+        for (String language : ApplicationContext.getInstance().getAllowedLanguages()) {
+            locales.add(new Locale(language));
+        }
+        return new ArrayList<>(locales);
+    }
+
+    private static final class Result {
+        private final String templateName;
+        private final Locale locale;
+        private final long timeNanos;
+        private final Exception exception;
+
+        private Result(String templateName, Locale locale, long timeNanos, Exception exception) {
+            this.templateName = templateName;
+            this.locale = locale;
+            this.timeNanos = timeNanos;
+            this.exception = exception;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.main;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+
+import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_CLOSE_PREFIX;
+import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_OPEN_PREFIX;
+
+/**
+ * Streaming version of {@link FrameDirective#processComponentUniques(StringBuilder)}:
+ * removes unique block markers on the fly, and drops a block completely if its key
+ * has already been rendered.
+ * <p>
+ * Method {@link #flush()} doesn't flush the underlying writer: {@link FrameDirective} flushes after
+ * each frame, and each of these flushes would be a network write (and a sync flush of the compressor).
+ * Closing the writer flushes the underlying writer but doesn't close it.
+ *
+ * @author Mike Mirzayanov
+ */
+class UniqueBlocksFilterWriter extends Writer {
+    private static final int MAX_KEY_LENGTH = 1024;
+
+    private final Writer writer;
+    private final Set<String> renderedKeys;
+
+    /**
+     * Possible beginning of a marker, not written yet.
+     */
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * Length of the marker prefix in {@code pending} or {@code 0} if the prefix isn't matched yet.
+     */
+    private int prefixLength;
+    private boolean openMarker;
+
+    /**
+     * Can {@code pending} still become an open (close) marker prefix?
+     */
+    private boolean openCandidate;
+    private boolean closeCandidate;
+
+    /**
+     * Key of the rendered earlier block which is being skipped or {@code null}.
+     */
+    private String skippedKey;
+
+    /**
+     * Marker is removed with a single character after it (usually, line break).
+     */
+    private boolean skipNextChar;
+
+    UniqueBlocksFilterWriter(Writer writer, Set<String> renderedKeys) {
+        this.writer = writer;
+        this.renderedKeys = renderedKeys;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        process((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        int end = offset + length;
+
+        for (int i = offset; i < end; ) {
+            if (isIdle()) {
+                // Fast path: write (or skip) everything up to the next '<' at once.
+                int lt = i;
+                while (lt < end && chars[lt] != '<') {
+                    ++lt;
+                }
+                if (skippedKey == null) {
+                    writer.write(chars, i, lt - i);
+                }
+                i = lt;
+                if (i == end) {
+                    break;
+                }
+            }
+            process(chars[i++]);
+        }
+    }
+
+    @Override
+    public void write(String s, int offset, int length) throws IOException {
+        int end = offset + length;
+
+        for (int i = offset; i < end; ) {
+            if (isIdle()) {
+                int lt = s.indexOf('<', i);
+                if (lt < 0 || lt > end) {
+                    lt = end;
+                }
+                if (skippedKey == null) {
+                    writer.write(s, i, lt - i);
+                }
+                i = lt;
+                if (i == end) {
+                    break;
+                }
+            }
+            process(s.charAt(i++));
+        }
+    }
+
+    /**
+     * @return {@code true} iff no marker is being matched, so chars before the next '<' can be handled at once.
+     */
+    private boolean isIdle() {
+        return pending.length() == 0 && !skipNextChar;
+    }
+
+    private void process(char c) throws IOException {
+        if (skipNextChar) {
+            skipNextChar = false;
+            return;
+        }
+
+        if (pending.length() == 0) {
+            if (c == '<') {
+                pending.append(c);
+                openCandidate = true;
+                closeCandidate = true;
+            } else if (skippedKey == null) {
+                writer.write(c);
+            }
+            return;
+        }
+
+        if (pending.length() == 1 && c != UNIQUE_MAGIC_OPEN_PREFIX.charAt(1)) {
+            // Usual tag, both markers start with "<!".
+            pending.setLength(0);
+            if (skippedKey == null) {
+                writer.write('<');
+            }
+            process(c);
+            return;
+        }
+
+        pending.append(c);
+
+        if (prefixLength == 0) {
+            int length = pending.length();
+            openCandidate = openCandidate && length <= UNIQUE_MAGIC_OPEN_PREFIX.length()
+                    && UNIQUE_MAGIC_OPEN_PREFIX.charAt(length - 1) == c;
+            closeCandidate = closeCandidate && length <= UNIQUE_MAGIC_CLOSE_PREFIX.length()
+                    && UNIQUE_MAGIC_CLOSE_PREFIX.charAt(length - 1) == c;
+
+            if (openCandidate && length == UNIQUE_MAGIC_OPEN_PREFIX.length()) {
+                prefixLength = length;
+                openMarker = true;
+            } else if (closeCandidate && length == UNIQUE_MAGIC_CLOSE_PREFIX.length()) {
+                prefixLength = length;
+                openMarker = false;
+            } else if (!openCandidate && !closeCandidate) {
+                rejectPending();
+            }
+            return;
+        }
+
+        if (c == '>') {
+            String key = pending.substring(prefixLength, pending.length() - 1);
+            if (key.isEmpty()) {
+                rejectPending();
+            } else {
+                handleMarker(key);
+            }
+        } else if (pending.length() - prefixLength > MAX_KEY_LENGTH) {
+            rejectPending();
+        }
+    }
+
+    private void handleMarker(String key) {
+        boolean open = openMarker;
+        pending.setLength(0);
+        prefixLength = 0;
+
+        if (skippedKey != null) {
+            if (!open && skippedKey.equals(key)) {
+                skippedKey = null;
+                skipNextChar = true;
+            }
+            return;
+        }
+
+        if (open && !renderedKeys.add(key)) {
+            skippedKey = key;
+        } else {
+            skipNextChar = true;
+        }
+    }
+
+    /**
+     * Pending chars are not a marker: writes them (except the last one, which can start a new marker).
+     */
+    private void rejectPending() throws IOException {
+        int length = pending.length();
+        char last = pending.charAt(length - 1);
+
+        if (skippedKey == null) {
+            for (int i = 0; i < length - 1; ++i) {
+                writer.write(pending.charAt(i));
+            }
+        }
+
+        pending.setLength(0);
+        prefixLength = 0;
+
+        if (length > 1) {
+            process(last);
+        } else if (skippedKey == null) {
+            writer.write(last);
+        }
+    }
+
+    /**
+     * Keeps the written chars in the underlying writers, they are flushed on {@link #close()}.
+     */
+    @Override
+    public void flush() {
+        // No operations.
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (skippedKey == null && pending.length() > 0) {
+            writer.write(pending.toString());
+        }
+        pending.setLength(0);
+        prefixLength = 0;
+        writer.flush();
+    }
+}
@@ -10,6 +10,7 @@ import org.apache.commons.io.IOUtils;
 import org.nocturne.exception.ConfigurationException;
 import org.nocturne.main.ApplicationContext;
 import org.nocturne.main.ReloadingContext;
+import org.nocturne.template.TemplatePrecompiler;
 import org.nocturne.template.TemplatePreprocessor;
 import org.nocturne.template.impl.ComponentTemplatePreprocessor;
 import org.nocturne.util.StringUtil;
@@ -22,10 +23,14 @@ import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 /**
  * Scans loaded templates to contains {{...}} and uses captions framework to
  * substitute them to caption values. Also prepares @once directive (sets scopes) and
+ * <p>
+ * Component templates are preprocessed on loading unless they have been written by
+ * {@link TemplatePrecompiler} at build time.
  *
  * @author Mike Mirzayanov
  */
@@ -81,14 +86,18 @@ public class PreprocessFreemarkerFileTemplateLoader extends MultiTemplateLoader
     public Reader getReader(Object templateSource, String encoding) throws IOException {
         StringBuilder stringBuilder = getTemplateAsStringBuilder(templateSource, encoding);
 
-        if (ApplicationContext.getInstance().isUseComponentTemplates()) {
+        if (ApplicationContext.getInstance().isUseComponentTemplates()
+                && !TemplatePrecompiler.isPrecompiled(stringBuilder)) {
             TemplatePreprocessor preprocessor = new ComponentTemplatePreprocessor();
             preprocessor.preprocess(templateSource, stringBuilder);
         }
 
-        processCaptions(stringBuilder);
-        processOnceDirectiveCalls(templateSource, stringBuilder);
-        return new StringReader(stringBuilder.toString());
+        StringBuilder result = new StringBuilder(stringBuilder.length() + (stringBuilder.length() >> 4));
+        OnceDirectiveScopeAppender appender = new OnceDirectiveScopeAppender(templateSource, result);
+        processCaptions(stringBuilder, appender, ApplicationContext.getInstance()::$);
+        appender.close();
+
+        return new StringReader(result.toString());
     }
 
     private StringBuilder getTemplateAsStringBuilder(Object templateSource, String encoding) throws IOException {
@@ -112,47 +121,81 @@ public class PreprocessFreemarkerFileTemplateLoader extends MultiTemplateLoader
     }
 
     /**
-     * Scans content to find "{{...some-text...}}" and replaces it using InteropImpl.
+     * Scans content to find "{{...some-text...}}" and replaces it using InteropImpl. Makes a single pass
+     * and writes the result to the appender.
+     * <p>
+     * A replacement is scanned as a part of the text except its first char (it is the way
+     * the captions have always been substituted, so the values containing "{{" work as before).
      *
-     * @param sb content to be processed
+     * @param text     content to be processed
+     * @param appender where to write the result
+     * @param captions finds caption value by shortcut
      */
-    private static void processCaptions(StringBuilder sb) {
+    private static void processCaptions(CharSequence text, OnceDirectiveScopeAppender appender,
+                                        Function<String, String> captions) {
+        CharSequence input = text;
+        int length = input.length();
+        int position = 0;
         int index = 0;
 
-        while (index + 1 < sb.length()) {
-            if (sb.charAt(index) == '{' && sb.charAt(index + 1) == '{') {
-                int closeIndex = sb.indexOf("}}", index);
+        while (index + 1 < length) {
+            if (input.charAt(index) == '{' && input.charAt(index + 1) == '{') {
+                int closeIndex = indexOf(input, "}}", index + 2);
 
-                if (closeIndex >= 0) {
-                    String content = sb.substring(index + 2, closeIndex);
+                if (closeIndex < 0) {
+                    break;
+                }
 
-                    if (content.startsWith("!")) {
-                        throw new UnsupportedOperationException("{{!...}} syntax is no more supported.");
-                    }
+                String content = input.subSequence(index + 2, closeIndex).toString();
 
-                    String replacement = ApplicationContext.getInstance().$(content);
-                    sb.replace(index, closeIndex + 2, replacement);
+                if (content.startsWith("!")) {
+                    throw new UnsupportedOperationException("{{!...}} syntax is no more supported.");
                 }
-            }
 
-            index++;
+                String replacement = captions.apply(content);
+                appender.append(input, position, index);
+
+                int next = closeIndex + 2;
+                if (replacement.isEmpty()) {
+                    // The char after the caption takes its place and is not checked.
+                    position = next;
+                    index = next + 1;
+                } else if (replacement.indexOf("{{", 1) >= 0
+                        || (replacement.length() > 1 && replacement.charAt(replacement.length() - 1) == '{'
+                        && next < length && input.charAt(next) == '{')) {
+                    // Rare case: the replacement can start a caption, so scan it followed by the rest
+                    // of the input (without copying the input).
+                    appender.append(replacement, 0, 1);
+                    input = ReplacedInput.of(replacement.substring(1), input, next);
+                    length = input.length();
+                    position = 0;
+                    index = 0;
+                } else {
+                    appender.append(replacement, 0, replacement.length());
+                    position = next;
+                    index = next;
+                }
+            } else {
+                index++;
+            }
         }
+
+        appender.append(input, position, length);
     }
 
-    private void processOnceDirectiveCalls(Object templateSource, StringBuilder sb) {
-        int index = 0;
-        while (index + 6 < sb.length()) {
-            if (sb.charAt(index) == '<' && sb.charAt(index + 1) == '@' && sb.charAt(index + 2) == 'o'
-                    && sb.charAt(index + 3) == 'n' && sb.charAt(index + 4) == 'c' && sb.charAt(index + 5) == 'e'
-                    && (Character.isWhitespace(sb.charAt(index + 6)) || sb.charAt(index + 6) == '>')) {
-                String scopeAttr = " scope=\"" + escape(templateSource.toString()) + ":" + index + "\"";
-                sb.insert(index + 6, scopeAttr);
-            }
-            index++;
+    private static int indexOf(CharSequence text, String s, int from) {
+        if (text instanceof String) {
+            return ((String) text).indexOf(s, from);
+        } else if (text instanceof StringBuilder) {
+            return ((StringBuilder) text).indexOf(s, from);
+        } else if (text instanceof ReplacedInput) {
+            return ((ReplacedInput) text).indexOf(s, from);
+        } else {
+            return text.toString().indexOf(s, from);
         }
     }
 
-    private String escape(String s) {
+    private static String escape(String s) {
         if (StringUtil.isEmpty(s)) {
             return s;
         } else {
@@ -216,6 +259,184 @@ public class PreprocessFreemarkerFileTemplateLoader extends MultiTemplateLoader
         }
     }
 
+    /**
+     * Prepares @once directive calls: adds scope="template:position" to each of them, where position is
+     * the position of the call in the resulting text. Text can be appended by parts.
+     */
+    private static final class OnceDirectiveScopeAppender {
+        private static final String ONCE_DIRECTIVE_CALL = "<@once";
+
+        private final String escapedTemplateSource;
+        private final StringBuilder result;
+
+        /**
+         * Tail of the appended text which can be the beginning of the directive call.
+         */
+        private final StringBuilder pending = new StringBuilder();
+
+        private OnceDirectiveScopeAppender(Object templateSource, StringBuilder result) {
+            this.escapedTemplateSource = escape(templateSource.toString());
+            this.result = result;
+        }
+
+        private void append(CharSequence text, int from, int to) {
+            if (pending.length() == 0) {
+                scan(text, from, to);
+            } else {
+                pending.append(text, from, to);
+                String pendingText = pending.toString();
+                pending.setLength(0);
+                scan(pendingText, 0, pendingText.length());
+            }
+        }
+
+        private void scan(CharSequence text, int from, int to) {
+            int position = from;
+
+            for (int index = from; index < to; index++) {
+                if (text.charAt(index) != '<') {
+                    continue;
+                }
+
+                if (index + ONCE_DIRECTIVE_CALL.length() >= to) {
+                    result.append(text, position, index);
+                    pending.append(text, index, to);
+                    return;
+                }
+
+                if (isOnceDirectiveCall(text, index)) {
+                    result.append(text, position, index);
+                    String scopeAttr = " scope=\"" + escapedTemplateSource + ":" + result.length() + "\"";
+                    result.append(ONCE_DIRECTIVE_CALL);
+
+                    position = index + ONCE_DIRECTIVE_CALL.length();
+                    if (scopeAttr.indexOf('<') >= 0) {
+                        scan(scopeAttr + text.subSequence(position, to), 0, scopeAttr.length() + to - position);
+                        return;
+                    }
+
+                    result.append(scopeAttr);
+                    index = position - 1;
+                }
+            }
+
+            result.append(text, position, to);
+        }
+
+        private static boolean isOnceDirectiveCall(CharSequence text, int index) {
+            for (int i = 1; i < ONCE_DIRECTIVE_CALL.length(); i++) {
+                if (text.charAt(index + i) != ONCE_DIRECTIVE_CALL.charAt(i)) {
+                    return false;
+                }
+            }
+
+            char next = text.charAt(index + ONCE_DIRECTIVE_CALL.length());
+            return Character.isWhitespace(next) || next == '>';
+        }
+
+        private void close() {
+            result.append(pending);
+            pending.setLength(0);
+        }
+    }
+
+    /**
+     * Rest of a caption replacement followed by the rest of the input. The input itself is not copied,
+     * only the replacements are.
+     */
+    private static final class ReplacedInput implements CharSequence {
+        private final String head;
+        private final CharSequence tail;
+        private final int offset;
+
+        private ReplacedInput(String head, CharSequence tail, int offset) {
+            this.head = head;
+            this.tail = tail;
+            this.offset = offset;
+        }
+
+        private static ReplacedInput of(String head, CharSequence input, int from) {
+            if (input instanceof ReplacedInput) {
+                ReplacedInput replacedInput = (ReplacedInput) input;
+                int headLength = replacedInput.head.length();
+
+                if (from < headLength) {
+                    return new ReplacedInput(head + replacedInput.head.substring(from),
+                            replacedInput.tail, replacedInput.offset);
+                } else {
+                    return new ReplacedInput(head, replacedInput.tail, replacedInput.offset + from - headLength);
+                }
+            } else {
+                return new ReplacedInput(head, input, from);
+            }
+        }
+
+        @Override
+        public int length() {
+            return head.length() + tail.length() - offset;
+        }
+
+        @Override
+        public char charAt(int index) {
+            int headLength = head.length();
+            return index < headLength ? head.charAt(index) : tail.charAt(offset + index - headLength);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            int headLength = head.length();
+
+            if (end <= headLength) {
+                return head.substring(start, end);
+            } else if (start >= headLength) {
+                return tail.subSequence(offset + start - headLength, offset + end - headLength);
+            } else {
+                return head.substring(start) + tail.subSequence(offset, offset + end - headLength);
+            }
+        }
+
+        private int indexOf(String s, int from) {
+            int headLength = head.length();
+
+            if (from < headLength) {
+                int index = head.indexOf(s, from);
+                if (index >= 0) {
+                    return index;
+                }
+
+                // Occurrence which starts in the head and ends in the tail.
+                for (index = Math.max(from, headLength - s.length() + 1); index < headLength; ++index) {
+                    if (regionMatches(index, s)) {
+                        return index;
+                    }
+                }
+            }
+
+            int tailFrom = offset + Math.max(from - headLength, 0);
+            int index = PreprocessFreemarkerFileTemplateLoader.indexOf(tail, s, tailFrom);
+            return index < 0 ? -1 : index - offset + headLength;
+        }
+
+        private boolean regionMatches(int index, String s) {
+            if (index + s.length() > length()) {
+                return false;
+            }
+
+            for (int i = 0; i < s.length(); ++i) {
+                if (charAt(index + i) != s.charAt(i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return head + tail.subSequence(offset, tail.length());
+        }
+    }
+
     @SuppressWarnings("DeserializableClassInSecureContext")
     private static final class InmemoryTemplateSource extends File {
         private final String content;
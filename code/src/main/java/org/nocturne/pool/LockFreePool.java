@@ -0,0 +1,203 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.pool;
+
+import io.prometheus.client.Counter;
+import org.apache.log4j.Logger;
+import org.nocturne.main.ApplicationContext;
+import org.nocturne.prometheus.Prometheus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool without any locks: instances are stored in a bounded array of slots,
+ * each thread starts probing slots from its own position, so concurrent threads
+ * usually touch different slots.
+ * <p>
+ * Instances which stay in the pool longer than {@link #getIdleTimeoutMillis()} are finalized.
+ * If the pool is full, released instance is finalized instead of being stored: such overflows are counted
+ * in the nocturne_pool_overflows_total metric and logged at most once per {@link #OVERFLOW_LOG_INTERVAL_MILLIS}.
+ *
+ * @author Mike Mirzayanov
+ */
+public abstract class LockFreePool<T> extends Pool<T> {
+    private static final Logger logger = Logger.getLogger(LockFreePool.class);
+
+    private static final long OVERFLOW_LOG_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private volatile AtomicReferenceArray<T> slots;
+    private volatile AtomicLongArray releaseTimes;
+    private final AtomicLong lastEvictionTime = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong lastOverflowLogTime
+            = new AtomicLong(System.currentTimeMillis() - OVERFLOW_LOG_INTERVAL_MILLIS);
+    private final AtomicLong overflowCount = new AtomicLong();
+    private volatile Counter.Child overflowsCounter;
+
+    /**
+     * @return Maximal number of idle instances stored in the pool, by default it is nocturne.pool-capacity
+     * (which should cover the request processing threads), but not less than {@code 4 * getAcquireIncrement()}.
+     */
+    protected int getCapacity() {
+        return Math.max(4 * getAcquireIncrement(), ApplicationContext.getInstance().getPoolCapacity());
+    }
+
+    /**
+     * @return Idle instances older than this timeout are finalized. Non-positive value disables eviction.
+     */
+    protected long getIdleTimeoutMillis() {
+        return TimeUnit.MINUTES.toMillis(10);
+    }
+
+    private AtomicReferenceArray<T> getSlots() {
+        AtomicReferenceArray<T> result = slots;
+
+        if (result == null) {
+            synchronized (this) {
+                result = slots;
+                if (result == null) {
+                    int capacity = Math.max(1, getCapacity());
+                    releaseTimes = new AtomicLongArray(capacity);
+                    slots = result = new AtomicReferenceArray<>(capacity);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static int getStartIndex(int capacity) {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L >>> 33) % capacity);
+    }
+
+    /**
+     * @return Extracts instance from the pool. Creates getAcquireIncrement() new instances
+     *         if the pool is empty: one of them is returned, others are stored.
+     */
+    @Override
+    public T getInstance() {
+        AtomicReferenceArray<T> localSlots = getSlots();
+        int capacity = localSlots.length();
+        int startIndex = getStartIndex(capacity);
+
+        for (int i = 0, index = startIndex; i < capacity; ++i, index = index + 1 == capacity ? 0 : index + 1) {
+            if (localSlots.get(index) != null) {
+                T instance = localSlots.getAndSet(index, null);
+                if (instance != null) {
+                    getIdleInstancesGauge().dec();
+                    return instance;
+                }
+            }
+        }
+
+        evictIdleInstancesIfNeeded();
+
+        int acquireIncrement = getAcquireIncrement();
+        for (int i = 1; i < acquireIncrement; ++i) {
+            release(newCountedInstance());
+        }
+
+        return newCountedInstance();
+    }
+
+    /**
+     * Instances can be returned into the pool for future reusage.
+     *
+     * @param instance Instance to be returned into the pool.
+     */
+    @Override
+    public void release(T instance) {
+        evictIdleInstancesIfNeeded();
+
+        AtomicReferenceArray<T> localSlots = getSlots();
+        AtomicLongArray localReleaseTimes = releaseTimes;
+        int capacity = localSlots.length();
+        int startIndex = getStartIndex(capacity);
+
+        for (int i = 0, index = startIndex; i < capacity; ++i, index = index + 1 == capacity ? 0 : index + 1) {
+            if (localSlots.get(index) == null && localSlots.compareAndSet(index, null, instance)) {
+                localReleaseTimes.lazySet(index, System.currentTimeMillis());
+                getIdleInstancesGauge().inc();
+                return;
+            }
+        }
+
+        onOverflow(instance);
+        finalizeInstance(instance);
+    }
+
+    private void onOverflow(T instance) {
+        getOverflowsCounter().inc();
+        long count = overflowCount.incrementAndGet();
+
+        long now = System.currentTimeMillis();
+        long lastLogTime = lastOverflowLogTime.get();
+        if (now - lastLogTime >= OVERFLOW_LOG_INTERVAL_MILLIS && lastOverflowLogTime.compareAndSet(lastLogTime, now)) {
+            logger.warn("Pool '" + getClass().getName() + "' [t=" + instance.getClass().getName() + "] is full, "
+                    + count + " released instance(s) have been finalized in total, consider increasing"
+                    + " nocturne.pool-capacity.");
+        }
+    }
+
+    private Counter.Child getOverflowsCounter() {
+        Counter.Child result = overflowsCounter;
+        if (result == null) {
+            overflowsCounter = result = Prometheus.getPoolOverflowsCounter().labels(getName());
+        }
+        return result;
+    }
+
+    /**
+     * @return Total count of the released instances finalized because the pool was full.
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    private void evictIdleInstancesIfNeeded() {
+        long idleTimeoutMillis = getIdleTimeoutMillis();
+        if (idleTimeoutMillis <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long lastEviction = lastEvictionTime.get();
+        if (now - lastEviction < idleTimeoutMillis / 2 || !lastEvictionTime.compareAndSet(lastEviction, now)) {
+            return;
+        }
+
+        AtomicReferenceArray<T> localSlots = getSlots();
+        AtomicLongArray localReleaseTimes = releaseTimes;
+
+        for (int index = 0; index < localSlots.length(); ++index) {
+            if (localSlots.get(index) != null && now - localReleaseTimes.get(index) > idleTimeoutMillis) {
+                T instance = localSlots.getAndSet(index, null);
+                if (instance != null) {
+                    getIdleInstancesGauge().dec();
+                    finalizeInstance(instance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finalizes all the instances in the pool and deletes them from the
+     * internal storage of the pool.
+     */
+    @Override
+    public void close() {
+        AtomicReferenceArray<T> localSlots = getSlots();
+
+        for (int index = 0; index < localSlots.length(); ++index) {
+            T instance = localSlots.getAndSet(index, null);
+            if (instance != null) {
+                getIdleInstancesGauge().dec();
+                finalizeInstance(instance);
+            }
+        }
+    }
+}
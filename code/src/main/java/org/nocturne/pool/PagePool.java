@@ -12,7 +12,7 @@ import org.nocturne.main.PageLoader;
  *
  * @author Mike Mirzayanov
  */
-public class PagePool extends Pool<Page> {
+public class PagePool extends LockFreePool<Page> {
     private static final Logger logger = Logger.getLogger(PagePool.class);
 
     /**
@@ -42,6 +42,14 @@ public class PagePool extends Pool<Page> {
         return pageLoader.loadPage(pageClassName);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getName() {
+        return "PagePool[" + pageClassName.substring(pageClassName.lastIndexOf('.') + 1) + ']';
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -3,7 +3,10 @@
  */
 package org.nocturne.pool;
 
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import org.apache.log4j.Logger;
+import org.nocturne.prometheus.Prometheus;
 
 import java.util.LinkedList;
 import java.util.Queue;
@@ -18,6 +21,8 @@ public abstract class Pool<T> {
     private static final Logger logger = Logger.getLogger(Pool.class);
     private final Queue<T> instances = new LinkedList<>();
     private final AtomicInteger createdCount = new AtomicInteger();
+    private volatile Gauge.Child idleInstancesGauge;
+    private volatile Counter.Child createdCounter;
 
     /**
      * Override it to define the method how pool should get new instance.
@@ -26,6 +31,13 @@ public abstract class Pool<T> {
      */
     protected abstract T newInstance();
 
+    /**
+     * @return Value of the label "pool" in the pool metrics.
+     */
+    protected String getName() {
+        return getClass().getSimpleName();
+    }
+
     /**
      * @return Number of new instances created each time the pool is empty.
      */
@@ -52,7 +64,9 @@ public abstract class Pool<T> {
         synchronized (instances) {
             checkSize();
             ensureElement();
-            return instances.remove();
+            T instance = instances.remove();
+            getIdleInstancesGauge().set(instances.size());
+            return instance;
         }
     }
 
@@ -60,9 +74,7 @@ public abstract class Pool<T> {
         if (instances.isEmpty()) {
             int acquireIncrement = getAcquireIncrement();
             for (int i = 0; i < acquireIncrement; i++) {
-                T instance = newInstance();
-                instances.add(instance);
-                createdCount.incrementAndGet();
+                instances.add(newCountedInstance());
             }
         }
     }
@@ -89,6 +101,7 @@ public abstract class Pool<T> {
     public void release(T instance) {
         synchronized (instances) {
             instances.add(instance);
+            getIdleInstancesGauge().set(instances.size());
         }
     }
 
@@ -102,7 +115,37 @@ public abstract class Pool<T> {
                 T instance = instances.remove();
                 finalizeInstance(instance);
             }
+            getIdleInstancesGauge().set(0);
+        }
+    }
+
+    /**
+     * @return New instance created by {@link #newInstance()}, counted in {@link #getCreatedCount()}.
+     */
+    T newCountedInstance() {
+        T instance = newInstance();
+        createdCount.incrementAndGet();
+        getCreatedCounter().inc();
+        return instance;
+    }
+
+    /**
+     * @return Gauge of the idle instances of this pool, the label is resolved once.
+     */
+    Gauge.Child getIdleInstancesGauge() {
+        Gauge.Child result = idleInstancesGauge;
+        if (result == null) {
+            idleInstancesGauge = result = Prometheus.getPoolIdleInstances().labels(getName());
+        }
+        return result;
+    }
+
+    private Counter.Child getCreatedCounter() {
+        Counter.Child result = createdCounter;
+        if (result == null) {
+            createdCounter = result = Prometheus.getPoolCreatedCounter().labels(getName());
         }
+        return result;
     }
 
     /**
@@ -7,9 +7,11 @@ import freemarker.template.Configuration;
 import freemarker.template.DefaultObjectWrapper;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.nocturne.main.ApplicationContext;
 import org.nocturne.main.ApplicationTemplateLoader;
 import org.nocturne.main.Constants;
 import org.nocturne.main.ReloadingContext;
+import org.nocturne.prometheus.MeteredCacheStorage;
 
 import javax.servlet.FilterConfig;
 import java.nio.charset.StandardCharsets;
@@ -19,10 +21,15 @@ import java.util.concurrent.atomic.AtomicLong;
 /**
  * Storage to store template configurations.
  * Nocturne will not create new configuration on request but reuses old (if exists).
+ * <p>
+ * If nocturne.shared-template-engine-configuration is {@code true}, the only configuration
+ * is created and returned to all the requests: freemarker configuration is thread-safe after setup,
+ * so each template is loaded, preprocessed and cached once. Per-request state lives in the data model
+ * of the processing environment, so the handler should not change the configuration per request.
  *
  * @author Mike Mirzayanov
  */
-public class TemplateEngineConfigurationPool extends Pool<Configuration> {
+public class TemplateEngineConfigurationPool extends LockFreePool<Configuration> {
     private static final Logger logger = Logger.getLogger(TemplateEngineConfigurationPool.class);
 
     private final FilterConfig filterConfig;
@@ -30,6 +37,11 @@ public class TemplateEngineConfigurationPool extends Pool<Configuration> {
     private static final AtomicLong count = new AtomicLong(0);
     private volatile TemplateEngineConfigurationHandler handler;
 
+    /**
+     * Configuration used by all the requests in the shared mode.
+     */
+    private volatile Configuration sharedConfiguration;
+
     public TemplateEngineConfigurationPool(FilterConfig filterConfig) {
         this.filterConfig = filterConfig;
         this.handler = null;
@@ -39,6 +51,33 @@ public class TemplateEngineConfigurationPool extends Pool<Configuration> {
         this.handler = handler;
     }
 
+    @Override
+    public Configuration getInstance() {
+        if (!ApplicationContext.getInstance().isSharedTemplateEngineConfiguration()) {
+            return super.getInstance();
+        }
+
+        Configuration result = sharedConfiguration;
+
+        if (result == null) {
+            synchronized (this) {
+                result = sharedConfiguration;
+                if (result == null) {
+                    sharedConfiguration = result = newCountedInstance();
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void release(Configuration configuration) {
+        if (configuration != sharedConfiguration) {
+            super.release(configuration);
+        }
+    }
+
     @Override
     protected Configuration newInstance() {
         Configuration templateEngineConfiguration = new Configuration(Constants.FREEMARKER_VERSION);
@@ -58,6 +97,9 @@ public class TemplateEngineConfigurationPool extends Pool<Configuration> {
 
         templateEngineConfiguration.setTemplateLoader(new ApplicationTemplateLoader());
         templateEngineConfiguration.setObjectWrapper(new DefaultObjectWrapper(Constants.FREEMARKER_VERSION));
+        templateEngineConfiguration.setCacheStorage(
+                new MeteredCacheStorage(templateEngineConfiguration.getCacheStorage())
+        );
 
         logger.debug("Created instance of Configuration [count=" + count.incrementAndGet() + "].");
 
@@ -0,0 +1,22 @@
+package org.nocturne.postprocess;
+
+import org.nocturne.main.Page;
+
+import java.io.Writer;
+
+/**
+ * Response postprocessor which can work with streaming template rendering
+ * (see {@link org.nocturne.main.ApplicationContext#isStreamingTemplates()}).
+ * Without streaming rendering the usual {@link #postprocess(Page, String)} is used.
+ *
+ * @author Mike Mirzayanov
+ */
+public interface StreamingResponsePostprocessor extends ResponsePostprocessor {
+    /**
+     * @param page   Rendered page.
+     * @param writer Writer to the response.
+     * @return Writer which postprocesses rendered html and passes it to {@code writer}.
+     *         Nocturne closes it after rendering, closing should not close {@code writer}.
+     */
+    Writer postprocess(Page page, Writer writer);
+}
@@ -0,0 +1,94 @@
+package org.nocturne.prometheus;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.Summary;
+
+import javax.annotation.Nullable;
+
+/**
+ * Counter and latencies of the page or frame class with resolved labels, so measuring
+ * a phase doesn't look up the metric children.
+ */
+public final class ComponentMetrics {
+    private static final double NANOSECONDS_PER_SECOND = 1E9;
+
+    private final String simpleClassName;
+    private final Counter.Child counter;
+    private final Summary.Child[] summaries;
+    private final Histogram.Child[] histograms;
+
+    ComponentMetrics(Counter.Child counter, @Nullable Summary summary, @Nullable Histogram histogram,
+                     String simpleClassName) {
+        this.simpleClassName = simpleClassName;
+        this.counter = counter;
+
+        Phase[] phases = Phase.values();
+        if (histogram != null) {
+            summaries = null;
+            histograms = new Histogram.Child[phases.length];
+            for (Phase phase : phases) {
+                histograms[phase.ordinal()] = histogram.labels(simpleClassName, phase.label);
+            }
+        } else {
+            histograms = null;
+            summaries = new Summary.Child[phases.length];
+            for (Phase phase : phases) {
+                summaries[phase.ordinal()] = summary.labels(simpleClassName, phase.label);
+            }
+        }
+    }
+
+    /**
+     * @return Simple name of the component class.
+     */
+    public String getSimpleClassName() {
+        return simpleClassName;
+    }
+
+    /**
+     * Counts the component processing.
+     */
+    public void inc() {
+        counter.inc();
+    }
+
+    /**
+     * @param phase      Phase.
+     * @param startNanos Start of the phase, {@link System#nanoTime()}.
+     * @return Duration of the phase in nanoseconds.
+     */
+    public long observe(Phase phase, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        double seconds = nanos / NANOSECONDS_PER_SECOND;
+        if (histograms != null) {
+            histograms[phase.ordinal()].observe(seconds);
+        } else {
+            summaries[phase.ordinal()].observe(seconds);
+        }
+        return nanos;
+    }
+
+    public enum Phase {
+        OVERALL("overall"),
+        INITIALIZE_ACTION("initializeAction"),
+        BEFORE_ACTION("beforeAction"),
+        ACTION("action"),
+        AFTER_ACTION("afterAction"),
+        FINALIZE_ACTION("finalizeAction"),
+        TEMPLATE("template");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return Value of the label "phase".
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.nocturne.prometheus;
+
+import freemarker.cache.CacheStorage;
+import freemarker.cache.CacheStorageWithGetSize;
+import freemarker.cache.ConcurrentCacheStorage;
+import io.prometheus.client.Counter;
+
+/**
+ * FreeMarker template cache storage which counts hits and misses
+ * into nocturne_template_cache_requests_total, delegates storing to the original storage.
+ */
+public final class MeteredCacheStorage implements ConcurrentCacheStorage, CacheStorageWithGetSize {
+    private static final Counter.Child HITS = Prometheus.getTemplateCacheRequestsCounter().labels("hit");
+    private static final Counter.Child MISSES = Prometheus.getTemplateCacheRequestsCounter().labels("miss");
+
+    private final CacheStorage storage;
+
+    /**
+     * @param storage Storage to delegate to, usually {@code configuration.getCacheStorage()}.
+     */
+    public MeteredCacheStorage(CacheStorage storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = storage.get(key);
+        if (value == null) {
+            MISSES.inc();
+        } else {
+            HITS.inc();
+        }
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        storage.put(key, value);
+    }
+
+    @Override
+    public void remove(Object key) {
+        storage.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        storage.clear();
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return storage instanceof ConcurrentCacheStorage && ((ConcurrentCacheStorage) storage).isConcurrent();
+    }
+
+    @Override
+    public int getSize() {
+        return storage instanceof CacheStorageWithGetSize ? ((CacheStorageWithGetSize) storage).getSize() : 0;
+    }
+}
@@ -1,42 +1,219 @@
 package org.nocturne.prometheus;
 
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 import io.prometheus.client.Summary;
 
+import javax.annotation.Nullable;
+
 public class Prometheus {
     private static final Counter PAGES_COUNTER = Counter.build()
             .name("nocturne_pages_total").help("Nocturne pages total count")
             .labelNames("className")
             .register();
 
-    private static final Summary PAGES_LATENCY_SECONDS = Summary.build()
-            .name("nocturne_pages_latency_seconds").help("Nocturne pages latency in seconds")
-            .labelNames("className", "phase")
-            .register();
-
     private static final Counter FRAMES_COUNTER = Counter.build()
             .name("nocturne_frames_total").help("Nocturne frames total count")
             .labelNames("className")
             .register();
 
-    private static final Summary FRAMES_LATENCY_SECONDS = Summary.build()
-            .name("nocturne_frames_latency_seconds").help("Nocturne frames latency in seconds")
-            .labelNames("className", "phase")
+    private static final Counter CACHE_REQUESTS_COUNTER = Counter.build()
+            .name("nocturne_cache_requests_total").help("Nocturne component cache requests total count")
+            .labelNames("className", "result")
+            .register();
+
+    private static final Counter CACHE_EVICTIONS_COUNTER = Counter.build()
+            .name("nocturne_cache_evictions_total").help("Nocturne component cache evictions total count")
+            .labelNames("cause")
+            .register();
+
+    private static final Counter GZIP_RESPONSES_COUNTER = Counter.build()
+            .name("nocturne_gzip_responses_total").help("Nocturne responses processed by GzipFilter total count")
+            .labelNames("result")
+            .register();
+
+    private static final Counter GZIP_BYTES_IN_COUNTER = Counter.build()
+            .name("nocturne_gzip_bytes_in_total").help("Nocturne uncompressed bytes of gzipped responses")
+            .register();
+
+    private static final Counter GZIP_BYTES_OUT_COUNTER = Counter.build()
+            .name("nocturne_gzip_bytes_out_total").help("Nocturne compressed bytes of gzipped responses")
+            .register();
+
+    private static final Histogram GZIP_RATIO = Histogram.build()
+            .name("nocturne_gzip_ratio").help("Nocturne compressed to uncompressed size ratio of gzipped responses")
+            .buckets(0.05, 0.1, 0.15, 0.2, 0.25, 0.3, 0.4, 0.5, 0.6, 0.8, 1.0)
+            .register();
+
+    private static final Gauge POOL_IDLE_INSTANCES = Gauge.build()
+            .name("nocturne_pool_idle_instances").help("Nocturne instances stored in the pool")
+            .labelNames("pool")
             .register();
 
+    private static final Counter POOL_CREATED_COUNTER = Counter.build()
+            .name("nocturne_pool_created_total").help("Nocturne instances created by the pool total count")
+            .labelNames("pool")
+            .register();
+
+    private static final Counter POOL_OVERFLOWS_COUNTER = Counter.build()
+            .name("nocturne_pool_overflows_total").help("Nocturne instances finalized because the pool was full")
+            .labelNames("pool")
+            .register();
+
+    private static final Histogram ROUTE_MATCH_SECONDS = Histogram.build()
+            .name("nocturne_route_match_seconds").help("Nocturne request routing latency in seconds")
+            .buckets(0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01)
+            .register();
+
+    private static final Counter TEMPLATE_CACHE_REQUESTS_COUNTER = Counter.build()
+            .name("nocturne_template_cache_requests_total").help("Nocturne template cache requests total count")
+            .labelNames("result")
+            .register();
+
+    /**
+     * Buckets of the page and frame latency histograms, {@code null} to use summaries.
+     */
+    private static volatile double[] latencyBuckets;
+
+    /**
+     * Sets up histograms instead of summaries for the page and frame latencies. Should be called
+     * before the first component metrics are created.
+     *
+     * @param buckets Upper bounds of the buckets in seconds or {@code null} to use summaries.
+     */
+    public static void setLatencyBuckets(@Nullable double[] buckets) {
+        latencyBuckets = buckets == null ? null : buckets.clone();
+    }
+
     public static Counter getPagesCounter() {
         return PAGES_COUNTER;
     }
 
+    /**
+     * @return Page latency summary or {@code null} if histograms are used.
+     */
+    @Nullable
     public static Summary getPagesLatencySeconds() {
-        return PAGES_LATENCY_SECONDS;
+        return Latencies.PAGES_SUMMARY;
+    }
+
+    /**
+     * @return Page latency histogram or {@code null} if summaries are used.
+     */
+    @Nullable
+    public static Histogram getPagesLatencySecondsHistogram() {
+        return Latencies.PAGES_HISTOGRAM;
     }
 
     public static Counter getFramesCounter() {
         return FRAMES_COUNTER;
     }
 
+    /**
+     * @return Frame latency summary or {@code null} if histograms are used.
+     */
+    @Nullable
     public static Summary getFramesLatencySeconds() {
-        return FRAMES_LATENCY_SECONDS;
+        return Latencies.FRAMES_SUMMARY;
+    }
+
+    /**
+     * @return Frame latency histogram or {@code null} if summaries are used.
+     */
+    @Nullable
+    public static Histogram getFramesLatencySecondsHistogram() {
+        return Latencies.FRAMES_HISTOGRAM;
+    }
+
+    /**
+     * @param simpleClassName Page class name.
+     * @return Counter and latencies of the page, resolve them once per class.
+     */
+    public static ComponentMetrics newPageMetrics(String simpleClassName) {
+        return new ComponentMetrics(PAGES_COUNTER.labels(simpleClassName),
+                Latencies.PAGES_SUMMARY, Latencies.PAGES_HISTOGRAM, simpleClassName);
+    }
+
+    /**
+     * @param simpleClassName Frame class name.
+     * @return Counter and latencies of the frame, resolve them once per class.
+     */
+    public static ComponentMetrics newFrameMetrics(String simpleClassName) {
+        return new ComponentMetrics(FRAMES_COUNTER.labels(simpleClassName),
+                Latencies.FRAMES_SUMMARY, Latencies.FRAMES_HISTOGRAM, simpleClassName);
+    }
+
+    public static Counter getCacheRequestsCounter() {
+        return CACHE_REQUESTS_COUNTER;
+    }
+
+    public static Counter getCacheEvictionsCounter() {
+        return CACHE_EVICTIONS_COUNTER;
+    }
+
+    public static Counter getGzipResponsesCounter() {
+        return GZIP_RESPONSES_COUNTER;
+    }
+
+    public static Counter getGzipBytesInCounter() {
+        return GZIP_BYTES_IN_COUNTER;
+    }
+
+    public static Counter getGzipBytesOutCounter() {
+        return GZIP_BYTES_OUT_COUNTER;
+    }
+
+    public static Histogram getGzipRatio() {
+        return GZIP_RATIO;
+    }
+
+    public static Gauge getPoolIdleInstances() {
+        return POOL_IDLE_INSTANCES;
+    }
+
+    public static Counter getPoolCreatedCounter() {
+        return POOL_CREATED_COUNTER;
+    }
+
+    public static Counter getPoolOverflowsCounter() {
+        return POOL_OVERFLOWS_COUNTER;
+    }
+
+    public static Histogram getRouteMatchSeconds() {
+        return ROUTE_MATCH_SECONDS;
+    }
+
+    public static Counter getTemplateCacheRequestsCounter() {
+        return TEMPLATE_CACHE_REQUESTS_COUNTER;
+    }
+
+    /**
+     * Latencies are registered on the first use, after {@link #setLatencyBuckets(double[])}.
+     */
+    private static final class Latencies {
+        private static final double[] BUCKETS = latencyBuckets;
+
+        private static final Summary PAGES_SUMMARY = BUCKETS != null ? null : Summary.build()
+                .name("nocturne_pages_latency_seconds").help("Nocturne pages latency in seconds")
+                .labelNames("className", "phase")
+                .register();
+
+        private static final Histogram PAGES_HISTOGRAM = BUCKETS == null ? null : Histogram.build()
+                .name("nocturne_pages_latency_seconds").help("Nocturne pages latency in seconds")
+                .labelNames("className", "phase")
+                .buckets(BUCKETS)
+                .register();
+
+        private static final Summary FRAMES_SUMMARY = BUCKETS != null ? null : Summary.build()
+                .name("nocturne_frames_latency_seconds").help("Nocturne frames latency in seconds")
+                .labelNames("className", "phase")
+                .register();
+
+        private static final Histogram FRAMES_HISTOGRAM = BUCKETS == null ? null : Histogram.build()
+                .name("nocturne_frames_latency_seconds").help("Nocturne frames latency in seconds")
+                .labelNames("className", "phase")
+                .buckets(BUCKETS)
+                .register();
     }
 }
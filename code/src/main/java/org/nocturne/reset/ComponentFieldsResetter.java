@@ -4,14 +4,35 @@ import org.nocturne.main.Component;
 import org.nocturne.main.Frame;
 import org.nocturne.main.Page;
 
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * @author Mike Mirzayanov
  */
 public class ComponentFieldsResetter extends FieldsResetter {
+    /**
+     * Resetters by component class.
+     */
+    private static final ConcurrentMap<Class<?>, MethodHandle> resetters = new ConcurrentHashMap<>();
+
     public ComponentFieldsResetter(Component component) {
         super(component);
     }
 
+    @Override
+    MethodHandle getResetter(Class<?> clazz) {
+        MethodHandle resetter = resetters.get(clazz);
+
+        if (resetter == null) {
+            resetters.putIfAbsent(clazz, super.getResetter(clazz));
+            resetter = resetters.get(clazz);
+        }
+
+        return resetter;
+    }
+
     @Override
     boolean isResetStopClass(Class<?> clazz) {
         return clazz.getCanonicalName().equals(Component.class.getCanonicalName())
@@ -4,6 +4,9 @@ import org.nocturne.exception.ConfigurationException;
 import org.nocturne.main.ApplicationContext;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
@@ -14,17 +17,27 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Resets all the fields with RESET strategy by a single call of the method handle,
+ * which is composed from the field setters once per class.
+ *
  * @author Mike Mirzayanov
  */
 abstract class FieldsResetter {
     private static final Map<Class<?>, Object> PRIMITIVES_DEFAULT_VALUES = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType RESETTER_TYPE = MethodType.methodType(void.class, Object.class);
+    private static final MethodHandle EMPTY_RESETTER = MethodHandles.identity(Object.class).asType(RESETTER_TYPE);
     private static final ConcurrentMap<AnnotatedElement, Boolean> RESET_ANNOTATIONS_CACHE = new ConcurrentHashMap<>();
     private static final ConcurrentMap<AnnotatedElement, Boolean> PERSIST_ANNOTATIONS_CACHE = new ConcurrentHashMap<>();
 
     private final Object object;
-    private final List<Field> fieldsToReset = new ArrayList<>();
     private final ResetStrategy resetStrategy;
 
+    /**
+     * Method handle of type (Object)void which resets all the fields.
+     */
+    private final MethodHandle resetter;
+
     private static boolean hasResetAnnotation(AnnotatedElement annotatedElement) {
         Boolean result = RESET_ANNOTATIONS_CACHE.get(annotatedElement);
         if (result != null) {
@@ -70,7 +83,15 @@ abstract class FieldsResetter {
                 object.getClass().getCanonicalName());
 
         this.object = object;
-        addFieldsToReset();
+        this.resetter = getResetter(object.getClass());
+    }
+
+    /**
+     * @param clazz Class of the object.
+     * @return Resetter for the class, subclasses can cache it.
+     */
+    MethodHandle getResetter(Class<?> clazz) {
+        return newResetter(getFieldsToReset());
     }
 
     private boolean isGuiceOrCglibField(Field field) {
@@ -78,7 +99,8 @@ abstract class FieldsResetter {
                 || field.getDeclaringClass().getName().contains("EnhancerByGuice"));
     }
 
-    private void addFieldsToReset() {
+    final List<Field> getFieldsToReset() {
+        List<Field> fieldsToReset = new ArrayList<>();
         Class<?> clazz = object.getClass();
         while (!isResetStopClass(clazz)) {
             Field[] declaredFields = clazz.getDeclaredFields();
@@ -101,44 +123,50 @@ abstract class FieldsResetter {
             }
             clazz = clazz.getSuperclass();
         }
+        return fieldsToReset;
     }
 
     abstract boolean isResetStopClass(Class<?> clazz);
 
     public void resetFields() {
-        for (Field field : fieldsToReset) {
-            resetField(field);
+        try {
+            resetter.invokeExact(object);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't reset fields of " + object.getClass().getName() + '.', e);
         }
     }
 
-    private void resetField(Field field) {
-        boolean accessible = field.isAccessible();
-        try {
-            field.setAccessible(true);
-            if (field.getType().isPrimitive()) {
-                resetPrimitiveField(field);
-                return;
-            }
-
-            try {
-                field.set(object, null);
-            } catch (IllegalAccessException ignored) {
-                // No operations.
+    /**
+     * @param fields Fields to reset.
+     * @return Method handle of type (Object)void which sets default values to all the fields.
+     */
+    static MethodHandle newResetter(List<Field> fields) {
+        MethodHandle result = null;
+
+        for (int i = fields.size() - 1; i >= 0; --i) {
+            MethodHandle fieldResetter = newFieldResetter(fields.get(i));
+            if (fieldResetter != null) {
+                result = result == null ? fieldResetter : MethodHandles.foldArguments(result, fieldResetter);
             }
-        } finally {
-            field.setAccessible(accessible);
         }
+
+        return result == null ? EMPTY_RESETTER : result;
     }
 
-    private void resetPrimitiveField(Field field) {
-        Class<?> type = field.getType();
-        if (type != void.class) {
-            try {
-                field.set(object, PRIMITIVES_DEFAULT_VALUES.get(type));
-            } catch (IllegalAccessException ignored) {
-                // No operations.
-            }
+    private static MethodHandle newFieldResetter(Field field) {
+        field.setAccessible(true);
+
+        MethodHandle setter;
+        try {
+            setter = LOOKUP.unreflectSetter(field);
+        } catch (IllegalAccessException ignored) {
+            return null;
         }
+
+        Object defaultValue = field.getType().isPrimitive() ? PRIMITIVES_DEFAULT_VALUES.get(field.getType()) : null;
+        return MethodHandles.insertArguments(setter, 1, defaultValue).asType(RESETTER_TYPE);
     }
 
     private static ResetStrategy getStrategy(
@@ -167,5 +195,6 @@ abstract class FieldsResetter {
         PRIMITIVES_DEFAULT_VALUES.put(byte.class, (byte) 0);
         PRIMITIVES_DEFAULT_VALUES.put(short.class, (short) 0);
         PRIMITIVES_DEFAULT_VALUES.put(boolean.class, false);
+        PRIMITIVES_DEFAULT_VALUES.put(char.class, (char) 0);
     }
 }
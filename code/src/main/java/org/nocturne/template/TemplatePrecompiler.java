@@ -0,0 +1,180 @@
+package org.nocturne.template;
+
+import org.nocturne.template.impl.ComponentTemplatePreprocessor;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs the locale independent part of the template preprocessing at build time: rewrites component
+ * templates and compiles their LESS styles (see {@link ComponentTemplatePreprocessor}). Captions and
+ * &#64;once scopes are still processed on loading.
+ * <p>
+ * The written templates start with {@link #PRECOMPILED_MARKER} (right after the {@code <#ftl>} header
+ * if any, because the header should be the first element of the template), so
+ * {@link org.nocturne.module.PreprocessFreemarkerFileTemplateLoader} doesn't preprocess them again.
+ * Run it on the prepare-package phase, for example, with exec-maven-plugin:
+ * {@code java org.nocturne.template.TemplatePrecompiler <templates-dir> <output-dir> [<less-commons-file>]}
+ * and package the output directory instead of the template sources.
+ *
+ * @author MikeMirzayanov (mirzayanovmr@gmail.com)
+ */
+public final class TemplatePrecompiler {
+    /**
+     * FreeMarker comment at the start of the precompiled template (after the {@code <#ftl>} header).
+     */
+    public static final String PRECOMPILED_MARKER = "<#-- nocturne:precompiled -->";
+
+    private TemplatePrecompiler() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @param text Template text.
+     * @return {@code true} iff the template has been written by the precompiler.
+     */
+    public static boolean isPrecompiled(CharSequence text) {
+        int start = getHeaderEnd(text);
+        int length = PRECOMPILED_MARKER.length();
+        if (text.length() - start < length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            if (text.charAt(start + i) != PRECOMPILED_MARKER.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param text Template text.
+     * @return Index after the leading {@code <#ftl ...>} (or {@code [#ftl ...]}) header,
+     * {@code 0} if there is no header.
+     */
+    static int getHeaderEnd(CharSequence text) {
+        int length = text.length();
+        int start = 0;
+        while (start < length && Character.isWhitespace(text.charAt(start))) {
+            ++start;
+        }
+
+        if (!startsWith(text, start, "<#ftl") && !startsWith(text, start, "[#ftl")) {
+            return 0;
+        }
+
+        int index = start + "<#ftl".length();
+        if (index < length && text.charAt(index) != '>' && text.charAt(index) != ']'
+                && text.charAt(index) != '/' && !Character.isWhitespace(text.charAt(index))) {
+            // Something like <#ftlx>.
+            return 0;
+        }
+
+        char close = text.charAt(start) == '<' ? '>' : ']';
+        char quote = 0;
+        for (; index < length; ++index) {
+            char c = text.charAt(index);
+            if (quote != 0) {
+                if (c == '\\') {
+                    ++index;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == close) {
+                return index + 1;
+            }
+        }
+
+        return 0;
+    }
+
+    private static boolean startsWith(CharSequence text, int offset, String prefix) {
+        if (text.length() - offset < prefix.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); ++i) {
+            if (text.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Preprocesses all *.ftl and *.ftlh files in the directory (recursively). Other files are not copied.
+     *
+     * @param templatesDir    Template sources.
+     * @param outputDir       Where to write the templates, keeping their relative paths, may be
+     *                        the same as {@code templatesDir}.
+     * @param lessCommonsFile File to be imported by all LESS styles (nocturne.component-templates-less-commons-file),
+     *                        may be {@code null}.
+     * @return Number of written templates.
+     * @throws IOException If can't read or write a template or the template is not a valid component template.
+     */
+    public static int precompile(File templatesDir, File outputDir, @Nullable File lessCommonsFile)
+            throws IOException {
+        if (!templatesDir.isDirectory()) {
+            throw new IOException("Expected directory " + templatesDir + '.');
+        }
+
+        Path root = templatesDir.toPath();
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(root)) {
+            paths = stream.filter(path -> {
+                String name = path.getFileName().toString();
+                return (name.endsWith(".ftl") || name.endsWith(".ftlh")) && Files.isRegularFile(path);
+            }).collect(Collectors.toCollection(ArrayList::new));
+        }
+
+        TemplatePreprocessor preprocessor = new ComponentTemplatePreprocessor(lessCommonsFile);
+
+        for (Path path : paths) {
+            // Relative name is used as template source to make the result independent on the build directory.
+            String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+            StringBuilder text = new StringBuilder(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+
+            if (!isPrecompiled(text)) {
+                preprocessor.preprocess(name, text);
+                text.insert(getHeaderEnd(text), PRECOMPILED_MARKER);
+            }
+
+            Path outputPath = outputDir.toPath().resolve(name);
+            Files.createDirectories(outputPath.getParent());
+            Files.write(outputPath, text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        return paths.size();
+    }
+
+    /**
+     * @param args {@code <templates-dir> <output-dir> [<less-commons-file>]}.
+     * @throws IOException If the precompilation fails.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            throw new IllegalArgumentException("Usage: TemplatePrecompiler <templates-dir> <output-dir> [<less-commons-file>]");
+        }
+
+        File lessCommonsFile = args.length == 3 ? new File(args[2]) : null;
+        if (lessCommonsFile != null && !lessCommonsFile.isFile()) {
+            throw new IllegalArgumentException("Expected less commons file " + lessCommonsFile + '.');
+        }
+
+        int count = precompile(new File(args[0]), new File(args[1]), lessCommonsFile);
+        System.out.println("Precompiled " + count + " templates from " + args[0] + " to " + args[1] + '.');
+    }
+}
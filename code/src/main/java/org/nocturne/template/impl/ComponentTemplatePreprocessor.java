@@ -3,9 +3,12 @@ package org.nocturne.template.impl;
 import org.nocturne.main.ApplicationContext;
 import org.nocturne.template.TemplatePreprocessor;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -22,6 +25,24 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
     private static final String TAG_SCRIPT_OPEN = "<script";
     private static final String TAG_SCRIPT_CLOSE = "</script>";
     private static final String ATTR_DATA_NOCTURNE_TRUE = " data-nocturne=\"true\"";
+    private static final String ATTR_TYPE_TEXT_LESS = "type=\"text/less\"";
+    private static final String ATTR_TYPE_TEXT_CSS = "type=\"text/css\"";
+
+    private final File lessCommonsFile;
+
+    /**
+     * Uses nocturne.component-templates-less-commons-file to compile LESS styles.
+     */
+    public ComponentTemplatePreprocessor() {
+        this(ApplicationContext.getInstance().getComponentTemplatesLessCommonsFile());
+    }
+
+    /**
+     * @param lessCommonsFile File to be imported by all LESS styles, may be {@code null}.
+     */
+    public ComponentTemplatePreprocessor(@Nullable File lessCommonsFile) {
+        this.lessCommonsFile = lessCommonsFile;
+    }
 
     private String getUniqueRenderKey(Object source) {
         if (source instanceof File) {
@@ -31,28 +52,31 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
         }
     }
 
+    /**
+     * Finds all the tags in a single pass, then builds the result in a few linear passes
+     * (template, component classes, script and style, style move) instead of searching the text
+     * again after each change and inserting into the middle of it.
+     */
     @Override
     public void preprocess(Object source, StringBuilder text) throws IOException {
-        int templateOpenTag = ignoreCaseIndexOf(text, TAG_TEMPLATE_OPEN,
-                true, OccurencePolicy.FIND_FIRST_IGNORE_MULTIPLE);
+        Tags tags = findTags(text);
+
+        int templateOpenTag = tags.templateOpen;
         if (templateOpenTag < 0) {
             return;
         }
 
-        int templateCloseTag = ignoreCaseIndexOf(text, TAG_TEMPLATE_CLOSE,
-                false, OccurencePolicy.FIND_LAST);
+        int templateCloseTag = tags.templateClose;
         if (templateCloseTag < 0 || templateCloseTag == Integer.MAX_VALUE || templateOpenTag >= templateCloseTag) {
             throw new IOException("Expected </template> tag, it should be after first <template> [" + source + "].");
         }
 
-        int scriptOpenTag = ignoreCaseIndexOf(text, TAG_SCRIPT_OPEN,
-                true, OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE);
+        int scriptOpenTag = tags.scriptOpen;
         if (scriptOpenTag == Integer.MAX_VALUE || (scriptOpenTag != -1 && scriptOpenTag <= templateCloseTag)) {
             throw new IOException("Expected at most one <script> tag, it should be after </template> [" + source + "].");
         }
 
-        int scriptCloseTag = ignoreCaseIndexOf(text, TAG_SCRIPT_CLOSE,
-                false, OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE);
+        int scriptCloseTag = tags.scriptClose;
         if (scriptCloseTag == Integer.MAX_VALUE || (scriptCloseTag != -1 && scriptOpenTag >= scriptCloseTag)) {
             throw new IOException("Expected exactly one </script> tag, it should be after <script> [" + source + "].");
         }
@@ -63,14 +87,12 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
 
         int scriptOrTemplateCloseTag = Math.max(scriptCloseTag, templateCloseTag);
 
-        int styleOpenTag = ignoreCaseIndexOf(text, TAG_STYLE_OPEN, true,
-                OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE);
+        int styleOpenTag = tags.styleOpen;
         if (styleOpenTag == Integer.MAX_VALUE | (styleOpenTag != -1 && styleOpenTag <= scriptOrTemplateCloseTag)) {
             throw new IOException("Expected at most one <style> tag, it should be after </template> and </script> [" + source + "].");
         }
 
-        int styleCloseTag = ignoreCaseIndexOf(text, TAG_STYLE_CLOSE,
-                false, OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE);
+        int styleCloseTag = tags.styleClose;
         if (styleCloseTag == Integer.MAX_VALUE || (styleCloseTag != -1 && styleOpenTag >= styleCloseTag)) {
             throw new IOException("Expected exactly one </style> tag, it should be after <style> [" + source + "].");
         }
@@ -79,97 +101,171 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
             throw new IOException("Expected <style> and </style> tags or none of them [" + source + "].");
         }
 
+        Edits templateEdits = new Edits();
+        StringBuilder templateText = preprocessTemplate(source, text, tags, templateEdits);
+
         Set<String> classes = new HashSet<>();
-        preprocessTemplate(source, text, templateOpenTag, classes);
-        processComponentClass(source, text, templateOpenTag, classes);
+        collectClasses(templateText, templateOpenTag, templateEdits.map(templateCloseTag), classes);
 
+        Edits classEdits = new Edits();
+        StringBuilder classText = processComponentClass(source, templateText, templateOpenTag, classes, classEdits);
+
+        Edits edits = new Edits();
         if (scriptOpenTag != -1) {
-            preprocessScript(source, text);
+            preprocessScript(source, classText,
+                    classEdits.map(templateEdits.map(scriptOpenTag)),
+                    classEdits.map(templateEdits.map(scriptCloseTag)), edits);
         }
 
         if (styleOpenTag != -1) {
-            preprocessStyle(source, text);
-            moveStyleUp(source, text);
+            int lessAttr = tags.getLessAttr(templateEdits.isUnique());
+            if (lessAttr == Integer.MAX_VALUE) {
+                throw new IOException("Expected at most one attribute type=\"text/less\" [" + source + "].");
+            }
+            preprocessStyle(source, classText,
+                    classEdits.map(templateEdits.map(styleOpenTag)),
+                    classEdits.map(templateEdits.map(styleCloseTag)),
+                    lessAttr == -1 ? -1 : classEdits.map(templateEdits.map(lessAttr)), edits);
         }
+
+        StringBuilder result = edits.apply(classText);
+        if (styleOpenTag != -1) {
+            result = moveStyleUp(source, result);
+        }
+
+        text.setLength(0);
+        text.append(result);
     }
 
-    private void preprocessStyle(Object source, StringBuilder text) throws IOException {
-        int styleOpenTag = ignoreCaseIndexOf(text, TAG_STYLE_OPEN,
-                true, OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE);
-        if (styleOpenTag == -1 || styleOpenTag == Integer.MAX_VALUE) {
-            throw new IOException("Expected exactly one <style> tag [" + source + "].");
+    private static Tags findTags(CharSequence text) {
+        Tags tags = new Tags();
+
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+
+            if (c == '<') {
+                if (tags.templateOpen == -1 && matches(text, i, TAG_TEMPLATE_OPEN, true)) {
+                    tags.templateOpen = i;
+                }
+                if (matches(text, i, TAG_TEMPLATE_CLOSE, false)) {
+                    tags.templateClose = i;
+                }
+                tags.scriptOpen = addOccurrence(tags.scriptOpen, i, matches(text, i, TAG_SCRIPT_OPEN, true));
+                tags.scriptClose = addOccurrence(tags.scriptClose, i, matches(text, i, TAG_SCRIPT_CLOSE, false));
+                tags.styleOpen = addOccurrence(tags.styleOpen, i, matches(text, i, TAG_STYLE_OPEN, true));
+                tags.styleClose = addOccurrence(tags.styleClose, i, matches(text, i, TAG_STYLE_CLOSE, false));
+            } else if ((c == 't' || c == 'T') && matches(text, i, ATTR_TYPE_TEXT_LESS, false)) {
+                tags.lessAttrs.add(i);
+                int end = i + ATTR_TYPE_TEXT_LESS.length();
+                tags.lessAttrFollowers.add(end < length ? text.charAt(end) : (char) 0);
+            }
+        }
+
+        if (tags.templateOpen != -1) {
+            tags.templateOpenEnd = tags.templateOpen;
+            while (tags.templateOpenEnd < text.length() && text.charAt(tags.templateOpenEnd) != '>') {
+                tags.templateOpenEnd++;
+            }
         }
 
-        text.insert(styleOpenTag + TAG_STYLE_OPEN.length(), ATTR_DATA_NOCTURNE_TRUE);
+        return tags;
+    }
+
+    private static int addOccurrence(int first, int index, boolean found) {
+        if (!found) {
+            return first;
+        }
+        return first == -1 ? index : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param text             Text.
+     * @param index            Position to check.
+     * @param lowerCaseString  String to find (in lower case).
+     * @param openTag          Should the string be followed by whitespace or '&gt;'.
+     * @return {@code true} iff the string (ignoring case) is at the position.
+     */
+    private static boolean matches(CharSequence text, int index, String lowerCaseString, boolean openTag) {
+        int length = lowerCaseString.length();
+        if (index + length > text.length()) {
+            return false;
+        }
+
+        for (int j = 0; j < length; j++) {
+            if (Character.toLowerCase(text.charAt(index + j)) != lowerCaseString.charAt(j)) {
+                return false;
+            }
+        }
 
-        int styleCloseTag = ignoreCaseIndexOf(text, TAG_STYLE_CLOSE,
-                false, OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE);
-        if (styleCloseTag == -1 || styleCloseTag == Integer.MAX_VALUE) {
-            throw new IOException("Expected exactly one </style> tag [" + source + "].");
+        if (openTag) {
+            if (index + length == text.length()) {
+                return false;
+            }
+            char last = text.charAt(index + length);
+            return last == '>' || Character.isWhitespace(last);
         }
 
+        return true;
+    }
+
+    private void preprocessStyle(Object source, StringBuilder text, int styleOpenTag, int styleCloseTag,
+                                 int less, Edits edits) throws IOException {
+        edits.insert(styleOpenTag + TAG_STYLE_OPEN.length(), ATTR_DATA_NOCTURNE_TRUE);
+
         int from = styleOpenTag;
         while (from < text.length() && text.charAt(from) != '>') {
             from++;
         }
 
-        String textLessAttr = "type=\"text/less\"";
-        String textCssAttr = "type=\"text/css\"";
-        int less = ignoreCaseIndexOf(text, textLessAttr,
-                true, OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE);
         if (less == -1) {
             return;
-        } else if (less == Integer.MAX_VALUE) {
-            throw new IOException("Expected at most one attribute type=\"text/less\" [" + source + "].");
         }
 
         if (less > styleOpenTag && less < from && from < text.length()) {
             String css = text.substring(from + 1, styleCloseTag);
-            css = Less.compile(source, css, ApplicationContext.getInstance().getComponentTemplatesLessCommonsFile());
+            css = Less.compile(source, css, lessCommonsFile);
             css = css.replaceAll("/\\*[^*]+\\*/", "").trim();
-            text.replace(from + 1, styleCloseTag, "\n" + css + "\n");
-            text.replace(less, less + textLessAttr.length(), textCssAttr);
+            edits.replace(less, less + ATTR_TYPE_TEXT_LESS.length(), ATTR_TYPE_TEXT_CSS);
+            edits.replace(from + 1, styleCloseTag, "\n" + css + "\n");
         }
     }
 
-    private void preprocessTemplate(Object source, StringBuilder text, int templateOpenTag, Set<String> classes) throws IOException {
-        int templateCloseTag = ignoreCaseIndexOf(text, TAG_TEMPLATE_CLOSE,
-                false, OccurencePolicy.FIND_LAST);
-        if (templateCloseTag < 0 || templateCloseTag == Integer.MAX_VALUE || templateOpenTag >= templateCloseTag) {
-            throw new IOException("Expected </template> tag, it should be after first <template> [" + source + "].");
+    private StringBuilder preprocessTemplate(Object source, StringBuilder text, Tags tags, Edits edits) {
+        int templateOpenTag = tags.templateOpen;
+        int templateCloseTag = tags.templateClose;
+
+        int templateOpenTagEnd = templateOpenTag;
+        while (templateOpenTagEnd < text.length() && text.charAt(templateOpenTagEnd) != '>') {
+            templateOpenTagEnd++;
         }
+        if (templateOpenTagEnd < text.length()) {
+            edits.replace(templateOpenTag, templateOpenTagEnd + 1,
+                    "<#-- <template name=\"" + getComponentClassName(source) + "\"> -->");
+        }
+
         int end = templateCloseTag + TAG_TEMPLATE_CLOSE.length();
+        edits.replace(templateCloseTag, end,
+                "<#-- </template name=\"" + getComponentClassName(source) + "\"> -->");
+
         while (end < text.length() && Character.isWhitespace(text.charAt(end))) {
             end++;
         }
 
         if (end < text.length()) {
             String uniqueRenderKey = getUniqueRenderKey(source);
-            text.insert(end, UNIQUE_MAGIC_OPEN_PREFIX + uniqueRenderKey + ">\n");
+            edits.insert(end, UNIQUE_MAGIC_OPEN_PREFIX + uniqueRenderKey + ">\n");
             int last = text.length() - 1;
             while (last >= 0 && Character.isWhitespace(text.charAt(last))) {
                 last--;
             }
-            text.insert(last + 1, "\n" + UNIQUE_MAGIC_CLOSE_PREFIX + uniqueRenderKey + ">");
+            edits.insert(last + 1, "\n" + UNIQUE_MAGIC_CLOSE_PREFIX + uniqueRenderKey + ">");
+            edits.setUnique(true);
         }
 
-        String replacement = "<#-- <template name=\"" + getComponentClassName(source) + "\"> -->";
-        int templateOpenTagEnd = templateOpenTag;
-        while (templateOpenTagEnd < text.length() && text.charAt(templateOpenTagEnd) != '>') {
-            templateOpenTagEnd++;
-        }
-        if (templateOpenTagEnd < text.length()) {
-            text.replace(templateOpenTag, templateOpenTagEnd + 1, replacement);
-        }
-
-        replacement = "<#-- </template name=\"" + getComponentClassName(source) + "\"> -->";
-        templateCloseTag = ignoreCaseIndexOf(text, TAG_TEMPLATE_CLOSE,
-                false, OccurencePolicy.FIND_LAST);
-        if (templateCloseTag < 0 || templateCloseTag == Integer.MAX_VALUE || templateOpenTag >= templateCloseTag) {
-            throw new IOException("Expected </template> tag, it should be after first <template> [" + source + "].");
-        }
-        text.replace(templateCloseTag, templateCloseTag + TAG_TEMPLATE_CLOSE.length(), replacement);
+        return edits.apply(text);
+    }
 
+    private void collectClasses(StringBuilder text, int templateOpenTag, int templateCloseTag, Set<String> classes) {
         for (int i = templateOpenTag; i + 8 < templateCloseTag; i++) {
             if ((i == 0 || Character.isWhitespace(text.charAt(i - 1)))
                     && text.charAt(i) == 'c' && text.charAt(i + 1) == 'l' && text.charAt(i + 2) == 'a'
@@ -216,27 +312,17 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
         }
     }
 
-    private void preprocessScript(Object source, StringBuilder text) throws IOException {
-        int scriptOpenTag = ignoreCaseIndexOf(text, TAG_SCRIPT_OPEN,
-                true, OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE);
-        if (scriptOpenTag >= 0 && scriptOpenTag < Integer.MAX_VALUE) {
-            text.insert(scriptOpenTag + TAG_SCRIPT_OPEN.length(), ATTR_DATA_NOCTURNE_TRUE);
-        }
+    private void preprocessScript(Object source, StringBuilder text, int scriptOpenTag, int scriptCloseTag,
+                                  Edits edits) throws IOException {
+        edits.insert(scriptOpenTag + TAG_SCRIPT_OPEN.length(), ATTR_DATA_NOCTURNE_TRUE);
 
         int scriptOpenTagEnd = text.indexOf(">", scriptOpenTag);
         if (scriptOpenTagEnd < 0) {
             throw new IOException("Something wrong with <script> tag [" + source + "].");
         }
 
-        text.insert(scriptOpenTagEnd + 1, " $(function () {");
-
-        int scriptCloseTag = ignoreCaseIndexOf(text, TAG_SCRIPT_CLOSE,
-                false, OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE);
-        if (scriptCloseTag == -1 || scriptCloseTag == Integer.MAX_VALUE) {
-            throw new IOException("Something wrong with </script> tag [" + source + "].");
-        }
-
-        text.insert(scriptCloseTag, "}); ");
+        edits.insert(scriptOpenTagEnd + 1, " $(function () {");
+        edits.insert(scriptCloseTag, "}); ");
     }
 
     private String getComponentClassName(Object source) {
@@ -254,26 +340,35 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
         return "_Component";
     }
 
-    private void processComponentClass(Object source, StringBuilder sb, int start, Set<String> classes) {
+    private StringBuilder processComponentClass(Object source, StringBuilder sb, int start, Set<String> classes,
+                                                Edits edits) {
+        if (classes.isEmpty()) {
+            return sb;
+        }
+
+        String componentClassName = getComponentClassName(source);
+
         int index = start;
         while (index + 1 < sb.length()) {
             if ((index == 0 || isComponentClassDelimiter(sb.charAt(index - 1)))
                     && sb.charAt(index) == '_'
-                    && (index + 1 < sb.length() && Character.isLetter(sb.charAt(index + 1)))) {
+                    && Character.isLetter(sb.charAt(index + 1))) {
                 int length = 1;
                 while (index + length < sb.length() && isCssClassPart(sb.charAt(index + length))) {
                     length++;
                 }
-                if (length >= 2
-                        && (index + length == sb.length() || isComponentClassDelimiter(sb.charAt(index + length)))
+                if ((index + length == sb.length() || isComponentClassDelimiter(sb.charAt(index + length)))
                         && classes.contains(sb.substring(index, index + length))) {
-                    sb.replace(index, index + length, getComponentClassName(source)
+                    edits.replace(index, index + length, componentClassName
                             + "_" + sb.substring(index + 1, index + length));
                 }
+                index += length;
+            } else {
+                index++;
             }
-
-            index++;
         }
+
+        return edits.apply(sb);
     }
 
     private boolean isCssClassPart(char c) {
@@ -284,59 +379,10 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
         return c == ' ' || c == '\"' || c == '\'' || c == '.' || c == '>' || c == '+' || c == ':' || c == ',';
     }
 
-    private int ignoreCaseIndexOf(StringBuilder text, String substring,
-                                  boolean openTag, OccurencePolicy occurencePolicy) {
-        if (text.length() < substring.length()) {
-            return -1;
-        }
-
-        substring = substring.toLowerCase();
-        int result = -1;
-
-        for (int i = 0; i <= text.length() - substring.length(); i++) {
-            boolean find = true;
-            for (int j = 0; j < substring.length(); j++) {
-                if (Character.toLowerCase(text.charAt(i + j)) != substring.charAt(j)) {
-                    find = false;
-                    break;
-                }
-            }
-
-            if (find && openTag) {
-                if (i + substring.length() == text.length()) {
-                    find = false;
-                } else {
-                    char last = text.charAt(i + substring.length());
-                    if (last != '>' && !Character.isWhitespace(last)) {
-                        find = false;
-                    }
-                }
-            }
-
-            if (find) {
-                if (result == -1) {
-                    result = i;
-                    if (occurencePolicy == OccurencePolicy.FIND_FIRST_IGNORE_MULTIPLE) {
-                        break;
-                    }
-                } else {
-                    if (occurencePolicy == OccurencePolicy.FIND_FIRST_FAIL_MULTIPLE) {
-                        return Integer.MAX_VALUE;
-                    }
-                    if (occurencePolicy == OccurencePolicy.FIND_LAST) {
-                        result = i;
-                    }
-                }
-            }
-        }
-
-        return result;
-    }
-
-    private void moveStyleUp(Object source, StringBuilder text) throws IOException {
+    private StringBuilder moveStyleUp(Object source, StringBuilder text) throws IOException {
         int uniqueStartPos = text.indexOf(UNIQUE_MAGIC_OPEN_PREFIX);
         if (uniqueStartPos < 0) {
-            return;
+            return text;
         }
 
         int uniqueFinishPos = text.indexOf(UNIQUE_MAGIC_CLOSE_PREFIX);
@@ -347,7 +393,7 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
 
         int styleStartPos = text.indexOf(TAG_STYLE_OPEN + ATTR_DATA_NOCTURNE_TRUE, uniqueStartPos);
         if (styleStartPos < 0) {
-            return;
+            return text;
         }
 
         int styleFinishPos = text.indexOf(TAG_STYLE_CLOSE, uniqueStartPos);
@@ -363,7 +409,7 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
         String tagTemplateOpenReplacement = "<#-- <template name=\"" + getComponentClassName(source) + "\"> -->";
         int templateStartPos = text.indexOf(tagTemplateOpenReplacement);
         if (templateStartPos < 0) {
-            return;
+            return text;
         }
 
         String tagTemplateCloseReplacement = "<#-- </template name=\"" + getComponentClassName(source) + "\"> -->";
@@ -378,17 +424,116 @@ public class ComponentTemplatePreprocessor implements TemplatePreprocessor {
         }
 
         String styleUniqueRenderKey = getUniqueRenderKey(source) + ".css";
-        String style = UNIQUE_MAGIC_OPEN_PREFIX + styleUniqueRenderKey + ">\n"
-                + text.substring(styleStartPos, styleFinishPos + TAG_STYLE_CLOSE.length() + 1)
-                + UNIQUE_MAGIC_CLOSE_PREFIX + styleUniqueRenderKey + ">\n\n";
+        int styleEndPos = styleFinishPos + TAG_STYLE_CLOSE.length() + 1;
+
+        StringBuilder result = new StringBuilder(text.length() + 2 * UNIQUE_MAGIC_CLOSE_PREFIX.length()
+                + 2 * styleUniqueRenderKey.length() + 8);
+        result.append(text, 0, templateStartPos)
+                .append(UNIQUE_MAGIC_OPEN_PREFIX).append(styleUniqueRenderKey).append(">\n")
+                .append(text, styleStartPos, styleEndPos)
+                .append(UNIQUE_MAGIC_CLOSE_PREFIX).append(styleUniqueRenderKey).append(">\n\n")
+                .append(text, templateStartPos, styleStartPos)
+                .append(text, styleEndPos, text.length());
+        return result;
+    }
 
-        text.delete(styleStartPos, styleFinishPos + TAG_STYLE_CLOSE.length() + 1);
-        text.insert(templateStartPos, style);
+    /**
+     * Positions of the tags in the source text, {@code -1} if not found
+     * and {@code Integer.MAX_VALUE} if the tag is expected at most once but found several times.
+     */
+    private static final class Tags {
+        private int templateOpen = -1;
+        private int templateOpenEnd = -1;
+        private int templateClose = -1;
+        private int scriptOpen = -1;
+        private int scriptClose = -1;
+        private int styleOpen = -1;
+        private int styleClose = -1;
+
+        /**
+         * Positions of type="text/less" and chars after them ({@code 0} at the end of text).
+         */
+        private final List<Integer> lessAttrs = new ArrayList<>();
+        private final List<Character> lessAttrFollowers = new ArrayList<>();
+
+        /**
+         * @param unique Is the text followed by the unique block close marker.
+         * @return Position of the only type="text/less" attribute (except the removed template tag),
+         * {@code -1} or {@code Integer.MAX_VALUE}.
+         */
+        private int getLessAttr(boolean unique) {
+            int result = -1;
+
+            for (int i = 0; i < lessAttrs.size(); i++) {
+                int position = lessAttrs.get(i);
+                char follower = lessAttrFollowers.get(i);
+
+                boolean removed = position > templateOpen && position < templateOpenEnd;
+                boolean openTag = follower == 0 ? unique : follower == '>' || Character.isWhitespace(follower);
+
+                if (!removed && openTag) {
+                    result = result == -1 ? position : Integer.MAX_VALUE;
+                }
+            }
+
+            return result;
+        }
     }
 
-    private enum OccurencePolicy {
-        FIND_FIRST_FAIL_MULTIPLE,
-        FIND_FIRST_IGNORE_MULTIPLE,
-        FIND_LAST
+    /**
+     * Replacements in the text, added in order of positions and applied in one pass.
+     */
+    private static final class Edits {
+        private final List<Integer> starts = new ArrayList<>();
+        private final List<Integer> ends = new ArrayList<>();
+        private final List<String> replacements = new ArrayList<>();
+        private int lengthDelta;
+        private boolean unique;
+
+        private void replace(int start, int end, String replacement) {
+            starts.add(start);
+            ends.add(end);
+            replacements.add(replacement);
+            lengthDelta += replacement.length() - (end - start);
+        }
+
+        private void insert(int position, String insertion) {
+            replace(position, position, insertion);
+        }
+
+        private boolean isUnique() {
+            return unique;
+        }
+
+        private void setUnique(boolean unique) {
+            this.unique = unique;
+        }
+
+        /**
+         * @param position Position in the text before edits, not inside a replaced range.
+         * @return Position of the same char after edits.
+         */
+        private int map(int position) {
+            int result = position;
+            for (int i = 0; i < starts.size() && ends.get(i) <= position; i++) {
+                result += replacements.get(i).length() - (ends.get(i) - starts.get(i));
+            }
+            return result;
+        }
+
+        private StringBuilder apply(StringBuilder text) {
+            if (starts.isEmpty()) {
+                return text;
+            }
+
+            StringBuilder result = new StringBuilder(text.length() + lengthDelta);
+            int position = 0;
+            for (int i = 0; i < starts.size(); i++) {
+                result.append(text, position, starts.get(i)).append(replacements.get(i));
+                position = ends.get(i);
+            }
+            result.append(text, position, text.length());
+            return result;
+        }
     }
 }
@@ -2,16 +2,35 @@ package org.nocturne.template.impl;
 
 import com.github.sommeri.less4j.Less4jException;
 import com.github.sommeri.less4j.LessCompiler;
+import com.github.sommeri.less4j.LessSource;
 import com.github.sommeri.less4j.core.DefaultLessCompiler;
 import org.apache.log4j.Logger;
-import org.nocturne.util.StringUtil;
+import org.nocturne.cache.SegmentedLruCache;
+import org.nocturne.exception.NocturneException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Compiles LESS code of component templates. The result is cached by the content (the code and the commons file)
+ * in memory and on disk (in nocturne-less-tmp/cache in the temporary directory), so it survives restarts.
+ * <p>
+ * Different codes are compiled in parallel, concurrent compilations of the same code wait for the single one.
+ * The code is compiled from memory, no temporary files are written.
+ *
  * @author MikeMirzayanov (mirzayanovmr@gmail.com)
  */
 public class Less {
@@ -19,115 +38,201 @@ public class Less {
 
     private static final String CACHE_OPEN_TAG = "<cache>";
     private static final String CACHE_CLOSE_TAG = "</cache>";
-    private static File tmpDir;
-
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    public static synchronized String compile(@Nonnull Object source, @Nonnull String lessCode, @Nullable File commonsFile) throws IOException {
-        long commonsFileLastModified = commonsFile == null ? 0 : commonsFile.lastModified();
-        long commonsFileLength = commonsFile == null ? 0 : commonsFile.length();
-        String cacheKey = getName(source).trim() + "_" + commonsFileLastModified + "_" + commonsFileLength + "_" + hash(lessCode);
-
-        File cacheDir = new File(tmpDir, "cache");
-        if (!cacheDir.isDirectory()) {
-            cacheDir.mkdirs();
-            if (!cacheDir.isDirectory()) {
-                throw new IOException("Can't create " + cacheDir + ".");
+
+    /**
+     * Maximal total length of the compiled css stored in memory.
+     */
+    private static final long MEMORY_CACHE_MAXIMUM_WEIGHT = 16L * 1024 * 1024;
+    private static final long MEMORY_CACHE_TIME_TO_LIVE_DAYS = 1;
+
+    private static final SegmentedLruCache<String, String> cssByKey
+            = new SegmentedLruCache<>(MEMORY_CACHE_MAXIMUM_WEIGHT, String::length, null);
+
+    /**
+     * Compilations in progress by cache key.
+     */
+    private static final ConcurrentMap<String, FutureTask<String>> compilationsByKey = new ConcurrentHashMap<>();
+
+    private static volatile CommonsFile lastCommonsFile;
+
+    private static File cacheDir;
+
+    public static String compile(@Nonnull Object source, @Nonnull String lessCode, @Nullable File commonsFile) throws IOException {
+        CommonsFile commons = getCommonsFile(commonsFile);
+        String cacheKey = sha256((commons == null ? "" : commons.hash) + '\n' + lessCode);
+
+        String css = cssByKey.get(cacheKey);
+        if (css != null) {
+            return css;
+        }
+
+        FutureTask<String> compilation = new FutureTask<>(() -> load(source, cacheKey, lessCode, commons));
+        FutureTask<String> existingCompilation = compilationsByKey.putIfAbsent(cacheKey, compilation);
+        if (existingCompilation == null) {
+            existingCompilation = compilation;
+            try {
+                compilation.run();
+            } finally {
+                compilationsByKey.remove(cacheKey, compilation);
+            }
+        }
+
+        try {
+            return existingCompilation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compilation of less code in \""
+                    + source + "\".");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
             }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new NocturneException("Can't compile less code in \"" + source + "\".", cause);
         }
+    }
 
-        File cacheFile = new File(cacheDir, cacheKey);
-        if (cacheFile.exists() && cacheFile.isFile()) {
-            String result = readFile(cacheFile);
+    /**
+     * Takes css from the disk cache or compiles it, then puts it into the memory cache.
+     */
+    private static String load(Object source, String cacheKey, String lessCode, @Nullable CommonsFile commons)
+            throws IOException {
+        File cacheFile = cacheDir == null ? null : new File(cacheDir, cacheKey);
+
+        if (cacheFile != null && cacheFile.isFile()) {
+            String result = new String(Files.readAllBytes(cacheFile.toPath()), StandardCharsets.UTF_8);
             if (result.startsWith(CACHE_OPEN_TAG) && result.endsWith(CACHE_CLOSE_TAG)) {
                 String css = result.substring(CACHE_OPEN_TAG.length(), result.length() - CACHE_CLOSE_TAG.length());
                 if (css.length() * 2 < lessCode.length()) {
                     logger.error("Weird case: " + source + " lessCode has length " + lessCode.length() + ", but css is '" + css + "'.");
                 }
+                cssByKey.put(cacheKey, css, MEMORY_CACHE_TIME_TO_LIVE_DAYS, TimeUnit.DAYS);
                 return css;
             }
         }
-        if (cacheFile.exists()) {
-            cacheFile.delete();
-        }
 
-        File workDir = new File(tmpDir, cacheKey);
-        workDir.mkdirs();
-        if (!workDir.isDirectory()) {
-            throw new IOException("Can't create " + workDir + ".");
-        }
+        String code = commons == null ? lessCode : "@import \"" + commons.file.getName() + "\";\n" + lessCode;
+        String css;
+        try {
+            LessCompiler.Configuration configuration = new LessCompiler.Configuration();
+            configuration.getSourceMapConfiguration().setLinkSourceMap(false);
 
-        File workCommonsFile;
-        if (commonsFile != null) {
-            workCommonsFile = new File(workDir, commonsFile.getName());
-            writeFile(workCommonsFile, readFile(commonsFile));
-            lessCode = "@import \"" + commonsFile.getName() + "\";\n" + lessCode;
-        } else {
-            workCommonsFile = null;
+            LessCompiler compiler = new DefaultLessCompiler();
+            css = compiler.compile(new InMemoryLessSource(Objects.toString(source), code, commons), configuration).getCss();
+        } catch (Less4jException e) {
+            throw new IOException("Can't compile less code in \"" + source + "\": " + e.getMessage(), e);
         }
 
-        File workMainFile = new File(workDir, "main.less");
-        writeFile(workMainFile, lessCode);
+        cssByKey.put(cacheKey, css, MEMORY_CACHE_TIME_TO_LIVE_DAYS, TimeUnit.DAYS);
 
-        try {
-            LessCompiler compiler = new DefaultLessCompiler();
+        if (cacheFile != null) {
             try {
-                LessCompiler.CompilationResult compilationResult = compiler.compile(workMainFile);
-                String cachedResult = CACHE_OPEN_TAG + compilationResult.getCss() + CACHE_CLOSE_TAG;
-                writeFile(cacheFile, cachedResult);
-                return compilationResult.getCss();
-            } catch (Less4jException e) {
-                throw new IOException("Can't compile less code in \"" + source + "\": " + e.getMessage(), e);
-            }
-        } finally {
-            workMainFile.delete();
-            if (workCommonsFile != null) {
-                workCommonsFile.delete();
+                Files.write(cacheFile.toPath(), (CACHE_OPEN_TAG + css + CACHE_CLOSE_TAG).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.warn("Can't write less cache file " + cacheFile + '.', e);
             }
-            workDir.delete();
         }
+
+        return css;
     }
 
-    private static String getName(Object source) {
-        String s = StringUtil.nullToEmpty(Objects.toString(source));
-        int pos = Math.max(s.lastIndexOf('/'), s.lastIndexOf('\\'));
-        if (pos >= 0) {
-            return s.substring(pos + 1);
-        } else {
-            return s;
+    /**
+     * @return Content of the commons file, reads it again only if it has been changed.
+     */
+    @Nullable
+    private static CommonsFile getCommonsFile(@Nullable File file) throws IOException {
+        if (file == null) {
+            return null;
         }
+
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        CommonsFile commons = lastCommonsFile;
+        if (commons != null && commons.file.equals(file)
+                && commons.lastModified == lastModified && commons.length == length) {
+            return commons;
+        }
+
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        commons = new CommonsFile(file, lastModified, length, content, sha256(content));
+        lastCommonsFile = commons;
+        return commons;
     }
 
-    private static long hash(String css) {
-        long MUL_A = 1009L;
-        long MUL_B = 1000000000000000003L;
-        long a = 0;
-        long b = 0;
-        long mulA = 1;
-        long mulB = 1;
-        for (int i = 0; i < css.length(); i++) {
-            a += mulA * css.charAt(i);
-            mulA *= MUL_A;
-            b += mulB * css.charAt(i);
-            mulB *= MUL_B;
-        }
-        return a ^ b;
+    private static String sha256(String s) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new NocturneException("Can't find SHA-256.", e);
+        }
+
+        byte[] hash = digest.digest(s.getBytes(StandardCharsets.UTF_8));
+        StringBuilder result = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            result.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+        }
+        return result.toString();
     }
 
-    private static void writeFile(File file, String content) throws FileNotFoundException {
-        try (PrintWriter writer = new PrintWriter(file)) {
-            writer.print(content);
+    private static final class CommonsFile {
+        private final File file;
+        private final long lastModified;
+        private final long length;
+        private final String content;
+        private final String hash;
+
+        private CommonsFile(File file, long lastModified, long length, String content, String hash) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.content = content;
+            this.hash = hash;
         }
     }
 
-    private static String readFile(File file) throws IOException {
-        try (FileReader reader = new FileReader(file)) {
-            StringBuilder result = new StringBuilder((int) file.length());
-            char[] buffer = new char[65536];
-            int len;
-            while ((len = reader.read(buffer)) != -1) {
-                result.append(buffer, 0, len);
+    /**
+     * Less code in memory, the only file it can import is the commons file (also from memory).
+     */
+    private static final class InMemoryLessSource extends LessSource {
+        private final String name;
+        private final String content;
+        private final CommonsFile commons;
+
+        private InMemoryLessSource(String name, String content, @Nullable CommonsFile commons) {
+            this.name = name;
+            this.content = content;
+            this.commons = commons;
+        }
+
+        @Override
+        public LessSource relativeSource(String filename) throws FileNotFound {
+            if (commons != null && commons.file.getName().equals(filename)) {
+                return new InMemoryLessSource(filename, commons.content, null);
             }
-            return result.toString();
+            throw new FileNotFound();
+        }
+
+        @Override
+        public String getContent() {
+            return content;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return content.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String getName() {
+            return name;
         }
     }
 
@@ -137,14 +242,15 @@ public class Less {
             if (!tmpFile.delete()) {
                 throw new IOException("Can't delete " + tmpFile + ".");
             }
-            tmpDir = new File(tmpFile.getParentFile(), "nocturne-less-tmp");
-            if (!tmpDir.isDirectory()) {
-                if (!tmpDir.mkdirs()) {
-                    throw new IOException("Can't create " + tmpFile + ".");
+            File dir = new File(new File(tmpFile.getParentFile(), "nocturne-less-tmp"), "cache");
+            if (!dir.isDirectory()) {
+                if (!dir.mkdirs() && !dir.isDirectory()) {
+                    throw new IOException("Can't create " + dir + ".");
                 }
             }
+            cacheDir = dir;
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.error("Can't create less cache directory, only memory cache will be used.", e);
         }
     }
 }
@@ -4,16 +4,16 @@
 package org.nocturne.util;
 
 import org.apache.commons.fileupload.FileItem;
-import org.apache.commons.fileupload.FileItemFactory;
+import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
-import org.nocturne.collection.SingleEntryList;
+import org.apache.log4j.Logger;
+import org.nocturne.collection.ParameterMap;
 import org.nocturne.exception.NocturneException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
@@ -28,6 +28,12 @@ import java.util.regex.Pattern;
 public class RequestUtil {
     private static final String GET_REQUEST_PARAMS_CACHED_RESULT = "Codeforces::getRequestParamsCachedResult";
     private static final Pattern QUERY_STRING_SPLIT_PATTERN = Pattern.compile("&");
+    private static final String UPLOADS_ATTRIBUTE = "nocturne.uploads";
+
+    private static final Logger logger = Logger.getLogger(RequestUtil.class);
+
+    private static volatile UploadSettings uploadSettings = new UploadSettings(
+            DiskFileItemFactory.DEFAULT_SIZE_THRESHOLD, -1, -1, false);
 
     public static String getRequestUriAndQueryString(HttpServletRequest request) {
         String result = request.getRequestURI();
@@ -43,15 +49,14 @@ public class RequestUtil {
             return cachedRequestParameters;
         }
 
-        if ("POST".equalsIgnoreCase(request.getMethod())) {
-            addUploadedItemsToRequestAttributes(request);
-        }
+        getUploads(request);
 
-        Map<String, List<String>> requestParameters = new HashMap<>();
+        ParameterMap.Builder builder = new ParameterMap.Builder();
 
-        addRequestParametersFromParameterMap(requestParameters, request);
-        addRequestParametersFromAttributes(requestParameters, request);
+        addRequestParametersFromParameterMap(builder, request);
+        addRequestParametersFromAttributes(builder, request);
 
+        ParameterMap requestParameters = builder.build();
         setCachedRequestParameters(request, requestParameters);
 
         return requestParameters;
@@ -72,78 +77,168 @@ public class RequestUtil {
         request.setAttribute(GET_REQUEST_PARAMS_CACHED_RESULT, requestParameters);
     }
 
-    private static void addUploadedItemsToRequestAttributes(HttpServletRequest request) {
-        try {
-            FileItemFactory factory = new DiskFileItemFactory();
-            ServletFileUpload upload = new ServletFileUpload(factory);
-            List<FileItem> items = upload.parseRequest(request);
-
-            Map<String, List<String>> fileNamesByFieldName = new HashMap<>();
-            Map<String, List<byte[]>> fileBytesByFieldName = new HashMap<>();
-            List<String> itemNames = new ArrayList<>(items.size());
-
-            for (FileItem item : items) {
-                String name = item.getFieldName();
-                itemNames.add(name);
-                InputStream inputStream = item.getInputStream();
-                byte[] bytes = StreamUtil.getAsByteArray(inputStream);
-                if (bytes != null) {
-                    if (item.isFormField()) {
-                        Object existingValue = request.getAttribute(name);
-                        String value = new String(bytes, StandardCharsets.UTF_8);
-
-                        if (existingValue == null) {
-                            request.setAttribute(name, value);
-                        } else if (existingValue instanceof Collection) {
-                            addStringToRawCollection((Collection) existingValue, value);
-                        } else {
-                            Collection<Object> values = new ArrayList<>(4);
-                            values.add(existingValue);
-                            values.add(value);
-                            request.setAttribute(name, values);
-                        }
-                    } else {
-                        request.setAttribute(name, bytes);
+    /**
+     * Sets up multipart request parsing.
+     *
+     * @param sizeThreshold          Files larger than this number of bytes are written to temporary files.
+     * @param maxFileSize            Maximal size of a part in bytes, {@code -1} means no limit.
+     * @param maxRequestSize         Maximal size of a multipart request in bytes, {@code -1} means no limit.
+     * @param storeFilesInAttributes Store file contents as byte[] request attributes and as request parameters
+     *                               (decoded as UTF-8), as it has been done before {@link UploadedFile}.
+     */
+    public static void setupUploads(int sizeThreshold, long maxFileSize, long maxRequestSize,
+                                    boolean storeFilesInAttributes) {
+        uploadSettings = new UploadSettings(sizeThreshold, maxFileSize, maxRequestSize, storeFilesInAttributes);
+    }
 
-                        if (!fileBytesByFieldName.containsKey(name)) {
-                            fileBytesByFieldName.put(name, new ArrayList<>(1));
-                        }
-                        fileBytesByFieldName.get(name).add(bytes);
-                    }
+    /**
+     * Parses the multipart request on the first call.
+     *
+     * @param request Http request.
+     * @return Uploaded files by field name, empty map if the request is not a multipart one.
+     */
+    @Nonnull
+    public static Map<String, List<UploadedFile>> getUploadedFiles(HttpServletRequest request) {
+        return getUploads(request).filesByFieldName;
+    }
+
+    /**
+     * @param request   Http request.
+     * @param fieldName Field name.
+     * @return The first file uploaded with the field or {@code null}.
+     */
+    @Nullable
+    public static UploadedFile getUploadedFile(HttpServletRequest request, String fieldName) {
+        List<UploadedFile> files = getUploadedFiles(request).get(fieldName);
+        return files == null || files.isEmpty() ? null : files.get(0);
+    }
+
+    /**
+     * @param request Http request.
+     * @return Exception thrown on parsing the multipart request (say, a size limit has been exceeded)
+     * or {@code null} if it has been parsed successfully. No parameters and files are taken from the request body
+     * in case of exception.
+     */
+    @Nullable
+    public static FileUploadException getUploadException(HttpServletRequest request) {
+        return getUploads(request).exception;
+    }
+
+    /**
+     * Deletes temporary files of the uploaded files (if the request has been parsed).
+     *
+     * @param request Http request.
+     */
+    public static void deleteUploadedFiles(HttpServletRequest request) {
+        Object uploads = request.getAttribute(UPLOADS_ATTRIBUTE);
+        if (uploads instanceof Uploads) {
+            for (List<UploadedFile> files : ((Uploads) uploads).filesByFieldName.values()) {
+                for (UploadedFile file : files) {
+                    file.delete();
                 }
-                inputStream.close();
+            }
+        }
+    }
 
-                if (item.getName() != null && !item.getName().isEmpty()) {
-                    request.setAttribute(name + "::name", item.getName());
+    private static Uploads getUploads(HttpServletRequest request) {
+        Object uploads = request.getAttribute(UPLOADS_ATTRIBUTE);
+        if (uploads instanceof Uploads) {
+            return (Uploads) uploads;
+        }
 
-                    if (!fileNamesByFieldName.containsKey(name)) {
-                        fileNamesByFieldName.put(name, new ArrayList<>(1));
-                    }
-                    fileNamesByFieldName.get(name).add(item.getName());
+        Uploads result = parseUploads(request);
+        request.setAttribute(UPLOADS_ATTRIBUTE, result);
+        return result;
+    }
+
+    /**
+     * Parses multipart request: form fields become request attributes, files are kept in temporary
+     * files (or in memory if they are small) and are not read.
+     */
+    private static Uploads parseUploads(HttpServletRequest request) {
+        if (!"POST".equalsIgnoreCase(request.getMethod()) || !ServletFileUpload.isMultipartContent(request)) {
+            return new Uploads(Collections.emptyMap(), null);
+        }
+
+        UploadSettings settings = uploadSettings;
+
+        List<FileItem> items;
+        try {
+            ServletFileUpload upload = new ServletFileUpload(new DiskFileItemFactory(settings.sizeThreshold, null));
+            upload.setFileSizeMax(settings.maxFileSize);
+            upload.setSizeMax(settings.maxRequestSize);
+            items = upload.parseRequest(request);
+        } catch (FileUploadException e) {
+            logger.warn("Can't parse multipart request " + request.getRequestURI() + ": " + e.getMessage());
+            return new Uploads(Collections.emptyMap(), e);
+        }
+
+        Map<String, List<UploadedFile>> filesByFieldName = new LinkedHashMap<>();
+        Map<String, List<String>> fileNamesByFieldName = new HashMap<>();
+        Map<String, List<byte[]>> fileBytesByFieldName = new HashMap<>();
+        List<String> itemNames = new ArrayList<>(items.size());
+
+        for (FileItem item : items) {
+            String name = item.getFieldName();
+            itemNames.add(name);
+
+            if (item.isFormField()) {
+                String value = new String(item.get(), StandardCharsets.UTF_8);
+                // Large form fields are kept in temporary files too.
+                item.delete();
+                Object existingValue = request.getAttribute(name);
+
+                if (existingValue == null) {
+                    request.setAttribute(name, value);
+                } else if (existingValue instanceof Collection) {
+                    addStringToRawCollection((Collection) existingValue, value);
+                } else {
+                    Collection<Object> values = new ArrayList<>(4);
+                    values.add(existingValue);
+                    values.add(value);
+                    request.setAttribute(name, values);
+                }
+            } else {
+                filesByFieldName.computeIfAbsent(name, key -> new ArrayList<>(1)).add(new UploadedFile(item));
+
+                if (settings.storeFilesInAttributes) {
+                    byte[] bytes = item.get();
+                    request.setAttribute(name, bytes);
+                    fileBytesByFieldName.computeIfAbsent(name, key -> new ArrayList<>(1)).add(bytes);
                 }
             }
 
+            if (item.getName() != null && !item.getName().isEmpty()) {
+                request.setAttribute(name + "::name", item.getName());
+                fileNamesByFieldName.computeIfAbsent(name, key -> new ArrayList<>(1)).add(item.getName());
+            }
+        }
 
-            for (Map.Entry<String, List<String>> e : fileNamesByFieldName.entrySet()) {
-                String fieldName = e.getKey();
+        for (Map.Entry<String, List<String>> e : fileNamesByFieldName.entrySet()) {
+            String fieldName = e.getKey();
 
-                String[] fileNames = new String[e.getValue().size()];
-                e.getValue().toArray(fileNames);
-                request.setAttribute(fieldName + "::name[]", fileNames);
+            String[] fileNames = new String[e.getValue().size()];
+            e.getValue().toArray(fileNames);
+            request.setAttribute(fieldName + "::name[]", fileNames);
 
-                byte[][] fileBytes = new byte[e.getValue().size()][];
-                fileBytesByFieldName.get(fieldName).toArray(fileBytes);
+            List<byte[]> fileBytesList = fileBytesByFieldName.get(fieldName);
+            if (fileBytesList != null) {
+                byte[][] fileBytes = new byte[fileBytesList.size()][];
+                fileBytesList.toArray(fileBytes);
                 request.setAttribute(fieldName + "[]", fileBytes);
             }
+        }
+
+        request.setAttribute("nocturne.uploaded-item-names", itemNames);
 
-            request.setAttribute("nocturne.uploaded-item-names", itemNames);
-        } catch (Exception ignored) {
-            // No operations.
+        for (Map.Entry<String, List<UploadedFile>> e : filesByFieldName.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
         }
+        return new Uploads(Collections.unmodifiableMap(filesByFieldName), null);
     }
 
     private static void addRequestParametersFromParameterMap(
-            Map<String, List<String>> requestParameters, HttpServletRequest request) {
+            ParameterMap.Builder requestParameters, HttpServletRequest request) {
         Map<?, ?> parameterMap = request.getParameterMap();
 
         for (Map.Entry<?, ?> e : parameterMap.entrySet()) {
@@ -152,17 +247,19 @@ public class RequestUtil {
 
             List<String> parameters;
 
-            if (value.getClass().isArray()) {
+            if (value instanceof String[]) {
+                parameters = Arrays.asList((String[]) value);
+            } else if (value.getClass().isArray()) {
                 Object[] values = (Object[]) value;
                 int count = values.length;
 
-                parameters = count <= 1 ? new SingleEntryList<>() : new ArrayList<>(count);
+                parameters = new ArrayList<>(count);
 
                 for (int index = 0; index < count; ++index) {
                     parameters.add(values[index].toString());
                 }
             } else {
-                parameters = new SingleEntryList<>(value.toString());
+                parameters = Collections.singletonList(value.toString());
             }
 
             requestParameters.put(name, parameters);
@@ -175,36 +272,28 @@ public class RequestUtil {
     }
 
     private static void addRequestParametersFromAttributes(
-            Map<String, List<String>> requestParameters, HttpServletRequest request) {
+            ParameterMap.Builder requestParameters, HttpServletRequest request) {
         Enumeration enumeration = request.getAttributeNames();
 
         while (enumeration.hasMoreElements()) {
             String name = enumeration.nextElement().toString();
             Object value = request.getAttribute(name);
 
-            if (value != null) {
+            if (value != null && !(value instanceof Uploads)) {
                 if (value instanceof byte[]) {
-                    requestParameters.put(name, new SingleEntryList<>(new String((byte[]) value, StandardCharsets.UTF_8)));
+                    requestParameters.put(name, new String((byte[]) value, StandardCharsets.UTF_8));
                     continue;
                 }
 
-                if (value instanceof List) {
-                    List list = (List) value;
-                    if (isListOfStrings(list)) {
-                        requestParameters.put(name, castToStringList(list));
-                        continue;
-                    }
-                }
-
                 if (value instanceof Collection) {
-                    List<?> list = new ArrayList<>((Collection<?>) value);
-                    if (isListOfStrings(list)) {
-                        requestParameters.put(name, castToStringList(list));
+                    Collection<?> collection = (Collection<?>) value;
+                    if (isCollectionOfStrings(collection)) {
+                        requestParameters.put(name, castToStringCollection(collection));
                         continue;
                     }
                 }
 
-                requestParameters.put(name, new SingleEntryList<>(request.getAttribute(name).toString()));
+                requestParameters.put(name, value.toString());
             }
         }
     }
@@ -228,8 +317,8 @@ public class RequestUtil {
         return "";
     }
 
-    private static boolean isListOfStrings(List list) {
-        for (Object o : list) {
+    private static boolean isCollectionOfStrings(Collection<?> collection) {
+        for (Object o : collection) {
             if (!(o instanceof String)) {
                 return false;
             }
@@ -239,8 +328,8 @@ public class RequestUtil {
     }
 
     @SuppressWarnings("unchecked")
-    private static List<String> castToStringList(List list) {
-        return (List<String>) list;
+    private static Collection<String> castToStringCollection(Collection<?> collection) {
+        return (Collection<String>) collection;
     }
 
     @SuppressWarnings("unchecked")
@@ -292,6 +381,10 @@ public class RequestUtil {
 
     public static String getFirst(
             @Nonnull Map<String, List<String>> parameterValuesByName, @Nonnull String parameterName) {
+        if (parameterValuesByName instanceof ParameterMap) {
+            return ((ParameterMap) parameterValuesByName).getFirst(parameterName);
+        }
+
         List<String> parameterValues = parameterValuesByName.get(parameterName);
         return parameterValues == null || parameterValues.isEmpty() ? null : parameterValues.get(0);
     }
@@ -299,4 +392,32 @@ public class RequestUtil {
     public static String getFirst(@Nullable List<String> parameterValues) {
         return parameterValues == null || parameterValues.isEmpty() ? null : parameterValues.get(0);
     }
+
+    private static final class UploadSettings {
+        private final int sizeThreshold;
+        private final long maxFileSize;
+        private final long maxRequestSize;
+        private final boolean storeFilesInAttributes;
+
+        private UploadSettings(int sizeThreshold, long maxFileSize, long maxRequestSize,
+                               boolean storeFilesInAttributes) {
+            this.sizeThreshold = sizeThreshold;
+            this.maxFileSize = maxFileSize;
+            this.maxRequestSize = maxRequestSize;
+            this.storeFilesInAttributes = storeFilesInAttributes;
+        }
+    }
+
+    /**
+     * Result of multipart request parsing, stored as request attribute.
+     */
+    private static final class Uploads {
+        private final Map<String, List<UploadedFile>> filesByFieldName;
+        private final FileUploadException exception;
+
+        private Uploads(Map<String, List<UploadedFile>> filesByFieldName, @Nullable FileUploadException exception) {
+            this.filesByFieldName = filesByFieldName;
+            this.exception = exception;
+        }
+    }
 }
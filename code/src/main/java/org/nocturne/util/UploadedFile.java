@@ -0,0 +1,138 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.util;
+
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.disk.DiskFileItem;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * File part of multipart request. Small files are kept in memory, larger ones are written to
+ * a temporary file while the request is parsed (see nocturne.upload.size-threshold).
+ * The content is never read unless asked, temporary files are deleted after the request.
+ *
+ * @author Mike Mirzayanov
+ */
+public final class UploadedFile {
+    private final FileItem item;
+
+    /**
+     * Temporary copy of the in-memory content, created by {@link #getPath()}.
+     */
+    private Path copy;
+
+    UploadedFile(@Nonnull FileItem item) {
+        this.item = item;
+    }
+
+    /**
+     * @return Name of the form field.
+     */
+    public String getFieldName() {
+        return item.getFieldName();
+    }
+
+    /**
+     * @return File name as sent by the browser, may contain path on some clients.
+     */
+    @Nullable
+    public String getFileName() {
+        return item.getName();
+    }
+
+    /**
+     * @return Content type as sent by the browser.
+     */
+    @Nullable
+    public String getContentType() {
+        return item.getContentType();
+    }
+
+    /**
+     * @return Size in bytes.
+     */
+    public long getSize() {
+        return item.getSize();
+    }
+
+    /**
+     * @return {@code true} iff the content is kept in memory, not in a temporary file.
+     */
+    public boolean isInMemory() {
+        return item.isInMemory();
+    }
+
+    /**
+     * @return New stream to read the content, the caller should close it.
+     * @throws IOException If the temporary file can't be read.
+     */
+    public InputStream getInputStream() throws IOException {
+        return item.getInputStream();
+    }
+
+    /**
+     * @return File with the content, it is deleted after the request. For the content kept in memory
+     * the file is created on the first call.
+     * @throws IOException If the temporary file can't be written.
+     */
+    public synchronized Path getPath() throws IOException {
+        if (!item.isInMemory() && item instanceof DiskFileItem) {
+            File storeLocation = ((DiskFileItem) item).getStoreLocation();
+            if (storeLocation != null && storeLocation.isFile()) {
+                return storeLocation.toPath();
+            }
+        }
+
+        if (copy == null) {
+            Path path = Files.createTempFile("nocturne-upload-", ".tmp");
+            try (InputStream inputStream = item.getInputStream()) {
+                Files.copy(inputStream, path, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(path);
+                throw e;
+            }
+            copy = path;
+        }
+
+        return copy;
+    }
+
+    /**
+     * Reads the whole content into memory, use {@link #getInputStream()} for large files.
+     *
+     * @return Content.
+     */
+    public byte[] getBytes() {
+        return item.get();
+    }
+
+    /**
+     * Deletes the temporary files, the content is not available after it.
+     */
+    synchronized void delete() {
+        item.delete();
+        if (copy != null) {
+            try {
+                Files.deleteIfExists(copy);
+            } catch (IOException ignored) {
+                // No operations.
+            }
+            copy = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UploadedFile {fieldName='" + getFieldName() + "', fileName='" + getFileName()
+                + "', size=" + getSize() + '}';
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2009 Mike Mirzayanov
+ */
+package org.nocturne.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writer which encodes characters to UTF-8 directly into the output stream.
+ * Uses per-thread byte buffer, so it doesn't allocate anything on the write path.
+ * <p>
+ * Method {@link #close()} flushes the writer and returns the buffer, but doesn't close the output stream.
+ * The instance should be used by a single thread.
+ *
+ * @author Mike Mirzayanov
+ */
+public class Utf8OutputStreamWriter extends Writer {
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Buffers which are not used right now. Each thread has at most one.
+     */
+    private static final ThreadLocal<byte[]> freeBuffers = new ThreadLocal<>();
+
+    private final OutputStream outputStream;
+    private byte[] buffer;
+    private int position;
+
+    /**
+     * High surrogate waiting for the next char (if the pair is split between write calls).
+     */
+    private char highSurrogate;
+
+    public Utf8OutputStreamWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+
+        buffer = freeBuffers.get();
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        } else {
+            freeBuffers.remove();
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        ensureOpen();
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            writeChar(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String s, int offset, int length) throws IOException {
+        ensureOpen();
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    private void writeChar(char c) throws IOException {
+        if (position + 4 > BUFFER_SIZE) {
+            flushBuffer();
+        }
+
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+
+            // Malformed pair: replace lone surrogate like String.getBytes(UTF_8) does.
+            buffer[position++] = '?';
+            writeChar(c);
+            return;
+        }
+
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            outputStream.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Writer is closed.");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+
+        try {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                flushBuffer();
+                buffer[position++] = '?';
+            }
+            flush();
+        } finally {
+            freeBuffers.set(buffer);
+            buffer = null;
+        }
+    }
+}
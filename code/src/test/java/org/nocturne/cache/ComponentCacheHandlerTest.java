@@ -0,0 +1,151 @@
+package org.nocturne.cache;
+
+import junit.framework.TestCase;
+import org.nocturne.annotation.Cacheable;
+import org.nocturne.main.ApplicationContext;
+import org.nocturne.main.ApplicationContextHelper;
+import org.nocturne.main.Frame;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class ComponentCacheHandlerTest extends TestCase {
+    private ComponentCacheHandler cacheHandler;
+
+    @Override
+    protected void setUp() {
+        cacheHandler = new ComponentCacheHandler(1024 * 1024);
+        setupRequest("");
+    }
+
+    @Override
+    protected void tearDown() {
+        ApplicationContext.getInstance().unsetRequestAndResponse();
+    }
+
+    public void testMissThenHit() {
+        CachedFrame frame = new CachedFrame();
+        assertNull(cacheHandler.intercept(frame));
+        cacheHandler.postprocess(frame, "html");
+
+        assertEquals("html", cacheHandler.intercept(new CachedFrame()));
+        assertEquals(4, cacheHandler.getWeight());
+
+        cacheHandler.invalidateAll();
+        assertNull(cacheHandler.intercept(new CachedFrame()));
+    }
+
+    public void testReleasedComponentIsNotCached() {
+        CachedFrame frame = new CachedFrame();
+        assertNull(cacheHandler.intercept(frame));
+        cacheHandler.release(frame);
+
+        assertNull(cacheHandler.intercept(new CachedFrame()));
+        assertEquals(0, cacheHandler.getWeight());
+    }
+
+    public void testNotCacheableComponent() {
+        NotCachedFrame frame = new NotCachedFrame();
+        assertNull(cacheHandler.intercept(frame));
+        cacheHandler.postprocess(frame, "html");
+
+        assertNull(cacheHandler.intercept(new NotCachedFrame()));
+        assertEquals(0, cacheHandler.getWeight());
+    }
+
+    public void testActionIsPartOfKey() {
+        CachedFrame frame = new CachedFrame();
+        assertNull(cacheHandler.intercept(frame));
+        cacheHandler.postprocess(frame, "html");
+
+        setupRequest("edit");
+        assertNull(cacheHandler.intercept(new CachedFrame()));
+
+        setupRequest("");
+        assertEquals("html", cacheHandler.intercept(new CachedFrame()));
+    }
+
+    public void testConcurrentMissWaitsForRendering() throws Exception {
+        CachedFrame frame = new CachedFrame();
+        assertNull(cacheHandler.intercept(frame));
+
+        CountDownLatch waiting = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> result = executor.submit(() -> {
+                setupRequest("");
+                waiting.countDown();
+                try {
+                    return cacheHandler.intercept(new CachedFrame());
+                } finally {
+                    ApplicationContext.getInstance().unsetRequestAndResponse();
+                }
+            });
+
+            assertTrue(waiting.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertFalse(result.isDone());
+
+            cacheHandler.postprocess(frame, "html");
+            assertEquals("html", result.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testConcurrentMissRendersItselfAfterTimeout() throws Exception {
+        cacheHandler = new ComponentCacheHandler(1024 * 1024, 10);
+
+        CachedFrame frame = new CachedFrame();
+        assertNull(cacheHandler.intercept(frame));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> result = executor.submit(() -> {
+                setupRequest("");
+                try {
+                    return cacheHandler.intercept(new CachedFrame());
+                } finally {
+                    ApplicationContext.getInstance().unsetRequestAndResponse();
+                }
+            });
+
+            assertNull(result.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+
+        cacheHandler.postprocess(frame, "html");
+        assertEquals("html", cacheHandler.intercept(new CachedFrame()));
+    }
+
+    private static void setupRequest(String action) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.setParameter("lang", "en");
+        request.setAttribute("nocturne.request-action", action);
+        ApplicationContextHelper.setRequestAndResponse(request, new MockHttpServletResponse());
+    }
+
+    @Cacheable(localeDependent = false)
+    public static class CachedFrame extends Frame {
+        @Override
+        public void action() {
+            // No operations.
+        }
+    }
+
+    public static class NotCachedFrame extends Frame {
+        @Override
+        public void action() {
+            // No operations.
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.nocturne.cache;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class SegmentedLruCacheTest extends TestCase {
+    /**
+     * Integer keys which are multiples of it get into the same shard.
+     */
+    private static final int SHARD_COUNT = 16;
+    private static final int SHARD_WEIGHT = 10;
+
+    private final List<Integer> evictedKeys = new ArrayList<>();
+    private final List<Integer> expiredKeys = new ArrayList<>();
+
+    private SegmentedLruCache<Integer, String> cache;
+
+    @Override
+    protected void setUp() {
+        cache = new SegmentedLruCache<>(SHARD_COUNT * SHARD_WEIGHT, String::length, (key, expired) -> {
+            if (expired) {
+                expiredKeys.add(key);
+            } else {
+                evictedKeys.add(key);
+            }
+        });
+    }
+
+    public void testGetAndPut() {
+        assertNull(cache.get(1));
+
+        cache.put(1, "a", 1, TimeUnit.MINUTES);
+        cache.put(2, "bb", 1, TimeUnit.MINUTES);
+        assertEquals("a", cache.get(1));
+        assertEquals("bb", cache.get(2));
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getWeight());
+
+        cache.put(1, "ccc", 1, TimeUnit.MINUTES);
+        assertEquals("ccc", cache.get(1));
+        assertEquals(2, cache.size());
+        assertEquals(5, cache.getWeight());
+    }
+
+    public void testInvalidate() {
+        cache.put(1, "a", 1, TimeUnit.MINUTES);
+        cache.put(2, "b", 1, TimeUnit.MINUTES);
+        assertEquals("a", cache.get(1));
+
+        cache.invalidate(1);
+        assertNull(cache.get(1));
+        assertEquals("b", cache.get(2));
+        assertEquals(1, cache.getWeight());
+
+        cache.invalidateAll();
+        assertNull(cache.get(2));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+        assertTrue(evictedKeys.isEmpty());
+    }
+
+    public void testExpiration() {
+        cache.put(1, "a", 0, TimeUnit.SECONDS);
+        cache.put(2, "b", 0, TimeUnit.SECONDS);
+        cache.put(3, "c", 1, TimeUnit.MINUTES);
+
+        assertNull(cache.get(1));
+        assertEquals("c", cache.get(3));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getWeight());
+
+        // Expired entry in the protected segment.
+        cache.put(3, "d", 0, TimeUnit.SECONDS);
+        assertNull(cache.get(3));
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getWeight());
+        assertEquals(listOf(1, 3), expiredKeys);
+        assertTrue(evictedKeys.isEmpty());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() {
+        for (int i = 0; i < SHARD_WEIGHT; ++i) {
+            cache.put(i * SHARD_COUNT, "a", 1, TimeUnit.MINUTES);
+        }
+        assertEquals(SHARD_WEIGHT, cache.getWeight());
+
+        cache.put(SHARD_WEIGHT * SHARD_COUNT, "a", 1, TimeUnit.MINUTES);
+        assertEquals(SHARD_WEIGHT, cache.getWeight());
+        assertEquals(listOf(0), evictedKeys);
+        assertNull(cache.get(0));
+        assertEquals("a", cache.get(SHARD_COUNT));
+    }
+
+    public void testScanDoesNotEvictFrequentlyUsedEntries() {
+        int hotKeyCount = SHARD_WEIGHT / 2;
+
+        for (int i = 0; i < hotKeyCount; ++i) {
+            cache.put(i * SHARD_COUNT, "a", 1, TimeUnit.MINUTES);
+            assertEquals("a", cache.get(i * SHARD_COUNT));
+        }
+
+        for (int i = hotKeyCount; i < 100 * SHARD_WEIGHT; ++i) {
+            cache.put(i * SHARD_COUNT, "b", 1, TimeUnit.MINUTES);
+        }
+
+        for (int i = 0; i < hotKeyCount; ++i) {
+            assertEquals("a", cache.get(i * SHARD_COUNT));
+        }
+        assertEquals(SHARD_WEIGHT, cache.getWeight());
+        assertEquals(100 * SHARD_WEIGHT - SHARD_WEIGHT, evictedKeys.size());
+        assertFalse(evictedKeys.contains(0));
+    }
+
+    public void testProtectedSegmentIsBounded() {
+        for (int i = 0; i < SHARD_WEIGHT; ++i) {
+            cache.put(i * SHARD_COUNT, "a", 1, TimeUnit.MINUTES);
+            assertEquals("a", cache.get(i * SHARD_COUNT));
+        }
+
+        // The least recently used protected entries have been demoted to probation, so they go first.
+        cache.put(SHARD_WEIGHT * SHARD_COUNT, "a", 1, TimeUnit.MINUTES);
+        assertEquals(listOf(0), evictedKeys);
+        assertEquals(SHARD_WEIGHT, cache.getWeight());
+    }
+
+    public void testHeavyValueIsNotStored() {
+        char[] chars = new char[SHARD_WEIGHT + 1];
+        String heavyValue = new String(chars);
+
+        cache.put(1, "a", 1, TimeUnit.MINUTES);
+        cache.put(1, heavyValue, 1, TimeUnit.MINUTES);
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    public void testNonPositiveMaximumWeight() {
+        try {
+            new SegmentedLruCache<Integer, String>(0, String::length, null);
+            fail("IllegalArgumentException expected.");
+        } catch (IllegalArgumentException ignored) {
+            // No operations.
+        }
+    }
+
+    private static List<Integer> listOf(Integer... keys) {
+        List<Integer> result = new ArrayList<>();
+        for (Integer key : keys) {
+            result.add(key);
+        }
+        return result;
+    }
+}
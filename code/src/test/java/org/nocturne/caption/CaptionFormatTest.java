@@ -0,0 +1,106 @@
+package org.nocturne.caption;
+
+import junit.framework.TestCase;
+
+import java.text.MessageFormat;
+import java.util.Locale;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class CaptionFormatTest extends TestCase {
+    private static final String[] PATTERNS = {
+            "",
+            "Hello",
+            "Hello, {0}!",
+            "{0} and {1}",
+            "{1}{0}{1}",
+            "{0,number,#} problems solved by {1}",
+            "Rating: {0,number,#}",
+            "{0,number} items",
+            "{0,choice,0#no items|1#one item|1<{0} items}",
+            "It''s {0}",
+            "'{0}' is not an argument",
+            "{ 0}",
+            "{00001}",
+            "{10}",
+            "Missing {2}",
+            "Missing {2,number,#}",
+            "{0}}",
+    };
+
+    private static final Object[][] ARGUMENTS = {
+            {},
+            {"tourist"},
+            {"tourist", "Petr"},
+            {null, "a"},
+            {42, "b"},
+            {-9223372036854775808L, "c"},
+            {(short) 7, (byte) -1},
+            {1.5, "d"},
+            {"12", 3},
+            {0, 1, 2},
+    };
+
+    public void testFormatIsTheSameAsMessageFormat() {
+        for (String pattern : PATTERNS) {
+            CaptionFormat format = new CaptionFormat(pattern);
+            assertEquals(pattern, format.getPattern());
+
+            for (Object[] args : ARGUMENTS) {
+                assertEquals("pattern=" + pattern, formatByMessageFormat(pattern, args), format(format, args));
+            }
+        }
+    }
+
+    public void testFormatIsRepeatable() {
+        CaptionFormat plain = new CaptionFormat("{0} has {1,number,#} points");
+        CaptionFormat complex = new CaptionFormat("{0} has {1,number} points");
+
+        for (int i = 0; i < 3; ++i) {
+            assertEquals("tourist has 3500 points", plain.format("tourist", 3500));
+            assertEquals(MessageFormat.format("{0} has {1,number} points", "Petr", 3500), complex.format("Petr", 3500));
+        }
+    }
+
+    public void testFormatInLocaleWithOtherDigits() {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("ar", "EG"));
+        try {
+            testFormatIsTheSameAsMessageFormat();
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    public void testInvalidPattern() {
+        CaptionFormat format = new CaptionFormat("Unclosed {0");
+        assertEquals("Unclosed {0", format.getPattern());
+
+        try {
+            format.format("a");
+            fail("IllegalArgumentException expected.");
+        } catch (IllegalArgumentException ignored) {
+            // No operations.
+        }
+    }
+
+    /**
+     * @return Formatted string or the exception class if it fails.
+     */
+    private static String formatByMessageFormat(String pattern, Object[] args) {
+        try {
+            return MessageFormat.format(pattern, args);
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    private static String format(CaptionFormat format, Object[] args) {
+        try {
+            return format.format(args);
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.nocturne.collection;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class ParameterMapTest extends TestCase {
+    /**
+     * All of them have the same hash code.
+     */
+    private static final String[] COLLIDING_NAMES = {"AaAa", "AaBB", "BBAa", "BBBB"};
+
+    public void testEmpty() {
+        ParameterMap map = ParameterMap.empty();
+
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        assertNull(map.get("a"));
+        assertNull(map.getFirst("a"));
+        assertFalse(map.containsKey("a"));
+        assertFalse(map.entrySet().iterator().hasNext());
+        assertEquals(Collections.emptyMap(), map);
+    }
+
+    public void testGet() {
+        ParameterMap map = new ParameterMap.Builder()
+                .put("a", "1")
+                .put("b", Arrays.asList("2", "3"))
+                .put("c", Collections.emptyList())
+                .put("d", (String) null)
+                .build();
+
+        assertEquals(4, map.size());
+        assertEquals(Collections.singletonList("1"), map.get("a"));
+        assertEquals(Arrays.asList("2", "3"), map.get("b"));
+        assertEquals(Collections.emptyList(), map.get("c"));
+        assertEquals(Collections.singletonList(null), map.get("d"));
+        assertNull(map.get("e"));
+        assertNull(map.get(1));
+        assertFalse(map.containsKey(null));
+
+        assertEquals("1", map.getFirst("a"));
+        assertEquals("2", map.getFirst("b"));
+        assertNull(map.getFirst("c"));
+        assertNull(map.getFirst("d"));
+        assertTrue(map.containsKey("c"));
+        assertFalse(map.containsKey("e"));
+
+        assertSame(map.get("b"), map.get("b"));
+    }
+
+    public void testValueListsAreReadOnly() {
+        ParameterMap map = new ParameterMap.Builder().put("a", Arrays.asList("1", "2")).build();
+        List<String> values = map.get("a");
+
+        try {
+            values.set(0, "3");
+            fail("UnsupportedOperationException expected.");
+        } catch (UnsupportedOperationException ignored) {
+            // No operations.
+        }
+
+        try {
+            values.get(2);
+            fail("IndexOutOfBoundsException expected.");
+        } catch (IndexOutOfBoundsException ignored) {
+            // No operations.
+        }
+
+        assertEquals(Arrays.asList("1", "2"), values);
+    }
+
+    public void testCollidingNames() {
+        ParameterMap.Builder builder = new ParameterMap.Builder();
+        for (String name : COLLIDING_NAMES) {
+            builder.put(name, name.toLowerCase());
+        }
+        builder.put(COLLIDING_NAMES[1], "replaced");
+        ParameterMap map = builder.build();
+
+        assertEquals(COLLIDING_NAMES.length, map.size());
+        assertEquals("aaaa", map.getFirst(COLLIDING_NAMES[0]));
+        assertEquals("replaced", map.getFirst(COLLIDING_NAMES[1]));
+        assertEquals("bbaa", map.getFirst(COLLIDING_NAMES[2]));
+        assertEquals("bbbb", map.getFirst(COLLIDING_NAMES[3]));
+        assertFalse(map.containsKey("AaAaAa"));
+    }
+
+    public void testReplacedNameIsLast() {
+        ParameterMap map = new ParameterMap.Builder()
+                .put("a", "1")
+                .put("b", Arrays.asList("2", "3"))
+                .put("c", "4")
+                .put("b", "5")
+                .build();
+
+        List<String> names = new ArrayList<>(map.keySet());
+        assertEquals(Arrays.asList("a", "c", "b"), names);
+        assertEquals(Collections.singletonList("5"), map.get("b"));
+        assertEquals(Collections.singletonList("4"), map.get("c"));
+    }
+
+    public void testTheSameAsLinkedHashMap() {
+        Random random = new Random(239);
+
+        for (int iteration = 0; iteration < 200; ++iteration) {
+            ParameterMap.Builder builder = new ParameterMap.Builder();
+            Map<String, List<String>> expected = new LinkedHashMap<>();
+
+            int putCount = random.nextInt(100);
+            for (int i = 0; i < putCount; ++i) {
+                String name = random.nextBoolean()
+                        ? COLLIDING_NAMES[random.nextInt(COLLIDING_NAMES.length)] : "p" + random.nextInt(60);
+
+                List<String> values = new ArrayList<>();
+                int valueCount = random.nextInt(4);
+                for (int j = 0; j < valueCount; ++j) {
+                    values.add(Integer.toString(random.nextInt(1000)));
+                }
+
+                builder.put(name, values);
+                expected.remove(name);
+                expected.put(name, values);
+            }
+
+            ParameterMap map = builder.build();
+            assertEquals(expected, map);
+            assertEquals(expected.hashCode(), map.hashCode());
+            assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(map.keySet()));
+
+            for (int i = 0; i < 60; ++i) {
+                String name = "p" + i;
+                List<String> values = expected.get(name);
+                assertEquals(values, map.get(name));
+                assertEquals(values == null || values.isEmpty() ? null : values.get(0), map.getFirst(name));
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.nocturne.ddos;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class ClientRateLimiterTest extends TestCase {
+    private static final long WINDOW_MILLIS = 1000;
+    private static final long START_MILLIS = 1000 * WINDOW_MILLIS;
+
+    public void testCountInWindow() {
+        ClientRateLimiter limiter = new ClientRateLimiter(WINDOW_MILLIS, 1024);
+
+        for (int i = 1; i <= 10; ++i) {
+            assertEquals(i, limiter.increment("10.0.0.1", START_MILLIS + i));
+        }
+        assertEquals(1, limiter.increment("10.0.0.2", START_MILLIS + 20));
+        assertEquals(1, limiter.increment("::1", START_MILLIS + 30));
+        assertEquals(11, limiter.increment("10.0.0.1", START_MILLIS + WINDOW_MILLIS - 1));
+    }
+
+    public void testSlidingWindow() {
+        ClientRateLimiter limiter = new ClientRateLimiter(WINDOW_MILLIS, 1024);
+
+        for (int i = 0; i < 10; ++i) {
+            limiter.increment("10.0.0.1", START_MILLIS + i);
+        }
+
+        // The whole previous window is within the sliding window.
+        assertEquals(11, limiter.increment("10.0.0.1", START_MILLIS + WINDOW_MILLIS));
+
+        // A half of it.
+        assertEquals(7, limiter.increment("10.0.0.1", START_MILLIS + WINDOW_MILLIS + WINDOW_MILLIS / 2));
+
+        // Only two requests of the previous window count, the ten before it don't.
+        assertEquals(3, limiter.increment("10.0.0.1", START_MILLIS + 2 * WINDOW_MILLIS));
+        assertEquals(1, limiter.increment("10.0.0.2", START_MILLIS + 2 * WINDOW_MILLIS));
+    }
+
+    public void testWindowAfterGap() {
+        ClientRateLimiter limiter = new ClientRateLimiter(WINDOW_MILLIS, 1024);
+
+        for (int i = 0; i < 10; ++i) {
+            limiter.increment("10.0.0.1", START_MILLIS + i);
+        }
+
+        // The same sketch is reused for the window after the next one, it is cleared.
+        assertEquals(1, limiter.increment("10.0.0.1", START_MILLIS + 2 * WINDOW_MILLIS));
+        assertEquals(1, limiter.increment("10.0.0.1", START_MILLIS + 5 * WINDOW_MILLIS + 1));
+    }
+
+    public void testNeverUnderestimates() {
+        // Sketch is overloaded: much more clients than counters.
+        ClientRateLimiter limiter = new ClientRateLimiter(WINDOW_MILLIS, 16);
+        Random random = new Random(239);
+
+        int clientCount = 500;
+        int[] counts = new int[clientCount];
+        for (int i = 0; i < 20000; ++i) {
+            int client = random.nextInt(clientCount) % (1 + random.nextInt(clientCount));
+            ++counts[client];
+            int estimation = limiter.increment("192.168.0." + client, START_MILLIS + i % WINDOW_MILLIS);
+            assertTrue(estimation >= counts[client]);
+        }
+    }
+
+    public void testSmallWidth() {
+        for (int width = 1; width <= 3; ++width) {
+            ClientRateLimiter limiter = new ClientRateLimiter(WINDOW_MILLIS, width);
+            assertEquals(1, limiter.increment("10.0.0.1", START_MILLIS));
+            assertEquals(2, limiter.increment("10.0.0.1", START_MILLIS));
+            assertTrue(limiter.increment("10.0.0.2", START_MILLIS) >= 1);
+        }
+    }
+}
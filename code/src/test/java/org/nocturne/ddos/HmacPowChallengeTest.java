@@ -0,0 +1,228 @@
+package org.nocturne.ddos;
+
+import junit.framework.TestCase;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class HmacPowChallengeTest extends TestCase {
+    private static final long BUCKET_MILLIS = 60000;
+    private static final long BUCKET = 28000000;
+
+    private static final String IP = "10.0.0.1";
+    private static final String USER_AGENT = "Mozilla/5.0";
+
+    private static final Pattern DIFFICULTY_CHECK_PATTERN
+            = Pattern.compile("\\]\\(0x0,(0x[0-9a-f]+|\\d+)\\);if\\(_0x2a4818===([^)]+)\\)");
+
+    private final HmacPowChallenge challenge = new HmacPowChallenge(
+            "server-key".getBytes(StandardCharsets.UTF_8), BUCKET_MILLIS);
+
+    public void testGetBucket() {
+        assertEquals(BUCKET, challenge.getBucket(BUCKET * BUCKET_MILLIS));
+        assertEquals(BUCKET, challenge.getBucket((BUCKET + 1) * BUCKET_MILLIS - 1));
+        assertEquals(BUCKET + 1, challenge.getBucket((BUCKET + 1) * BUCKET_MILLIS));
+    }
+
+    public void testTokenLifetime() {
+        String token = challenge.getToken(IP, USER_AGENT, BUCKET);
+        assertEquals(HmacPowChallenge.TOKEN_LENGTH, token.length());
+        assertTrue(token.matches("[0-9a-f]+"));
+
+        assertTrue(challenge.isToken(token, IP, USER_AGENT, BUCKET));
+        assertTrue(challenge.isToken(token, IP, USER_AGENT, BUCKET + 1));
+        assertFalse(challenge.isToken(token, IP, USER_AGENT, BUCKET + 2));
+        assertFalse(challenge.isToken(token, IP, USER_AGENT, BUCKET - 1));
+
+        // Bucket keys are cached per thread by parity, switching buckets back and forth doesn't break them.
+        assertTrue(challenge.isToken(token, IP, USER_AGENT, BUCKET));
+        assertEquals(token, challenge.getToken(IP, USER_AGENT, BUCKET));
+    }
+
+    public void testTokenIsBoundToClient() {
+        String token = challenge.getToken(IP, USER_AGENT, BUCKET);
+
+        assertFalse(challenge.isToken(token, "10.0.0.2", USER_AGENT, BUCKET));
+        assertFalse(challenge.isToken(token, IP, "Mozilla/5.1", BUCKET));
+        assertFalse(challenge.isToken(token, IP, null, BUCKET));
+        assertFalse(new HmacPowChallenge("other-key".getBytes(StandardCharsets.UTF_8), BUCKET_MILLIS)
+                .isToken(token, IP, USER_AGENT, BUCKET));
+
+        String tokenWithoutUserAgent = challenge.getToken(IP, null, BUCKET);
+        assertTrue(challenge.isToken(tokenWithoutUserAgent, IP, null, BUCKET));
+        assertFalse(challenge.isToken(tokenWithoutUserAgent, IP, "", BUCKET));
+    }
+
+    public void testMalformedTokens() {
+        String token = challenge.getToken(IP, USER_AGENT, BUCKET);
+
+        assertFalse(challenge.isToken(null, IP, USER_AGENT, BUCKET));
+        assertFalse(challenge.isToken("", IP, USER_AGENT, BUCKET));
+        assertFalse(challenge.isToken(token.substring(1), IP, USER_AGENT, BUCKET));
+        assertFalse(challenge.isToken(token + "0", IP, USER_AGENT, BUCKET));
+        assertFalse(challenge.isToken((token.charAt(0) == '0' ? '1' : '0') + token.substring(1),
+                IP, USER_AGENT, BUCKET));
+    }
+
+    public void testSolutionLifetime() {
+        String challengeText = getChallenge(IP, USER_AGENT, BUCKET);
+        String solution = solve(challengeText, 2);
+
+        assertTrue(challenge.isSolution(solution, IP, USER_AGENT, BUCKET, 2));
+        assertTrue(challenge.isSolution(solution, IP, USER_AGENT, BUCKET + 1, 2));
+        assertFalse(challenge.isSolution(solution, IP, USER_AGENT, BUCKET + 2, 2));
+
+        assertFalse(challenge.isSolution(solution, "10.0.0.2", USER_AGENT, BUCKET, 2));
+        assertFalse(challenge.isSolution(solution, IP, "Mozilla/5.1", BUCKET, 2));
+    }
+
+    public void testSolutionDifficulty() {
+        String challengeText = getChallenge(IP, USER_AGENT, BUCKET);
+
+        for (int zeros = 1; zeros <= 3; ++zeros) {
+            String solution = solve(challengeText, zeros);
+
+            for (int difficulty = 0; difficulty <= zeros; ++difficulty) {
+                assertTrue(challenge.isSolution(solution, IP, USER_AGENT, BUCKET, difficulty));
+            }
+            for (int difficulty = zeros + 1; difficulty <= 8; ++difficulty) {
+                assertFalse(challenge.isSolution(solution, IP, USER_AGENT, BUCKET, difficulty));
+            }
+        }
+    }
+
+    public void testMalformedSolutions() {
+        String challengeText = getChallenge(IP, USER_AGENT, BUCKET);
+        String solution = solve(challengeText, 1);
+        String nonce = solution.substring(0, solution.indexOf('_'));
+
+        assertFalse(challenge.isSolution(null, IP, USER_AGENT, BUCKET, 1));
+        assertFalse(challenge.isSolution(challengeText, IP, USER_AGENT, BUCKET, 0));
+        assertFalse(challenge.isSolution("_" + challengeText.substring(1), IP, USER_AGENT, BUCKET, 0));
+        assertFalse(challenge.isSolution(nonce + "-" + challengeText, IP, USER_AGENT, BUCKET, 0));
+        assertFalse(challenge.isSolution(nonce + "_" + getChallenge(IP, USER_AGENT, BUCKET + 5),
+                IP, USER_AGENT, BUCKET, 0));
+
+        // Over-long cookies are rejected before hashing, even if they are solutions.
+        StringBuilder longNonce = new StringBuilder();
+        while (longNonce.length() + 1 + HmacPowChallenge.CHALLENGE_LENGTH <= 64) {
+            longNonce.append('1');
+        }
+        assertFalse(challenge.isSolution(longNonce + "_" + challengeText, IP, USER_AGENT, BUCKET, 0));
+        String longestNonce = longNonce.substring(1);
+        assertTrue(challenge.isSolution(longestNonce + "_" + challengeText, IP, USER_AGENT, BUCKET, 0));
+
+        // Non-ASCII cookies are rejected.
+        assertFalse(challenge.isSolution("\u0436" + nonce + "_" + challengeText, IP, USER_AGENT, BUCKET, 0));
+        assertFalse(challenge.isSolution("\u00e9_" + challengeText, IP, USER_AGENT, BUCKET, 0));
+        assertTrue(challenge.isSolution("e_" + challengeText, IP, USER_AGENT, BUCKET, 0));
+    }
+
+    public void testObfuscatedJsCodeDifficulty() {
+        for (int difficulty = 1; difficulty <= 8; ++difficulty) {
+            String jsCode = PowFilter.getObfuscatedJsCode(difficulty);
+            List<String> cs = getCsArray(jsCode);
+
+            Matcher matcher = DIFFICULTY_CHECK_PATTERN.matcher(jsCode);
+            assertTrue(matcher.find());
+
+            // Number of the compared leading chars.
+            assertEquals(difficulty, Integer.decode(matcher.group(1)).intValue());
+
+            // The chars are compared with exactly that many zeros.
+            assertEquals(getZeros(difficulty), evaluate(matcher.group(2), cs));
+
+            assertFalse("Expected the only difficulty check.", matcher.find());
+        }
+    }
+
+    private String getChallenge(String ip, String userAgent, long bucket) {
+        return challenge.getToken(ip, userAgent, bucket).substring(0, HmacPowChallenge.CHALLENGE_LENGTH);
+    }
+
+    /**
+     * @return Solution whose SHA-1 hex has exactly {@code zeros} leading zeros.
+     */
+    private static String solve(String challengeText, int zeros) {
+        String prefix = getZeros(zeros);
+        for (long nonce = 0; ; ++nonce) {
+            String solution = nonce + "_" + challengeText;
+            String hash = DigestUtils.sha1Hex(solution);
+            if (hash.startsWith(prefix) && hash.charAt(zeros) != '0') {
+                return solution;
+            }
+        }
+    }
+
+    private static String getZeros(int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            result.append('0');
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return Value of JS expression like {@code _cs[0x10]+_cs[0x4]} or {@code '000'}.
+     */
+    private static String evaluate(String expression, List<String> cs) {
+        StringBuilder result = new StringBuilder();
+        for (String term : expression.split("\\+")) {
+            if (term.startsWith("_cs[") && term.endsWith("]")) {
+                String item = cs.get(Integer.decode(term.substring(4, term.length() - 1)));
+                assertTrue("Expected string literal: " + item + '.', item.startsWith("'") && item.endsWith("'"));
+                result.append(item, 1, item.length() - 1);
+            } else if (term.startsWith("'") && term.endsWith("'")) {
+                result.append(term, 1, term.length() - 1);
+            } else {
+                fail("Unexpected term " + term + '.');
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return Items (as JS code) of the array {@code _cs} in the code.
+     */
+    private static List<String> getCsArray(String jsCode) {
+        int start = jsCode.indexOf("var _cs=[");
+        assertTrue(start >= 0);
+
+        List<String> items = new ArrayList<>();
+        int depth = 0;
+        boolean quoted = false;
+        int itemStart = start + "var _cs=[".length();
+
+        for (int i = itemStart; i < jsCode.length(); ++i) {
+            char c = jsCode.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    ++i;
+                } else if (c == '\'') {
+                    quoted = false;
+                }
+            } else if (c == '\'') {
+                quoted = true;
+            } else if (c == '(' || c == '[') {
+                ++depth;
+            } else if (c == ')' || (c == ']' && depth > 0)) {
+                --depth;
+            } else if (depth == 0 && (c == ',' || c == ']')) {
+                items.add(jsCode.substring(itemStart, i));
+                itemStart = i + 1;
+                if (c == ']') {
+                    return items;
+                }
+            }
+        }
+
+        throw new AssertionError("Can't find the end of _cs array.");
+    }
+}
@@ -0,0 +1,76 @@
+package org.nocturne.geoip;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class GeoIpUtilTest extends TestCase {
+    public void testParseIpv4() {
+        assertEquals(0x01020304L, GeoIpUtil.Address.parseIpv4("1.2.3.4"));
+        assertEquals(0L, GeoIpUtil.Address.parseIpv4("0.0.0.0"));
+        assertEquals(0xffffffffL, GeoIpUtil.Address.parseIpv4("255.255.255.255"));
+        assertEquals(0x0a00640aL, GeoIpUtil.Address.parseIpv4("10.0.100.10"));
+        assertEquals(0xc0a80001L, GeoIpUtil.Address.parseIpv4("192.168.0.1"));
+    }
+
+    public void testParseIpv4LeadingZeros() {
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("01.2.3.4"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3.04"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.02.3.4"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("0.0.0.00"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("010.1.1.1"));
+    }
+
+    public void testParseIpv4Octets() {
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3.4.5"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3.4."));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.1.1.1.1.1"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1..2.3"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4(".1.2.3"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3."));
+    }
+
+    public void testParseIpv4Overflow() {
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("256.0.0.0"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3.256"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.300.3.4"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3.999"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3.1000"));
+    }
+
+    public void testParseIpv4Garbage() {
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4(""));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4(" 1.2.3.4"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3.4 "));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3.-4"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("1.2.3.a"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("localhost"));
+        assertEquals(-1L, GeoIpUtil.Address.parseIpv4("::1"));
+    }
+
+    public void testParse() {
+        GeoIpUtil.Address ipv4 = GeoIpUtil.Address.parse("1.2.3.4");
+        assertNotNull(ipv4);
+        assertEquals(0L, ipv4.high);
+        assertEquals(0xffff01020304L, ipv4.low);
+
+        GeoIpUtil.Address mapped = GeoIpUtil.Address.parse("::ffff:1.2.3.4");
+        assertNotNull(mapped);
+        assertEquals(ipv4.high, mapped.high);
+        assertEquals(ipv4.low, mapped.low);
+
+        GeoIpUtil.Address ipv6 = GeoIpUtil.Address.parse("2001:db8::1");
+        assertNotNull(ipv6);
+        assertEquals(0x20010db800000000L, ipv6.high);
+        assertEquals(1L, ipv6.low);
+
+        assertNull(GeoIpUtil.Address.parse("01.2.3.4"));
+        assertNull(GeoIpUtil.Address.parse("1.2.3.4.5"));
+        assertNull(GeoIpUtil.Address.parse("256.1.1.1"));
+        assertNull(GeoIpUtil.Address.parse("example.com"));
+        assertNull(GeoIpUtil.Address.parse("2001:db8::g"));
+        assertNull(GeoIpUtil.Address.parse(""));
+    }
+}
@@ -0,0 +1,102 @@
+package org.nocturne.geoip;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class IpAddressCacheTest extends TestCase {
+    public void testGetAndPut() {
+        IpAddressCache<String> cache = new IpAddressCache<>(16);
+
+        assertNull(cache.get(0, 1));
+
+        cache.put(0, 1, "RU");
+        cache.put(1, 0, "US");
+
+        assertEquals("RU", cache.get(0, 1));
+        assertEquals("US", cache.get(1, 0));
+        assertNull(cache.get(0, 2));
+        assertNull(cache.get(1, 1));
+
+        cache.put(0, 1, "BY");
+        assertEquals("BY", cache.get(0, 1));
+    }
+
+    public void testHighAndLowAreDistinguished() {
+        IpAddressCache<String> cache = new IpAddressCache<>(1024);
+
+        cache.put(5, 7, "a");
+        assertNull(cache.get(7, 5));
+        assertNull(cache.get(5, 0));
+        assertNull(cache.get(0, 7));
+        assertEquals("a", cache.get(5, 7));
+    }
+
+    public void testBounded() {
+        int capacity = 64;
+        IpAddressCache<Long> cache = new IpAddressCache<>(capacity);
+
+        int count = 100 * capacity;
+        for (long i = 0; i < count; ++i) {
+            cache.put(0, i, i);
+        }
+
+        int present = 0;
+        for (long i = 0; i < count; ++i) {
+            Long value = cache.get(0, i);
+            if (value != null) {
+                // An entry is never returned for another key.
+                assertEquals(i, value.longValue());
+                ++present;
+            }
+        }
+
+        assertTrue(present > 0);
+        assertTrue(present <= capacity);
+    }
+
+    public void testCapacityIsRoundedUp() {
+        IpAddressCache<Long> cache = new IpAddressCache<>(1);
+
+        cache.put(0, 1, 1L);
+        cache.put(0, 2, 2L);
+
+        int present = (cache.get(0, 1) == null ? 0 : 1) + (cache.get(0, 2) == null ? 0 : 1);
+        assertTrue(present >= 1);
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        IpAddressCache<Long> cache = new IpAddressCache<>(256);
+        int threadCount = 4;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; ++t) {
+                long high = t;
+                futures.add(executor.submit(() -> {
+                    for (long i = 0; i < 100000; ++i) {
+                        long low = i % 1000;
+                        cache.put(high, low, high * 1000 + low);
+                        Long value = cache.get(high, low ^ 1);
+                        if (value != null && value != high * 1000 + (low ^ 1)) {
+                            throw new AssertionError("Unexpected value " + value + '.');
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.nocturne.gzip;
+
+import junit.framework.TestCase;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class GzipFilterTest extends TestCase {
+    private static final int MIN_SIZE = 256;
+
+    private GzipFilter filter;
+
+    @Override
+    protected void setUp() {
+        MockFilterConfig config = new MockFilterConfig();
+        config.addInitParameter("minSize", Integer.toString(MIN_SIZE));
+
+        filter = new GzipFilter();
+        filter.init(config);
+    }
+
+    @Override
+    protected void tearDown() {
+        filter.destroy();
+    }
+
+    public void testSmallResponseIsNotCompressed() throws IOException, ServletException {
+        byte[] content = newContent(MIN_SIZE - 1);
+
+        MockHttpServletResponse response = doFilter(true, "text/html", (request, servletResponse) -> {
+            OutputStream output = servletResponse.getOutputStream();
+            output.write(content);
+            output.flush();
+        });
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(content.length, response.getContentLength());
+        assertTrue(Arrays.equals(content, response.getContentAsByteArray()));
+    }
+
+    public void testFlushKeepsBufferingUntilMinSize() throws IOException, ServletException {
+        byte[] content = newContent(4 * MIN_SIZE);
+
+        MockHttpServletResponse response = doFilter(true, "text/html", (request, servletResponse) -> {
+            OutputStream output = servletResponse.getOutputStream();
+            output.write(content, 0, 10);
+            output.flush();
+            servletResponse.flushBuffer();
+            output.write(content, 10, content.length - 10);
+        });
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertTrue(Arrays.equals(content, gunzip(response.getContentAsByteArray())));
+    }
+
+    public void testFlushOfSmallResponseDoesNotCompressIt() throws IOException, ServletException {
+        byte[] content = newContent(MIN_SIZE / 2);
+
+        MockHttpServletResponse response = doFilter(true, "text/html", (request, servletResponse) -> {
+            OutputStream output = servletResponse.getOutputStream();
+            output.write(content, 0, 10);
+            output.flush();
+            output.write(content, 10, content.length - 10);
+            output.flush();
+        });
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertTrue(Arrays.equals(content, response.getContentAsByteArray()));
+    }
+
+    public void testSingleByteWrites() throws IOException, ServletException {
+        byte[] content = newContent(10 * MIN_SIZE);
+
+        MockHttpServletResponse response = doFilter(true, "text/plain", (request, servletResponse) -> {
+            OutputStream output = servletResponse.getOutputStream();
+            for (byte b : content) {
+                output.write(b);
+            }
+        });
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertTrue(Arrays.equals(content, gunzip(response.getContentAsByteArray())));
+    }
+
+    public void testExcludedContentType() throws IOException, ServletException {
+        byte[] content = newContent(4 * MIN_SIZE);
+
+        MockHttpServletResponse response = doFilter(true, "image/png", (request, servletResponse) ->
+                servletResponse.getOutputStream().write(content));
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertNull(response.getHeader("Vary"));
+        assertTrue(Arrays.equals(content, response.getContentAsByteArray()));
+    }
+
+    public void testClientWithoutGzipGetsVary() throws IOException, ServletException {
+        byte[] content = newContent(4 * MIN_SIZE);
+
+        MockHttpServletResponse response = doFilter(false, "text/html", (request, servletResponse) ->
+                servletResponse.getOutputStream().write(content));
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertTrue(Arrays.equals(content, response.getContentAsByteArray()));
+    }
+
+    private MockHttpServletResponse doFilter(boolean acceptGzip, String contentType, FilterChain chain)
+            throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        if (acceptGzip) {
+            request.addHeader("Accept-Encoding", "gzip, deflate");
+        }
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, (servletRequest, servletResponse) -> {
+            servletResponse.setContentType(contentType);
+            chain.doFilter(servletRequest, servletResponse);
+        });
+        return response;
+    }
+
+    private static byte[] newContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            content[i] = (byte) ('a' + i * 7 % 26);
+        }
+        return content;
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = input.read(buffer)) >= 0) {
+                result.write(buffer, 0, length);
+            }
+        }
+        return result.toByteArray();
+    }
+}
@@ -7,10 +7,20 @@ import org.nocturne.main.ApplicationContextHelper;
 import org.nocturne.main.Page;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 /**
  * @author Mike Mirzayanov
@@ -26,6 +36,10 @@ public class LinksTest extends TestCase {
         Links.add(NewsPage.class);
         Links.add(ProfilePage.class);
         Links.add(SectionsPage.class);
+        Links.add(CatalogPage.class);
+        Links.add(SkipInterceptorsPage.class);
+        Links.add(UserPage.class);
+        Links.add(NewUserPage.class);
     }
 
     public void testIndexPage() {
@@ -119,6 +133,21 @@ public class LinksTest extends TestCase {
         assertEqualsLinkMatchResult(Links.match("/profile/Mike/Mirzayanov"), null, null);
     }
 
+    public void testQueryString() throws IOException {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("q", "a b&c");
+        params.put("userName", Arrays.asList("Mike", "Max"));
+        params.put("empty", "");
+        params.put("id", 17);
+
+        String link = CONTEXT_PATH + "/profile/Mike?q=a+b%26c&userName=Max&id=17";
+        assertEquals(link, Links.getLinkByMap(ProfilePage.class, null, params));
+
+        StringWriter writer = new StringWriter();
+        Links.writeLinkByMap(writer, "ProfilePage", null, params);
+        assertEquals(link, writer.toString());
+    }
+
     public void testSectionsPage() {
         assertThrows(new Invokable() {
             @Override
@@ -134,6 +163,152 @@ public class LinksTest extends TestCase {
         assertEquals("SectionsPageBySectionName", Links.match("/sections/11").getLink().name());
     }
 
+    public void testCatalogPage() {
+        assertEqualsLinkMatchResult(Links.match("/catalog/new/list"), CatalogPage.class, "catalog/new/list");
+        assertEqualsLinkMatchResult(Links.match("/catalog/new/17"), CatalogPage.class, "catalog/{category}/{item(long,positive)}", "category", "new", "item", "17");
+        assertEqualsLinkMatchResult(Links.match("/catalog/new/-17"), CatalogPage.class, "catalog/{category}/{itemName}", "category", "new", "itemName", "-17");
+        assertEqualsLinkMatchResult(Links.match("/catalog/books/list"), CatalogPage.class, "catalog/{category}/{itemName}", "category", "books", "itemName", "list");
+        assertEqualsLinkMatchResult(Links.match("/catalog/new"), null, null);
+        assertEqualsLinkMatchResult(Links.match("/catalog/new/list/1"), null, null);
+    }
+
+    /**
+     * Pins down the link precedence: UserPage with "user/{handle}" is added before NewUserPage with "user/new".
+     */
+    public void testLinkPrecedence() {
+        // Literal section wins over the parameter added before it.
+        assertEqualsLinkMatchResultWithName(Links.match("/user/new"), NewUserPage.class, "user/new", null);
+
+        // Restricted parameter wins over the plain one added before it.
+        assertEqualsLinkMatchResultWithName(Links.match("/user/17"), UserPage.class,
+                "user/{id(long,positive)}", "UserById", "id", "17");
+        assertEqualsLinkMatchResultWithName(Links.match("/user/-17"), UserPage.class,
+                "user/{handle}", null, "handle", "-17");
+        assertEqualsLinkMatchResultWithName(Links.match("/user/tourist"), UserPage.class,
+                "user/{handle}", null, "handle", "tourist");
+
+        // Equally specific links are tried in order of registration.
+        assertEqualsLinkMatchResultWithName(Links.match("/user/tourist/blog"), UserPage.class,
+                "user/{handle}/blog", "UserBlog", "handle", "tourist");
+        assertEqualsLinkMatchResultWithName(Links.match("/user/new/blog"), UserPage.class,
+                "user/{handle}/blog", "UserBlog", "handle", "new");
+
+        assertEqualsLinkMatchResultWithName(Links.match("/user/new/settings"), null, null, null);
+    }
+
+    public void testAddAndRemoveInterceptors() {
+        assertFalse(Links.hasInterceptor("first"));
+        assertEquals(CONTEXT_PATH + "/news", Links.getLink(NewsPage.class));
+
+        try {
+            Links.addInterceptor("first", new AppendingInterceptor("/a"));
+            assertTrue(Links.hasInterceptor("first"));
+            assertEquals(CONTEXT_PATH + "/news/a", Links.getLink(NewsPage.class));
+
+            Links.addInterceptor("second", new AppendingInterceptor("/b"));
+            assertEquals(CONTEXT_PATH + "/news/a/b", Links.getLink(NewsPage.class));
+
+            assertThrows(new Invokable() {
+                @Override
+                public void invoke() {
+                    Links.addInterceptor("first", new AppendingInterceptor("/c"));
+                }
+            }, IllegalStateException.class);
+            assertEquals(CONTEXT_PATH + "/news/a/b", Links.getLink(NewsPage.class));
+
+            // Interceptors are applied in order of addition.
+            Links.removeInterceptor("first");
+            assertFalse(Links.hasInterceptor("first"));
+            assertEquals(CONTEXT_PATH + "/news/b", Links.getLink(NewsPage.class));
+
+            Links.addInterceptor("first", new AppendingInterceptor("/a"));
+            assertEquals(CONTEXT_PATH + "/news/b/a", Links.getLink(NewsPage.class));
+
+            Links.removeInterceptor("unknown");
+            assertEquals(CONTEXT_PATH + "/news/b/a", Links.getLink(NewsPage.class));
+        } finally {
+            Links.removeInterceptor("first");
+            Links.removeInterceptor("second");
+        }
+
+        assertEquals(CONTEXT_PATH + "/news", Links.getLink(NewsPage.class));
+    }
+
+    public void testSkipInterceptors() {
+        Map<String, Object> params = Collections.emptyMap();
+
+        // Links are generated before the interceptors are added, so cached interceptors of the routes are stale.
+        assertEquals(CONTEXT_PATH + "/interceptedLink",
+                Links.getLinkByMap(SkipInterceptorsPage.class, "intercepted", params));
+        assertEquals(CONTEXT_PATH + "/skippingLink",
+                Links.getLinkByMap(SkipInterceptorsPage.class, "skipping", params));
+
+        try {
+            Links.addInterceptor("first", new AppendingInterceptor("/a"));
+            Links.addInterceptor("second", new AppendingInterceptor("/b"));
+
+            assertEquals(CONTEXT_PATH + "/interceptedLink/a/b",
+                    Links.getLinkByMap(SkipInterceptorsPage.class, "intercepted", params));
+            assertEquals(CONTEXT_PATH + "/skippingLink/b",
+                    Links.getLinkByMap(SkipInterceptorsPage.class, "skipping", params));
+
+            Links.removeInterceptor("second");
+            assertEquals(CONTEXT_PATH + "/interceptedLink/a",
+                    Links.getLinkByMap(SkipInterceptorsPage.class, "intercepted", params));
+            assertEquals(CONTEXT_PATH + "/skippingLink",
+                    Links.getLinkByMap(SkipInterceptorsPage.class, "skipping", params));
+        } finally {
+            Links.removeInterceptor("first");
+            Links.removeInterceptor("second");
+        }
+    }
+
+    public void testGetLinkWhileInterceptorsAreRegistered() throws Exception {
+        int readerCount = 3;
+        int registrationCount = 2000;
+
+        // Only one temporary interceptor is added at a time, after the permanent one.
+        Pattern expectedLink = Pattern.compile(Pattern.quote(CONTEXT_PATH + "/news/m") + "(/t)?");
+        AtomicBoolean done = new AtomicBoolean();
+
+        Links.addInterceptor("permanent", new AppendingInterceptor("/m"));
+        ExecutorService executor = Executors.newFixedThreadPool(readerCount);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < readerCount; ++i) {
+                futures.add(executor.submit(() -> {
+                    int count = 0;
+                    while (!done.get() || count == 0) {
+                        String link = Links.getLinkByMap(NewsPage.class, null, Collections.<String, Object>emptyMap());
+                        if (!expectedLink.matcher(link).matches()) {
+                            throw new AssertionError("Unexpected link " + link + '.');
+                        }
+                        ++count;
+                    }
+                    return count;
+                }));
+            }
+
+            for (int i = 0; i < registrationCount; ++i) {
+                String name = "temporary" + i;
+                Links.addInterceptor(name, new AppendingInterceptor("/t"));
+                assertEquals(CONTEXT_PATH + "/news/m/t", Links.getLink(NewsPage.class));
+                Links.removeInterceptor(name);
+            }
+            done.set(true);
+
+            for (Future<Integer> future : futures) {
+                assertTrue(future.get() > 0);
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+            Links.removeInterceptor("permanent");
+        }
+
+        assertEquals(CONTEXT_PATH + "/news", Links.getLink(NewsPage.class));
+    }
+
     public void testOneMoreIndexPage() {
         assertThrows(new Invokable() {
             @Override
@@ -209,4 +384,18 @@ public class LinksTest extends TestCase {
     private interface Invokable {
         void invoke() throws Throwable;
     }
+
+    private static final class AppendingInterceptor implements Links.Interceptor {
+        private final String suffix;
+
+        private AppendingInterceptor(String suffix) {
+            this.suffix = suffix;
+        }
+
+        @Override
+        public String postprocess(
+                String link, Class<? extends Page> clazz, @Nullable String linkName, Map<String, ?> params) {
+            return link + suffix;
+        }
+    }
 }
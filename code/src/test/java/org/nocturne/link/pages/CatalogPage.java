@@ -0,0 +1,19 @@
+package org.nocturne.link.pages;
+
+import org.nocturne.link.Link;
+import org.nocturne.link.LinkSet;
+import org.nocturne.main.Page;
+
+/**
+ * @author Mike Mirzayanov
+ */
+@LinkSet({
+        @Link(value = "catalog/new/list"),
+        @Link(value = "catalog/{category}/{item(long,positive)}", name = "CatalogItem"),
+        @Link(value = "catalog/{category}/{itemName}", name = "CatalogItemByName")
+})
+public class CatalogPage extends Page {
+    @Override
+    public void action() {
+    }
+}
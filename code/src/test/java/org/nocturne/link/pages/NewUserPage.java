@@ -0,0 +1,18 @@
+package org.nocturne.link.pages;
+
+import org.nocturne.link.Link;
+import org.nocturne.link.LinkSet;
+import org.nocturne.main.Page;
+
+/**
+ * @author Mike Mirzayanov
+ */
+@LinkSet({
+        @Link(value = "user/new"),
+        @Link(value = "user/{name}/blog", name = "NewUserBlog")
+})
+public class NewUserPage extends Page {
+    @Override
+    public void action() {
+    }
+}
@@ -0,0 +1,18 @@
+package org.nocturne.link.pages;
+
+import org.nocturne.link.Link;
+import org.nocturne.link.LinkSet;
+import org.nocturne.main.Page;
+
+/**
+ * @author Mike Mirzayanov
+ */
+@LinkSet({
+        @Link(value = "interceptedLink", name = "intercepted"),
+        @Link(value = "skippingLink", name = "skipping", skipInterceptors = "first")
+})
+public class SkipInterceptorsPage extends Page {
+    @Override
+    public void action() {
+    }
+}
@@ -0,0 +1,19 @@
+package org.nocturne.link.pages;
+
+import org.nocturne.link.Link;
+import org.nocturne.link.LinkSet;
+import org.nocturne.main.Page;
+
+/**
+ * @author Mike Mirzayanov
+ */
+@LinkSet({
+        @Link(value = "user/{handle}"),
+        @Link(value = "user/{id(long,positive)}", name = "UserById"),
+        @Link(value = "user/{handle}/blog", name = "UserBlog")
+})
+public class UserPage extends Page {
+    @Override
+    public void action() {
+    }
+}
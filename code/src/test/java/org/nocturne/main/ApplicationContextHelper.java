@@ -1,5 +1,8 @@
 package org.nocturne.main;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 /**
  * @author Mike Mirzayanov
  */
@@ -7,4 +10,8 @@ public class ApplicationContextHelper {
     public static void setContextPath(String contextPath) {
         ApplicationContext.getInstance().setContextPath(contextPath);
     }
+
+    public static void setRequestAndResponse(HttpServletRequest request, HttpServletResponse response) {
+        ApplicationContext.getInstance().setRequestAndResponse(request, response);
+    }
 }
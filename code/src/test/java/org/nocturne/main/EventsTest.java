@@ -0,0 +1,155 @@
+package org.nocturne.main;
+
+import junit.framework.TestCase;
+import org.nocturne.exception.IncorrectLogicException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listeners are registered globally, so each test uses its own event classes.
+ *
+ * @author Mike Mirzayanov
+ */
+public class EventsTest extends TestCase {
+    public void testListenersOrder() {
+        List<String> notified = new ArrayList<>();
+
+        Events.listen(OrderBaseEvent.class, event -> notified.add("base"));
+        Events.listen(OrderEvent.class, event -> notified.add("event"));
+        Events.listen(OrderInterface.class, event -> notified.add("interface"));
+        Events.listen(OrderParentInterface.class, event -> notified.add("parent interface"));
+        Events.listen(Object.class, event -> {
+            if (event instanceof OrderBaseEvent) {
+                notified.add("object");
+            }
+        });
+
+        Events.fire(new OrderEvent());
+        assertEquals(Arrays.asList("event", "interface", "parent interface", "base", "object"), notified);
+
+        notified.clear();
+        Events.fire(new OrderBaseEvent());
+        assertEquals(Arrays.asList("base", "parent interface", "object"), notified);
+    }
+
+    public void testInterfaceListener() {
+        List<Object> notified = new ArrayList<>();
+        Events.listen(InterfaceEvent.class, notified::add);
+
+        InterfaceEventImpl event = new InterfaceEventImpl();
+        assertSame(event, Events.fire(event));
+        assertEquals(Collections.singletonList(event), notified);
+
+        Events.fire(new Object());
+        Events.fire(new UnrelatedEvent());
+        assertEquals(Collections.singletonList(event), notified);
+    }
+
+    public void testListenInvalidatesDispatchTable() {
+        List<String> notified = new ArrayList<>();
+
+        Events.fire(new InvalidationEvent());
+        Events.listen(InvalidationEvent.class, event -> notified.add("first"));
+        Events.fire(new InvalidationEvent());
+        assertEquals(Collections.singletonList("first"), notified);
+
+        notified.clear();
+        Events.listen(InvalidationInterface.class, event -> notified.add("second"));
+        Events.fire(new InvalidationEvent());
+        assertEquals(Arrays.asList("first", "second"), notified);
+
+        // Listeners of other classes invalidate the tables too, the result doesn't change.
+        notified.clear();
+        Events.listen(UnrelatedEvent.class, event -> notified.add("unrelated"));
+        Events.fire(new InvalidationEvent());
+        assertEquals(Arrays.asList("first", "second"), notified);
+    }
+
+    public void testListenerIsAddedOnce() {
+        List<Object> notified = new ArrayList<>();
+        Listener<DuplicateEvent> listener = notified::add;
+
+        Events.listen(DuplicateEvent.class, listener);
+        Events.listen(DuplicateEvent.class, listener);
+        Events.fire(new DuplicateEvent());
+
+        assertEquals(1, notified.size());
+    }
+
+    public void testTooManyListeners() {
+        List<Integer> notified = new ArrayList<>();
+
+        for (int i = 0; i < 20; ++i) {
+            int index = i;
+            Events.listen(CrowdedEvent.class, event -> notified.add(index));
+        }
+
+        try {
+            Events.listen(CrowdedEvent.class, event -> notified.add(-1));
+            fail("IncorrectLogicException expected.");
+        } catch (IncorrectLogicException ignored) {
+            // No operations.
+        }
+    }
+
+    public void testListenAsync() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(2);
+        List<Object> notified = Collections.synchronizedList(new ArrayList<>());
+
+        Events.listenAsync(AsyncEvent.class, event -> {
+            notified.add(event);
+            latch.countDown();
+        });
+        Events.listenAsync(AsyncEvent.class, event -> {
+            latch.countDown();
+            throw new IllegalStateException("Failed listener is logged.");
+        });
+
+        AsyncEvent event = new AsyncEvent();
+        Events.fire(event);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(event), notified);
+    }
+
+    private interface OrderParentInterface {
+    }
+
+    private interface OrderInterface extends OrderParentInterface {
+    }
+
+    private static class OrderBaseEvent implements OrderParentInterface {
+    }
+
+    private static final class OrderEvent extends OrderBaseEvent implements OrderInterface {
+    }
+
+    private interface InterfaceEvent {
+    }
+
+    private static final class InterfaceEventImpl implements InterfaceEvent {
+    }
+
+    private static final class UnrelatedEvent {
+    }
+
+    private interface InvalidationInterface {
+    }
+
+    private static final class InvalidationEvent implements InvalidationInterface {
+    }
+
+    private static final class DuplicateEvent {
+    }
+
+    private static final class CrowdedEvent {
+    }
+
+    private static final class AsyncEvent {
+    }
+}
@@ -0,0 +1,115 @@
+package org.nocturne.main;
+
+import freemarker.cache.StringTemplateLoader;
+import freemarker.template.Configuration;
+import junit.framework.TestCase;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_CLOSE_PREFIX;
+import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_OPEN_PREFIX;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class FrameDirectiveTest extends TestCase {
+    private static final int THREAD_COUNT = 4;
+    private static final int FRAME_COUNT = 2 * THREAD_COUNT;
+
+    /**
+     * Frames start rendering at the same time to make the concurrent access to the unique keys likely.
+     */
+    private static final CyclicBarrier BARRIER = new CyclicBarrier(THREAD_COUNT);
+    private static final String SHARED_BLOCK = "<script>shared()</script>";
+
+    private int frameRenderingThreadCount;
+
+    @Override
+    protected void setUp() {
+        frameRenderingThreadCount = ApplicationContext.getInstance().getFrameRenderingThreadCount();
+        ApplicationContext.getInstance().setFrameRenderingThreadCount(THREAD_COUNT);
+    }
+
+    @Override
+    protected void tearDown() {
+        ApplicationContext.getInstance().setFrameRenderingThreadCount(frameRenderingThreadCount);
+        FrameRenderingExecutor.shutdown();
+        ApplicationContext.getInstance().setCurrentComponent(null);
+        ApplicationContext.getInstance().unsetRequestAndResponse();
+    }
+
+    public void testUniqueBlockOfAsyncFrames() {
+        StringTemplateLoader templateLoader = new StringTemplateLoader();
+        templateLoader.putTemplate("OuterFrame.ftl", "[<@frame name=\"inner\"/>]");
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_30);
+        configuration.setTemplateLoader(templateLoader);
+
+        for (int iteration = 0; iteration < 200; ++iteration) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            ApplicationContextHelper.setRequestAndResponse(request, response);
+            ApplicationContext.getInstance().setRequestAction("");
+
+            TestPage page = new TestPage();
+            page.setRequest(request);
+            page.setResponse(response);
+            page.setTemplateEngineConfiguration(configuration);
+            page.prepareForAction();
+
+            try {
+                for (int i = 0; i < FRAME_COUNT; ++i) {
+                    page.parseAsync("outer" + i, new OuterFrame());
+                }
+                page.awaitAsyncFrames();
+
+                int sharedBlockCount = 0;
+                for (int i = 0; i < FRAME_COUNT; ++i) {
+                    String html = page.getFrameHtml("outer" + i);
+                    if (html.equals('[' + SHARED_BLOCK + "\n]")) {
+                        ++sharedBlockCount;
+                    } else {
+                        assertEquals("[]", html);
+                    }
+                }
+                assertEquals(1, sharedBlockCount);
+            } finally {
+                page.finalizeAfterAction();
+            }
+        }
+    }
+
+    public void testProcessComponentUniques() {
+        FrameDirective frameDirective = new FrameDirective();
+        String block = UNIQUE_MAGIC_OPEN_PREFIX + "key>\n" + SHARED_BLOCK + '\n' + UNIQUE_MAGIC_CLOSE_PREFIX + "key>\n";
+
+        assertEquals("a" + SHARED_BLOCK + "\nb",
+                frameDirective.processComponentUniques(new StringBuilder("a" + block + "b")));
+        assertEquals("ab", frameDirective.processComponentUniques(new StringBuilder("a" + block + "b")));
+    }
+
+    public static class TestPage extends Page {
+        @Override
+        public void action() {
+            // No operations.
+        }
+    }
+
+    public static class OuterFrame extends Frame {
+        @Override
+        public void action() {
+            try {
+                BARRIER.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                throw new IllegalStateException("Frames are not rendered concurrently.", e);
+            }
+
+            setFrameBody("inner", UNIQUE_MAGIC_OPEN_PREFIX + "shared>\n" + SHARED_BLOCK + '\n'
+                    + UNIQUE_MAGIC_CLOSE_PREFIX + "shared>\n");
+        }
+    }
+}
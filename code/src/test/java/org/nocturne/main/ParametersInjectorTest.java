@@ -0,0 +1,273 @@
+package org.nocturne.main;
+
+import junit.framework.TestCase;
+import net.sf.cglib.reflect.FastClass;
+import net.sf.cglib.reflect.FastMethod;
+import org.nocturne.annotation.Parameter;
+import org.nocturne.exception.ConfigurationException;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.Arrays;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class ParametersInjectorTest extends TestCase {
+    @Override
+    protected void tearDown() {
+        ApplicationContext.getInstance().unsetRequestAndResponse();
+    }
+
+    public void testInjectFields() {
+        MockHttpServletRequest request = newRequest();
+        request.setParameter("flag", "on");
+        request.setParameter("letter", "xyz");
+        request.setParameter("smallNumber", "-128");
+        request.setParameter("shortNumber", "32767");
+        request.setParameter("number", "42");
+        request.setParameter("longNumber", "-9223372036854775808");
+        request.setParameter("ratio", "0.5");
+        request.setParameter("precise", "-12.25");
+        request.setParameter("boxed", "7");
+        request.setParameter("handle", "tourist");
+        request.setParameter("text", " <b>'bold'</b> ");
+        request.setParameter("raw", "a<b>");
+        request.setParameter("color", "green");
+        request.setParameter("ids", "1", "x", "3");
+        request.setParameter("parent", "p");
+        request.setParameter("other-name", "renamed");
+
+        Target target = new Target();
+        inject(target, request);
+
+        assertTrue(target.flag);
+        assertEquals('x', target.letter);
+        assertEquals(Byte.MIN_VALUE, target.smallNumber);
+        assertEquals(Short.MAX_VALUE, target.shortNumber);
+        assertEquals(42, target.number);
+        assertEquals(Long.MIN_VALUE, target.longNumber);
+        assertEquals(0.5F, target.ratio);
+        assertEquals(-12.25D, target.precise);
+        assertEquals(Integer.valueOf(7), target.boxed);
+        assertEquals("tourist", target.handle);
+        assertEquals("bboldb", target.text);
+        assertEquals("a<b>", target.raw);
+        assertEquals(Color.GREEN, target.color);
+        assertTrue(Arrays.equals(new int[]{1, 0, 3}, target.ids));
+        assertEquals("p", target.parent);
+        assertEquals("renamed", target.renamed);
+    }
+
+    public void testMissingAndInvalidValues() {
+        MockHttpServletRequest request = newRequest();
+        request.setParameter("flag", "no");
+        request.setParameter("smallNumber", "128");
+        request.setParameter("number", "007");
+        request.setParameter("longNumber", "9223372036854775808");
+        request.setParameter("ratio", "1e3");
+        request.setParameter("precise", "-0.5");
+        request.setParameter("boxed", "-0");
+        request.setParameter("color", "purple");
+
+        Target target = new Target();
+        target.handle = "previous";
+        inject(target, request);
+
+        assertFalse(target.flag);
+        assertEquals(0, target.letter);
+        assertEquals(0, target.smallNumber);
+        assertEquals(0, target.shortNumber);
+        assertEquals(0, target.number);
+        assertEquals(0L, target.longNumber);
+        assertEquals(0.0F, target.ratio);
+        assertEquals(0.0D, target.precise);
+        assertEquals(Integer.valueOf(0), target.boxed);
+        assertNull(target.handle);
+        assertNull(target.color);
+        assertEquals(0, target.ids.length);
+    }
+
+    public void testInjectionPlanIsSharedByInstances() {
+        MockHttpServletRequest request = newRequest();
+        request.setParameter("number", "1");
+        Target first = new Target();
+        inject(first, request);
+        assertEquals(1, first.number);
+
+        request = newRequest();
+        request.setParameter("number", "2");
+        Target second = new Target();
+        inject(second, request);
+        assertEquals(1, first.number);
+        assertEquals(2, second.number);
+
+        request = newRequest();
+        request.setParameter("number", "3");
+        inject(first, request);
+        assertEquals(3, first.number);
+        assertEquals(2, second.number);
+    }
+
+    public void testSetupParameters() throws NoSuchMethodException {
+        MockHttpServletRequest request = newRequest();
+        request.setParameter("id", "15");
+        request.setParameter("tags", "a b", "c");
+        request.setParameter("title", " Title ");
+        ApplicationContextHelper.setRequestAndResponse(request, new MockHttpServletResponse());
+
+        FastMethod method = getFastMethod("onView", int.class, String[].class, String.class, Color.class);
+        ParametersInjector injector = new ParametersInjector(new Actions());
+
+        for (int i = 0; i < 2; ++i) {
+            Object[] values = injector.setupParameters(request, method);
+
+            assertEquals(4, values.length);
+            assertEquals(15, values[0]);
+            assertTrue(Arrays.equals(new String[]{"ab", "c"}, (String[]) values[1]));
+            assertEquals("Title", values[2]);
+            assertNull(values[3]);
+        }
+    }
+
+    public void testSetupParametersWithoutAnnotation() throws NoSuchMethodException {
+        FastMethod method = getFastMethod("onEdit", int.class);
+
+        try {
+            MockHttpServletRequest request = newRequest();
+            ApplicationContextHelper.setRequestAndResponse(request, new MockHttpServletResponse());
+            new ParametersInjector(new Actions()).setupParameters(request, method);
+            fail("ConfigurationException expected.");
+        } catch (ConfigurationException ignored) {
+            // No operations.
+        }
+    }
+
+    public void testParseIntegral() {
+        assertEquals(0L, parseInt(null));
+        assertEquals(0L, parseInt(""));
+        assertEquals(0L, parseInt("-"));
+        assertEquals(0L, parseInt("+1"));
+        assertEquals(0L, parseInt("1 "));
+        assertEquals(123L, parseInt("123"));
+        assertEquals(-123L, parseInt("-123"));
+        assertEquals(2147483647L, parseInt("2147483647"));
+        assertEquals(0L, parseInt("2147483648"));
+        assertEquals(-2147483648L, parseInt("-2147483648"));
+        assertEquals(0L, parseInt("-2147483649"));
+        assertEquals(Long.MAX_VALUE, parseLong("9223372036854775807"));
+        assertEquals(0L, parseLong("92233720368547758070"));
+    }
+
+    public void testIsRealValue() {
+        assertTrue(ParametersInjector.isRealValue("0"));
+        assertTrue(ParametersInjector.isRealValue("0.25"));
+        assertTrue(ParametersInjector.isRealValue("-3.5"));
+        assertTrue(ParametersInjector.isRealValue("10"));
+        assertFalse(ParametersInjector.isRealValue(null));
+        assertFalse(ParametersInjector.isRealValue(""));
+        assertFalse(ParametersInjector.isRealValue("-0"));
+        assertFalse(ParametersInjector.isRealValue("01"));
+        assertFalse(ParametersInjector.isRealValue("1."));
+        assertFalse(ParametersInjector.isRealValue(".5"));
+        assertFalse(ParametersInjector.isRealValue("1e3"));
+        assertFalse(ParametersInjector.isRealValue("NaN"));
+    }
+
+    private static long parseInt(String value) {
+        return ParametersInjector.parseIntegral(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    private static long parseLong(String value) {
+        return ParametersInjector.parseIntegral(value, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private static MockHttpServletRequest newRequest() {
+        return new MockHttpServletRequest("GET", "/");
+    }
+
+    /**
+     * Request parameters are parsed once, so the context is set up after they are added.
+     */
+    private static void inject(Object target, MockHttpServletRequest request) {
+        ApplicationContextHelper.setRequestAndResponse(request, new MockHttpServletResponse());
+        new ParametersInjector(target).inject(request);
+    }
+
+    private static FastMethod getFastMethod(String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        return FastClass.create(Actions.class).getMethod(Actions.class.getMethod(name, parameterTypes));
+    }
+
+    @SuppressWarnings("unused")
+    public enum Color {
+        RED, GREEN
+    }
+
+    @SuppressWarnings("unused")
+    public static class ParentTarget {
+        @Parameter
+        String parent;
+    }
+
+    @SuppressWarnings("unused")
+    public static class Target extends ParentTarget {
+        @Parameter
+        private boolean flag;
+
+        @Parameter
+        private char letter;
+
+        @Parameter
+        private byte smallNumber;
+
+        @Parameter
+        private short shortNumber;
+
+        @Parameter
+        private int number;
+
+        @Parameter
+        private long longNumber;
+
+        @Parameter
+        private float ratio;
+
+        @Parameter
+        private double precise;
+
+        @Parameter
+        private Integer boxed;
+
+        @Parameter
+        private String handle;
+
+        @Parameter(stripMode = Parameter.StripMode.SAFE)
+        private String text;
+
+        @Parameter(stripMode = Parameter.StripMode.NONE)
+        private String raw;
+
+        @Parameter
+        private Color color;
+
+        @Parameter
+        private int[] ids;
+
+        @Parameter(name = "other-name")
+        private String renamed;
+    }
+
+    @SuppressWarnings("unused")
+    public static class Actions {
+        public void onView(@Parameter(name = "id") int id,
+                           @Parameter(name = "tags") String[] tags,
+                           @Parameter(name = "title", stripMode = Parameter.StripMode.SAFE) String title,
+                           @Parameter(name = "color") Color color) {
+            // No operations.
+        }
+
+        public void onEdit(int id) {
+            // No operations.
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.nocturne.main;
+
+import junit.framework.TestCase;
+import org.nocturne.util.Utf8OutputStreamWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_CLOSE_PREFIX;
+import static org.nocturne.template.impl.ComponentTemplatePreprocessor.UNIQUE_MAGIC_OPEN_PREFIX;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class UniqueBlocksFilterWriterTest extends TestCase {
+    private static final String[] KEYS = {"a", "b", "components/Box.ftl"};
+
+    private static final String[] TEXT_PIECES = {
+            "<", ">", "<!", "<!-", "<!--", "<!-- comment -->", "<div>", "</div>", "\n", " ", "text",
+            "\u0436", "\u20ac", "\ud83d\ude00",
+            UNIQUE_MAGIC_OPEN_PREFIX.substring(0, 10), UNIQUE_MAGIC_CLOSE_PREFIX.substring(0, 12),
+            UNIQUE_MAGIC_OPEN_PREFIX.substring(0, UNIQUE_MAGIC_OPEN_PREFIX.length() - 1),
+            UNIQUE_MAGIC_CLOSE_PREFIX.substring(0, UNIQUE_MAGIC_CLOSE_PREFIX.length() - 1)
+    };
+
+    public void testSimple() throws IOException {
+        String block = UNIQUE_MAGIC_OPEN_PREFIX + "k>\n<b>x</b>\n" + UNIQUE_MAGIC_CLOSE_PREFIX + "k>\n";
+        assertEquals("[<b>x</b>\n][]", filter("[" + block + "][" + block + "]", new HashSet<>(), new Random(1)));
+    }
+
+    public void testAgainstProcessComponentUniques() throws IOException {
+        Random random = new Random(20091017L);
+
+        for (int iteration = 0; iteration < 2000; ++iteration) {
+            String text = randomText(random, "-" + iteration);
+
+            String expected = new FrameDirective().processComponentUniques(new StringBuilder(text));
+            String actual = filter(text, new HashSet<>(), random);
+            assertEquals(text, expected, actual);
+        }
+    }
+
+    public void testAgainstProcessComponentUniquesThroughUtf8Writer() throws IOException {
+        Random random = new Random(17L);
+
+        for (int iteration = 0; iteration < 500; ++iteration) {
+            String text = randomText(random, "-" + iteration);
+            // Marker is removed with the char after it, which can leave a lone surrogate, so bytes are compared.
+            byte[] expected = new FrameDirective().processComponentUniques(new StringBuilder(text))
+                    .getBytes(StandardCharsets.UTF_8);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            Utf8OutputStreamWriter utf8Writer = new Utf8OutputStreamWriter(outputStream);
+            Writer writer = new FrameDirective().newUniqueBlocksFilterWriter(utf8Writer);
+            write(writer, text, random);
+            writer.close();
+            utf8Writer.close();
+
+            assertTrue(text, Arrays.equals(expected, outputStream.toByteArray()));
+        }
+    }
+
+    public void testFlushIsNotPassedThrough() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        FlushCountingWriter countingWriter = new FlushCountingWriter(stringWriter);
+        Writer writer = new UniqueBlocksFilterWriter(countingWriter, new HashSet<>());
+
+        for (int i = 0; i < 10; ++i) {
+            writer.write("<p>frame " + i + "</p>");
+            writer.flush();
+        }
+        assertEquals(0, countingWriter.flushCount);
+
+        writer.close();
+        assertEquals(1, countingWriter.flushCount);
+        assertTrue(stringWriter.toString().endsWith("<p>frame 9</p>"));
+    }
+
+    public void testPendingIsWrittenOnClose() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        Writer writer = new UniqueBlocksFilterWriter(stringWriter, new HashSet<>());
+
+        writer.write("x" + UNIQUE_MAGIC_OPEN_PREFIX.substring(0, 8));
+        writer.flush();
+        assertEquals("x", stringWriter.toString());
+
+        writer.close();
+        assertEquals("x" + UNIQUE_MAGIC_OPEN_PREFIX.substring(0, 8), stringWriter.toString());
+    }
+
+    /**
+     * @return Text of plain pieces and well-formed unique blocks (as {@link
+     * org.nocturne.template.impl.ComponentTemplatePreprocessor} writes them), blocks are not nested.
+     */
+    private static String randomText(Random random, String keySuffix) {
+        StringBuilder result = new StringBuilder();
+        int blockCount = random.nextInt(6);
+
+        for (int i = 0; i <= blockCount; ++i) {
+            appendRandomPieces(result, random);
+            if (i < blockCount) {
+                String key = KEYS[random.nextInt(KEYS.length)] + keySuffix;
+                result.append(UNIQUE_MAGIC_OPEN_PREFIX).append(key).append('>').append(randomFollower(random));
+                appendRandomPieces(result, random);
+                result.append(UNIQUE_MAGIC_CLOSE_PREFIX).append(key).append('>');
+                if (i + 1 < blockCount || random.nextBoolean()) {
+                    result.append(randomFollower(random));
+                }
+            }
+        }
+
+        return result.toString();
+    }
+
+    private static void appendRandomPieces(StringBuilder result, Random random) {
+        int count = random.nextInt(8);
+        for (int i = 0; i < count; ++i) {
+            result.append(TEXT_PIECES[random.nextInt(TEXT_PIECES.length)]);
+        }
+    }
+
+    private static char randomFollower(Random random) {
+        return random.nextInt(4) == 0 ? 'z' : '\n';
+    }
+
+    private static String filter(String text, Set<String> renderedKeys, Random random) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        Writer writer = new UniqueBlocksFilterWriter(stringWriter, renderedKeys);
+        write(writer, text, random);
+        writer.close();
+        return stringWriter.toString();
+    }
+
+    /**
+     * Writes the text in random chunks using all the write methods.
+     */
+    private static void write(Writer writer, String text, Random random) throws IOException {
+        int position = 0;
+        while (position < text.length()) {
+            int length = Math.min(text.length() - position, 1 + random.nextInt(16));
+            switch (random.nextInt(4)) {
+                case 0:
+                    writer.write(text.charAt(position));
+                    length = 1;
+                    break;
+                case 1:
+                    char[] chars = ("##" + text.substring(position, position + length) + "#").toCharArray();
+                    writer.write(chars, 2, length);
+                    break;
+                case 2:
+                    writer.write("#" + text.substring(position, position + length) + "##", 1, length);
+                    break;
+                default:
+                    writer.write(text.substring(position, position + length));
+                    break;
+            }
+            position += length;
+            if (random.nextInt(8) == 0) {
+                writer.flush();
+            }
+        }
+    }
+
+    private static final class FlushCountingWriter extends FilterWriter {
+        private int flushCount;
+
+        private FlushCountingWriter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ++flushCount;
+            super.flush();
+        }
+    }
+}
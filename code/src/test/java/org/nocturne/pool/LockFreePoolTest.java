@@ -0,0 +1,182 @@
+package org.nocturne.pool;
+
+import junit.framework.TestCase;
+import org.nocturne.main.ApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class LockFreePoolTest extends TestCase {
+    public void testGetAndRelease() {
+        TestPool pool = new TestPool(3, 16, 0);
+
+        Item first = pool.getInstance();
+        assertEquals(3, pool.getCreatedCount());
+
+        Item second = pool.getInstance();
+        Item third = pool.getInstance();
+        assertEquals(3, pool.getCreatedCount());
+        assertEquals(3, new HashSet<>(listOf(first, second, third)).size());
+
+        // The pool is empty, the next acquire increment is created.
+        pool.getInstance();
+        pool.getInstance();
+        pool.getInstance();
+        assertEquals(6, pool.getCreatedCount());
+
+        pool.release(first);
+        assertSame(first, pool.getInstance());
+        assertEquals(6, pool.getCreatedCount());
+        assertTrue(pool.finalized.isEmpty());
+    }
+
+    public void testDefaultCapacity() {
+        TestPool pool = new TestPool(3, -1, 0);
+        assertEquals(ApplicationContext.getInstance().getPoolCapacity(), pool.getCapacity());
+        assertTrue(pool.getCapacity() >= 200);
+    }
+
+    public void testOverflow() {
+        TestPool pool = new TestPool(1, 2, 0);
+
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            items.add(pool.getInstance());
+        }
+        assertEquals(5, pool.getCreatedCount());
+
+        for (Item item : items) {
+            pool.release(item);
+        }
+
+        assertEquals(3, pool.finalized.size());
+        assertEquals(3, pool.getOverflowCount());
+
+        Set<Item> pooled = new HashSet<>(listOf(pool.getInstance(), pool.getInstance()));
+        assertEquals(5, pool.getCreatedCount());
+        for (Item item : pooled) {
+            assertFalse(pool.finalized.contains(item));
+        }
+    }
+
+    public void testIdleEviction() throws InterruptedException {
+        TestPool pool = new TestPool(1, 16, 20);
+
+        Item idle = pool.getInstance();
+        Item active = pool.getInstance();
+        pool.release(idle);
+
+        Thread.sleep(100);
+        pool.release(active);
+
+        assertEquals(Collections.singletonList(idle), pool.finalized);
+        assertSame(active, pool.getInstance());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    public void testClose() {
+        TestPool pool = new TestPool(3, 16, 0);
+
+        Item item = pool.getInstance();
+        pool.release(item);
+        pool.close();
+
+        assertEquals(3, pool.finalized.size());
+        assertTrue(pool.finalized.contains(item));
+
+        assertNotSame(item, pool.getInstance());
+        assertEquals(6, pool.getCreatedCount());
+    }
+
+    public void testConcurrentGetAndRelease() throws Exception {
+        int threadCount = 8;
+        TestPool pool = new TestPool(2, 2 * threadCount, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; ++i) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10000; ++j) {
+                        Item item = pool.getInstance();
+                        if (item.inUse.getAndIncrement() != 0) {
+                            throw new IllegalStateException("Instance is used by two threads.");
+                        }
+                        item.inUse.decrementAndGet();
+                        pool.release(item);
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(pool.getCreatedCount() <= 2 * threadCount + pool.getOverflowCount());
+    }
+
+    private static List<Item> listOf(Item... items) {
+        List<Item> result = new ArrayList<>();
+        Collections.addAll(result, items);
+        return result;
+    }
+
+    private static final class Item {
+        private final AtomicInteger inUse = new AtomicInteger();
+    }
+
+    private static final class TestPool extends LockFreePool<Item> {
+        private final int acquireIncrement;
+        private final int capacity;
+        private final long idleTimeoutMillis;
+        private final List<Item> finalized = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * @param capacity Pool capacity or {@code -1} to use the default one.
+         */
+        private TestPool(int acquireIncrement, int capacity, long idleTimeoutMillis) {
+            this.acquireIncrement = acquireIncrement;
+            this.capacity = capacity;
+            this.idleTimeoutMillis = idleTimeoutMillis;
+        }
+
+        @Override
+        protected Item newInstance() {
+            return new Item();
+        }
+
+        @Override
+        protected int getAcquireIncrement() {
+            return acquireIncrement;
+        }
+
+        @Override
+        protected int getCapacity() {
+            return capacity < 0 ? super.getCapacity() : capacity;
+        }
+
+        @Override
+        protected long getIdleTimeoutMillis() {
+            return idleTimeoutMillis;
+        }
+
+        @Override
+        protected void finalizeInstance(Item item) {
+            finalized.add(item);
+        }
+    }
+}
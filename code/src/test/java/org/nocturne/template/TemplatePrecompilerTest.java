@@ -0,0 +1,125 @@
+package org.nocturne.template;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class TemplatePrecompilerTest extends TestCase {
+    private static final String COMPONENT_TEMPLATE = "<template>\n"
+            + "<div class=\"box\">${name}</div>\n"
+            + "</template>\n"
+            + "<script>\n"
+            + "var box = 1;\n"
+            + "</script>\n"
+            + "<style>\n"
+            + ".box {color: red;}\n"
+            + "</style>\n";
+
+    private static final String FTL_HEADER = "<#ftl encoding=\"UTF-8\" strip_whitespace=true>";
+
+    private static final String HEADER_TEMPLATE = FTL_HEADER + "\n<p>${name}</p>\n";
+
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("nocturne-precompiler");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+        super.tearDown();
+    }
+
+    public void testIsPrecompiled() {
+        String marker = TemplatePrecompiler.PRECOMPILED_MARKER;
+
+        assertTrue(TemplatePrecompiler.isPrecompiled(marker + "<p></p>"));
+        assertTrue(TemplatePrecompiler.isPrecompiled(FTL_HEADER + marker + "<p></p>"));
+        assertTrue(TemplatePrecompiler.isPrecompiled("\n  " + FTL_HEADER + marker));
+        assertTrue(TemplatePrecompiler.isPrecompiled("[#ftl]" + marker));
+        assertTrue(TemplatePrecompiler.isPrecompiled("<#ftl attributes={\"a\": \">\"}>" + marker));
+
+        assertFalse(TemplatePrecompiler.isPrecompiled(""));
+        assertFalse(TemplatePrecompiler.isPrecompiled("<p></p>" + marker));
+        assertFalse(TemplatePrecompiler.isPrecompiled(FTL_HEADER + "\n" + marker));
+        assertFalse(TemplatePrecompiler.isPrecompiled("<p></p>" + FTL_HEADER + marker));
+        assertFalse(TemplatePrecompiler.isPrecompiled("<#ftlx>" + marker));
+        assertFalse(TemplatePrecompiler.isPrecompiled(FTL_HEADER));
+    }
+
+    public void testPrecompileAndLoad() throws IOException, TemplateException {
+        File templatesDir = Files.createDirectories(directory.resolve("templates")).toFile();
+        File outputDir = directory.resolve("output").toFile();
+
+        write(new File(templatesDir, "components/BoxComponent.ftl"), COMPONENT_TEMPLATE);
+        write(new File(templatesDir, "Header.ftl"), HEADER_TEMPLATE);
+
+        assertEquals(2, TemplatePrecompiler.precompile(templatesDir, outputDir, null));
+
+        String component = read(new File(outputDir, "components/BoxComponent.ftl"));
+        assertTrue(component, component.startsWith(TemplatePrecompiler.PRECOMPILED_MARKER));
+        assertTrue(component, TemplatePrecompiler.isPrecompiled(component));
+        assertFalse(component, component.contains("<template>"));
+
+        String header = read(new File(outputDir, "Header.ftl"));
+        assertEquals(FTL_HEADER + TemplatePrecompiler.PRECOMPILED_MARKER + "\n<p>${name}</p>\n", header);
+        assertTrue(TemplatePrecompiler.isPrecompiled(header));
+
+        // Precompiling the output again doesn't change it.
+        File secondOutputDir = directory.resolve("second").toFile();
+        assertEquals(2, TemplatePrecompiler.precompile(outputDir, secondOutputDir, null));
+        assertEquals(component, read(new File(secondOutputDir, "components/BoxComponent.ftl")));
+        assertEquals(header, read(new File(secondOutputDir, "Header.ftl")));
+
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_30);
+        configuration.setTemplateLoader(new FileTemplateLoader(outputDir));
+        configuration.setDefaultEncoding("UTF-8");
+
+        Map<String, Object> model = new HashMap<>();
+        model.put("name", "nocturne");
+
+        String componentHtml = process(configuration.getTemplate("components/BoxComponent.ftl"), model);
+        assertTrue(componentHtml, componentHtml.contains(">nocturne</div>"));
+        assertFalse(componentHtml, componentHtml.contains("nocturne:precompiled"));
+
+        String headerHtml = process(configuration.getTemplate("Header.ftl"), model);
+        assertEquals("<p>nocturne</p>\n", headerHtml);
+    }
+
+    private static String process(Template template, Map<String, Object> model)
+            throws IOException, TemplateException {
+        StringWriter writer = new StringWriter();
+        template.process(model, writer);
+        return writer.toString();
+    }
+
+    private static void write(File file, String text) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
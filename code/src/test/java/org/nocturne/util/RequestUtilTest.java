@@ -0,0 +1,108 @@
+package org.nocturne.util;
+
+import junit.framework.TestCase;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class RequestUtilTest extends TestCase {
+    private static final String BOUNDARY = "nocturne-test-boundary";
+    private static final int SIZE_THRESHOLD = 1024;
+
+    private File tempDir;
+    private String originalTempDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        // Uploads are stored in java.io.tmpdir, use the empty one to see what is left.
+        tempDir = Files.createTempDirectory("nocturne-request-util-test").toFile();
+        originalTempDir = System.getProperty("java.io.tmpdir");
+        System.setProperty("java.io.tmpdir", tempDir.getAbsolutePath());
+
+        RequestUtil.setupUploads(SIZE_THRESHOLD, -1, -1, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        System.setProperty("java.io.tmpdir", originalTempDir);
+        RequestUtil.setupUploads(SIZE_THRESHOLD, -1, -1, false);
+
+        File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(tempDir.toPath());
+    }
+
+    public void testLargeFormFieldLeavesNoTemporaryFiles() throws IOException {
+        char[] chars = new char[4 * SIZE_THRESHOLD];
+        Arrays.fill(chars, 'a');
+        String largeValue = new String(chars);
+
+        MockHttpServletRequest request = newMultipartRequest(
+                formField("small", "value") + formField("large", largeValue) + fileField("file", "a.txt", largeValue)
+        );
+
+        Map<String, List<String>> parameters = RequestUtil.getRequestParams(request);
+        assertEquals(Collections.singletonList("value"), parameters.get("small"));
+        assertEquals(Collections.singletonList(largeValue), parameters.get("large"));
+        assertNull(parameters.get("file"));
+
+        UploadedFile file = RequestUtil.getUploadedFile(request, "file");
+        assertNotNull(file);
+        assertEquals(1, listTempFiles().length);
+
+        RequestUtil.deleteUploadedFiles(request);
+        assertEquals(0, listTempFiles().length);
+    }
+
+    public void testSmallFormFieldsAreKeptInMemory() throws IOException {
+        MockHttpServletRequest request = newMultipartRequest(formField("a", "1") + formField("a", "2"));
+
+        assertEquals(Arrays.asList("1", "2"), RequestUtil.getRequestParams(request).get("a"));
+        assertTrue(RequestUtil.getUploadedFiles(request).isEmpty());
+        assertEquals(0, listTempFiles().length);
+    }
+
+    private File[] listTempFiles() {
+        File[] files = tempDir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private static MockHttpServletRequest newMultipartRequest(String parts) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(parts.getBytes(StandardCharsets.UTF_8));
+        content.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/upload");
+        request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+        request.setContent(content.toByteArray());
+        return request;
+    }
+
+    private static String formField(String name, String value) {
+        return "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n"
+                + value + "\r\n";
+    }
+
+    private static String fileField(String name, String fileName, String value) {
+        return "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + value + "\r\n";
+    }
+}
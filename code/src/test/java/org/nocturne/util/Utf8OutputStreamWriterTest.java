@@ -0,0 +1,136 @@
+package org.nocturne.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Mike Mirzayanov
+ */
+public class Utf8OutputStreamWriterTest extends TestCase {
+    private static final String[] PIECES = {
+            "a", "<", ">", "\n", "<!--unique:f0d9672b1fc78bcf:key>", "<!--/unique:f0d9672b1fc78bcf:key>",
+            "\u00e9", "\u0436", "\u07ff", "\u0800", "\u20ac", "\uffff",
+            "\ud83d\ude00", "\udbff\udfff", "\ud800\udc00",
+            "\ud83d", "\ude00", "\ude00\ud83d"
+    };
+
+    public void testSurrogatePairSplitBetweenWrites() throws IOException {
+        String smile = "\ud83d\ude00";
+
+        assertEquals(smile, encode(writer -> {
+            writer.write(smile.charAt(0));
+            writer.write(smile.charAt(1));
+        }));
+        assertEquals(smile, encode(writer -> {
+            writer.write("x" + smile.charAt(0), 1, 1);
+            writer.write(new char[]{smile.charAt(1)}, 0, 1);
+        }));
+    }
+
+    public void testLoneSurrogates() throws IOException {
+        String[] texts = {"\ud83d", "\ude00", "a\ud83db", "a\ude00b", "\ud83d\ud83d\ude00", "\ude00\ud83d"};
+        for (String text : texts) {
+            assertEquals(text, new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8),
+                    encode(writer -> writer.write(text)));
+        }
+    }
+
+    public void testAgainstGetBytes() throws IOException {
+        Random random = new Random(20091017L);
+
+        for (int iteration = 0; iteration < 2000; ++iteration) {
+            StringBuilder text = new StringBuilder();
+            int count = random.nextInt(iteration % 100 == 0 ? 5000 : 50);
+            for (int i = 0; i < count; ++i) {
+                text.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            Writer writer = new Utf8OutputStreamWriter(outputStream);
+            write(writer, text.toString(), random);
+            writer.close();
+
+            assertTrue(text.toString(), Arrays.equals(
+                    text.toString().getBytes(StandardCharsets.UTF_8), outputStream.toByteArray()));
+        }
+    }
+
+    public void testBufferBoundary() throws IOException {
+        for (int prefix = 8185; prefix <= 8192; ++prefix) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < prefix; ++i) {
+                text.append('a');
+            }
+            text.append("\u0436\u20ac\ud83d\ude00\u0436");
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            Writer writer = new Utf8OutputStreamWriter(outputStream);
+            writer.write(text.toString());
+            writer.close();
+
+            assertTrue(Arrays.equals(text.toString().getBytes(StandardCharsets.UTF_8),
+                    outputStream.toByteArray()));
+        }
+    }
+
+    public void testClose() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Writer writer = new Utf8OutputStreamWriter(outputStream);
+        writer.write("abc");
+        writer.close();
+        writer.close();
+
+        assertEquals("abc", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+
+        try {
+            writer.write('d');
+            fail("Expected IOException on write after close.");
+        } catch (IOException ignored) {
+            // No operations.
+        }
+    }
+
+    private static String encode(WriteAction action) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Writer writer = new Utf8OutputStreamWriter(outputStream);
+        action.write(writer);
+        writer.close();
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the text in random chunks using all the write methods.
+     */
+    private static void write(Writer writer, String text, Random random) throws IOException {
+        int position = 0;
+        while (position < text.length()) {
+            int length = Math.min(text.length() - position, 1 + random.nextInt(64));
+            switch (random.nextInt(3)) {
+                case 0:
+                    writer.write(text.charAt(position));
+                    length = 1;
+                    break;
+                case 1:
+                    writer.write(text.toCharArray(), position, length);
+                    break;
+                default:
+                    writer.write(text, position, length);
+                    break;
+            }
+            position += length;
+            if (random.nextInt(16) == 0) {
+                writer.flush();
+            }
+        }
+    }
+
+    private interface WriteAction {
+        void write(Writer writer) throws IOException;
+    }
+}